@@ -0,0 +1,81 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Inputs shared by the benchmarks, so v1 and v2 work on identical data.
+ */
+final class Fixtures
+{
+    static final String QUEUE_URL = "https://sqs.us-east-1.amazonaws.com/123456789012/benchmark-queue";
+    static final String ENDPOINT = "https://sqs.us-east-1.amazonaws.com";
+    static final int BATCH_SIZE = 10;
+
+    private Fixtures()
+    {
+    }
+
+    static String body(int bytes)
+    {
+        char[] chars = new char[bytes];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+
+    static String[] receiptHandles()
+    {
+        String[] handles = new String[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            // Real receipt handles are opaque base64 strings of a few hundred characters.
+            handles[i] = "AQEB" + body(300).replace('x', (char) ('A' + i));
+        }
+        return handles;
+    }
+
+    /**
+     * Query-protocol XML for a full ReceiveMessage response, as the service returns it.
+     */
+    static byte[] receiveResponse(int bodyBytes)
+    {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\"?>")
+           .append("<ReceiveMessageResponse xmlns=\"http://queue.amazonaws.com/doc/2012-11-05/\">")
+           .append("<ReceiveMessageResult>");
+        String body = body(bodyBytes);
+        String[] handles = receiptHandles();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            xml.append("<Message>")
+               .append("<MessageId>5fea7756-0ea4-451a-a703-a558b933e27").append(i).append("</MessageId>")
+               .append("<ReceiptHandle>").append(handles[i]).append("</ReceiptHandle>")
+               .append("<MD5OfBody>fafb00f5732ab283681e124bf8747ed1</MD5OfBody>")
+               .append("<Body>").append(body).append("</Body>")
+               .append("<Attribute><Name>SenderId</Name><Value>195004372649</Value></Attribute>")
+               .append("<Attribute><Name>SentTimestamp</Name><Value>1238099229000</Value></Attribute>")
+               .append("<Attribute><Name>ApproximateReceiveCount</Name><Value>5</Value></Attribute>")
+               .append("<MessageAttribute><Name>trace-id</Name><Value>")
+               .append("<StringValue>Root=1-5759e988-bd862e3fe1be46a994272793</StringValue>")
+               .append("<DataType>String</DataType></Value></MessageAttribute>")
+               .append("</Message>");
+        }
+        xml.append("</ReceiveMessageResult>")
+           .append("<ResponseMetadata><RequestId>b6633655-283d-45b4-aee4-4e84e0ae6afa</RequestId></ResponseMetadata>")
+           .append("</ReceiveMessageResponse>");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
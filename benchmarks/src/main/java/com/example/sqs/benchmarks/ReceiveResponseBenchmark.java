@@ -0,0 +1,86 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLInputFactory;
+
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.transform.ReceiveMessageResultStaxUnmarshaller;
+import com.amazonaws.transform.StaxUnmarshallerContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.core.http.HttpResponseHandler;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.http.SdkHttpFullResponse;
+import software.amazon.awssdk.protocols.query.AwsQueryProtocolFactory;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+
+/**
+ * Parsing a full ReceiveMessage response of ten messages with attributes, starting from the raw XML bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReceiveResponseBenchmark
+{
+    @Param({"256", "4096"})
+    public int bodyBytes;
+
+    private byte[] response;
+    private XMLInputFactory xmlInputFactory;
+    private HttpResponseHandler<ReceiveMessageResponse> v2Handler;
+    private final ExecutionAttributes executionAttributes = new ExecutionAttributes();
+
+    @Setup
+    public void setUp()
+    {
+        response = Fixtures.receiveResponse(bodyBytes);
+        xmlInputFactory = XMLInputFactory.newInstance();
+        v2Handler = AwsQueryProtocolFactory.builder().build().createResponseHandler(ReceiveMessageResponse::builder);
+    }
+
+    @Benchmark
+    public ReceiveMessageResult parseV1() throws Exception
+    {
+        StaxUnmarshallerContext context = new StaxUnmarshallerContext(
+                xmlInputFactory.createXMLEventReader(new ByteArrayInputStream(response)));
+        return ReceiveMessageResultStaxUnmarshaller.getInstance().unmarshall(context);
+    }
+
+    @Benchmark
+    public ReceiveMessageResponse parseV2() throws Exception
+    {
+        return v2Handler.handle(SdkHttpFullResponse.builder()
+                .statusCode(200)
+                .content(AbortableInputStream.create(new ByteArrayInputStream(response)))
+                .build(), executionAttributes);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.transform.DeleteMessageBatchRequestMarshaller;
+import com.amazonaws.services.sqs.model.transform.ReceiveMessageRequestMarshaller;
+import com.amazonaws.services.sqs.model.transform.SendMessageBatchRequestMarshaller;
+import com.amazonaws.util.SdkHttpUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building and marshalling requests with SDK v1, mirroring {@link V2RequestBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class V1RequestBenchmark
+{
+    @Param({"256", "4096"})
+    public int bodyBytes;
+
+    private String body;
+    private String[] receiptHandles;
+    private SendMessageBatchRequest sendBatch;
+    private ReceiveMessageRequest receive;
+    private DeleteMessageBatchRequest deleteBatch;
+    private final SendMessageBatchRequestMarshaller sendBatchMarshaller = new SendMessageBatchRequestMarshaller();
+    private final ReceiveMessageRequestMarshaller receiveMarshaller = new ReceiveMessageRequestMarshaller();
+    private final DeleteMessageBatchRequestMarshaller deleteBatchMarshaller = new DeleteMessageBatchRequestMarshaller();
+
+    @Setup
+    public void setUp()
+    {
+        body = Fixtures.body(bodyBytes);
+        receiptHandles = Fixtures.receiptHandles();
+        sendBatch = buildSendMessageBatch();
+        receive = buildReceiveMessage();
+        deleteBatch = buildDeleteMessageBatch();
+    }
+
+    @Benchmark
+    public SendMessageBatchRequest buildSendMessageBatch()
+    {
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<SendMessageBatchRequestEntry>(Fixtures.BATCH_SIZE);
+        for (int i = 0; i < Fixtures.BATCH_SIZE; i++) {
+            entries.add(new SendMessageBatchRequestEntry(Integer.toString(i), body));
+        }
+        return new SendMessageBatchRequest(Fixtures.QUEUE_URL, entries);
+    }
+
+    @Benchmark
+    public ReceiveMessageRequest buildReceiveMessage()
+    {
+        return new ReceiveMessageRequest(Fixtures.QUEUE_URL)
+                .withMaxNumberOfMessages(Fixtures.BATCH_SIZE)
+                .withWaitTimeSeconds(20)
+                .withMessageAttributeNames("All");
+    }
+
+    @Benchmark
+    public DeleteMessageBatchRequest buildDeleteMessageBatch()
+    {
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<DeleteMessageBatchRequestEntry>(Fixtures.BATCH_SIZE);
+        for (int i = 0; i < Fixtures.BATCH_SIZE; i++) {
+            entries.add(new DeleteMessageBatchRequestEntry(Integer.toString(i), receiptHandles[i]));
+        }
+        return new DeleteMessageBatchRequest(Fixtures.QUEUE_URL, entries);
+    }
+
+    @Benchmark
+    public String marshallSendMessageBatch()
+    {
+        return SdkHttpUtils.encodeParameters(sendBatchMarshaller.marshall(sendBatch));
+    }
+
+    @Benchmark
+    public String marshallReceiveMessage()
+    {
+        return SdkHttpUtils.encodeParameters(receiveMarshaller.marshall(receive));
+    }
+
+    @Benchmark
+    public String marshallDeleteMessageBatch()
+    {
+        return SdkHttpUtils.encodeParameters(deleteBatchMarshaller.marshall(deleteBatch));
+    }
+}
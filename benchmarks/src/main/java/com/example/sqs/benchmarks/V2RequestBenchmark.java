@@ -0,0 +1,150 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.benchmarks;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.core.client.config.SdkClientConfiguration;
+import software.amazon.awssdk.core.client.config.SdkClientOption;
+import software.amazon.awssdk.protocols.query.AwsQueryProtocolFactory;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.transform.DeleteMessageBatchRequestMarshaller;
+import software.amazon.awssdk.services.sqs.transform.ReceiveMessageRequestMarshaller;
+import software.amazon.awssdk.services.sqs.transform.SendMessageBatchRequestMarshaller;
+import software.amazon.awssdk.utils.http.SdkHttpUtils;
+
+/**
+ * Building and marshalling requests with SDK v2. The marshal benchmarks stop at the form-encoded body the
+ * client would send, excluding signing and I/O.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class V2RequestBenchmark
+{
+    @Param({"256", "4096"})
+    public int bodyBytes;
+
+    private String body;
+    private String[] receiptHandles;
+    private SendMessageBatchRequest sendBatch;
+    private ReceiveMessageRequest receive;
+    private DeleteMessageBatchRequest deleteBatch;
+    private SendMessageBatchRequestMarshaller sendBatchMarshaller;
+    private ReceiveMessageRequestMarshaller receiveMarshaller;
+    private DeleteMessageBatchRequestMarshaller deleteBatchMarshaller;
+
+    @Setup
+    public void setUp()
+    {
+        body = Fixtures.body(bodyBytes);
+        receiptHandles = Fixtures.receiptHandles();
+        sendBatch = buildSendMessageBatch();
+        receive = buildReceiveMessage();
+        deleteBatch = buildDeleteMessageBatch();
+
+        AwsQueryProtocolFactory protocol = AwsQueryProtocolFactory.builder()
+                .clientConfiguration(SdkClientConfiguration.builder()
+                        .option(SdkClientOption.ENDPOINT, URI.create(Fixtures.ENDPOINT))
+                        .build())
+                .build();
+        sendBatchMarshaller = new SendMessageBatchRequestMarshaller(protocol);
+        receiveMarshaller = new ReceiveMessageRequestMarshaller(protocol);
+        deleteBatchMarshaller = new DeleteMessageBatchRequestMarshaller(protocol);
+    }
+
+    @Benchmark
+    public SendMessageBatchRequest buildSendMessageBatch()
+    {
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<SendMessageBatchRequestEntry>(Fixtures.BATCH_SIZE);
+        for (int i = 0; i < Fixtures.BATCH_SIZE; i++) {
+            entries.add(SendMessageBatchRequestEntry.builder()
+                    .id(Integer.toString(i))
+                    .messageBody(body)
+                    .build());
+        }
+        return SendMessageBatchRequest.builder()
+                .queueUrl(Fixtures.QUEUE_URL)
+                .entries(entries)
+                .build();
+    }
+
+    @Benchmark
+    public ReceiveMessageRequest buildReceiveMessage()
+    {
+        return ReceiveMessageRequest.builder()
+                .queueUrl(Fixtures.QUEUE_URL)
+                .maxNumberOfMessages(Fixtures.BATCH_SIZE)
+                .waitTimeSeconds(20)
+                .messageAttributeNames("All")
+                .build();
+    }
+
+    @Benchmark
+    public DeleteMessageBatchRequest buildDeleteMessageBatch()
+    {
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<DeleteMessageBatchRequestEntry>(Fixtures.BATCH_SIZE);
+        for (int i = 0; i < Fixtures.BATCH_SIZE; i++) {
+            entries.add(DeleteMessageBatchRequestEntry.builder()
+                    .id(Integer.toString(i))
+                    .receiptHandle(receiptHandles[i])
+                    .build());
+        }
+        return DeleteMessageBatchRequest.builder()
+                .queueUrl(Fixtures.QUEUE_URL)
+                .entries(entries)
+                .build();
+    }
+
+    @Benchmark
+    public String marshallSendMessageBatch()
+    {
+        return SdkHttpUtils.encodeAndFlattenFormData(sendBatchMarshaller.marshall(sendBatch).rawQueryParameters()).get();
+    }
+
+    @Benchmark
+    public String marshallReceiveMessage()
+    {
+        return SdkHttpUtils.encodeAndFlattenFormData(receiveMarshaller.marshall(receive).rawQueryParameters()).get();
+    }
+
+    @Benchmark
+    public String marshallDeleteMessageBatch()
+    {
+        return SdkHttpUtils.encodeAndFlattenFormData(deleteBatchMarshaller.marshall(deleteBatch).rawQueryParameters()).get();
+    }
+}
@@ -0,0 +1,70 @@
+#!/usr/bin/env bash
+#
+# Reports the time to first request of every QueueTools build found in the target directory: the wall time of
+# a process that starts, sends one GetQueueAttributes call to a local embedded server and exits. Each build
+# is run RUNS times (default 10) after one warm-up run that fills the page cache, and the median is reported.
+#
+#   packaging/startup-report.sh [target-dir]
+#
+# Builds: the full classpath of mvn package (target/classes and target/lib), the slim jar (-Pslim), the slim
+# jar with its AppCDS archive (-Pappcds) and the native executable (-Pnative). Missing builds are skipped.
+
+set -euo pipefail
+
+target=${1:-target}
+runs=${RUNS:-10}
+port=${PORT:-9325}
+java=${JAVA_HOME:+$JAVA_HOME/bin/}java
+endpoint="http://localhost:$port"
+
+slim=$(ls "$target"/*-slim.jar 2>/dev/null | head -n 1 || true)
+if [ -z "$slim" ]; then
+    echo "No slim jar in $target; build it with mvn -Pslim package" >&2
+    exit 1
+fi
+
+"$java" -cp "$slim" com.example.sqs.EmbeddedSqsServer "$port" > /dev/null &
+server=$!
+trap 'kill $server 2> /dev/null' EXIT
+for _ in $(seq 100); do
+    if (exec 3<> "/dev/tcp/127.0.0.1/$port") 2> /dev/null; then
+        break
+    fi
+    sleep 0.1
+done
+# A queue URL rather than a name, so that each run makes exactly one request.
+queue=$("$java" -jar "$slim" --endpoint="$endpoint" create startup-report 2> /dev/null)
+
+millis() {
+    echo $(( $(date +%s%N) / 1000000 ))
+}
+
+measure() {
+    local label=$1
+    shift
+    "$@" --endpoint="$endpoint" depth "$queue" > /dev/null 2>&1
+    local times=()
+    for _ in $(seq "$runs"); do
+        local start
+        start=$(millis)
+        "$@" --endpoint="$endpoint" depth "$queue" > /dev/null 2>&1
+        times+=($(( $(millis) - start )))
+    done
+    local median
+    median=$(printf '%s\n' "${times[@]}" | sort -n | sed -n "$(( (runs + 1) / 2 ))p")
+    printf '%-24s %6d ms   (min %d, max %d)\n' "$label" "$median" \
+        "$(printf '%s\n' "${times[@]}" | sort -n | head -n 1)" "$(printf '%s\n' "${times[@]}" | sort -n | tail -n 1)"
+}
+
+echo "Time to first request, median of $runs runs ($("$java" -version 2>&1 | head -n 1))"
+if [ -d "$target/lib" ]; then
+    measure "full classpath" "$java" -cp "$target/classes:$target/lib/*" com.example.sqs.QueueTools
+fi
+measure "slim jar" "$java" -jar "$slim"
+measure "slim jar, -Xshare:off" "$java" -Xshare:off -jar "$slim"
+if [ -f "$target/queue-tools.jsa" ]; then
+    measure "slim jar + AppCDS" "$java" -XX:SharedArchiveFile="$target/queue-tools.jsa" -jar "$slim"
+fi
+if [ -x "$target/queue-tools" ]; then
+    measure "native image" "$target/queue-tools"
+fi
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+
+/**
+ * Chooses the long-poll wait, batch size and number of concurrent pollers from the results of recent receives,
+ * so a consumer follows its traffic instead of being configured for one load level.
+ *
+ * The input is the fill of each receive, messages returned over messages asked for, smoothed into a moving
+ * average. A busy queue, where receives come back full, gets short waits, full batches and more pollers. As the
+ * queue empties the wait grows towards the 20 second maximum, which costs nothing on an idle queue and
+ * cuts the number of empty receives, and pollers are retired one at a time after runs of empty receives. A full
+ * receive doubles the batch size at once, so a burst after a quiet period is picked up within a few calls.
+ *
+ * All methods are thread-safe; {@link QueueConsumer} reads the current values before each receive.
+ */
+public final class AdaptiveReceivePolicy
+{
+    private final int minWaitTimeSeconds;
+    private final int maxWaitTimeSeconds;
+    private final int minMessages;
+    private final int minPollers;
+    private final int maxPollers;
+    private final double smoothing;
+    private final int emptyReceivesBeforeScaleDown;
+    private final long adjustIntervalNanos;
+
+    // Guarded by this
+    private double fill;
+    private double received;
+    private int maxNumberOfMessages;
+    private int pollers;
+    private int emptyStreak;
+    private long lastPollerChange;
+
+    private AdaptiveReceivePolicy(Builder builder)
+    {
+        this.minWaitTimeSeconds = builder.minWaitTimeSeconds;
+        this.maxWaitTimeSeconds = builder.maxWaitTimeSeconds;
+        this.minMessages = builder.minMessages;
+        this.minPollers = builder.minPollers;
+        this.maxPollers = builder.maxPollers;
+        this.smoothing = builder.smoothing;
+        this.emptyReceivesBeforeScaleDown = builder.emptyReceivesBeforeScaleDown;
+        this.adjustIntervalNanos = builder.adjustInterval.toNanos();
+        // Start as for an idle queue; the first full receive moves everything towards busy.
+        this.maxNumberOfMessages = SqsLimits.MAX_BATCH_ENTRIES;
+        this.pollers = minPollers;
+        this.lastPollerChange = System.nanoTime() - adjustIntervalNanos;
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public synchronized int waitTimeSeconds()
+    {
+        // Quadratic, so the wait stays short until receives are mostly coming back less than half full.
+        double idleness = (1 - fill) * (1 - fill);
+        return (int) Math.round(minWaitTimeSeconds + (maxWaitTimeSeconds - minWaitTimeSeconds) * idleness);
+    }
+
+    public synchronized int maxNumberOfMessages()
+    {
+        return maxNumberOfMessages;
+    }
+
+    public synchronized int pollers()
+    {
+        return pollers;
+    }
+
+    public int maxPollers()
+    {
+        return maxPollers;
+    }
+
+    // Moving average of received / requested over recent receives.
+    public synchronized double fill()
+    {
+        return fill;
+    }
+
+    /**
+     * Records the outcome of one successful receive.
+     */
+    public synchronized void record(int requested, int receivedMessages)
+    {
+        if (requested <= 0) {
+            return;
+        }
+        double ratio = Math.min(1.0, (double) receivedMessages / requested);
+        fill += smoothing * (ratio - fill);
+        received += smoothing * (receivedMessages - received);
+
+        if (receivedMessages >= requested) {
+            maxNumberOfMessages = Math.min(SqsLimits.MAX_BATCH_ENTRIES, Math.max(requested, maxNumberOfMessages) * 2);
+        } else {
+            // Ask for about twice what recent receives returned, so a trickle is spread over the fleet.
+            int wanted = (int) Math.ceil(received * 2);
+            maxNumberOfMessages = Math.max(minMessages, Math.min(SqsLimits.MAX_BATCH_ENTRIES, wanted));
+        }
+
+        long now = System.nanoTime();
+        if (receivedMessages == 0) {
+            emptyStreak++;
+            if (emptyStreak >= emptyReceivesBeforeScaleDown && pollers > minPollers
+                    && now - lastPollerChange >= adjustIntervalNanos) {
+                pollers--;
+                emptyStreak = 0;
+                lastPollerChange = now;
+            }
+        } else {
+            emptyStreak = 0;
+            if (receivedMessages >= requested && pollers < maxPollers && now - lastPollerChange >= adjustIntervalNanos) {
+                pollers++;
+                lastPollerChange = now;
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("AdaptiveReceivePolicy(fill %.2f, wait %ds, batch %d, pollers %d)",
+                fill, waitTimeSeconds(), maxNumberOfMessages, pollers);
+    }
+
+    public static final class Builder
+    {
+        private int minWaitTimeSeconds = 1;
+        private int maxWaitTimeSeconds = SqsLimits.MAX_WAIT_TIME_SECONDS;
+        private int minMessages = 1;
+        private int minPollers = 1;
+        private int maxPollers = 8;
+        private double smoothing = 0.2;
+        private int emptyReceivesBeforeScaleDown = 3;
+        private Duration adjustInterval = Duration.ofSeconds(1);
+
+        private Builder()
+        {
+        }
+
+        // Wait used while receives come back full.
+        public Builder minWaitTimeSeconds(int minWaitTimeSeconds)
+        {
+            this.minWaitTimeSeconds = minWaitTimeSeconds;
+            return this;
+        }
+
+        // Wait used on an idle queue.
+        public Builder maxWaitTimeSeconds(int maxWaitTimeSeconds)
+        {
+            this.maxWaitTimeSeconds = maxWaitTimeSeconds;
+            return this;
+        }
+
+        // Smallest MaxNumberOfMessages asked for on a quiet queue.
+        public Builder minMessages(int minMessages)
+        {
+            this.minMessages = minMessages;
+            return this;
+        }
+
+        public Builder minPollers(int minPollers)
+        {
+            this.minPollers = minPollers;
+            return this;
+        }
+
+        public Builder maxPollers(int maxPollers)
+        {
+            this.maxPollers = maxPollers;
+            return this;
+        }
+
+        // Weight of the newest receive in the moving average, between 0 and 1.
+        public Builder smoothing(double smoothing)
+        {
+            this.smoothing = smoothing;
+            return this;
+        }
+
+        // Consecutive empty receives after which one poller is retired.
+        public Builder emptyReceivesBeforeScaleDown(int emptyReceivesBeforeScaleDown)
+        {
+            this.emptyReceivesBeforeScaleDown = emptyReceivesBeforeScaleDown;
+            return this;
+        }
+
+        // Minimum time between two changes of the poller count, against flapping.
+        public Builder adjustInterval(Duration adjustInterval)
+        {
+            this.adjustInterval = adjustInterval;
+            return this;
+        }
+
+        public AdaptiveReceivePolicy build()
+        {
+            if (minWaitTimeSeconds < 0 || maxWaitTimeSeconds > SqsLimits.MAX_WAIT_TIME_SECONDS
+                    || minWaitTimeSeconds > maxWaitTimeSeconds) {
+                throw new IllegalStateException("wait times must satisfy 0 <= min <= max <= "
+                        + SqsLimits.MAX_WAIT_TIME_SECONDS);
+            }
+            if (minMessages < 1 || minMessages > SqsLimits.MAX_BATCH_ENTRIES) {
+                throw new IllegalStateException("minMessages must be between 1 and " + SqsLimits.MAX_BATCH_ENTRIES);
+            }
+            if (minPollers < 1 || minPollers > maxPollers) {
+                throw new IllegalStateException("pollers must satisfy 1 <= min <= max");
+            }
+            if (smoothing <= 0 || smoothing > 1 || emptyReceivesBeforeScaleDown < 1) {
+                throw new IllegalStateException("smoothing must be in (0, 1] and emptyReceivesBeforeScaleDown positive");
+            }
+            return new AdaptiveReceivePolicy(this);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+
+/**
+ * Completes the future of a single entry that SQS reported as failed inside an otherwise successful batch call.
+ */
+public class BatchEntryFailedException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    private final BatchResultErrorEntry error;
+
+    public BatchEntryFailedException(BatchResultErrorEntry error)
+    {
+        super(error.code() + ": " + error.message());
+        this.error = error;
+    }
+
+    public String code()
+    {
+        return error.code();
+    }
+
+    public boolean senderFault()
+    {
+        return Boolean.TRUE.equals(error.senderFault());
+    }
+
+    public BatchResultErrorEntry error()
+    {
+        return error;
+    }
+}
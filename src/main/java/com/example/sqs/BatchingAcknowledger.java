@@ -0,0 +1,195 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.Message;
+
+/**
+ * Deletes processed messages of a single queue in DeleteMessageBatch requests. Consumer threads hand in
+ * receipt handles and carry on; the returned future tells whether that particular message was deleted.
+ * Entries the service fails on its side are retried on their own, entries failed due to the caller
+ * (for example an expired receipt handle) are not.
+ */
+public class BatchingAcknowledger extends RequestBatcher<DeleteMessageBatchRequestEntry, Void>
+{
+    private final SqsClient sqs;
+    private final String queueUrl;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+    private final AtomicLong ids = new AtomicLong();
+
+    private BatchingAcknowledger(Builder builder)
+    {
+        super(builder.maxBatchSize, Long.MAX_VALUE, builder.linger, builder.senderThreads);
+        this.sqs = builder.sqs;
+        this.queueUrl = builder.queueUrl;
+        this.maxAttempts = builder.maxAttempts;
+        this.retryBackoffMillis = builder.retryBackoff.toMillis();
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public String queueUrl()
+    {
+        return queueUrl;
+    }
+
+    public CompletableFuture<Void> acknowledge(String receiptHandle)
+    {
+        return submit(DeleteMessageBatchRequestEntry.builder()
+                .id(Long.toString(ids.incrementAndGet()))
+                .receiptHandle(receiptHandle)
+                .build(), 0);
+    }
+
+    public CompletableFuture<Void> acknowledge(Message message)
+    {
+        return acknowledge(message.receiptHandle());
+    }
+
+    @Override
+    protected void sendBatch(List<Pending<DeleteMessageBatchRequestEntry, Void>> batch)
+    {
+        List<Pending<DeleteMessageBatchRequestEntry, Void>> remaining = batch;
+        for (int attempt = 1; !remaining.isEmpty(); attempt++) {
+            if (attempt > 1) {
+                sleep(retryBackoffMillis * (attempt - 1));
+            }
+
+            List<DeleteMessageBatchRequestEntry> entries = new ArrayList<DeleteMessageBatchRequestEntry>(remaining.size());
+            for (Pending<DeleteMessageBatchRequestEntry, Void> pending : remaining) {
+                entries.add(pending.entry());
+            }
+            DeleteMessageBatchResponse response = sqs.deleteMessageBatch(DeleteMessageBatchRequest.builder()
+                    .queueUrl(queueUrl)
+                    .entries(entries)
+                    .build());
+
+            Map<String, BatchResultErrorEntry> failed = new HashMap<String, BatchResultErrorEntry>();
+            for (BatchResultErrorEntry error : response.failed()) {
+                failed.put(error.id(), error);
+            }
+
+            List<Pending<DeleteMessageBatchRequestEntry, Void>> retries =
+                    new ArrayList<Pending<DeleteMessageBatchRequestEntry, Void>>(failed.size());
+            for (Pending<DeleteMessageBatchRequestEntry, Void> pending : remaining) {
+                BatchResultErrorEntry error = failed.get(pending.entry().id());
+                if (error == null) {
+                    pending.future().complete(null);
+                } else if (!Boolean.TRUE.equals(error.senderFault()) && attempt < maxAttempts) {
+                    retries.add(pending);
+                } else {
+                    pending.future().completeExceptionally(new BatchEntryFailedException(error));
+                }
+            }
+            remaining = retries;
+        }
+    }
+
+    private static void sleep(long millis)
+    {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while retrying deletes", e);
+        }
+    }
+
+    public static final class Builder
+    {
+        private SqsClient sqs;
+        private String queueUrl;
+        private int maxBatchSize = SqsLimits.MAX_BATCH_ENTRIES;
+        private Duration linger = Duration.ofMillis(50);
+        private int senderThreads = 2;
+        private int maxAttempts = 3;
+        private Duration retryBackoff = Duration.ofMillis(100);
+
+        private Builder()
+        {
+        }
+
+        public Builder client(SqsClient sqs)
+        {
+            this.sqs = sqs;
+            return this;
+        }
+
+        public Builder queueUrl(String queueUrl)
+        {
+            this.queueUrl = queueUrl;
+            return this;
+        }
+
+        public Builder maxBatchSize(int maxBatchSize)
+        {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        // How long a partially filled batch waits for more receipt handles before it is sent.
+        public Builder linger(Duration linger)
+        {
+            this.linger = linger;
+            return this;
+        }
+
+        public Builder senderThreads(int senderThreads)
+        {
+            this.senderThreads = senderThreads;
+            return this;
+        }
+
+        // Total number of times an entry is sent before a service-side failure is reported to the caller.
+        public Builder maxAttempts(int maxAttempts)
+        {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        // Pause before the first retry; each further retry waits one more multiple of it.
+        public Builder retryBackoff(Duration retryBackoff)
+        {
+            this.retryBackoff = retryBackoff;
+            return this;
+        }
+
+        public BatchingAcknowledger build()
+        {
+            if (sqs == null || queueUrl == null) {
+                throw new IllegalStateException("client and queueUrl are required");
+            }
+            return new BatchingAcknowledger(this);
+        }
+    }
+}
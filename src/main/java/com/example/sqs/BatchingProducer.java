@@ -0,0 +1,301 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+
+/**
+ * Buffered producer for a single queue. Individual {@link #send(String)} calls are combined into
+ * SendMessageBatch requests of up to 10 entries and 256 KB, or whatever has accumulated when the
+ * linger time runs out.
+ *
+ * For a FIFO queue, pass a message group with {@link #send(String, String)}. Batches then go out one at a time
+ * on a single sender thread, since two batches in flight together could land in either order. Once a message
+ * fails to send, the messages of its group that were sent before the caller could see that failure fail as
+ * well instead of landing behind the gap; messages sent after it go out again.
+ *
+ * <pre>
+ * try (BatchingProducer producer = BatchingProducer.builder().client(sqs).queueUrl(queueUrl).build()) {
+ *     producer.send("hello world").join().messageId();
+ * }
+ * </pre>
+ */
+public class BatchingProducer extends RequestBatcher<SendMessageBatchRequestEntry, SendMessageBatchResultEntry>
+{
+    private static final String FIFO_SUFFIX = ".fifo";
+
+    private final SqsClient sqs;
+    private final String queueUrl;
+    private final MessageCodec codec;
+    private final AtomicLong ids = new AtomicLong();
+    // FIFO only: failed group -> highest entry id handed out when its failure was found. Sender thread only.
+    private final Map<String, Long> failedGroups;
+
+    private BatchingProducer(Builder builder)
+    {
+        super(builder.maxBatchSize, builder.maxBatchBytes, builder.linger, builder.senderExecutor != null
+                ? builder.senderExecutor
+                : Executors.newFixedThreadPool(builder.queueUrl.endsWith(FIFO_SUFFIX) ? 1 : builder.senderThreads,
+                        VirtualThreads.platformFactory("producer-send-")));
+        this.sqs = builder.sqs;
+        this.queueUrl = builder.queueUrl;
+        this.codec = builder.codec;
+        this.failedGroups = queueUrl.endsWith(FIFO_SUFFIX) ? new HashMap<String, Long>() : null;
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public String queueUrl()
+    {
+        return queueUrl;
+    }
+
+    public CompletableFuture<SendMessageBatchResultEntry> send(String body)
+    {
+        SendMessageBatchRequestEntry entry = SendMessageBatchRequestEntry.builder()
+                .id(nextId())
+                .messageBody(body)
+                .build();
+        if (codec != null) {
+            entry = codec.encode(entry);
+            return submit(entry, SqsLimits.payloadSize(entry));
+        }
+        return submit(entry, SqsLimits.utf8Length(body));
+    }
+
+    // Sends to a FIFO queue with content-based deduplication; the group's messages are delivered in send order.
+    public CompletableFuture<SendMessageBatchResultEntry> send(String body, String messageGroupId)
+    {
+        return send(body, messageGroupId, null);
+    }
+
+    // Sends to a FIFO queue; a repeated deduplication id within five minutes is accepted but not delivered again.
+    public CompletableFuture<SendMessageBatchResultEntry> send(String body, String messageGroupId,
+            String messageDeduplicationId)
+    {
+        return send(SendMessageBatchRequestEntry.builder()
+                .messageBody(body)
+                .messageGroupId(messageGroupId)
+                .messageDeduplicationId(messageDeduplicationId)
+                .build());
+    }
+
+    // Sends a fully specified entry; its id is replaced with one that is unique within the batch.
+    public CompletableFuture<SendMessageBatchResultEntry> send(SendMessageBatchRequestEntry entry)
+    {
+        SendMessageBatchRequestEntry withId = entry.toBuilder().id(nextId()).build();
+        if (codec != null) {
+            withId = codec.encode(withId);
+        }
+        return submit(withId, SqsLimits.payloadSize(withId));
+    }
+
+    private String nextId()
+    {
+        return Long.toString(ids.incrementAndGet());
+    }
+
+    @Override
+    protected void sendBatch(List<Pending<SendMessageBatchRequestEntry, SendMessageBatchResultEntry>> batch)
+    {
+        if (failedGroups != null) {
+            batch = skipFailedGroups(batch);
+            if (batch.isEmpty()) {
+                return;
+            }
+        }
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<SendMessageBatchRequestEntry>(batch.size());
+        for (Pending<SendMessageBatchRequestEntry, SendMessageBatchResultEntry> pending : batch) {
+            entries.add(pending.entry());
+        }
+
+        SendMessageBatchResponse response;
+        try {
+            response = sqs.sendMessageBatch(SendMessageBatchRequest.builder()
+                    .queueUrl(queueUrl)
+                    .entries(entries)
+                    .build());
+        } catch (RuntimeException e) {
+            for (Pending<SendMessageBatchRequestEntry, SendMessageBatchResultEntry> pending : batch) {
+                groupFailed(pending);
+            }
+            throw e;
+        }
+
+        Map<String, SendMessageBatchResultEntry> successful =
+                new HashMap<String, SendMessageBatchResultEntry>(response.successful().size() * 2);
+        for (SendMessageBatchResultEntry result : response.successful()) {
+            successful.put(result.id(), result);
+        }
+        Map<String, BatchResultErrorEntry> failed = new HashMap<String, BatchResultErrorEntry>();
+        for (BatchResultErrorEntry error : response.failed()) {
+            failed.put(error.id(), error);
+        }
+
+        for (Pending<SendMessageBatchRequestEntry, SendMessageBatchResultEntry> pending : batch) {
+            String id = pending.entry().id();
+            SendMessageBatchResultEntry result = successful.get(id);
+            if (result != null) {
+                pending.future().complete(result);
+            } else if (failed.containsKey(id)) {
+                groupFailed(pending);
+                pending.future().completeExceptionally(new BatchEntryFailedException(failed.get(id)));
+            } else {
+                groupFailed(pending);
+                pending.future().completeExceptionally(
+                        new IllegalStateException("No result for batch entry " + id));
+            }
+        }
+    }
+
+    // Called before the entry's future fails, so every entry of the group sent until then is failed as well.
+    private void groupFailed(Pending<SendMessageBatchRequestEntry, SendMessageBatchResultEntry> pending)
+    {
+        String group = pending.entry().messageGroupId();
+        if (failedGroups != null && group != null) {
+            failedGroups.put(group, ids.get());
+        }
+    }
+
+    // Fails the entries of groups with an earlier failure and returns the others.
+    private List<Pending<SendMessageBatchRequestEntry, SendMessageBatchResultEntry>> skipFailedGroups(
+            List<Pending<SendMessageBatchRequestEntry, SendMessageBatchResultEntry>> batch)
+    {
+        if (failedGroups.isEmpty()) {
+            return batch;
+        }
+        long oldest = Long.MAX_VALUE;
+        List<Pending<SendMessageBatchRequestEntry, SendMessageBatchResultEntry>> send =
+                new ArrayList<Pending<SendMessageBatchRequestEntry, SendMessageBatchResultEntry>>(batch.size());
+        for (Pending<SendMessageBatchRequestEntry, SendMessageBatchResultEntry> pending : batch) {
+            long id = Long.parseLong(pending.entry().id());
+            oldest = Math.min(oldest, id);
+            Long failedUpTo = failedGroups.get(pending.entry().messageGroupId());
+            if (failedUpTo != null && id <= failedUpTo) {
+                pending.future().completeExceptionally(new IllegalStateException(
+                        "Not sent: an earlier message of group " + pending.entry().messageGroupId() + " failed"));
+            } else {
+                send.add(pending);
+            }
+        }
+        // Batches are sent in order, so failures older than this batch can no longer apply.
+        final long cutoff = oldest;
+        failedGroups.values().removeIf(failedUpTo -> failedUpTo < cutoff);
+        return send;
+    }
+
+    public static final class Builder
+    {
+        private SqsClient sqs;
+        private String queueUrl;
+        private int maxBatchSize = SqsLimits.MAX_BATCH_ENTRIES;
+        private int maxBatchBytes = SqsLimits.MAX_PAYLOAD_BYTES;
+        private Duration linger = Duration.ofMillis(20);
+        private int senderThreads = 4;
+        private ExecutorService senderExecutor;
+        private MessageCodec codec;
+
+        private Builder()
+        {
+        }
+
+        public Builder client(SqsClient sqs)
+        {
+            this.sqs = sqs;
+            return this;
+        }
+
+        public Builder queueUrl(String queueUrl)
+        {
+            this.queueUrl = queueUrl;
+            return this;
+        }
+
+        public Builder maxBatchSize(int maxBatchSize)
+        {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        public Builder maxBatchBytes(int maxBatchBytes)
+        {
+            this.maxBatchBytes = maxBatchBytes;
+            return this;
+        }
+
+        // How long a partially filled batch waits for more messages before it is sent.
+        public Builder linger(Duration linger)
+        {
+            this.linger = linger;
+            return this;
+        }
+
+        // Number of batch requests that may be in flight at the same time; always 1 for a FIFO queue.
+        public Builder senderThreads(int senderThreads)
+        {
+            this.senderThreads = senderThreads;
+            return this;
+        }
+
+        /**
+         * Runs batch requests on the given executor instead of a pool of {@code senderThreads}. With
+         * {@link VirtualThreads#newThreadPerTaskExecutor(String)} every batch gets its own virtual thread, so
+         * the number of requests in flight is limited only by the HTTP connection pool. The producer shuts the
+         * executor down when it is closed.
+         */
+        public Builder senderExecutor(ExecutorService senderExecutor)
+        {
+            this.senderExecutor = senderExecutor;
+            return this;
+        }
+
+        // Compresses large bodies before they are batched, so more of them fit into one request.
+        public Builder codec(MessageCodec codec)
+        {
+            this.codec = codec;
+            return this;
+        }
+
+        public BatchingProducer build()
+        {
+            if (sqs == null || queueUrl == null) {
+                throw new IllegalStateException("client and queueUrl are required");
+            }
+            if (senderExecutor != null && queueUrl.endsWith(FIFO_SUFFIX)) {
+                throw new IllegalStateException("a FIFO queue needs its batches sent in order; senderExecutor cannot be used");
+            }
+            return new BatchingProducer(this);
+        }
+    }
+}
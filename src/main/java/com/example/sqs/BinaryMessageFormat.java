@@ -0,0 +1,472 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.example.sqs.MessageSchema.Field;
+import com.example.sqs.MessageSchema.Type;
+
+/**
+ * Compact tagged binary encoding, base64-encoded because SQS bodies must be text. Each field is a varint key of
+ * tag and wire type followed by its value: zigzag varints for integers and booleans, eight little-endian bytes
+ * for doubles, and a varint length before UTF-8 strings and byte arrays. The wire type lets readers skip fields
+ * they do not know.
+ *
+ * Encoding writes into a byte and a char buffer kept per thread and only allocates the result string; decoding
+ * reuses the byte buffer and allocates only the strings and arrays it returns. A schema that encodes another
+ * message while it is being written gets fresh buffers rather than clobbering the thread's.
+ */
+final class BinaryMessageFormat implements MessageFormat
+{
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH = 2;
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] DECODE = new int[128];
+    // Buffers that grew beyond this for an unusually large message are not kept.
+    private static final int MAX_RETAINED_BYTES = 2 * SqsLimits.MAX_PAYLOAD_BYTES;
+
+    static {
+        Arrays.fill(DECODE, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODE[ALPHABET[i]] = i;
+        }
+    }
+
+    private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+    @Override
+    public String name()
+    {
+        return "binary";
+    }
+
+    @Override
+    public String contentType()
+    {
+        return "application/x-sqs-binary+base64";
+    }
+
+    @Override
+    public <T> String encode(MessageSchema<T> schema, T value)
+    {
+        Buffers b = acquire();
+        try {
+            b.length = 0;
+            schema.write(value, b.writer);
+            return base64(b);
+        } finally {
+            release(b);
+        }
+    }
+
+    @Override
+    public <T> T decode(MessageSchema<T> schema, String body)
+    {
+        Buffers b = acquire();
+        try {
+            unbase64(b, body);
+            b.reader.reset(schema);
+            return schema.read(b.reader);
+        } finally {
+            release(b);
+        }
+    }
+
+    private Buffers acquire()
+    {
+        Buffers b = buffers.get();
+        if (b.inUse) {
+            return new Buffers();
+        }
+        b.inUse = true;
+        return b;
+    }
+
+    private static void release(Buffers b)
+    {
+        b.inUse = false;
+        if (b.bytes.length > MAX_RETAINED_BYTES) {
+            b.bytes = new byte[1024];
+            b.chars = new char[1024];
+        }
+    }
+
+    private static String base64(Buffers b)
+    {
+        byte[] in = b.bytes;
+        int length = b.length;
+        int size = (length + 2) / 3 * 4;
+        if (b.chars.length < size) {
+            b.chars = new char[Math.max(size, b.chars.length * 2)];
+        }
+        char[] out = b.chars;
+        int o = 0;
+        int i = 0;
+        for (; i + 2 < length; i += 3) {
+            int bits = (in[i] & 0xff) << 16 | (in[i + 1] & 0xff) << 8 | in[i + 2] & 0xff;
+            out[o++] = ALPHABET[bits >>> 18];
+            out[o++] = ALPHABET[bits >>> 12 & 0x3f];
+            out[o++] = ALPHABET[bits >>> 6 & 0x3f];
+            out[o++] = ALPHABET[bits & 0x3f];
+        }
+        if (i < length) {
+            int bits = (in[i] & 0xff) << 16 | (i + 1 < length ? (in[i + 1] & 0xff) << 8 : 0);
+            out[o++] = ALPHABET[bits >>> 18];
+            out[o++] = ALPHABET[bits >>> 12 & 0x3f];
+            out[o++] = i + 1 < length ? ALPHABET[bits >>> 6 & 0x3f] : '=';
+            out[o++] = '=';
+        }
+        return new String(out, 0, o);
+    }
+
+    private static void unbase64(Buffers b, String body)
+    {
+        int n = body.length();
+        if (n % 4 != 0) {
+            throw new IllegalArgumentException("Body is not base64");
+        }
+        int padding = n == 0 ? 0 : body.charAt(n - 1) != '=' ? 0 : body.charAt(n - 2) != '=' ? 1 : 2;
+        int size = n / 4 * 3 - padding;
+        if (b.bytes.length < size) {
+            b.bytes = new byte[Math.max(size, b.bytes.length * 2)];
+        }
+        byte[] out = b.bytes;
+        int o = 0;
+        for (int i = 0; i < n; i += 4) {
+            int bits = 0;
+            for (int j = 0; j < 4; j++) {
+                char c = body.charAt(i + j);
+                int value;
+                if (c == '=' && i + j >= n - padding) {
+                    value = 0;
+                } else if (c >= 128 || (value = DECODE[c]) < 0) {
+                    throw new IllegalArgumentException("Body is not base64");
+                }
+                bits = bits << 6 | value;
+            }
+            out[o++] = (byte) (bits >>> 16);
+            if (o < size) {
+                out[o++] = (byte) (bits >>> 8);
+            }
+            if (o < size) {
+                out[o++] = (byte) bits;
+            }
+        }
+        b.length = size;
+    }
+
+    private static final class Buffers
+    {
+        byte[] bytes = new byte[1024];
+        char[] chars = new char[1024];
+        int length;
+        boolean inUse;
+        final Writer writer = new Writer(this);
+        final Reader reader = new Reader(this);
+    }
+
+    private static final class Writer implements MessageSchema.MessageWriter
+    {
+        private final Buffers b;
+
+        Writer(Buffers b)
+        {
+            this.b = b;
+        }
+
+        private void ensure(int extra)
+        {
+            if (b.length + extra > b.bytes.length) {
+                b.bytes = Arrays.copyOf(b.bytes, Math.max(b.length + extra, b.bytes.length * 2));
+            }
+        }
+
+        private void varint(long value)
+        {
+            ensure(10);
+            byte[] out = b.bytes;
+            int o = b.length;
+            while ((value & ~0x7fL) != 0) {
+                out[o++] = (byte) (value & 0x7f | 0x80);
+                value >>>= 7;
+            }
+            out[o++] = (byte) value;
+            b.length = o;
+        }
+
+        private void key(Field field, Type type, int wire)
+        {
+            MessageSchema.checkType(field, type);
+            varint((long) field.tag() << 3 | wire);
+        }
+
+        @Override
+        public void writeInt(Field field, int value)
+        {
+            key(field, Type.INT, VARINT);
+            varint((value << 1 ^ value >> 31) & 0xffffffffL);
+        }
+
+        @Override
+        public void writeLong(Field field, long value)
+        {
+            key(field, Type.LONG, VARINT);
+            varint(value << 1 ^ value >> 63);
+        }
+
+        @Override
+        public void writeDouble(Field field, double value)
+        {
+            key(field, Type.DOUBLE, FIXED64);
+            ensure(8);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int i = 0; i < 8; i++) {
+                b.bytes[b.length++] = (byte) (bits >>> (8 * i));
+            }
+        }
+
+        @Override
+        public void writeBoolean(Field field, boolean value)
+        {
+            key(field, Type.BOOLEAN, VARINT);
+            varint(value ? 1 : 0);
+        }
+
+        @Override
+        public void writeString(Field field, String value)
+        {
+            if (value == null) {
+                return;
+            }
+            key(field, Type.STRING, LENGTH);
+            int length = SqsLimits.utf8Length(value);
+            varint(length);
+            ensure(length);
+            // Encoded in place rather than through getBytes, which would allocate a copy per string.
+            byte[] out = b.bytes;
+            int o = b.length;
+            for (int i = 0, n = value.length(); i < n; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    out[o++] = (byte) c;
+                } else if (c < 0x800) {
+                    out[o++] = (byte) (0xc0 | c >> 6);
+                    out[o++] = (byte) (0x80 | c & 0x3f);
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, value.charAt(++i));
+                    out[o++] = (byte) (0xf0 | cp >> 18);
+                    out[o++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                    out[o++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                    out[o++] = (byte) (0x80 | cp & 0x3f);
+                } else {
+                    // A lone surrogate becomes U+FFFD, which takes the same three bytes utf8Length counted.
+                    char u = Character.isSurrogate(c) ? '\ufffd' : c;
+                    out[o++] = (byte) (0xe0 | u >> 12);
+                    out[o++] = (byte) (0x80 | u >> 6 & 0x3f);
+                    out[o++] = (byte) (0x80 | u & 0x3f);
+                }
+            }
+            b.length = o;
+        }
+
+        @Override
+        public void writeBytes(Field field, byte[] value)
+        {
+            if (value == null) {
+                return;
+            }
+            key(field, Type.BYTES, LENGTH);
+            varint(value.length);
+            ensure(value.length);
+            System.arraycopy(value, 0, b.bytes, b.length, value.length);
+            b.length += value.length;
+        }
+    }
+
+    private static final class Reader implements MessageSchema.MessageReader
+    {
+        private final Buffers b;
+        private MessageSchema<?> schema;
+        private int position;
+        private Field current;
+        private int pendingWire;
+
+        Reader(Buffers b)
+        {
+            this.b = b;
+        }
+
+        void reset(MessageSchema<?> schema)
+        {
+            this.schema = schema;
+            this.position = 0;
+            this.current = null;
+            this.pendingWire = -1;
+        }
+
+        @Override
+        public Field next()
+        {
+            if (pendingWire >= 0) {
+                skip(pendingWire);
+            }
+            while (position < b.length) {
+                long key = varint();
+                int wire = (int) (key & 7);
+                Field field = schema.fieldOrNull((int) (key >>> 3));
+                if (field != null && wire == wireType(field.type())) {
+                    current = field;
+                    pendingWire = wire;
+                    return field;
+                }
+                // Unknown, or a field whose type changed incompatibly.
+                skip(wire);
+            }
+            current = null;
+            pendingWire = -1;
+            return null;
+        }
+
+        private static int wireType(Type type)
+        {
+            switch (type) {
+                case DOUBLE:
+                    return FIXED64;
+                case STRING:
+                case BYTES:
+                    return LENGTH;
+                default:
+                    return VARINT;
+            }
+        }
+
+        private void expect(Type type)
+        {
+            if (current == null || pendingWire < 0) {
+                throw new IllegalStateException("No field to read; call next() first");
+            }
+            MessageSchema.checkType(current, type);
+            pendingWire = -1;
+        }
+
+        private void skip(int wire)
+        {
+            pendingWire = -1;
+            switch (wire) {
+                case VARINT:
+                    varint();
+                    break;
+                case FIXED64:
+                    advance(8);
+                    break;
+                case LENGTH:
+                    advance(length());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Corrupt message: wire type " + wire);
+            }
+        }
+
+        private int advance(int count)
+        {
+            int start = position;
+            if (count < 0 || count > b.length - position) {
+                throw new IllegalArgumentException("Corrupt message: truncated field");
+            }
+            position += count;
+            return start;
+        }
+
+        private long varint()
+        {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte next = b.bytes[advance(1)];
+                value |= (long) (next & 0x7f) << shift;
+                if (next >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Corrupt message: varint too long");
+        }
+
+        private int length()
+        {
+            long length = varint();
+            if (length > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Corrupt message: length " + length);
+            }
+            return (int) length;
+        }
+
+        @Override
+        public int readInt()
+        {
+            expect(Type.INT);
+            int zigzag = (int) varint();
+            return zigzag >>> 1 ^ -(zigzag & 1);
+        }
+
+        @Override
+        public long readLong()
+        {
+            expect(Type.LONG);
+            long zigzag = varint();
+            return zigzag >>> 1 ^ -(zigzag & 1);
+        }
+
+        @Override
+        public double readDouble()
+        {
+            expect(Type.DOUBLE);
+            int start = advance(8);
+            long bits = 0;
+            for (int i = 7; i >= 0; i--) {
+                bits = bits << 8 | b.bytes[start + i] & 0xff;
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        @Override
+        public boolean readBoolean()
+        {
+            expect(Type.BOOLEAN);
+            return varint() != 0;
+        }
+
+        @Override
+        public String readString()
+        {
+            expect(Type.STRING);
+            int length = length();
+            return new String(b.bytes, advance(length), length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public byte[] readBytes()
+        {
+            expect(Type.BYTES);
+            int length = length();
+            int start = advance(length);
+            return Arrays.copyOfRange(b.bytes, start, start + length);
+        }
+    }
+}
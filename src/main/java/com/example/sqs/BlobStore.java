@@ -0,0 +1,47 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Storage for message bodies too large for SQS. {@link LargePayloadClient} puts a body here and sends only its
+ * key; receivers open the blob by that key, and it is deleted together with the message.
+ */
+public interface BlobStore
+{
+    /**
+     * Stores the stream's content under a new key, reading the stream to its end.
+     */
+    String put(InputStream data) throws IOException;
+
+    default String put(byte[] data) throws IOException
+    {
+        return put(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * @throws java.nio.file.NoSuchFileException or another IOException if the blob does not exist
+     */
+    InputStream open(String key) throws IOException;
+
+    long size(String key) throws IOException;
+
+    // Deleting a missing blob is not an error, so a message that is deleted twice does not fail.
+    void delete(String key) throws IOException;
+}
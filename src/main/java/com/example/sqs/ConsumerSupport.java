@@ -0,0 +1,86 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
+import software.amazon.awssdk.services.sqs.model.Message;
+
+/**
+ * What the consumers have in common once a message is received: handing it to a handler thread, deleting it
+ * after it was handled, and reporting failures when no error handler was configured.
+ */
+final class ConsumerSupport
+{
+    private static final Logger LOG = Logger.getLogger(ConsumerSupport.class.getPackage().getName());
+
+    // Default error handler of every consumer. The message stays in its queue and is redelivered.
+    static final BiConsumer<Message, Throwable> LOG_FAILURE = (message, error) ->
+            LOG.log(Level.WARNING, "Message " + message.messageId() + " failed", error);
+
+    private ConsumerSupport()
+    {
+    }
+
+    static void logFailure(String what, Throwable error)
+    {
+        LOG.log(Level.WARNING, what, error);
+    }
+
+    /**
+     * Hands a received message to the handler threads, or runs {@code dropped} if they no longer take work
+     * because shutdown timed out while the receive was open. The message is then left in flight untouched and
+     * becomes visible again after its visibility timeout.
+     */
+    static void handOver(Executor handlers, Runnable task, Runnable dropped)
+    {
+        try {
+            handlers.execute(task);
+        } catch (RejectedExecutionException e) {
+            dropped.run();
+        }
+    }
+
+    /**
+     * Deletes a handled message, in a batch if the acknowledger serves its queue. The future completes once SQS
+     * confirmed the delete; if it fails, the message is redelivered.
+     */
+    static CompletableFuture<?> delete(SqsAsyncClient sqs, BatchingAcknowledger acknowledger, String queueUrl,
+            Message message)
+    {
+        if (acknowledger != null && acknowledger.queueUrl().equals(queueUrl)) {
+            return acknowledger.acknowledge(message);
+        }
+        return sqs.deleteMessage(DeleteMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .receiptHandle(message.receiptHandle())
+                .build());
+    }
+
+    // Futures report failures wrapped in a CompletionException; error handlers want the cause.
+    static Throwable cause(Throwable error)
+    {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
@@ -23,9 +23,6 @@
 // snippet-start:[sqs.java2.delete_letter_queues.import]
 package com.example.sqs;
 import software.amazon.awssdk.services.sqs.model.CreateQueueRequest;
-import software.amazon.awssdk.services.sqs.model.GetQueueAttributesRequest;
-import software.amazon.awssdk.services.sqs.model.GetQueueAttributesResponse;
-import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
 import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
 import software.amazon.awssdk.services.sqs.model.QueueNameExistsException;
 import software.amazon.awssdk.services.sqs.model.SetQueueAttributesRequest;
@@ -53,12 +50,15 @@ public class DeadLetterQueues
 
         SqsClient sqs = SqsClient.builder().region(Region.US_WEST_2).build();
 
+        // The resolver remembers the URLs from the create responses, so only the ARN lookup goes over the wire.
+        QueueResolver queues = new QueueResolver(sqs);
+
         CreateQueueRequest request = CreateQueueRequest.builder()
         		.queueName(src_queue_name).build();
 
         // Create source queue
         try {
-            sqs.createQueue(request);
+            queues.createQueue(request);
         } catch (QueueNameExistsException e) {
         	throw e;
 
@@ -69,35 +69,17 @@ public class DeadLetterQueues
 
         // Create dead-letter queue
         try {
-            sqs.createQueue(dlrequest);
+            queues.createQueue(dlrequest);
         } catch (QueueNameExistsException e) {
         	throw e;
 
         }
 
-
-        GetQueueUrlRequest getRequest = GetQueueUrlRequest.builder()
-        		.queueName(dl_queue_name)
-        		.build();
-
         // Get dead-letter queue ARN
-        String dl_queue_url = sqs.getQueueUrl(getRequest)
-                                 .queueUrl();
-
-        GetQueueAttributesResponse queue_attrs = sqs.getQueueAttributes(
-                GetQueueAttributesRequest.builder()
-                .queueUrl(dl_queue_url)
-                .attributeNames(QueueAttributeName.QUEUE_ARN).build());
-
-        String dl_queue_arn = queue_attrs.attributes().get(QueueAttributeName.QUEUE_ARN);
+        String dl_queue_arn = queues.queueArn(dl_queue_name);
 
         // Set dead letter queue with redrive policy on source queue.
-        GetQueueUrlRequest getRequestSource = GetQueueUrlRequest.builder()
-        		.queueName(src_queue_name)
-        		.build();
-
-        String src_queue_url = sqs.getQueueUrl(getRequestSource)
-                                  .queueUrl();
+        String src_queue_url = queues.queueUrl(src_queue_name);
 
         HashMap<QueueAttributeName, String> attributes = new HashMap<QueueAttributeName, String>();
         attributes.put(QueueAttributeName.REDRIVE_POLICY, "{\"maxReceiveCount\":\"5\", \"deadLetterTargetArn\":\""
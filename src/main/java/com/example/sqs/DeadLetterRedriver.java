@@ -0,0 +1,488 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+
+/**
+ * Moves messages out of a dead-letter queue, back into the queue that sent them there or into any other queue.
+ * Several receivers drain the dead-letter queue in parallel; each sends what it received with SendMessageBatch,
+ * keeping body and message attributes, and deletes only the entries that were sent with DeleteMessageBatch.
+ *
+ * A message is never deleted before its copy was accepted, so nothing is lost: entries the service rejects for
+ * its own reasons are retried, entries rejected as invalid (too large for the target, say) stay in the
+ * dead-letter queue and are counted as failed. If a delete keeps failing, the message comes back into the
+ * dead-letter queue and a later run moves it a second time. Messages the filter rejects are left alone; they stay
+ * invisible for the visibility timeout, so one run does not receive them again.
+ *
+ * <pre>
+ * DeadLetterRedriver.Result result = DeadLetterRedriver.builder()
+ *         .client(sqs).sourceQueueUrl(deadLetterQueueUrl)
+ *         .maxMessagesPerSecond(2000)
+ *         .build()
+ *         .run();
+ * </pre>
+ */
+public final class DeadLetterRedriver
+{
+    private final SqsClient sqs;
+    private final String sourceQueueUrl;
+    private final String targetQueueUrl;
+    private final int receivers;
+    private final Predicate<Message> filter;
+    private final long intervalNanos;
+    private final int visibilityTimeout;
+    private final int waitTimeSeconds;
+    private final int emptyReceivesToStop;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+
+    private final AtomicLong budget;
+    private final AtomicLong moved = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong sendFailures = new AtomicLong();
+    private final AtomicLong deleteFailures = new AtomicLong();
+    private volatile boolean stopping;
+    // Guarded by this
+    private long nextPermitNanos;
+
+    private DeadLetterRedriver(Builder builder)
+    {
+        this.sqs = builder.sqs;
+        this.sourceQueueUrl = builder.sourceQueueUrl;
+        this.targetQueueUrl = builder.targetQueueUrl;
+        this.receivers = builder.receivers;
+        this.filter = builder.filter;
+        this.intervalNanos = builder.maxMessagesPerSecond > 0 ? (long) (1e9 / builder.maxMessagesPerSecond) : 0;
+        this.visibilityTimeout = (int) builder.visibilityTimeout.getSeconds();
+        this.waitTimeSeconds = builder.waitTimeSeconds;
+        this.emptyReceivesToStop = builder.emptyReceivesToStop;
+        this.maxAttempts = builder.maxAttempts;
+        this.retryBackoffMillis = builder.retryBackoff.toMillis();
+        this.budget = new AtomicLong(builder.maxMessages);
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Drains the dead-letter queue and returns once every receiver has seen it empty, the message limit is
+     * reached or {@link #stop()} is called. Without a target queue the messages go back to the one source queue
+     * whose redrive policy names the dead-letter queue.
+     *
+     * @throws IllegalStateException if no target was given and the queue has not exactly one source queue
+     */
+    public Result run() throws InterruptedException
+    {
+        String target = targetQueueUrl != null ? targetQueueUrl : sourceQueue();
+        if (target.equals(sourceQueueUrl)) {
+            throw new IllegalStateException("source and target are the same queue");
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(receivers, VirtualThreads.platformFactory("redrive-"));
+        try {
+            List<Future<?>> running = new ArrayList<Future<?>>(receivers);
+            for (int i = 0; i < receivers; i++) {
+                running.add(pool.submit(() -> {
+                    drain(target);
+                    return null;
+                }));
+            }
+            for (Future<?> receiver : running) {
+                try {
+                    receiver.get();
+                } catch (ExecutionException e) {
+                    // A failed call the SDK gave up on; stop the others at their next batch.
+                    stopping = true;
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return progress();
+    }
+
+    // Lets every receiver finish the batch in hand and return.
+    public void stop()
+    {
+        stopping = true;
+    }
+
+    // Counts so far; safe to call while run() is going.
+    public Result progress()
+    {
+        return new Result(moved.get(), skipped.get(), sendFailures.get(), deleteFailures.get());
+    }
+
+    private String sourceQueue()
+    {
+        List<String> sources = sqs.listDeadLetterSourceQueues(r -> r.queueUrl(sourceQueueUrl)).queueUrls();
+        if (sources.size() != 1) {
+            throw new IllegalStateException(sourceQueueUrl + " is the dead-letter queue of " + sources.size()
+                    + " queues; set the target queue explicitly");
+        }
+        return sources.get(0);
+    }
+
+    private void drain(String target) throws InterruptedException
+    {
+        boolean fifo = target.endsWith(".fifo");
+        int empty = 0;
+        while (!stopping) {
+            // Take the batch out of the message limit up front, so parallel receivers cannot overshoot it.
+            int max = (int) Math.min(SqsLimits.MAX_BATCH_ENTRIES, budget.getAndUpdate(
+                    left -> left - Math.min(SqsLimits.MAX_BATCH_ENTRIES, left)));
+            if (max == 0) {
+                return;
+            }
+            List<Message> messages = sqs.receiveMessage(r -> r
+                    .queueUrl(sourceQueueUrl)
+                    .maxNumberOfMessages(max)
+                    .waitTimeSeconds(waitTimeSeconds)
+                    .visibilityTimeout(visibilityTimeout)
+                    .attributeNamesWithStrings("All")
+                    .messageAttributeNames("All")).messages();
+            List<Message> selected = new ArrayList<Message>(messages.size());
+            for (Message message : messages) {
+                if (filter.test(message)) {
+                    selected.add(message);
+                } else {
+                    skipped.incrementAndGet();
+                }
+            }
+            budget.addAndGet(max - selected.size());
+            if (messages.isEmpty()) {
+                if (++empty >= emptyReceivesToStop) {
+                    return;
+                }
+                continue;
+            }
+            empty = 0;
+            if (!selected.isEmpty()) {
+                throttle(selected.size());
+                delete(send(target, selected, fifo));
+            }
+        }
+    }
+
+    // Spaces batches out so that messages leave at no more than the configured rate.
+    private void throttle(int messages) throws InterruptedException
+    {
+        if (intervalNanos == 0) {
+            return;
+        }
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (nextPermitNanos - now < 0) {
+                nextPermitNanos = now;
+            }
+            wait = nextPermitNanos - now;
+            nextPermitNanos += messages * intervalNanos;
+        }
+        TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    /**
+     * @return the messages the target queue accepted
+     */
+    private List<Message> send(String target, List<Message> messages, boolean fifo) throws InterruptedException
+    {
+        Map<String, SendMessageBatchRequestEntry> pending = new LinkedHashMap<String, SendMessageBatchRequestEntry>();
+        Map<String, Message> byId = new LinkedHashMap<String, Message>();
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            String id = Integer.toString(i);
+            SendMessageBatchRequestEntry.Builder entry = SendMessageBatchRequestEntry.builder()
+                    .id(id)
+                    .messageBody(message.body())
+                    .messageAttributes(message.messageAttributes());
+            if (fifo) {
+                // The dead-letter message id as deduplication id makes retried sends of this batch harmless.
+                String group = message.attributes().get(MessageSystemAttributeName.MESSAGE_GROUP_ID);
+                entry.messageGroupId(group != null ? group : message.messageId())
+                     .messageDeduplicationId(message.messageId());
+            }
+            pending.put(id, entry.build());
+            byId.put(id, message);
+        }
+        List<Message> sent = new ArrayList<Message>(messages.size());
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            for (List<SendMessageBatchRequestEntry> batch : splitBySize(pending.values())) {
+                SendMessageBatchResponse response = sqs.sendMessageBatch(r -> r.queueUrl(target).entries(batch));
+                for (SendMessageBatchResultEntry result : response.successful()) {
+                    pending.remove(result.id());
+                    sent.add(byId.get(result.id()));
+                }
+                for (BatchResultErrorEntry error : response.failed()) {
+                    if (error.senderFault() || attempt >= maxAttempts) {
+                        // Stays in the dead-letter queue and becomes visible again after the visibility timeout.
+                        pending.remove(error.id());
+                        sendFailures.incrementAndGet();
+                    }
+                }
+            }
+            if (!pending.isEmpty()) {
+                Thread.sleep(retryBackoffMillis * attempt);
+            }
+        }
+        return sent;
+    }
+
+    // Dead-lettered messages may each be close to the limit, so ten of them need not fit into one request.
+    private static List<List<SendMessageBatchRequestEntry>> splitBySize(Iterable<SendMessageBatchRequestEntry> entries)
+    {
+        List<List<SendMessageBatchRequestEntry>> batches = new ArrayList<List<SendMessageBatchRequestEntry>>();
+        List<SendMessageBatchRequestEntry> batch = new ArrayList<SendMessageBatchRequestEntry>();
+        long bytes = 0;
+        for (SendMessageBatchRequestEntry entry : entries) {
+            int size = SqsLimits.payloadSize(entry);
+            if (!batch.isEmpty() && bytes + size > SqsLimits.MAX_PAYLOAD_BYTES) {
+                batches.add(batch);
+                batch = new ArrayList<SendMessageBatchRequestEntry>();
+                bytes = 0;
+            }
+            batch.add(entry);
+            bytes += size;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private void delete(List<Message> sent) throws InterruptedException
+    {
+        if (sent.isEmpty()) {
+            return;
+        }
+        Map<String, DeleteMessageBatchRequestEntry> pending = new LinkedHashMap<String, DeleteMessageBatchRequestEntry>();
+        for (int i = 0; i < sent.size(); i++) {
+            pending.put(Integer.toString(i), DeleteMessageBatchRequestEntry.builder()
+                    .id(Integer.toString(i))
+                    .receiptHandle(sent.get(i).receiptHandle())
+                    .build());
+        }
+        moved.addAndGet(sent.size());
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            List<DeleteMessageBatchRequestEntry> batch = new ArrayList<DeleteMessageBatchRequestEntry>(pending.values());
+            DeleteMessageBatchResponse response = sqs.deleteMessageBatch(r -> r.queueUrl(sourceQueueUrl).entries(batch));
+            for (DeleteMessageBatchResultEntry result : response.successful()) {
+                pending.remove(result.id());
+            }
+            for (BatchResultErrorEntry error : response.failed()) {
+                if (error.senderFault() || attempt >= maxAttempts) {
+                    // Already copied; it will be dead-lettered again and moved twice.
+                    pending.remove(error.id());
+                    deleteFailures.incrementAndGet();
+                }
+            }
+            if (!pending.isEmpty()) {
+                Thread.sleep(retryBackoffMillis * attempt);
+            }
+        }
+    }
+
+    public static final class Result
+    {
+        private final long moved;
+        private final long skipped;
+        private final long sendFailures;
+        private final long deleteFailures;
+
+        Result(long moved, long skipped, long sendFailures, long deleteFailures)
+        {
+            this.moved = moved;
+            this.skipped = skipped;
+            this.sendFailures = sendFailures;
+            this.deleteFailures = deleteFailures;
+        }
+
+        // Copied to the target; includes messages whose delete then failed.
+        public long moved()
+        {
+            return moved;
+        }
+
+        // Rejected by the filter and left in the dead-letter queue.
+        public long skipped()
+        {
+            return skipped;
+        }
+
+        // Not accepted by the target and left in the dead-letter queue.
+        public long sendFailures()
+        {
+            return sendFailures;
+        }
+
+        // Copied but not deleted, so they will appear in the dead-letter queue again.
+        public long deleteFailures()
+        {
+            return deleteFailures;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "moved=" + moved + " skipped=" + skipped + " sendFailures=" + sendFailures
+                    + " deleteFailures=" + deleteFailures;
+        }
+    }
+
+    public static final class Builder
+    {
+        private SqsClient sqs;
+        private String sourceQueueUrl;
+        private String targetQueueUrl;
+        private int receivers = 8;
+        private Predicate<Message> filter = message -> true;
+        private double maxMessagesPerSecond;
+        private long maxMessages = Long.MAX_VALUE;
+        private Duration visibilityTimeout = Duration.ofMinutes(5);
+        private int waitTimeSeconds = 1;
+        private int emptyReceivesToStop = 2;
+        private int maxAttempts = 3;
+        private Duration retryBackoff = Duration.ofMillis(100);
+
+        private Builder()
+        {
+        }
+
+        public Builder client(SqsClient sqs)
+        {
+            this.sqs = sqs;
+            return this;
+        }
+
+        // The dead-letter queue to drain.
+        public Builder sourceQueueUrl(String sourceQueueUrl)
+        {
+            this.sourceQueueUrl = sourceQueueUrl;
+            return this;
+        }
+
+        // Where the messages go; by default the queue whose redrive policy points at the source.
+        public Builder targetQueueUrl(String targetQueueUrl)
+        {
+            this.targetQueueUrl = targetQueueUrl;
+            return this;
+        }
+
+        // Threads each running a receive, send and delete loop.
+        public Builder receivers(int receivers)
+        {
+            this.receivers = receivers;
+            return this;
+        }
+
+        // Only matching messages are moved.
+        public Builder filter(Predicate<Message> filter)
+        {
+            this.filter = filter;
+            return this;
+        }
+
+        // 0 for no limit; protects the consumers of the target queue from a flood.
+        public Builder maxMessagesPerSecond(double maxMessagesPerSecond)
+        {
+            this.maxMessagesPerSecond = maxMessagesPerSecond;
+            return this;
+        }
+
+        // Stops after receiving this many matching messages.
+        public Builder maxMessages(long maxMessages)
+        {
+            this.maxMessages = maxMessages;
+            return this;
+        }
+
+        // How long received messages stay hidden; must cover a send and delete, and skipped ones stay out of the run.
+        public Builder visibilityTimeout(Duration visibilityTimeout)
+        {
+            this.visibilityTimeout = visibilityTimeout;
+            return this;
+        }
+
+        public Builder waitTimeSeconds(int waitTimeSeconds)
+        {
+            this.waitTimeSeconds = waitTimeSeconds;
+            return this;
+        }
+
+        // Consecutive empty receives after which a receiver considers the queue drained.
+        public Builder emptyReceivesToStop(int emptyReceivesToStop)
+        {
+            this.emptyReceivesToStop = emptyReceivesToStop;
+            return this;
+        }
+
+        // Attempts for entries the service failed on its side, before they are given up on.
+        public Builder maxAttempts(int maxAttempts)
+        {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder retryBackoff(Duration retryBackoff)
+        {
+            this.retryBackoff = retryBackoff;
+            return this;
+        }
+
+        public DeadLetterRedriver build()
+        {
+            if (sqs == null || sourceQueueUrl == null) {
+                throw new IllegalStateException("client and sourceQueueUrl are required");
+            }
+            if (receivers < 1 || maxAttempts < 1 || emptyReceivesToStop < 1 || maxMessages < 0) {
+                throw new IllegalStateException("receivers, maxAttempts and emptyReceivesToStop must be positive");
+            }
+            if (visibilityTimeout.getSeconds() > SqsLimits.MAX_VISIBILITY_TIMEOUT_SECONDS
+                    || waitTimeSeconds < 0 || waitTimeSeconds > SqsLimits.MAX_WAIT_TIME_SECONDS) {
+                throw new IllegalStateException("visibilityTimeout or waitTimeSeconds out of range");
+            }
+            return new DeadLetterRedriver(this);
+        }
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import software.amazon.awssdk.services.sqs.model.Message;
+
+/**
+ * Remembers recently processed message keys so that redelivered copies of a message on a standard queue are
+ * dropped instead of handled twice. {@link #handler(MessageHandler)} wraps a handler for {@link QueueConsumer} or
+ * {@link VirtualThreadConsumer}: a copy whose key was processed is acknowledged without calling the handler,
+ * and a copy that arrives while the first is still being handled fails, so it comes back later and is dropped
+ * then; deleting it right away could lose the message if the first attempt fails.
+ *
+ * Keys are not stored. Each is reduced to a 128-bit fingerprint kept in open-addressed {@code long[]} tables, 16
+ * bytes a slot with no per-entry objects. Counting the spare generation and the free slots of tables rounded up
+ * to a power of two, that is 28 to 57 bytes per key of capacity, where a {@code HashSet<String>} of message ids
+ * needs well over 100 and keeps growing. Every shard keeps four tables as generations: new keys go into the
+ * newest, and when it is full or a third of the expiry time old the oldest is cleared and takes its place. A
+ * key is therefore remembered for at least {@code expireAfter} and at most a third longer, unless more than
+ * {@code capacity} keys arrive within that time, in which case the oldest go early. Memory is allocated up front
+ * and never grows.
+ *
+ * <pre>
+ * // 16 shards x 4 generations x 2^19 slots x 16 bytes: 512 MiB allocated, about 54 bytes per key.
+ * DeduplicationFilter seen = DeduplicationFilter.builder()
+ *         .capacity(10_000_000).expireAfter(Duration.ofHours(1)).build();
+ * QueueConsumer.builder()...handler(seen.handler(message -&gt; process(message)))
+ * </pre>
+ */
+public final class DeduplicationFilter
+{
+    private static final int SHARDS = 16;
+    private static final int GENERATIONS = 4;
+    private static final int SLOT_BYTES = 16;
+    // Lowest bit of the second fingerprint word; the remaining 127 bits identify the key.
+    private static final long DONE = 1L;
+
+    private final Function<Message, String> key;
+    private final long sliceNanos;
+    private final long lifetimeNanos;
+    private final Shard[] shards = new Shard[SHARDS];
+    private final LongAdder duplicates = new LongAdder();
+
+    private DeduplicationFilter(Builder builder)
+    {
+        this.key = builder.key;
+        this.sliceNanos = builder.expireAfter.toNanos() / (GENERATIONS - 1);
+        this.lifetimeNanos = builder.expireAfter.toNanos() + sliceNanos;
+        // Split across shards and generations, rounded up to power-of-two tables at most three quarters full.
+        long perTable = (builder.capacity + SHARDS * (GENERATIONS - 1) - 1) / (SHARDS * (GENERATIONS - 1));
+        int tableSize = Integer.highestOneBit((int) Math.min(1 << 29, Math.max(4, perTable * 4 / 3)) - 1) << 1;
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(tableSize);
+        }
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Wraps a handler so that copies of already processed messages are acknowledged without reaching it.
+     *
+     * @throws IllegalStateException from the returned handler for a copy whose first delivery is still being
+     *         handled; the copy stays in the queue and is dropped once it comes back
+     */
+    public MessageHandler handler(MessageHandler handler)
+    {
+        return message -> {
+            String id = key.apply(message);
+            Fingerprint fingerprint = new Fingerprint(id);
+            Shard shard = shard(fingerprint);
+            int state = shard.claim(fingerprint, System.nanoTime());
+            if (state == Shard.PROCESSED) {
+                duplicates.increment();
+                return;
+            }
+            if (state == Shard.IN_PROGRESS) {
+                throw new IllegalStateException("Message " + id + " is already being handled");
+            }
+            boolean handled = false;
+            try {
+                handler.handle(message);
+                handled = true;
+            } finally {
+                if (handled) {
+                    shard.complete(fingerprint, System.nanoTime());
+                } else {
+                    shard.release(fingerprint);
+                }
+            }
+        };
+    }
+
+    // True if the key was marked processed within the expiry time.
+    public boolean contains(String key)
+    {
+        Fingerprint fingerprint = new Fingerprint(key);
+        return shard(fingerprint).state(fingerprint, System.nanoTime()) == Shard.PROCESSED;
+    }
+
+    /**
+     * Marks a key processed.
+     *
+     * @return false if it already was
+     */
+    public boolean add(String key)
+    {
+        Fingerprint fingerprint = new Fingerprint(key);
+        return shard(fingerprint).complete(fingerprint, System.nanoTime());
+    }
+
+    // Copies dropped by handler(...) so far.
+    public long duplicates()
+    {
+        return duplicates.sum();
+    }
+
+    // Bytes held by the tables, fixed at construction.
+    public long memoryBytes()
+    {
+        return (long) SHARDS * GENERATIONS * shards[0].tables[0].capacity() * SLOT_BYTES;
+    }
+
+    private Shard shard(Fingerprint fingerprint)
+    {
+        return shards[(int) (fingerprint.high >>> 60)];
+    }
+
+    // MurmurHash3 x64 128 over the UTF-16 code units, four to a word, without copying the string into bytes.
+    private static final class Fingerprint
+    {
+        private static final long C1 = 0x87c37b91114253d5L;
+        private static final long C2 = 0x4cf5ad432745937fL;
+
+        final long high;
+        final long low;
+
+        Fingerprint(String key)
+        {
+            int length = key.length();
+            long h1 = 0;
+            long h2 = 0;
+            int i = 0;
+            for (; i + 8 <= length; i += 8) {
+                h1 ^= mixK1(word(key, i));
+                h1 = Long.rotateLeft(h1, 27) + h2;
+                h1 = h1 * 5 + 0x52dce729;
+                h2 ^= mixK2(word(key, i + 4));
+                h2 = Long.rotateLeft(h2, 31) + h1;
+                h2 = h2 * 5 + 0x38495ab5;
+            }
+            long k1 = 0;
+            long k2 = 0;
+            for (int j = i; j < length; j++) {
+                long c = key.charAt(j);
+                if (j - i < 4) {
+                    k1 |= c << (16 * (j - i));
+                } else {
+                    k2 |= c << (16 * (j - i - 4));
+                }
+            }
+            if (length - i > 4) {
+                h2 ^= mixK2(k2);
+            }
+            if (length > i) {
+                h1 ^= mixK1(k1);
+            }
+            h1 ^= 2L * length;
+            h2 ^= 2L * length;
+            h1 += h2;
+            h2 += h1;
+            h1 = fmix(h1);
+            h2 = fmix(h2);
+            h1 += h2;
+            h2 += h1;
+            // A zero first word marks an empty slot.
+            this.high = h1 != 0 ? h1 : 1;
+            this.low = h2 & ~DONE;
+        }
+
+        private static long word(String key, int i)
+        {
+            return key.charAt(i) | (long) key.charAt(i + 1) << 16 | (long) key.charAt(i + 2) << 32
+                    | (long) key.charAt(i + 3) << 48;
+        }
+
+        private static long mixK1(long k1)
+        {
+            return Long.rotateLeft(k1 * C1, 31) * C2;
+        }
+
+        private static long mixK2(long k2)
+        {
+            return Long.rotateLeft(k2 * C2, 33) * C1;
+        }
+
+        private static long fmix(long k)
+        {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+    }
+
+    private final class Shard
+    {
+        static final int ABSENT = 0;
+        static final int IN_PROGRESS = 1;
+        static final int PROCESSED = 2;
+
+        // Guarded by this
+        final Table[] tables = new Table[GENERATIONS];
+        int current;
+        // Set by find
+        Table foundTable;
+        int foundSlot;
+
+        Shard(int tableSize)
+        {
+            for (int i = 0; i < GENERATIONS; i++) {
+                tables[i] = new Table(tableSize);
+            }
+            tables[0].startedNanos = System.nanoTime();
+        }
+
+        synchronized int state(Fingerprint fingerprint, long now)
+        {
+            return find(fingerprint, now) ? stateOf(foundTable, foundSlot) : ABSENT;
+        }
+
+        // Registers the key as being handled unless it is already known.
+        synchronized int claim(Fingerprint fingerprint, long now)
+        {
+            if (find(fingerprint, now)) {
+                return stateOf(foundTable, foundSlot);
+            }
+            insert(fingerprint.high, fingerprint.low, now);
+            return ABSENT;
+        }
+
+        // Returns false if the key was already marked processed.
+        synchronized boolean complete(Fingerprint fingerprint, long now)
+        {
+            if (!find(fingerprint, now)) {
+                // Also the case if handling outlasted the generation that held the claim.
+                insert(fingerprint.high, fingerprint.low | DONE, now);
+                return true;
+            }
+            if (stateOf(foundTable, foundSlot) == PROCESSED) {
+                return false;
+            }
+            foundTable.slots[2 * foundSlot + 1] |= DONE;
+            return true;
+        }
+
+        // Forgets a claim after the handler failed, so the next delivery is handled again.
+        synchronized void release(Fingerprint fingerprint)
+        {
+            if (find(fingerprint, System.nanoTime()) && stateOf(foundTable, foundSlot) == IN_PROGRESS) {
+                foundTable.remove(foundSlot);
+            }
+        }
+
+        private int stateOf(Table table, int slot)
+        {
+            return (table.slots[2 * slot + 1] & DONE) != 0 ? PROCESSED : IN_PROGRESS;
+        }
+
+        private boolean find(Fingerprint fingerprint, long now)
+        {
+            for (int age = 0; age < GENERATIONS; age++) {
+                Table table = tables[Math.floorMod(current - age, GENERATIONS)];
+                if (table.size == 0 || now - table.startedNanos >= lifetimeNanos) {
+                    continue;
+                }
+                int slot = table.indexOf(fingerprint.high, fingerprint.low);
+                if (slot >= 0) {
+                    foundTable = table;
+                    foundSlot = slot;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void insert(long high, long low, long now)
+        {
+            Table table = tables[current];
+            if (table.size >= table.limit || now - table.startedNanos >= sliceNanos) {
+                current = (current + 1) % GENERATIONS;
+                table = tables[current];
+                table.clear();
+                table.startedNanos = now;
+            }
+            table.put(high, low);
+        }
+    }
+
+    // Linear probing over (high, low) pairs.
+    private static final class Table
+    {
+        final long[] slots;
+        final int mask;
+        final int limit;
+        int size;
+        long startedNanos;
+
+        Table(int capacity)
+        {
+            this.slots = new long[2 * capacity];
+            this.mask = capacity - 1;
+            this.limit = capacity / 4 * 3;
+        }
+
+        int capacity()
+        {
+            return mask + 1;
+        }
+
+        int indexOf(long high, long low)
+        {
+            for (int i = (int) high & mask; slots[2 * i] != 0; i = (i + 1) & mask) {
+                if (slots[2 * i] == high && (slots[2 * i + 1] & ~DONE) == low) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void put(long high, long low)
+        {
+            int i = (int) high & mask;
+            while (slots[2 * i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[2 * i] = high;
+            slots[2 * i + 1] = low;
+            size++;
+        }
+
+        // Shifts later entries of the probe run back, so lookups never need tombstones.
+        void remove(int slot)
+        {
+            int hole = slot;
+            for (int i = (hole + 1) & mask; slots[2 * i] != 0; i = (i + 1) & mask) {
+                int home = (int) slots[2 * i] & mask;
+                boolean movable = hole <= i ? home <= hole || home > i : home <= hole && home > i;
+                if (movable) {
+                    slots[2 * hole] = slots[2 * i];
+                    slots[2 * hole + 1] = slots[2 * i + 1];
+                    hole = i;
+                }
+            }
+            slots[2 * hole] = 0;
+            slots[2 * hole + 1] = 0;
+            size--;
+        }
+
+        void clear()
+        {
+            Arrays.fill(slots, 0);
+            size = 0;
+        }
+    }
+
+    public static final class Builder
+    {
+        private long capacity = 1000000;
+        private Duration expireAfter = Duration.ofMinutes(15);
+        private Function<Message, String> key = Message::messageId;
+
+        private Builder()
+        {
+        }
+
+        // Keys that can be remembered for the full expiry time; more arrive and the oldest are forgotten early.
+        public Builder capacity(long capacity)
+        {
+            this.capacity = capacity;
+            return this;
+        }
+
+        // How long a processed key is remembered; should cover the longest time between duplicate deliveries.
+        public Builder expireAfter(Duration expireAfter)
+        {
+            this.expireAfter = expireAfter;
+            return this;
+        }
+
+        // What makes two messages the same; the message id by default, or e.g. an attribute set by the producer.
+        public Builder key(Function<Message, String> key)
+        {
+            this.key = key;
+            return this;
+        }
+
+        public DeduplicationFilter build()
+        {
+            if (capacity < 1 || expireAfter.isNegative() || expireAfter.isZero() || key == null) {
+                throw new IllegalStateException("capacity and expireAfter must be positive and key set");
+            }
+            return new DeduplicationFilter(this);
+        }
+    }
+}
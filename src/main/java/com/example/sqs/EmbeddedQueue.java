@@ -0,0 +1,763 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Storage of one queue of the {@link EmbeddedSqsServer}. Messages are spread over independently locked
+ * stripes: sends go round-robin, receives start at a rotating stripe and move on until the batch is full, so
+ * concurrent producers and consumers rarely touch the same lock. Ordering across stripes is best effort,
+ * as it is for a standard SQS queue.
+ *
+ * Visible messages wait in a deque per stripe. Delayed and in-flight messages sit in a priority queue keyed by
+ * the time they become visible; entries made stale by a delete or visibility change are skipped when they
+ * reach the head instead of being searched for.
+ *
+ * A FIFO queue (a name ending in .fifo) keeps its messages in one deque per message group instead, in send
+ * order. A message stays at the head of its group while it is in flight, and a group with a message in flight
+ * is passed over by receives, so a group is only ever worked on by one receiver and comes back in order after
+ * a failure. Deduplication ids are remembered for five minutes.
+ */
+final class EmbeddedQueue
+{
+    static final int MAX_IN_FLIGHT = 120000;
+    static final String FIFO_SUFFIX = ".fifo";
+
+    private static final Pattern MAX_RECEIVE_COUNT = Pattern.compile("\"maxReceiveCount\"\\s*:\\s*\"?(\\d+)");
+    private static final Pattern TARGET_ARN = Pattern.compile("\"deadLetterTargetArn\"\\s*:\\s*\"([^\"]+)\"");
+    private static final long MAX_POLL_SLICE_MILLIS = 100;
+    private static final long DEDUPLICATION_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    final String name;
+    final String url;
+    final String arn;
+    final long createdMillis;
+    private final Map<String, String> attributes = new ConcurrentHashMap<String, String>();
+    private final Function<String, EmbeddedQueue> queuesByArn;
+    private final Stripe[] stripes;
+    private final FifoStore fifo;
+    private final AtomicInteger sendCursor = new AtomicInteger();
+    private final AtomicInteger receiveCursor = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong handles = new AtomicLong();
+    private final Object arrivals = new Object();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong arrivalCount = new AtomicLong();
+    private volatile long lastModifiedMillis;
+    private volatile int maxReceiveCount;
+    private volatile String deadLetterTargetArn;
+
+    EmbeddedQueue(String name, String url, String arn, int stripeCount, Function<String, EmbeddedQueue> queuesByArn)
+    {
+        this.name = name;
+        this.url = url;
+        this.arn = arn;
+        this.queuesByArn = queuesByArn;
+        this.createdMillis = System.currentTimeMillis();
+        this.lastModifiedMillis = createdMillis;
+        // FIFO queues keep everything in one store; splitting them over stripes would lose the order.
+        this.fifo = name.endsWith(FIFO_SUFFIX) ? new FifoStore() : null;
+        this.stripes = new Stripe[fifo != null ? 0 : stripeCount];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(i);
+        }
+        attributes.put("VisibilityTimeout", "30");
+        attributes.put("DelaySeconds", "0");
+        attributes.put("ReceiveMessageWaitTimeSeconds", "0");
+        attributes.put("MessageRetentionPeriod", "345600");
+        attributes.put("MaximumMessageSize", Integer.toString(SqsLimits.MAX_PAYLOAD_BYTES));
+        if (fifo != null) {
+            attributes.put("FifoQueue", "true");
+            attributes.put("ContentBasedDeduplication", "false");
+        }
+    }
+
+    boolean isFifo()
+    {
+        return fifo != null;
+    }
+
+    Map<String, String> attributes()
+    {
+        Map<String, String> all = new HashMap<String, String>(attributes);
+        all.put("QueueArn", arn);
+        all.put("CreatedTimestamp", Long.toString(TimeUnit.MILLISECONDS.toSeconds(createdMillis)));
+        all.put("LastModifiedTimestamp", Long.toString(TimeUnit.MILLISECONDS.toSeconds(lastModifiedMillis)));
+        int visible = 0;
+        int delayed = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                visible += stripe.ready.size();
+                delayed += stripe.delayed;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        if (fifo != null) {
+            int[] counts = fifo.counts();
+            visible = counts[0];
+            delayed = counts[1];
+        }
+        all.put("ApproximateNumberOfMessages", Integer.toString(visible));
+        all.put("ApproximateNumberOfMessagesNotVisible", Integer.toString(inFlight.get()));
+        all.put("ApproximateNumberOfMessagesDelayed", Integer.toString(delayed));
+        return all;
+    }
+
+    String attribute(String name)
+    {
+        return attributes.get(name);
+    }
+
+    void setAttribute(String name, String value)
+    {
+        if ("RedrivePolicy".equals(name)) {
+            Matcher count = MAX_RECEIVE_COUNT.matcher(value);
+            Matcher target = TARGET_ARN.matcher(value);
+            if (value.isEmpty()) {
+                maxReceiveCount = 0;
+                deadLetterTargetArn = null;
+                attributes.remove(name);
+                return;
+            }
+            if (!count.find() || !target.find()) {
+                throw EmbeddedSqsServer.invalidParameter("Invalid value for the parameter RedrivePolicy.");
+            }
+            deadLetterTargetArn = target.group(1);
+            maxReceiveCount = Integer.parseInt(count.group(1));
+        }
+        attributes.put(name, value);
+        lastModifiedMillis = System.currentTimeMillis();
+    }
+
+    boolean redrivesTo(String targetArn)
+    {
+        return targetArn.equals(deadLetterTargetArn);
+    }
+
+    /**
+     * @return the stored message, or for a FIFO queue a stand-in for the earlier one with the same deduplication id
+     */
+    StoredMessage send(String body, SortedMap<String, MessageAttribute> messageAttributes, Integer delaySeconds,
+            String groupId, String deduplicationId)
+    {
+        long now = System.currentTimeMillis();
+        int delay = delaySeconds != null ? delaySeconds : Integer.parseInt(attributes.get("DelaySeconds"));
+        StoredMessage message = new StoredMessage(newMessageId(), body, messageAttributes, now, groupId, deduplicationId);
+        long visibleAt = delay > 0 ? now + TimeUnit.SECONDS.toMillis(delay) : 0;
+        if (fifo != null) {
+            StoredMessage first = fifo.add(message, visibleAt, true);
+            if (first == message) {
+                signalArrival();
+                return message;
+            }
+            // The sender gets the first message's id and sequence number, but checksums of what it sent.
+            StoredMessage duplicate = new StoredMessage(first.id, body, messageAttributes, now, groupId, deduplicationId);
+            duplicate.sequenceNumber = first.sequenceNumber;
+            return duplicate;
+        }
+        enqueue(message, visibleAt);
+        return message;
+    }
+
+    // Dead-letter moves keep the message id, body and attributes but start with a fresh receive count.
+    private void move(StoredMessage from)
+    {
+        StoredMessage moved = new StoredMessage(from.id, from.body, from.attributes, from.sentMillis,
+                from.groupId, from.deduplicationId);
+        if (fifo != null) {
+            fifo.add(moved, 0, false);
+            signalArrival();
+        } else {
+            enqueue(moved, 0);
+        }
+    }
+
+    // visibleAt is 0 for messages that are visible right away.
+    private void enqueue(StoredMessage message, long visibleAt)
+    {
+        Stripe stripe = stripes[Math.floorMod(sendCursor.getAndIncrement(), stripes.length)];
+        stripe.lock.lock();
+        try {
+            if (visibleAt > 0) {
+                stripe.delayed++;
+                stripe.hide(message, visibleAt);
+            } else {
+                stripe.ready.add(message);
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+        signalArrival();
+    }
+
+    private void signalArrival()
+    {
+        arrivalCount.incrementAndGet();
+        if (waiting.get() > 0) {
+            synchronized (arrivals) {
+                arrivals.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Receives up to max messages, long-polling for up to waitMillis while the queue is empty.
+     */
+    List<Received> receive(int max, int visibilitySeconds, long waitMillis) throws InterruptedException
+    {
+        if (inFlight.get() >= MAX_IN_FLIGHT) {
+            throw new EmbeddedSqsServer.SqsError("OverLimit",
+                    "Too many messages in flight, the limit is " + MAX_IN_FLIGHT + ".", true, 403);
+        }
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (true) {
+            long arrivalsBefore = arrivalCount.get();
+            List<Received> received = receiveNow(max, visibilitySeconds);
+            long remaining = deadline - System.currentTimeMillis();
+            if (!received.isEmpty() || remaining <= 0) {
+                return received;
+            }
+            waiting.incrementAndGet();
+            try {
+                synchronized (arrivals) {
+                    // Delayed and returning messages do not signal, so wake up periodically to look for them.
+                    if (arrivalCount.get() == arrivalsBefore) {
+                        arrivals.wait(Math.min(remaining, MAX_POLL_SLICE_MILLIS));
+                    }
+                }
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+    }
+
+    private List<Received> receiveNow(int max, int visibilitySeconds)
+    {
+        long now = System.currentTimeMillis();
+        long retentionMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(attributes.get("MessageRetentionPeriod")));
+        int redriveAfter = maxReceiveCount;
+        String targetArn = deadLetterTargetArn;
+        // Without an existing target queue messages stay where they are, as they would in SQS.
+        EmbeddedQueue target = redriveAfter > 0 && targetArn != null ? queuesByArn.apply(targetArn) : null;
+        long visibilityMillis = TimeUnit.SECONDS.toMillis(visibilitySeconds);
+        List<Received> received = new ArrayList<Received>(max);
+        List<StoredMessage> deadLetters = null;
+        if (fifo != null) {
+            deadLetters = fifo.receive(max, now, visibilityMillis, retentionMillis,
+                    target != null ? redriveAfter : 0, received);
+        }
+        int start = receiveCursor.getAndIncrement();
+        for (int i = 0; i < stripes.length && received.size() < max; i++) {
+            Stripe stripe = stripes[Math.floorMod(start + i, stripes.length)];
+            stripe.lock.lock();
+            try {
+                stripe.reveal(now);
+                StoredMessage message;
+                while (received.size() < max && (message = stripe.ready.poll()) != null) {
+                    if (now - message.sentMillis > retentionMillis) {
+                        continue;
+                    }
+                    if (target != null && message.receiveCount >= redriveAfter) {
+                        if (deadLetters == null) {
+                            deadLetters = new ArrayList<StoredMessage>();
+                        }
+                        deadLetters.add(message);
+                        continue;
+                    }
+                    received.add(stripe.lease(message, now, visibilityMillis));
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        if (deadLetters != null) {
+            // Moved outside the stripe lock, since the target queue takes its own locks.
+            for (StoredMessage message : deadLetters) {
+                target.move(message);
+            }
+        }
+        return received;
+    }
+
+    /**
+     * @return false if the handle is well formed but does not belong to an in-flight message
+     */
+    boolean delete(String receiptHandle)
+    {
+        if (fifo != null) {
+            return unlocked(fifo.delete(checkFifoHandle(receiptHandle)));
+        }
+        Stripe stripe = stripeOf(receiptHandle);
+        stripe.lock.lock();
+        try {
+            StoredMessage message = stripe.inFlight.remove(receiptHandle);
+            if (message == null) {
+                return false;
+            }
+            inFlight.decrementAndGet();
+            message.version++;
+            return true;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    boolean changeVisibility(String receiptHandle, int visibilitySeconds)
+    {
+        if (fifo != null) {
+            return unlocked(fifo.changeVisibility(checkFifoHandle(receiptHandle), visibilitySeconds));
+        }
+        Stripe stripe = stripeOf(receiptHandle);
+        stripe.lock.lock();
+        try {
+            StoredMessage message = stripe.inFlight.get(receiptHandle);
+            if (message == null) {
+                return false;
+            }
+            stripe.hide(message, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(visibilitySeconds));
+            return true;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // A delete or visibility change may free a FIFO group that long polls are waiting for.
+    private boolean unlocked(boolean changed)
+    {
+        if (changed) {
+            signalArrival();
+        }
+        return changed;
+    }
+
+    void purge()
+    {
+        if (fifo != null) {
+            fifo.purge();
+        }
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                inFlight.addAndGet(-stripe.inFlight.size());
+                stripe.ready.clear();
+                stripe.hidden.clear();
+                stripe.inFlight.clear();
+                stripe.delayed = 0;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    private Stripe stripeOf(String receiptHandle)
+    {
+        int separator = receiptHandle.indexOf('-', name.length() + 1);
+        if (separator > 0 && receiptHandle.startsWith(name + ":")) {
+            try {
+                int index = Integer.parseInt(receiptHandle.substring(name.length() + 1, separator));
+                if (index >= 0 && index < stripes.length) {
+                    return stripes[index];
+                }
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        throw invalidHandle(receiptHandle);
+    }
+
+    private String checkFifoHandle(String receiptHandle)
+    {
+        if (!receiptHandle.startsWith(name + ":f-")) {
+            throw invalidHandle(receiptHandle);
+        }
+        return receiptHandle;
+    }
+
+    private static EmbeddedSqsServer.SqsError invalidHandle(String receiptHandle)
+    {
+        return new EmbeddedSqsServer.SqsError("ReceiptHandleIsInvalid",
+                "The input receipt handle \"" + receiptHandle + "\" is not a valid receipt handle.", true, 400);
+    }
+
+    private static String newMessageId()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // Version 4 layout without the cost of SecureRandom.
+        long high = (random.nextLong() & ~0xF000L) | 0x4000L;
+        long low = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(high, low).toString();
+    }
+
+    private final class Stripe
+    {
+        final int index;
+        final ReentrantLock lock = new ReentrantLock();
+        final ArrayDeque<StoredMessage> ready = new ArrayDeque<StoredMessage>();
+        final PriorityQueue<Hidden> hidden = new PriorityQueue<Hidden>();
+        final Map<String, StoredMessage> inFlight = new HashMap<String, StoredMessage>();
+        int delayed;
+
+        Stripe(int index)
+        {
+            this.index = index;
+        }
+
+        void hide(StoredMessage message, long visibleAt)
+        {
+            message.version++;
+            hidden.add(new Hidden(message, visibleAt, message.version));
+        }
+
+        // Moves delayed and expired in-flight messages whose time has come back to the ready deque.
+        void reveal(long now)
+        {
+            Hidden next;
+            while ((next = hidden.peek()) != null && next.visibleAt <= now) {
+                hidden.poll();
+                StoredMessage message = next.message;
+                if (next.version != message.version) {
+                    continue;
+                }
+                if (message.receiptHandle != null) {
+                    if (inFlight.remove(message.receiptHandle) == null) {
+                        continue;
+                    }
+                    EmbeddedQueue.this.inFlight.decrementAndGet();
+                    message.receiptHandle = null;
+                } else {
+                    delayed--;
+                }
+                ready.add(message);
+            }
+        }
+
+        Received lease(StoredMessage message, long now, long visibilityMillis)
+        {
+            message.receiveCount++;
+            if (message.firstReceiveMillis == 0) {
+                message.firstReceiveMillis = now;
+            }
+            message.receiptHandle = name + ":" + index + "-" + handles.incrementAndGet() + "-" + message.id;
+            inFlight.put(message.receiptHandle, message);
+            EmbeddedQueue.this.inFlight.incrementAndGet();
+            hide(message, now + visibilityMillis);
+            return new Received(message, message.receiptHandle, message.receiveCount, message.firstReceiveMillis);
+        }
+    }
+
+    private final class FifoStore
+    {
+        final ReentrantLock lock = new ReentrantLock();
+        // Groups in the order their oldest message arrived; a group is dropped once it is empty.
+        final LinkedHashMap<String, ArrayDeque<StoredMessage>> groups =
+                new LinkedHashMap<String, ArrayDeque<StoredMessage>>();
+        final Map<String, StoredMessage> inFlight = new HashMap<String, StoredMessage>();
+        // Deduplication ids in the order they were first sent, so expired ones are always at the front.
+        final LinkedHashMap<String, StoredMessage> sent = new LinkedHashMap<String, StoredMessage>();
+        long sequence;
+
+        // Returns the message that was first sent with the same deduplication id instead, if there is one.
+        StoredMessage add(StoredMessage message, long visibleAt, boolean deduplicate)
+        {
+            lock.lock();
+            try {
+                if (deduplicate && message.deduplicationId != null) {
+                    Iterator<StoredMessage> oldest = sent.values().iterator();
+                    while (oldest.hasNext()
+                            && message.sentMillis - oldest.next().sentMillis > DEDUPLICATION_WINDOW_MILLIS) {
+                        oldest.remove();
+                    }
+                    StoredMessage first = sent.get(message.deduplicationId);
+                    if (first != null) {
+                        return first;
+                    }
+                    sent.put(message.deduplicationId, message);
+                }
+                message.sequenceNumber = ++sequence;
+                message.visibleAt = visibleAt;
+                String group = message.groupId != null ? message.groupId : "";
+                ArrayDeque<StoredMessage> messages = groups.get(group);
+                if (messages == null) {
+                    messages = new ArrayDeque<StoredMessage>();
+                    groups.put(group, messages);
+                }
+                messages.add(message);
+                return message;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Leases up to max messages into received, taking as many as possible from each group before moving on.
+         *
+         * @return messages to move to the dead-letter queue, or null
+         */
+        List<StoredMessage> receive(int max, long now, long visibilityMillis, long retentionMillis, int redriveAfter,
+                List<Received> received)
+        {
+            List<StoredMessage> deadLetters = null;
+            lock.lock();
+            try {
+                Iterator<ArrayDeque<StoredMessage>> groupIterator = groups.values().iterator();
+                while (received.size() < max && groupIterator.hasNext()) {
+                    ArrayDeque<StoredMessage> messages = groupIterator.next();
+                    if (locked(messages, now)) {
+                        continue;
+                    }
+                    Iterator<StoredMessage> iterator = messages.iterator();
+                    while (received.size() < max && iterator.hasNext()) {
+                        StoredMessage message = iterator.next();
+                        if (message.receiptHandle != null) {
+                            // Its visibility timeout ran out; it is first in line again.
+                            inFlight.remove(message.receiptHandle);
+                            EmbeddedQueue.this.inFlight.decrementAndGet();
+                            message.receiptHandle = null;
+                        }
+                        if (message.visibleAt > now) {
+                            break;
+                        }
+                        if (now - message.sentMillis > retentionMillis) {
+                            iterator.remove();
+                            continue;
+                        }
+                        if (redriveAfter > 0 && message.receiveCount >= redriveAfter) {
+                            if (deadLetters == null) {
+                                deadLetters = new ArrayList<StoredMessage>();
+                            }
+                            deadLetters.add(message);
+                            iterator.remove();
+                            continue;
+                        }
+                        received.add(lease(message, now, visibilityMillis));
+                    }
+                    if (messages.isEmpty()) {
+                        groupIterator.remove();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            return deadLetters;
+        }
+
+        // In-flight messages form a prefix of their group; any of them still invisible locks the group.
+        private boolean locked(ArrayDeque<StoredMessage> messages, long now)
+        {
+            for (StoredMessage message : messages) {
+                if (message.receiptHandle == null) {
+                    return false;
+                }
+                if (message.visibleAt > now) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private Received lease(StoredMessage message, long now, long visibilityMillis)
+        {
+            message.receiveCount++;
+            if (message.firstReceiveMillis == 0) {
+                message.firstReceiveMillis = now;
+            }
+            message.receiptHandle = name + ":f-" + handles.incrementAndGet() + "-" + message.id;
+            message.visibleAt = now + visibilityMillis;
+            inFlight.put(message.receiptHandle, message);
+            EmbeddedQueue.this.inFlight.incrementAndGet();
+            return new Received(message, message.receiptHandle, message.receiveCount, message.firstReceiveMillis);
+        }
+
+        boolean delete(String receiptHandle)
+        {
+            lock.lock();
+            try {
+                StoredMessage message = inFlight.remove(receiptHandle);
+                if (message == null) {
+                    return false;
+                }
+                EmbeddedQueue.this.inFlight.decrementAndGet();
+                message.receiptHandle = null;
+                String group = message.groupId != null ? message.groupId : "";
+                ArrayDeque<StoredMessage> messages = groups.get(group);
+                // Near the head, since in-flight messages are never behind waiting ones.
+                if (messages != null && messages.remove(message) && messages.isEmpty()) {
+                    groups.remove(group);
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean changeVisibility(String receiptHandle, int visibilitySeconds)
+        {
+            lock.lock();
+            try {
+                StoredMessage message = inFlight.get(receiptHandle);
+                if (message == null) {
+                    return false;
+                }
+                message.visibleAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(visibilitySeconds);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Visible and delayed message counts; in-flight ones are counted by the queue.
+        int[] counts()
+        {
+            long now = System.currentTimeMillis();
+            int visible = 0;
+            int delayed = 0;
+            lock.lock();
+            try {
+                for (ArrayDeque<StoredMessage> messages : groups.values()) {
+                    for (StoredMessage message : messages) {
+                        if (message.receiptHandle != null) {
+                            continue;
+                        }
+                        if (message.visibleAt > now) {
+                            delayed++;
+                        } else {
+                            visible++;
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            return new int[] {visible, delayed};
+        }
+
+        void purge()
+        {
+            lock.lock();
+            try {
+                EmbeddedQueue.this.inFlight.addAndGet(-inFlight.size());
+                groups.clear();
+                inFlight.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class Hidden implements Comparable<Hidden>
+    {
+        final StoredMessage message;
+        final long visibleAt;
+        final long version;
+
+        Hidden(StoredMessage message, long visibleAt, long version)
+        {
+            this.message = message;
+            this.visibleAt = visibleAt;
+            this.version = version;
+        }
+
+        @Override
+        public int compareTo(Hidden other)
+        {
+            return Long.compare(visibleAt, other.visibleAt);
+        }
+    }
+
+    static final class MessageAttribute
+    {
+        final String dataType;
+        final String stringValue;
+        final byte[] binaryValue;
+
+        MessageAttribute(String dataType, String stringValue, byte[] binaryValue)
+        {
+            this.dataType = dataType;
+            this.stringValue = stringValue;
+            this.binaryValue = binaryValue;
+        }
+    }
+
+    static final class StoredMessage
+    {
+        final String id;
+        final String body;
+        final SortedMap<String, MessageAttribute> attributes;
+        final long sentMillis;
+        // Null unless the sender set them
+        final String groupId;
+        final String deduplicationId;
+        // Guarded by the lock of the stripe or FIFO store holding the message
+        long version;
+        int receiveCount;
+        long firstReceiveMillis;
+        String receiptHandle;
+        // FIFO queues only: position in the queue, and when the message may next be received
+        long sequenceNumber;
+        long visibleAt;
+
+        StoredMessage(String id, String body, SortedMap<String, MessageAttribute> attributes, long sentMillis,
+                String groupId, String deduplicationId)
+        {
+            this.id = id;
+            this.body = body;
+            this.attributes = attributes == null
+                    ? Collections.<String, MessageAttribute>emptySortedMap() : attributes;
+            this.sentMillis = sentMillis;
+            this.groupId = groupId;
+            this.deduplicationId = deduplicationId;
+        }
+    }
+
+    // What a receive saw, independent of later changes to the stored message.
+    static final class Received
+    {
+        final StoredMessage message;
+        final String receiptHandle;
+        final int receiveCount;
+        final long firstReceiveMillis;
+
+        Received(StoredMessage message, String receiptHandle, int receiveCount, long firstReceiveMillis)
+        {
+            this.message = message;
+            this.receiptHandle = receiptHandle;
+            this.receiveCount = receiveCount;
+            this.firstReceiveMillis = firstReceiveMillis;
+        }
+    }
+}
@@ -0,0 +1,1015 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process, in-memory server speaking the SQS query protocol used by both SDK versions in this project, so
+ * tests and load runs need no external ElasticMQ. Queue URLs follow the ElasticMQ layout
+ * (http://host:port/queue/name), and the default port used by the tests is ElasticMQ's 9324.
+ *
+ * Supported actions: CreateQueue, GetQueueUrl, ListQueues, DeleteQueue, GetQueueAttributes, SetQueueAttributes,
+ * PurgeQueue, SendMessage(Batch), ReceiveMessage (with long polling), DeleteMessage(Batch),
+ * ChangeMessageVisibility(Batch) and ListDeadLetterSourceQueues. Redrive policies move messages to the dead-letter
+ * queue once they have been received maxReceiveCount times. FIFO queues keep each message group in order, hold
+ * back a group while one of its messages is in flight, and drop sends repeating a deduplication id seen within
+ * the last five minutes. Message and attribute MD5s are computed the way the SDKs verify them. Authentication
+ * is not checked. With {@code maxRequestsPerSecond} set, calls of one action on one queue beyond that many in
+ * a second fail with RequestThrottled, for testing how clients cope with throttling.
+ *
+ * <pre>
+ * try (EmbeddedSqsServer server = EmbeddedSqsServer.builder().build().start()) {
+ *     SqsClient sqs = SqsClient.builder().endpointOverride(server.endpoint())...build();
+ * }
+ * </pre>
+ */
+public class EmbeddedSqsServer implements AutoCloseable
+{
+    private static final String NAMESPACE = "http://queue.amazonaws.com/doc/2012-11-05/";
+    private static final Pattern QUEUE_NAME = Pattern.compile("[A-Za-z0-9_-]{1,80}|[A-Za-z0-9_-]{1,75}\\.fifo");
+    private static final Pattern MESSAGE_GROUP_ID = Pattern.compile("[!-~]{1,128}");
+    private static final Set<String> SETTABLE_ATTRIBUTES = new HashSet<String>(Arrays.asList(
+            "VisibilityTimeout", "DelaySeconds", "ReceiveMessageWaitTimeSeconds", "MessageRetentionPeriod",
+            "MaximumMessageSize", "RedrivePolicy", "Policy", "KmsMasterKeyId", "KmsDataKeyReusePeriodSeconds",
+            "ContentBasedDeduplication"));
+    private static final Set<String> BOOLEAN_ATTRIBUTES = new HashSet<String>(Arrays.asList(
+            "FifoQueue", "ContentBasedDeduplication"));
+
+    private final String host;
+    private final int requestedPort;
+    private final int stripes;
+    private final String region;
+    private final String accountId;
+    private final int maxRequestsPerSecond;
+    private final ConcurrentMap<String, EmbeddedQueue> queues = new ConcurrentHashMap<String, EmbeddedQueue>();
+    private HttpServer server;
+    private ExecutorService executor;
+    // Start second and request count of the current window, by action and queue; used with a request limit.
+    private final ConcurrentMap<String, long[]> requestWindows = new ConcurrentHashMap<String, long[]>();
+
+    private EmbeddedSqsServer(Builder builder)
+    {
+        this.host = builder.host;
+        this.requestedPort = builder.port;
+        this.stripes = builder.stripes;
+        this.region = builder.region;
+        this.accountId = builder.accountId;
+        this.maxRequestsPerSecond = builder.maxRequestsPerSecond;
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Runs a server until the process is killed: EmbeddedSqsServer [port]
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9324;
+        EmbeddedSqsServer server = builder().port(port).build().start();
+        System.out.println("SQS endpoint listening on " + server.endpoint());
+        Thread.currentThread().join();
+    }
+
+    /**
+     * Binds the port and starts serving.
+     *
+     * @throws java.net.BindException if the port is taken, e.g. by a running ElasticMQ
+     */
+    public synchronized EmbeddedSqsServer start() throws IOException
+    {
+        if (server != null) {
+            throw new IllegalStateException("Server already started");
+        }
+        // The SDKs write headers and body separately; with Nagle on, every request waits for a delayed ACK.
+        // Read once by the JDK server, so it only takes effect if set before the first server is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        HttpServer http = HttpServer.create(new InetSocketAddress(host, requestedPort), 1024);
+        // Long polls hold their thread, so the pool must grow with the number of open receives.
+        executor = Executors.newCachedThreadPool(VirtualThreads.platformFactory("embedded-sqs-"));
+        http.setExecutor(executor);
+        http.createContext("/", this::handle);
+        http.start();
+        server = http;
+        return this;
+    }
+
+    public synchronized int port()
+    {
+        if (server == null) {
+            throw new IllegalStateException("Server not started");
+        }
+        return server.getAddress().getPort();
+    }
+
+    public URI endpoint()
+    {
+        return URI.create("http://" + host + ":" + port());
+    }
+
+    public String queueUrl(String queueName)
+    {
+        return endpoint() + "/queue/" + queueName;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        String requestId = UUID.randomUUID().toString();
+        int status = 200;
+        String response;
+        try {
+            Map<String, String> params = parameters(exchange);
+            response = dispatch(exchange.getRequestURI().getPath(), params, requestId);
+        } catch (SqsError e) {
+            status = e.status;
+            response = errorResponse(e, requestId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = 500;
+            response = errorResponse(new SqsError("InternalFailure", "Server is shutting down", false, 500), requestId);
+        } catch (RuntimeException e) {
+            status = 500;
+            response = errorResponse(new SqsError("InternalFailure", String.valueOf(e), false, 500), requestId);
+        }
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/xml");
+        exchange.getResponseHeaders().set("x-amzn-RequestId", requestId);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private String dispatch(String path, Map<String, String> params, String requestId) throws InterruptedException
+    {
+        String action = params.get("Action");
+        if (action == null) {
+            throw new SqsError("MissingAction", "The request must contain the parameter Action.", true, 400);
+        }
+        if (maxRequestsPerSecond > 0) {
+            throttle(action, params.containsKey("QueueUrl") ? params.get("QueueUrl") : path);
+        }
+        Xml xml = new Xml(action);
+        switch (action) {
+        case "CreateQueue":
+            xml.element("QueueUrl", createQueue(params).url);
+            break;
+        case "GetQueueUrl":
+            xml.element("QueueUrl", queueByName(required(params, "QueueName")).url);
+            break;
+        case "ListQueues":
+            String prefix = params.containsKey("QueueNamePrefix") ? params.get("QueueNamePrefix") : "";
+            for (EmbeddedQueue queue : new TreeMap<String, EmbeddedQueue>(queues).values()) {
+                if (queue.name.startsWith(prefix)) {
+                    xml.element("QueueUrl", queue.url);
+                }
+            }
+            break;
+        case "DeleteQueue":
+            queues.remove(queue(path, params).name);
+            xml.noResult();
+            break;
+        case "PurgeQueue":
+            queue(path, params).purge();
+            xml.noResult();
+            break;
+        case "GetQueueAttributes":
+            getQueueAttributes(queue(path, params), params, xml);
+            break;
+        case "SetQueueAttributes":
+            setAttributes(queue(path, params), indexed(params, "Attribute"));
+            xml.noResult();
+            break;
+        case "ListDeadLetterSourceQueues":
+            String arn = queue(path, params).arn;
+            for (EmbeddedQueue queue : new TreeMap<String, EmbeddedQueue>(queues).values()) {
+                if (queue.redrivesTo(arn)) {
+                    xml.element("QueueUrl", queue.url);
+                }
+            }
+            break;
+        case "SendMessage":
+            sendMessage(queue(path, params), params, xml);
+            break;
+        case "SendMessageBatch":
+            sendMessageBatch(queue(path, params), params, xml);
+            break;
+        case "ReceiveMessage":
+            receiveMessage(queue(path, params), params, xml);
+            break;
+        case "DeleteMessage":
+            queue(path, params).delete(receiptHandle(params.get("ReceiptHandle")));
+            xml.noResult();
+            break;
+        case "DeleteMessageBatch":
+            deleteMessageBatch(queue(path, params), params, xml);
+            break;
+        case "ChangeMessageVisibility":
+            changeVisibility(queue(path, params), required(params, "ReceiptHandle"),
+                    integer(params, "VisibilityTimeout", 0, SqsLimits.MAX_VISIBILITY_TIMEOUT_SECONDS));
+            xml.noResult();
+            break;
+        case "ChangeMessageVisibilityBatch":
+            changeVisibilityBatch(queue(path, params), params, xml);
+            break;
+        default:
+            throw new SqsError("InvalidAction", "The action " + action + " is not valid for this endpoint.", true, 400);
+        }
+        return xml.finish(requestId);
+    }
+
+    private EmbeddedQueue createQueue(Map<String, String> params)
+    {
+        String name = required(params, "QueueName");
+        if (!QUEUE_NAME.matcher(name).matches()) {
+            throw invalidParameter("Can only include alphanumeric characters, hyphens, or underscores. 1 to 80 in length");
+        }
+        List<Map<String, String>> attributes = indexed(params, "Attribute");
+        // FifoQueue can only be given here, and must agree with the name.
+        boolean fifo = false;
+        for (Iterator<Map<String, String>> i = attributes.iterator(); i.hasNext(); ) {
+            Map<String, String> attribute = i.next();
+            if ("FifoQueue".equals(attribute.get("Name"))) {
+                fifo = "true".equals(attribute.get("Value"));
+                i.remove();
+            }
+        }
+        if (fifo != name.endsWith(EmbeddedQueue.FIFO_SUFFIX)) {
+            throw invalidParameter(fifo
+                    ? "The name of a FIFO queue can only include alphanumeric characters, hyphens, or underscores, "
+                            + "must end with .fifo suffix and be 1 to 80 in length."
+                    : "Can only include alphanumeric characters, hyphens, or underscores. 1 to 80 in length");
+        }
+        EmbeddedQueue created = new EmbeddedQueue(name, queueUrl(name),
+                "arn:aws:sqs:" + region + ":" + accountId + ":" + name, stripes, this::queueByArn);
+        setAttributes(created, attributes);
+        EmbeddedQueue existing = queues.putIfAbsent(name, created);
+        if (existing == null) {
+            return created;
+        }
+        for (Map<String, String> attribute : attributes) {
+            if (!attribute.get("Value").equals(existing.attribute(attribute.get("Name")))) {
+                throw new SqsError("QueueAlreadyExists",
+                        "A queue already exists with the same name and a different value for attribute " + attribute.get("Name"), true, 400);
+            }
+        }
+        return existing;
+    }
+
+    private void setAttributes(EmbeddedQueue queue, List<Map<String, String>> attributes)
+    {
+        for (Map<String, String> attribute : attributes) {
+            String name = attribute.get("Name");
+            String value = attribute.get("Value");
+            if (name == null || value == null || !SETTABLE_ATTRIBUTES.contains(name)) {
+                throw new SqsError("InvalidAttributeName", "Unknown Attribute " + name + ".", true, 400);
+            }
+            if (BOOLEAN_ATTRIBUTES.contains(name)) {
+                if (!value.equals("true") && !value.equals("false")) {
+                    throw invalidParameter("Invalid value for the parameter " + name + ".");
+                }
+                if (!queue.isFifo()) {
+                    throw new SqsError("InvalidAttributeName", "Unknown Attribute " + name + ".", true, 400);
+                }
+            } else if (!name.equals("RedrivePolicy") && !name.equals("Policy") && !name.equals("KmsMasterKeyId")) {
+                try {
+                    Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw invalidParameter("Invalid value for the parameter " + name + ".");
+                }
+            }
+            queue.setAttribute(name, value);
+        }
+    }
+
+    private void getQueueAttributes(EmbeddedQueue queue, Map<String, String> params, Xml xml)
+    {
+        List<String> names = list(params, "AttributeName");
+        boolean all = names.contains("All");
+        for (Map.Entry<String, String> attribute : new TreeMap<String, String>(queue.attributes()).entrySet()) {
+            if (all || names.contains(attribute.getKey())) {
+                xml.open("Attribute").element("Name", attribute.getKey()).element("Value", attribute.getValue()).close("Attribute");
+            }
+        }
+    }
+
+    private void sendMessage(EmbeddedQueue queue, Map<String, String> params, Xml xml)
+    {
+        EmbeddedQueue.StoredMessage message = send(queue, params);
+        xml.element("MD5OfMessageBody", md5Hex(message.body));
+        if (!message.attributes.isEmpty()) {
+            xml.element("MD5OfMessageAttributes", attributesMd5(message.attributes));
+        }
+        xml.element("MessageId", message.id);
+        if (queue.isFifo()) {
+            xml.element("SequenceNumber", sequenceNumber(message));
+        }
+    }
+
+    private EmbeddedQueue.StoredMessage send(EmbeddedQueue queue, Map<String, String> params)
+    {
+        String body = required(params, "MessageBody");
+        if (body.isEmpty()) {
+            throw new SqsError("MissingParameter", "The request must contain the parameter MessageBody.", true, 400);
+        }
+        validateCharacters(body);
+        SortedMap<String, EmbeddedQueue.MessageAttribute> attributes = messageAttributes(indexed(params, "MessageAttribute"));
+        long size = payloadSize(body, attributes);
+        long maximum = Long.parseLong(queue.attribute("MaximumMessageSize"));
+        if (size > maximum) {
+            throw invalidParameter("One or more parameters are invalid. Reason: Message must be shorter than " + maximum + " bytes.");
+        }
+        Integer delay = params.containsKey("DelaySeconds") ? integer(params, "DelaySeconds", 0, 900) : null;
+        String groupId = params.get("MessageGroupId");
+        String deduplicationId = params.get("MessageDeduplicationId");
+        if (groupId != null && !MESSAGE_GROUP_ID.matcher(groupId).matches()) {
+            throw invalidParameter("Value " + groupId + " for parameter MessageGroupId is invalid.");
+        }
+        if (deduplicationId != null && !MESSAGE_GROUP_ID.matcher(deduplicationId).matches()) {
+            throw invalidParameter("Value " + deduplicationId + " for parameter MessageDeduplicationId is invalid.");
+        }
+        if (queue.isFifo()) {
+            if (groupId == null) {
+                throw new SqsError("MissingParameter", "The request must contain the parameter MessageGroupId.", true, 400);
+            }
+            if (delay != null) {
+                throw invalidParameter("Value " + delay + " for parameter DelaySeconds is invalid. Reason: The request "
+                        + "include parameter that is not valid for this queue type.");
+            }
+            if (deduplicationId == null) {
+                if (!"true".equals(queue.attribute("ContentBasedDeduplication"))) {
+                    throw invalidParameter("The queue should either have ContentBasedDeduplication enabled or "
+                            + "MessageDeduplicationId provided explicitly");
+                }
+                deduplicationId = hex(digest("SHA-256").digest(body.getBytes(StandardCharsets.UTF_8)));
+            }
+        } else if (deduplicationId != null) {
+            throw invalidParameter("The request include parameter that is not valid for this queue type");
+        }
+        return queue.send(body, attributes, delay, groupId, deduplicationId);
+    }
+
+    // Body plus every attribute's name, type and value, counted the way SqsLimits.payloadSize counts them.
+    private static long payloadSize(String body, SortedMap<String, EmbeddedQueue.MessageAttribute> attributes)
+    {
+        long size = SqsLimits.utf8Length(body);
+        for (Map.Entry<String, EmbeddedQueue.MessageAttribute> attribute : attributes.entrySet()) {
+            EmbeddedQueue.MessageAttribute value = attribute.getValue();
+            size += SqsLimits.utf8Length(attribute.getKey()) + SqsLimits.utf8Length(value.dataType)
+                    + (value.binaryValue != null ? value.binaryValue.length : SqsLimits.utf8Length(value.stringValue));
+        }
+        return size;
+    }
+
+    private void sendMessageBatch(EmbeddedQueue queue, Map<String, String> params, Xml xml)
+    {
+        List<Map<String, String>> entries = batchEntries(params, "SendMessageBatchRequestEntry");
+        long total = 0;
+        for (Map<String, String> entry : entries) {
+            String body = entry.get("MessageBody");
+            SortedMap<String, EmbeddedQueue.MessageAttribute> attributes;
+            try {
+                attributes = messageAttributes(indexed(entry, "MessageAttribute"));
+            } catch (SqsError e) {
+                // The entry fails on its own below; only its body counts here.
+                attributes = new TreeMap<String, EmbeddedQueue.MessageAttribute>();
+            }
+            total += payloadSize(body == null ? "" : body, attributes);
+        }
+        if (total > SqsLimits.MAX_PAYLOAD_BYTES) {
+            throw new SqsError("AWS.SimpleQueueService.BatchRequestTooLong",
+                    "Batch requests cannot be longer than " + SqsLimits.MAX_PAYLOAD_BYTES + " bytes.", true, 400);
+        }
+        for (Map<String, String> entry : entries) {
+            String id = entry.get("Id");
+            try {
+                EmbeddedQueue.StoredMessage message = send(queue, entry);
+                xml.open("SendMessageBatchResultEntry")
+                   .element("Id", id)
+                   .element("MessageId", message.id)
+                   .element("MD5OfMessageBody", md5Hex(message.body));
+                if (!message.attributes.isEmpty()) {
+                    xml.element("MD5OfMessageAttributes", attributesMd5(message.attributes));
+                }
+                if (queue.isFifo()) {
+                    xml.element("SequenceNumber", sequenceNumber(message));
+                }
+                xml.close("SendMessageBatchResultEntry");
+            } catch (SqsError e) {
+                batchError(xml, id, e);
+            }
+        }
+    }
+
+    private void receiveMessage(EmbeddedQueue queue, Map<String, String> params, Xml xml) throws InterruptedException
+    {
+        int max = params.containsKey("MaxNumberOfMessages")
+                ? integer(params, "MaxNumberOfMessages", 1, SqsLimits.MAX_BATCH_ENTRIES) : 1;
+        int visibility = params.containsKey("VisibilityTimeout")
+                ? integer(params, "VisibilityTimeout", 0, SqsLimits.MAX_VISIBILITY_TIMEOUT_SECONDS)
+                : Integer.parseInt(queue.attribute("VisibilityTimeout"));
+        int wait = params.containsKey("WaitTimeSeconds")
+                ? integer(params, "WaitTimeSeconds", 0, SqsLimits.MAX_WAIT_TIME_SECONDS)
+                : Integer.parseInt(queue.attribute("ReceiveMessageWaitTimeSeconds"));
+        List<String> systemAttributes = list(params, "AttributeName");
+        List<String> messageAttributeNames = list(params, "MessageAttributeName");
+
+        List<EmbeddedQueue.Received> received = queue.receive(max, visibility, TimeUnit.SECONDS.toMillis(wait));
+        for (EmbeddedQueue.Received message : received) {
+            xml.open("Message")
+               .element("MessageId", message.message.id)
+               .element("ReceiptHandle", message.receiptHandle)
+               .element("MD5OfBody", md5Hex(message.message.body))
+               .element("Body", message.message.body);
+            systemAttribute(xml, systemAttributes, "SenderId", accountId);
+            systemAttribute(xml, systemAttributes, "SentTimestamp", Long.toString(message.message.sentMillis));
+            systemAttribute(xml, systemAttributes, "ApproximateReceiveCount", Integer.toString(message.receiveCount));
+            systemAttribute(xml, systemAttributes, "ApproximateFirstReceiveTimestamp", Long.toString(message.firstReceiveMillis));
+            if (message.message.groupId != null) {
+                systemAttribute(xml, systemAttributes, "MessageGroupId", message.message.groupId);
+            }
+            if (queue.isFifo()) {
+                systemAttribute(xml, systemAttributes, "MessageDeduplicationId", message.message.deduplicationId);
+                systemAttribute(xml, systemAttributes, "SequenceNumber", sequenceNumber(message.message));
+            }
+
+            SortedMap<String, EmbeddedQueue.MessageAttribute> selected = new TreeMap<String, EmbeddedQueue.MessageAttribute>();
+            for (Map.Entry<String, EmbeddedQueue.MessageAttribute> attribute : message.message.attributes.entrySet()) {
+                if (selected(messageAttributeNames, attribute.getKey())) {
+                    selected.put(attribute.getKey(), attribute.getValue());
+                }
+            }
+            if (!selected.isEmpty()) {
+                xml.element("MD5OfMessageAttributes", attributesMd5(selected));
+            }
+            for (Map.Entry<String, EmbeddedQueue.MessageAttribute> attribute : selected.entrySet()) {
+                EmbeddedQueue.MessageAttribute value = attribute.getValue();
+                xml.open("MessageAttribute").element("Name", attribute.getKey()).open("Value");
+                if (value.binaryValue != null) {
+                    xml.element("BinaryValue", Base64.getEncoder().encodeToString(value.binaryValue));
+                } else {
+                    xml.element("StringValue", value.stringValue);
+                }
+                xml.element("DataType", value.dataType).close("Value").close("MessageAttribute");
+            }
+            xml.close("Message");
+        }
+    }
+
+    // SQS sequence numbers are 128-bit decimals; zero padding keeps them sorting as strings too.
+    private static String sequenceNumber(EmbeddedQueue.StoredMessage message)
+    {
+        return String.format("%020d", message.sequenceNumber);
+    }
+
+    private static void systemAttribute(Xml xml, List<String> requested, String name, String value)
+    {
+        if (requested.contains("All") || requested.contains(name)) {
+            xml.open("Attribute").element("Name", name).element("Value", value).close("Attribute");
+        }
+    }
+
+    // Message attribute names may be listed one by one, as "All" or ".*", or as prefixes like "trace.*".
+    private static boolean selected(List<String> requested, String name)
+    {
+        for (String pattern : requested) {
+            if (pattern.equals("All") || pattern.equals(".*") || pattern.equals(name)
+                    || (pattern.endsWith(".*") && name.startsWith(pattern.substring(0, pattern.length() - 1)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void deleteMessageBatch(EmbeddedQueue queue, Map<String, String> params, Xml xml)
+    {
+        for (Map<String, String> entry : batchEntries(params, "DeleteMessageBatchRequestEntry")) {
+            String id = entry.get("Id");
+            try {
+                queue.delete(receiptHandle(entry.get("ReceiptHandle")));
+                xml.open("DeleteMessageBatchResultEntry").element("Id", id).close("DeleteMessageBatchResultEntry");
+            } catch (SqsError e) {
+                batchError(xml, id, e);
+            }
+        }
+    }
+
+    private void changeVisibility(EmbeddedQueue queue, String receiptHandle, int visibilityTimeout)
+    {
+        if (!queue.changeVisibility(receiptHandle, visibilityTimeout)) {
+            throw new SqsError("AWS.SimpleQueueService.MessageNotInflight", "Message does not exist or is not available for visibility timeout change.", true, 400);
+        }
+    }
+
+    private void changeVisibilityBatch(EmbeddedQueue queue, Map<String, String> params, Xml xml)
+    {
+        for (Map<String, String> entry : batchEntries(params, "ChangeMessageVisibilityBatchRequestEntry")) {
+            String id = entry.get("Id");
+            try {
+                changeVisibility(queue, required(entry, "ReceiptHandle"),
+                        integer(entry, "VisibilityTimeout", 0, SqsLimits.MAX_VISIBILITY_TIMEOUT_SECONDS));
+                xml.open("ChangeMessageVisibilityBatchResultEntry").element("Id", id).close("ChangeMessageVisibilityBatchResultEntry");
+            } catch (SqsError e) {
+                batchError(xml, id, e);
+            }
+        }
+    }
+
+    private static void batchError(Xml xml, String id, SqsError error)
+    {
+        xml.open("BatchResultErrorEntry")
+           .element("Id", id)
+           .element("Code", error.code)
+           .element("Message", error.getMessage())
+           .element("SenderFault", Boolean.toString(error.senderFault))
+           .close("BatchResultErrorEntry");
+    }
+
+    private static String receiptHandle(String receiptHandle)
+    {
+        if (receiptHandle == null || receiptHandle.isEmpty()) {
+            throw new SqsError("MissingParameter", "The request must contain the parameter ReceiptHandle.", true, 400);
+        }
+        return receiptHandle;
+    }
+
+    private EmbeddedQueue queue(String path, Map<String, String> params)
+    {
+        // SDK v1 moves the queue URL into the request path, SDK v2 sends it as a parameter.
+        String url = params.get("QueueUrl");
+        String name = url != null ? url.substring(url.lastIndexOf('/') + 1)
+                : path.startsWith("/queue/") ? path.substring("/queue/".length()) : null;
+        if (name == null || name.isEmpty()) {
+            throw new SqsError("MissingParameter", "The request must contain the parameter QueueUrl.", true, 400);
+        }
+        return queueByName(name);
+    }
+
+    private EmbeddedQueue queueByName(String name)
+    {
+        EmbeddedQueue queue = queues.get(name);
+        if (queue == null) {
+            throw new SqsError("AWS.SimpleQueueService.NonExistentQueue", "The specified queue does not exist for this wsdl version.", true, 400);
+        }
+        return queue;
+    }
+
+    private EmbeddedQueue queueByArn(String arn)
+    {
+        return queues.get(arn.substring(arn.lastIndexOf(':') + 1));
+    }
+
+    private static List<Map<String, String>> batchEntries(Map<String, String> params, String prefix)
+    {
+        List<Map<String, String>> entries = indexed(params, prefix);
+        if (entries.isEmpty()) {
+            throw new SqsError("AWS.SimpleQueueService.EmptyBatchRequest", "There should be at least one " + prefix + " in the request.", true, 400);
+        }
+        if (entries.size() > SqsLimits.MAX_BATCH_ENTRIES) {
+            throw new SqsError("AWS.SimpleQueueService.TooManyEntriesInBatchRequest",
+                    "Maximum number of entries per request are " + SqsLimits.MAX_BATCH_ENTRIES + ".", true, 400);
+        }
+        Set<String> ids = new HashSet<String>();
+        for (Map<String, String> entry : entries) {
+            if (!ids.add(entry.get("Id"))) {
+                throw new SqsError("AWS.SimpleQueueService.BatchEntryIdsNotDistinct", "Id " + entry.get("Id") + " repeated.", true, 400);
+            }
+        }
+        return entries;
+    }
+
+    private static SortedMap<String, EmbeddedQueue.MessageAttribute> messageAttributes(List<Map<String, String>> entries)
+    {
+        SortedMap<String, EmbeddedQueue.MessageAttribute> attributes = new TreeMap<String, EmbeddedQueue.MessageAttribute>();
+        for (Map<String, String> entry : entries) {
+            String name = entry.get("Name");
+            String dataType = entry.get("Value.DataType");
+            if (name == null || dataType == null) {
+                throw invalidParameter("Message attribute name and data type are required.");
+            }
+            String binary = entry.get("Value.BinaryValue");
+            attributes.put(name, new EmbeddedQueue.MessageAttribute(dataType, entry.get("Value.StringValue"),
+                    binary == null ? null : Base64.getDecoder().decode(binary)));
+        }
+        return attributes;
+    }
+
+    // Groups "Prefix.N.Key=value" parameters into one map per N, in order of N.
+    private static List<Map<String, String>> indexed(Map<String, String> params, String prefix)
+    {
+        TreeMap<Integer, Map<String, String>> entries = new TreeMap<Integer, Map<String, String>>();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            String key = param.getKey();
+            if (!key.startsWith(prefix + ".")) {
+                continue;
+            }
+            int dot = key.indexOf('.', prefix.length() + 1);
+            if (dot < 0) {
+                continue;
+            }
+            try {
+                int index = Integer.parseInt(key.substring(prefix.length() + 1, dot));
+                Map<String, String> entry = entries.get(index);
+                if (entry == null) {
+                    entry = new HashMap<String, String>();
+                    entries.put(index, entry);
+                }
+                entry.put(key.substring(dot + 1), param.getValue());
+            } catch (NumberFormatException e) {
+                // Not an indexed parameter of this prefix
+            }
+        }
+        return new ArrayList<Map<String, String>>(entries.values());
+    }
+
+    // Collects "Prefix.N=value" parameters in order of N.
+    private static List<String> list(Map<String, String> params, String prefix)
+    {
+        TreeMap<Integer, String> values = new TreeMap<Integer, String>();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            String key = param.getKey();
+            if (key.startsWith(prefix + ".")) {
+                try {
+                    values.put(Integer.parseInt(key.substring(prefix.length() + 1)), param.getValue());
+                } catch (NumberFormatException e) {
+                    // Not a list member
+                }
+            }
+        }
+        return new ArrayList<String>(values.values());
+    }
+
+    private static String required(Map<String, String> params, String name)
+    {
+        String value = params.get(name);
+        if (value == null) {
+            throw new SqsError("MissingParameter", "The request must contain the parameter " + name + ".", true, 400);
+        }
+        return value;
+    }
+
+    private static int integer(Map<String, String> params, String name, int min, int max)
+    {
+        try {
+            int value = Integer.parseInt(required(params, name));
+            if (value >= min && value <= max) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw invalidParameter("Value " + params.get(name) + " for parameter " + name + " is invalid. Must be between "
+                + min + " and " + max + ".");
+    }
+
+    static SqsError invalidParameter(String message)
+    {
+        return new SqsError("InvalidParameterValue", message, true, 400);
+    }
+
+    // SQS accepts #x9, #xA, #xD, #x20 to #xD7FF, #xE000 to #xFFFD and #x10000 to #x10FFFF.
+    private static void validateCharacters(String body)
+    {
+        for (int i = 0; i < body.length(); ) {
+            int c = body.codePointAt(i);
+            boolean valid = c == 0x9 || c == 0xA || c == 0xD || (c >= 0x20 && c <= 0xD7FF)
+                    || (c >= 0xE000 && c <= 0xFFFD) || (c >= 0x10000 && c <= 0x10FFFF);
+            if (!valid) {
+                throw new SqsError("InvalidMessageContents", "Invalid binary character '#x" + Integer.toHexString(c)
+                        + "' was found in the message body.", true, 400);
+            }
+            i += Character.charCount(c);
+        }
+    }
+
+    private static Map<String, String> parameters(HttpExchange exchange) throws IOException
+    {
+        Map<String, String> params = new HashMap<String, String>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            decodeForm(query, params);
+        }
+        if ("POST".equals(exchange.getRequestMethod())) {
+            decodeForm(new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8), params);
+        }
+        return params;
+    }
+
+    private static void decodeForm(String form, Map<String, String> params) throws UnsupportedEncodingException
+    {
+        for (String pair : form.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            String key = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            params.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String errorResponse(SqsError error, String requestId)
+    {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\"?><ErrorResponse xmlns=\"").append(NAMESPACE).append("\"><Error><Type>")
+           .append(error.senderFault ? "Sender" : "Receiver").append("</Type><Code>");
+        Xml.escape(xml, error.code);
+        xml.append("</Code><Message>");
+        Xml.escape(xml, error.getMessage());
+        xml.append("</Message><Detail/></Error><RequestId>").append(requestId).append("</RequestId></ErrorResponse>");
+        return xml.toString();
+    }
+
+    static String md5Hex(String value)
+    {
+        return hex(digest("MD5").digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // The digest the SDKs verify: for each attribute in name order, the length-prefixed name, data type and
+    // value, with a transport byte of 1 for string values and 2 for binary ones.
+    static String attributesMd5(SortedMap<String, EmbeddedQueue.MessageAttribute> attributes)
+    {
+        MessageDigest md5 = digest("MD5");
+        for (Map.Entry<String, EmbeddedQueue.MessageAttribute> attribute : attributes.entrySet()) {
+            EmbeddedQueue.MessageAttribute value = attribute.getValue();
+            lengthPrefixed(md5, attribute.getKey().getBytes(StandardCharsets.UTF_8));
+            lengthPrefixed(md5, value.dataType.getBytes(StandardCharsets.UTF_8));
+            if (value.binaryValue != null) {
+                md5.update((byte) 2);
+                lengthPrefixed(md5, value.binaryValue);
+            } else {
+                md5.update((byte) 1);
+                lengthPrefixed(md5, value.stringValue.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return hex(md5.digest());
+    }
+
+    private static void lengthPrefixed(MessageDigest md5, byte[] bytes)
+    {
+        md5.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        md5.update(bytes);
+    }
+
+    private static MessageDigest digest(String algorithm)
+    {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes)
+    {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = digits[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = digits[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    // Fixed one-second windows; coarse, but enough to push back on clients like SQS does.
+    private void throttle(String action, String queue)
+    {
+        long[] window = requestWindows.computeIfAbsent(action + ' ' + queue, k -> new long[2]);
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        synchronized (window) {
+            if (window[0] != second) {
+                window[0] = second;
+                window[1] = 0;
+            }
+            if (++window[1] > maxRequestsPerSecond) {
+                throw new SqsError("RequestThrottled", "Rate exceeded for " + action + ".", true, 400);
+            }
+        }
+    }
+
+    static final class SqsError extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        final String code;
+        final boolean senderFault;
+        final int status;
+
+        SqsError(String code, String message, boolean senderFault, int status)
+        {
+            super(message);
+            this.code = code;
+            this.senderFault = senderFault;
+            this.status = status;
+        }
+    }
+
+    // Writes the Action + "Response" envelope of the query protocol.
+    private static final class Xml
+    {
+        private final String action;
+        private final StringBuilder xml = new StringBuilder(256);
+        private boolean hasResult = true;
+        private boolean resultOpen;
+
+        Xml(String action)
+        {
+            this.action = action;
+            xml.append("<?xml version=\"1.0\"?><").append(action).append("Response xmlns=\"").append(NAMESPACE).append("\">");
+        }
+
+        Xml open(String element)
+        {
+            if (hasResult && !resultOpen) {
+                xml.append('<').append(action).append("Result>");
+                resultOpen = true;
+            }
+            xml.append('<').append(element).append('>');
+            return this;
+        }
+
+        Xml close(String element)
+        {
+            xml.append("</").append(element).append('>');
+            return this;
+        }
+
+        Xml element(String element, String value)
+        {
+            open(element);
+            escape(xml, value);
+            return close(element);
+        }
+
+        // For actions whose response carries only the request id.
+        void noResult()
+        {
+            hasResult = false;
+        }
+
+        String finish(String requestId)
+        {
+            if (hasResult) {
+                if (!resultOpen) {
+                    xml.append('<').append(action).append("Result>");
+                }
+                xml.append("</").append(action).append("Result>");
+            }
+            xml.append("<ResponseMetadata><RequestId>").append(requestId).append("</RequestId></ResponseMetadata></")
+               .append(action).append("Response>");
+            return xml.toString();
+        }
+
+        // Carriage returns are escaped too, since XML parsers would otherwise normalize them and break the MD5.
+        static void escape(StringBuilder xml, String value)
+        {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                case '<': xml.append("&lt;"); break;
+                case '>': xml.append("&gt;"); break;
+                case '&': xml.append("&amp;"); break;
+                case '"': xml.append("&quot;"); break;
+                case '\r': xml.append("&#13;"); break;
+                default: xml.append(c);
+                }
+            }
+        }
+    }
+
+    public static final class Builder
+    {
+        private String host = "localhost";
+        private int port;
+        private int stripes = Math.max(1, Runtime.getRuntime().availableProcessors());
+        private String region = "us-east-1";
+        private String accountId = "000000000000";
+        private int maxRequestsPerSecond;
+
+        private Builder()
+        {
+        }
+
+        public Builder host(String host)
+        {
+            this.host = host;
+            return this;
+        }
+
+        // 0, the default, picks a free port; see port().
+        public Builder port(int port)
+        {
+            this.port = port;
+            return this;
+        }
+
+        // Independently locked partitions per queue.
+        public Builder stripes(int stripes)
+        {
+            this.stripes = stripes;
+            return this;
+        }
+
+        // Used in queue ARNs.
+        public Builder region(String region)
+        {
+            this.region = region;
+            return this;
+        }
+
+        public Builder accountId(String accountId)
+        {
+            this.accountId = accountId;
+            return this;
+        }
+
+        // Calls per second allowed for each action on each queue; 0, the default, allows any number.
+        public Builder maxRequestsPerSecond(int maxRequestsPerSecond)
+        {
+            this.maxRequestsPerSecond = maxRequestsPerSecond;
+            return this;
+        }
+
+        public EmbeddedSqsServer build()
+        {
+            if (stripes < 1) {
+                throw new IllegalStateException("stripes must be at least 1");
+            }
+            if (maxRequestsPerSecond < 0) {
+                throw new IllegalStateException("maxRequestsPerSecond must not be negative");
+            }
+            return new EmbeddedSqsServer(this);
+        }
+    }
+}
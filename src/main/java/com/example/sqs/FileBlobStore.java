@@ -0,0 +1,168 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * {@link BlobStore} on the local filesystem, one file per blob, for development and for hosts that share a
+ * volume. Blobs are written to a temporary file and renamed into place, so a reader never sees a partial blob.
+ * Reads map the file into memory a window at a time; the bytes go from the page cache to the caller's buffer
+ * without a read system call or an intermediate heap copy of the whole payload.
+ */
+public final class FileBlobStore implements BlobStore
+{
+    private static final Pattern KEY = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+    private final Path directory;
+
+    public FileBlobStore(Path directory) throws IOException
+    {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    public Path directory()
+    {
+        return directory;
+    }
+
+    @Override
+    public String put(InputStream data) throws IOException
+    {
+        String key = UUID.randomUUID().toString();
+        Path temp = directory.resolve(key + ".tmp");
+        try {
+            Files.copy(data, temp);
+            Files.move(temp, path(key), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return key;
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException
+    {
+        return new MappedInputStream(FileChannel.open(path(key), StandardOpenOption.READ));
+    }
+
+    @Override
+    public long size(String key) throws IOException
+    {
+        return Files.size(path(key));
+    }
+
+    @Override
+    public void delete(String key) throws IOException
+    {
+        Files.deleteIfExists(path(key));
+    }
+
+    // Keys are generated here, so anything else, such as a path from a forged message, is rejected.
+    private Path path(String key)
+    {
+        if (key == null || !KEY.matcher(key).matches()) {
+            throw new IllegalArgumentException("Invalid blob key " + key);
+        }
+        return directory.resolve(key);
+    }
+
+    private static final class MappedInputStream extends InputStream
+    {
+        private final FileChannel channel;
+        private final long size;
+        private long windowStart;
+        private MappedByteBuffer window;
+
+        MappedInputStream(FileChannel channel) throws IOException
+        {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        // The current window with data left, mapping the next one if needed; null at the end of the file.
+        private MappedByteBuffer window() throws IOException
+        {
+            if (window != null && window.hasRemaining()) {
+                return window;
+            }
+            long position = window == null ? windowStart : windowStart + window.capacity();
+            if (position >= size) {
+                return null;
+            }
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+            return window;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            MappedByteBuffer buffer = window();
+            return buffer == null ? -1 : buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0) {
+                return 0;
+            }
+            MappedByteBuffer buffer = window();
+            if (buffer == null) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long position = window == null ? windowStart : windowStart + window.position();
+            long skipped = Math.max(0, Math.min(n, size - position));
+            windowStart = position + skipped;
+            window = null;
+            return skipped;
+        }
+
+        @Override
+        public int available()
+        {
+            long position = window == null ? windowStart : windowStart + window.position();
+            return (int) Math.min(Integer.MAX_VALUE, size - position);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            window = null;
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.util.concurrent.CompletableFuture;
+
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.AddPermissionRequest;
+import software.amazon.awssdk.services.sqs.model.AddPermissionResponse;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityResponse;
+import software.amazon.awssdk.services.sqs.model.CreateQueueRequest;
+import software.amazon.awssdk.services.sqs.model.CreateQueueResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteQueueRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteQueueResponse;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesRequest;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesResponse;
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlResponse;
+import software.amazon.awssdk.services.sqs.model.ListDeadLetterSourceQueuesRequest;
+import software.amazon.awssdk.services.sqs.model.ListDeadLetterSourceQueuesResponse;
+import software.amazon.awssdk.services.sqs.model.ListQueueTagsRequest;
+import software.amazon.awssdk.services.sqs.model.ListQueueTagsResponse;
+import software.amazon.awssdk.services.sqs.model.ListQueuesRequest;
+import software.amazon.awssdk.services.sqs.model.ListQueuesResponse;
+import software.amazon.awssdk.services.sqs.model.PurgeQueueRequest;
+import software.amazon.awssdk.services.sqs.model.PurgeQueueResponse;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+import software.amazon.awssdk.services.sqs.model.RemovePermissionRequest;
+import software.amazon.awssdk.services.sqs.model.RemovePermissionResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
+import software.amazon.awssdk.services.sqs.model.SetQueueAttributesRequest;
+import software.amazon.awssdk.services.sqs.model.SetQueueAttributesResponse;
+import software.amazon.awssdk.services.sqs.model.TagQueueRequest;
+import software.amazon.awssdk.services.sqs.model.TagQueueResponse;
+import software.amazon.awssdk.services.sqs.model.UntagQueueRequest;
+import software.amazon.awssdk.services.sqs.model.UntagQueueResponse;
+
+/**
+ * Asynchronous client that takes a {@link RateGovernor} permit before every call. A call whose permit is not
+ * due yet is started later from the governor's timer, so no caller or SDK thread ever waits for one. Attempts
+ * the SDK retries on its own are not delayed again; their outcome still reaches the governor through its
+ * interceptor and retry policy.
+ */
+final class GovernedSqsAsyncClient implements SqsAsyncClient
+{
+    private final SqsAsyncClient sqs;
+    private final RateGovernor governor;
+
+    GovernedSqsAsyncClient(SqsAsyncClient sqs, RateGovernor governor)
+    {
+        this.sqs = sqs;
+        this.governor = governor;
+    }
+
+    @Override
+    public String serviceName()
+    {
+        return sqs.serviceName();
+    }
+
+    @Override
+    public void close()
+    {
+        sqs.close();
+    }
+
+    @Override
+    public CompletableFuture<AddPermissionResponse> addPermission(AddPermissionRequest request)
+    {
+        return governor.whenPermitted("AddPermission", request.queueUrl(), () -> sqs.addPermission(request));
+    }
+
+    @Override
+    public CompletableFuture<ChangeMessageVisibilityResponse> changeMessageVisibility(ChangeMessageVisibilityRequest request)
+    {
+        return governor.whenPermitted("ChangeMessageVisibility", request.queueUrl(), () -> sqs.changeMessageVisibility(request));
+    }
+
+    @Override
+    public CompletableFuture<ChangeMessageVisibilityBatchResponse> changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest request)
+    {
+        return governor.whenPermitted("ChangeMessageVisibilityBatch", request.queueUrl(), () -> sqs.changeMessageVisibilityBatch(request));
+    }
+
+    @Override
+    public CompletableFuture<CreateQueueResponse> createQueue(CreateQueueRequest request)
+    {
+        return governor.whenPermitted("CreateQueue", null, () -> sqs.createQueue(request));
+    }
+
+    @Override
+    public CompletableFuture<DeleteMessageResponse> deleteMessage(DeleteMessageRequest request)
+    {
+        return governor.whenPermitted("DeleteMessage", request.queueUrl(), () -> sqs.deleteMessage(request));
+    }
+
+    @Override
+    public CompletableFuture<DeleteMessageBatchResponse> deleteMessageBatch(DeleteMessageBatchRequest request)
+    {
+        return governor.whenPermitted("DeleteMessageBatch", request.queueUrl(), () -> sqs.deleteMessageBatch(request));
+    }
+
+    @Override
+    public CompletableFuture<DeleteQueueResponse> deleteQueue(DeleteQueueRequest request)
+    {
+        return governor.whenPermitted("DeleteQueue", request.queueUrl(), () -> sqs.deleteQueue(request));
+    }
+
+    @Override
+    public CompletableFuture<GetQueueAttributesResponse> getQueueAttributes(GetQueueAttributesRequest request)
+    {
+        return governor.whenPermitted("GetQueueAttributes", request.queueUrl(), () -> sqs.getQueueAttributes(request));
+    }
+
+    @Override
+    public CompletableFuture<GetQueueUrlResponse> getQueueUrl(GetQueueUrlRequest request)
+    {
+        return governor.whenPermitted("GetQueueUrl", null, () -> sqs.getQueueUrl(request));
+    }
+
+    @Override
+    public CompletableFuture<ListDeadLetterSourceQueuesResponse> listDeadLetterSourceQueues(ListDeadLetterSourceQueuesRequest request)
+    {
+        return governor.whenPermitted("ListDeadLetterSourceQueues", request.queueUrl(), () -> sqs.listDeadLetterSourceQueues(request));
+    }
+
+    @Override
+    public CompletableFuture<ListQueueTagsResponse> listQueueTags(ListQueueTagsRequest request)
+    {
+        return governor.whenPermitted("ListQueueTags", request.queueUrl(), () -> sqs.listQueueTags(request));
+    }
+
+    @Override
+    public CompletableFuture<ListQueuesResponse> listQueues(ListQueuesRequest request)
+    {
+        return governor.whenPermitted("ListQueues", null, () -> sqs.listQueues(request));
+    }
+
+    @Override
+    public CompletableFuture<PurgeQueueResponse> purgeQueue(PurgeQueueRequest request)
+    {
+        return governor.whenPermitted("PurgeQueue", request.queueUrl(), () -> sqs.purgeQueue(request));
+    }
+
+    @Override
+    public CompletableFuture<ReceiveMessageResponse> receiveMessage(ReceiveMessageRequest request)
+    {
+        return governor.whenPermitted("ReceiveMessage", request.queueUrl(), () -> sqs.receiveMessage(request));
+    }
+
+    @Override
+    public CompletableFuture<RemovePermissionResponse> removePermission(RemovePermissionRequest request)
+    {
+        return governor.whenPermitted("RemovePermission", request.queueUrl(), () -> sqs.removePermission(request));
+    }
+
+    @Override
+    public CompletableFuture<SendMessageResponse> sendMessage(SendMessageRequest request)
+    {
+        return governor.whenPermitted("SendMessage", request.queueUrl(), () -> sqs.sendMessage(request));
+    }
+
+    @Override
+    public CompletableFuture<SendMessageBatchResponse> sendMessageBatch(SendMessageBatchRequest request)
+    {
+        return governor.whenPermitted("SendMessageBatch", request.queueUrl(), () -> sqs.sendMessageBatch(request));
+    }
+
+    @Override
+    public CompletableFuture<SetQueueAttributesResponse> setQueueAttributes(SetQueueAttributesRequest request)
+    {
+        return governor.whenPermitted("SetQueueAttributes", request.queueUrl(), () -> sqs.setQueueAttributes(request));
+    }
+
+    @Override
+    public CompletableFuture<TagQueueResponse> tagQueue(TagQueueRequest request)
+    {
+        return governor.whenPermitted("TagQueue", request.queueUrl(), () -> sqs.tagQueue(request));
+    }
+
+    @Override
+    public CompletableFuture<UntagQueueResponse> untagQueue(UntagQueueRequest request)
+    {
+        return governor.whenPermitted("UntagQueue", request.queueUrl(), () -> sqs.untagQueue(request));
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+import com.example.sqs.MessageSchema.Field;
+import com.example.sqs.MessageSchema.Type;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * One JSON object per message, keyed by field name, written and parsed with Jackson's streaming API rather than
+ * data binding. Each thread writes into its own reused character buffer; Jackson recycles its internal buffers
+ * per thread as well. Byte arrays are base64 strings.
+ */
+final class JsonMessageFormat implements MessageFormat
+{
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final ThreadLocal<StringBuilderWriter> writers = ThreadLocal.withInitial(StringBuilderWriter::new);
+
+    @Override
+    public String name()
+    {
+        return "json";
+    }
+
+    @Override
+    public String contentType()
+    {
+        return "application/json";
+    }
+
+    @Override
+    public <T> String encode(MessageSchema<T> schema, T value)
+    {
+        StringBuilderWriter out = writers.get();
+        if (out.inUse) {
+            out = new StringBuilderWriter();
+        }
+        out.inUse = true;
+        out.reset();
+        try {
+            try (JsonGenerator generator = FACTORY.createGenerator(out)) {
+                generator.writeStartObject();
+                schema.write(value, new FieldWriter(generator));
+                generator.writeEndObject();
+            }
+            return out.take();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            out.inUse = false;
+        }
+    }
+
+    @Override
+    public <T> T decode(MessageSchema<T> schema, String body)
+    {
+        try (JsonParser parser = FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Body is not a JSON object");
+            }
+            return schema.read(new FieldReader(schema, parser));
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Body is not valid JSON", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class FieldWriter implements MessageSchema.MessageWriter
+    {
+        private final JsonGenerator generator;
+
+        FieldWriter(JsonGenerator generator)
+        {
+            this.generator = generator;
+        }
+
+        private void name(Field field, Type type) throws IOException
+        {
+            MessageSchema.checkType(field, type);
+            generator.writeFieldName(field.name());
+        }
+
+        @Override
+        public void writeInt(Field field, int value)
+        {
+            try {
+                name(field, Type.INT);
+                generator.writeNumber(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void writeLong(Field field, long value)
+        {
+            try {
+                name(field, Type.LONG);
+                generator.writeNumber(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void writeDouble(Field field, double value)
+        {
+            try {
+                name(field, Type.DOUBLE);
+                generator.writeNumber(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void writeBoolean(Field field, boolean value)
+        {
+            try {
+                name(field, Type.BOOLEAN);
+                generator.writeBoolean(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void writeString(Field field, String value)
+        {
+            if (value == null) {
+                return;
+            }
+            try {
+                name(field, Type.STRING);
+                generator.writeString(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void writeBytes(Field field, byte[] value)
+        {
+            if (value == null) {
+                return;
+            }
+            try {
+                name(field, Type.BYTES);
+                generator.writeBinary(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static final class FieldReader implements MessageSchema.MessageReader
+    {
+        private final MessageSchema<?> schema;
+        private final JsonParser parser;
+        private Field current;
+        private boolean pending;
+
+        FieldReader(MessageSchema<?> schema, JsonParser parser)
+        {
+            this.schema = schema;
+            this.parser = parser;
+        }
+
+        @Override
+        public Field next()
+        {
+            try {
+                if (pending) {
+                    parser.skipChildren();
+                    pending = false;
+                }
+                JsonToken token;
+                while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                    Field field = schema.fieldOrNull(parser.getCurrentName());
+                    JsonToken value = parser.nextToken();
+                    if (field != null && value != JsonToken.VALUE_NULL) {
+                        current = field;
+                        pending = true;
+                        return field;
+                    }
+                    parser.skipChildren();
+                }
+                if (token != JsonToken.END_OBJECT) {
+                    throw new IllegalArgumentException("Body is not a JSON object");
+                }
+                current = null;
+                return null;
+            } catch (JsonParseException e) {
+                throw new IllegalArgumentException("Body is not valid JSON", e);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void expect(Type type)
+        {
+            if (current == null || !pending) {
+                throw new IllegalStateException("No field to read; call next() first");
+            }
+            MessageSchema.checkType(current, type);
+            pending = false;
+        }
+
+        private IllegalArgumentException invalid(IOException e)
+        {
+            return new IllegalArgumentException("Invalid value for field " + current, e);
+        }
+
+        @Override
+        public int readInt()
+        {
+            expect(Type.INT);
+            try {
+                return parser.getIntValue();
+            } catch (IOException e) {
+                throw invalid(e);
+            }
+        }
+
+        @Override
+        public long readLong()
+        {
+            expect(Type.LONG);
+            try {
+                return parser.getLongValue();
+            } catch (IOException e) {
+                throw invalid(e);
+            }
+        }
+
+        @Override
+        public double readDouble()
+        {
+            expect(Type.DOUBLE);
+            try {
+                return parser.getDoubleValue();
+            } catch (IOException e) {
+                throw invalid(e);
+            }
+        }
+
+        @Override
+        public boolean readBoolean()
+        {
+            expect(Type.BOOLEAN);
+            try {
+                return parser.getBooleanValue();
+            } catch (IOException e) {
+                throw invalid(e);
+            }
+        }
+
+        @Override
+        public String readString()
+        {
+            expect(Type.STRING);
+            try {
+                return parser.getValueAsString();
+            } catch (IOException e) {
+                throw invalid(e);
+            }
+        }
+
+        @Override
+        public byte[] readBytes()
+        {
+            expect(Type.BYTES);
+            try {
+                return parser.getBinaryValue();
+            } catch (IOException e) {
+                throw invalid(e);
+            }
+        }
+    }
+
+    // Writer over a StringBuilder that is emptied and kept for the next message.
+    private static final class StringBuilderWriter extends Writer
+    {
+        // Builders that grew beyond this for an unusually large message are not kept.
+        private static final int MAX_RETAINED_CHARS = SqsLimits.MAX_PAYLOAD_BYTES;
+
+        private StringBuilder buffer = new StringBuilder(1024);
+        boolean inUse;
+
+        @Override
+        public void write(char[] chars, int offset, int length)
+        {
+            buffer.append(chars, offset, length);
+        }
+
+        @Override
+        public void write(String s, int offset, int length)
+        {
+            buffer.append(s, offset, offset + length);
+        }
+
+        @Override
+        public void write(int c)
+        {
+            buffer.append((char) c);
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+
+        void reset()
+        {
+            buffer.setLength(0);
+        }
+
+        String take()
+        {
+            String result = buffer.toString();
+            if (buffer.capacity() > MAX_RETAINED_CHARS) {
+                buffer = new StringBuilder(1024);
+            } else {
+                buffer.setLength(0);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
+
+/**
+ * Send and receive path for bodies of any size. A body whose payload exceeds the threshold, 256 KB by default,
+ * is written to a {@link BlobStore} and the message carries only the blob key, with the original size in the
+ * {@value #SIZE_ATTRIBUTE} attribute. Receivers read offloaded bodies as a stream, and {@link #delete} removes
+ * the blob after the message.
+ *
+ * <pre>
+ * LargePayloadClient client = LargePayloadClient.builder().client(sqs).blobStore(new FileBlobStore(dir)).build();
+ * client.send(queueUrl, Files.newInputStream(report), Files.size(report));
+ * for (Message message : client.receive(ReceiveMessageRequest.builder().queueUrl(queueUrl).build())) {
+ *     try (InputStream body = client.openBody(message)) {
+ *         process(body);
+ *     }
+ *     client.delete(queueUrl, message);
+ * }
+ * </pre>
+ */
+public class LargePayloadClient
+{
+    public static final String SIZE_ATTRIBUTE = "ExtendedPayloadSize";
+
+    private final SqsClient sqs;
+    private final BlobStore store;
+    private final int threshold;
+    private final boolean alwaysOffload;
+
+    private LargePayloadClient(Builder builder)
+    {
+        this.sqs = builder.sqs;
+        this.store = builder.store;
+        this.threshold = builder.threshold;
+        this.alwaysOffload = builder.alwaysOffload;
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public SendMessageResponse send(SendMessageRequest request) throws IOException
+    {
+        if (request.messageAttributes().containsKey(SIZE_ATTRIBUTE)) {
+            throw new IllegalArgumentException(SIZE_ATTRIBUTE + " is a reserved message attribute");
+        }
+        if (!offload(SqsLimits.payloadSize(request.messageBody(), request.messageAttributes()))) {
+            return sqs.sendMessage(request);
+        }
+        byte[] body = request.messageBody().getBytes(StandardCharsets.UTF_8);
+        return sendPointer(request, store.put(body), body.length);
+    }
+
+    /**
+     * Sends a body of the given length in UTF-8 bytes, streaming it to the blob store when it is too large for
+     * a message so it never has to be held in memory.
+     */
+    public SendMessageResponse send(String queueUrl, InputStream body, long length) throws IOException
+    {
+        SendMessageRequest request = SendMessageRequest.builder().queueUrl(queueUrl).build();
+        if (!offload(length)) {
+            return sqs.sendMessage(request.toBuilder().messageBody(readFully(body)).build());
+        }
+        return sendPointer(request, store.put(body), length);
+    }
+
+    private boolean offload(long payloadSize)
+    {
+        return alwaysOffload || payloadSize > threshold;
+    }
+
+    private SendMessageResponse sendPointer(SendMessageRequest request, String key, long size) throws IOException
+    {
+        Map<String, MessageAttributeValue> attributes =
+                new HashMap<String, MessageAttributeValue>(request.messageAttributes());
+        attributes.put(SIZE_ATTRIBUTE, MessageAttributeValue.builder()
+                .dataType("Number")
+                .stringValue(Long.toString(size))
+                .build());
+        try {
+            return sqs.sendMessage(request.toBuilder().messageBody(key).messageAttributes(attributes).build());
+        } catch (RuntimeException e) {
+            // Nothing will ever point at the blob.
+            try {
+                store.delete(key);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    // Receives with the size attribute requested, which is how offloaded messages are recognised.
+    public List<Message> receive(ReceiveMessageRequest request)
+    {
+        List<String> names = request.messageAttributeNames();
+        if (!names.contains("All") && !names.contains(".*") && !names.contains(SIZE_ATTRIBUTE)) {
+            List<String> withSize = new ArrayList<String>(names);
+            withSize.add(SIZE_ATTRIBUTE);
+            request = request.toBuilder().messageAttributeNames(withSize).build();
+        }
+        return sqs.receiveMessage(request).messages();
+    }
+
+    public boolean isOffloaded(Message message)
+    {
+        return message.messageAttributes().containsKey(SIZE_ATTRIBUTE);
+    }
+
+    // Size of the original body in UTF-8 bytes.
+    public long bodySize(Message message)
+    {
+        MessageAttributeValue size = message.messageAttributes().get(SIZE_ATTRIBUTE);
+        return size != null ? Long.parseLong(size.stringValue()) : SqsLimits.utf8Length(message.body());
+    }
+
+    public InputStream openBody(Message message) throws IOException
+    {
+        if (isOffloaded(message)) {
+            return store.open(message.body());
+        }
+        return new ByteArrayInputStream(message.body().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // The whole body as a string; prefer openBody for bodies that may be large.
+    public String readBody(Message message) throws IOException
+    {
+        if (!isOffloaded(message)) {
+            return message.body();
+        }
+        try (InputStream body = store.open(message.body())) {
+            return readFully(body);
+        }
+    }
+
+    /**
+     * Deletes the message, then its blob. In this order a failure leaves at worst an orphaned blob, never a
+     * message whose body is gone.
+     */
+    public void delete(String queueUrl, Message message) throws IOException
+    {
+        sqs.deleteMessage(DeleteMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .receiptHandle(message.receiptHandle())
+                .build());
+        if (isOffloaded(message)) {
+            store.delete(message.body());
+        }
+    }
+
+    private static String readFully(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    public static final class Builder
+    {
+        private SqsClient sqs;
+        private BlobStore store;
+        private int threshold = SqsLimits.MAX_PAYLOAD_BYTES;
+        private boolean alwaysOffload;
+
+        private Builder()
+        {
+        }
+
+        public Builder client(SqsClient sqs)
+        {
+            this.sqs = sqs;
+            return this;
+        }
+
+        public Builder blobStore(BlobStore store)
+        {
+            this.store = store;
+            return this;
+        }
+
+        // Payload size, body plus message attributes, above which the body goes to the blob store.
+        public Builder threshold(int threshold)
+        {
+            this.threshold = threshold;
+            return this;
+        }
+
+        // Offloads every body, so receivers always read from the blob store.
+        public Builder alwaysOffload(boolean alwaysOffload)
+        {
+            this.alwaysOffload = alwaysOffload;
+            return this;
+        }
+
+        public LargePayloadClient build()
+        {
+            if (sqs == null || store == null) {
+                throw new IllegalStateException("client and blobStore are required");
+            }
+            if (threshold > SqsLimits.MAX_PAYLOAD_BYTES) {
+                throw new IllegalStateException("threshold cannot exceed " + SqsLimits.MAX_PAYLOAD_BYTES + " bytes");
+            }
+            return new LargePayloadClient(this);
+        }
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.AmazonSQSAsyncClientBuilder;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.CreateQueueRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteQueueRequest;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+/**
+ * The few SQS calls the {@link LoadGenerator} makes, behind one type so the same load can be driven through
+ * each client flavour. Batches of one use the single-message actions, as an application would.
+ */
+abstract class LoadClient implements AutoCloseable
+{
+    // metrics may be null.
+    static LoadClient create(LoadGenerator.ClientType type, Region region, URI endpoint, boolean dummyCredentials,
+                             int maxConnections, SqsMetrics metrics)
+    {
+        switch (type) {
+        case V2_SYNC:
+            return new V2Sync(v2Factory(dummyCredentials, maxConnections, metrics), region, endpoint);
+        case V2_ASYNC:
+            return new V2Async(v2Factory(dummyCredentials, maxConnections, metrics), region, endpoint);
+        case V1_ASYNC:
+            return new V1Async(v1Client(region, endpoint, dummyCredentials, maxConnections, metrics));
+        default:
+            throw new IllegalArgumentException("Unknown client type " + type);
+        }
+    }
+
+    abstract String createQueue(String queueName);
+
+    abstract void deleteQueue(String queueUrl);
+
+    // Completes with the number of messages accepted.
+    abstract CompletableFuture<Integer> send(String queueUrl, List<String> bodies);
+
+    abstract CompletableFuture<Received> receive(String queueUrl, int maxMessages, int waitTimeSeconds);
+
+    abstract CompletableFuture<Void> delete(String queueUrl, List<String> receiptHandles);
+
+    @Override
+    public abstract void close();
+
+    /**
+     * Bodies and receipt handles of one receive, in the same order.
+     */
+    static final class Received
+    {
+        final List<String> bodies;
+        final List<String> receiptHandles;
+
+        Received(int size)
+        {
+            this.bodies = new ArrayList<String>(size);
+            this.receiptHandles = new ArrayList<String>(size);
+        }
+
+        void add(String body, String receiptHandle)
+        {
+            bodies.add(body);
+            receiptHandles.add(receiptHandle);
+        }
+
+        int size()
+        {
+            return bodies.size();
+        }
+    }
+
+    private static SqsClientFactory v2Factory(boolean dummyCredentials, int maxConnections, SqsMetrics metrics)
+    {
+        SqsClientSettings.Builder settings = SqsClientSettings.builder().maxConnections(maxConnections).metrics(metrics);
+        if (dummyCredentials) {
+            settings.credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("x", "x")));
+        }
+        return new SqsClientFactory(settings.build());
+    }
+
+    private static AmazonSQSAsync v1Client(Region region, URI endpoint, boolean dummyCredentials, int maxConnections,
+                                           SqsMetrics metrics)
+    {
+        AWSCredentialsProvider credentials = dummyCredentials
+                ? new AWSStaticCredentialsProvider(new BasicAWSCredentials("x", "x"))
+                : DefaultAWSCredentialsProviderChain.getInstance();
+        AmazonSQSAsyncClientBuilder builder = AmazonSQSAsyncClientBuilder.standard()
+                .withCredentials(credentials)
+                .withClientConfiguration(new ClientConfiguration().withMaxConnections(maxConnections));
+        if (endpoint != null) {
+            builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint.toString(), region.id()));
+        } else {
+            builder.withRegion(region.id());
+        }
+        if (metrics != null) {
+            builder.withRequestHandlers(metrics.requestHandler());
+        }
+        return builder.build();
+    }
+
+    private static SendMessageRequest v2Send(String queueUrl, String body)
+    {
+        return SendMessageRequest.builder().queueUrl(queueUrl).messageBody(body).build();
+    }
+
+    private static SendMessageBatchRequest v2Send(String queueUrl, List<String> bodies)
+    {
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<SendMessageBatchRequestEntry>(bodies.size());
+        for (int i = 0; i < bodies.size(); i++) {
+            entries.add(SendMessageBatchRequestEntry.builder().id(Integer.toString(i)).messageBody(bodies.get(i)).build());
+        }
+        return SendMessageBatchRequest.builder().queueUrl(queueUrl).entries(entries).build();
+    }
+
+    private static ReceiveMessageRequest v2Receive(String queueUrl, int maxMessages, int waitTimeSeconds)
+    {
+        return ReceiveMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .maxNumberOfMessages(maxMessages)
+                .waitTimeSeconds(waitTimeSeconds)
+                .build();
+    }
+
+    private static Received v2Received(List<Message> messages)
+    {
+        Received received = new Received(messages.size());
+        for (Message message : messages) {
+            received.add(message.body(), message.receiptHandle());
+        }
+        return received;
+    }
+
+    private static DeleteMessageRequest v2Delete(String queueUrl, String receiptHandle)
+    {
+        return DeleteMessageRequest.builder().queueUrl(queueUrl).receiptHandle(receiptHandle).build();
+    }
+
+    private static DeleteMessageBatchRequest v2Delete(String queueUrl, List<String> receiptHandles)
+    {
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<DeleteMessageBatchRequestEntry>(receiptHandles.size());
+        for (int i = 0; i < receiptHandles.size(); i++) {
+            entries.add(DeleteMessageBatchRequestEntry.builder()
+                    .id(Integer.toString(i))
+                    .receiptHandle(receiptHandles.get(i))
+                    .build());
+        }
+        return DeleteMessageBatchRequest.builder().queueUrl(queueUrl).entries(entries).build();
+    }
+
+    // Blocking client; the futures are already complete when returned.
+    private static final class V2Sync extends LoadClient
+    {
+        private final SqsClientFactory factory;
+        private final SqsClient sqs;
+
+        V2Sync(SqsClientFactory factory, Region region, URI endpoint)
+        {
+            this.factory = factory;
+            this.sqs = factory.client(region, endpoint);
+        }
+
+        @Override
+        String createQueue(String queueName)
+        {
+            return sqs.createQueue(CreateQueueRequest.builder().queueName(queueName).build()).queueUrl();
+        }
+
+        @Override
+        void deleteQueue(String queueUrl)
+        {
+            sqs.deleteQueue(DeleteQueueRequest.builder().queueUrl(queueUrl).build());
+        }
+
+        @Override
+        CompletableFuture<Integer> send(String queueUrl, List<String> bodies)
+        {
+            CompletableFuture<Integer> result = new CompletableFuture<Integer>();
+            try {
+                if (bodies.size() == 1) {
+                    sqs.sendMessage(v2Send(queueUrl, bodies.get(0)));
+                    result.complete(1);
+                } else {
+                    result.complete(sqs.sendMessageBatch(v2Send(queueUrl, bodies)).successful().size());
+                }
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+
+        @Override
+        CompletableFuture<Received> receive(String queueUrl, int maxMessages, int waitTimeSeconds)
+        {
+            CompletableFuture<Received> result = new CompletableFuture<Received>();
+            try {
+                result.complete(v2Received(sqs.receiveMessage(v2Receive(queueUrl, maxMessages, waitTimeSeconds)).messages()));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+
+        @Override
+        CompletableFuture<Void> delete(String queueUrl, List<String> receiptHandles)
+        {
+            CompletableFuture<Void> result = new CompletableFuture<Void>();
+            try {
+                if (receiptHandles.size() == 1) {
+                    sqs.deleteMessage(v2Delete(queueUrl, receiptHandles.get(0)));
+                } else {
+                    sqs.deleteMessageBatch(v2Delete(queueUrl, receiptHandles));
+                }
+                result.complete(null);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+
+        @Override
+        public void close()
+        {
+            factory.close();
+        }
+    }
+
+    private static final class V2Async extends LoadClient
+    {
+        private final SqsClientFactory factory;
+        private final SqsAsyncClient sqs;
+
+        V2Async(SqsClientFactory factory, Region region, URI endpoint)
+        {
+            this.factory = factory;
+            this.sqs = factory.asyncClient(region, endpoint);
+        }
+
+        @Override
+        String createQueue(String queueName)
+        {
+            return sqs.createQueue(CreateQueueRequest.builder().queueName(queueName).build()).join().queueUrl();
+        }
+
+        @Override
+        void deleteQueue(String queueUrl)
+        {
+            sqs.deleteQueue(DeleteQueueRequest.builder().queueUrl(queueUrl).build()).join();
+        }
+
+        @Override
+        CompletableFuture<Integer> send(String queueUrl, List<String> bodies)
+        {
+            if (bodies.size() == 1) {
+                return sqs.sendMessage(v2Send(queueUrl, bodies.get(0))).thenApply(response -> 1);
+            }
+            return sqs.sendMessageBatch(v2Send(queueUrl, bodies)).thenApply(response -> response.successful().size());
+        }
+
+        @Override
+        CompletableFuture<Received> receive(String queueUrl, int maxMessages, int waitTimeSeconds)
+        {
+            return sqs.receiveMessage(v2Receive(queueUrl, maxMessages, waitTimeSeconds))
+                    .thenApply(response -> v2Received(response.messages()));
+        }
+
+        @Override
+        CompletableFuture<Void> delete(String queueUrl, List<String> receiptHandles)
+        {
+            if (receiptHandles.size() == 1) {
+                return sqs.deleteMessage(v2Delete(queueUrl, receiptHandles.get(0))).thenApply(response -> null);
+            }
+            return sqs.deleteMessageBatch(v2Delete(queueUrl, receiptHandles)).thenApply(response -> null);
+        }
+
+        @Override
+        public void close()
+        {
+            factory.close();
+        }
+    }
+
+    // The v1 async client runs every call on its own executor and reports through an AsyncHandler.
+    private static final class V1Async extends LoadClient
+    {
+        private final AmazonSQSAsync sqs;
+
+        V1Async(AmazonSQSAsync sqs)
+        {
+            this.sqs = sqs;
+        }
+
+        @Override
+        String createQueue(String queueName)
+        {
+            return sqs.createQueue(queueName).getQueueUrl();
+        }
+
+        @Override
+        void deleteQueue(String queueUrl)
+        {
+            sqs.deleteQueue(queueUrl);
+        }
+
+        @Override
+        CompletableFuture<Integer> send(String queueUrl, List<String> bodies)
+        {
+            if (bodies.size() == 1) {
+                Handler<com.amazonaws.services.sqs.model.SendMessageRequest,
+                        com.amazonaws.services.sqs.model.SendMessageResult> handler = new Handler<>();
+                sqs.sendMessageAsync(new com.amazonaws.services.sqs.model.SendMessageRequest(queueUrl, bodies.get(0)), handler);
+                return handler.future.thenApply(result -> 1);
+            }
+            List<com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry> entries =
+                    new ArrayList<com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry>(bodies.size());
+            for (int i = 0; i < bodies.size(); i++) {
+                entries.add(new com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry(Integer.toString(i), bodies.get(i)));
+            }
+            Handler<com.amazonaws.services.sqs.model.SendMessageBatchRequest,
+                    com.amazonaws.services.sqs.model.SendMessageBatchResult> handler = new Handler<>();
+            sqs.sendMessageBatchAsync(new com.amazonaws.services.sqs.model.SendMessageBatchRequest(queueUrl, entries), handler);
+            return handler.future.thenApply(result -> result.getSuccessful().size());
+        }
+
+        @Override
+        CompletableFuture<Received> receive(String queueUrl, int maxMessages, int waitTimeSeconds)
+        {
+            Handler<com.amazonaws.services.sqs.model.ReceiveMessageRequest,
+                    com.amazonaws.services.sqs.model.ReceiveMessageResult> handler = new Handler<>();
+            sqs.receiveMessageAsync(new com.amazonaws.services.sqs.model.ReceiveMessageRequest(queueUrl)
+                    .withMaxNumberOfMessages(maxMessages)
+                    .withWaitTimeSeconds(waitTimeSeconds), handler);
+            return handler.future.thenApply(result -> {
+                Received received = new Received(result.getMessages().size());
+                for (com.amazonaws.services.sqs.model.Message message : result.getMessages()) {
+                    received.add(message.getBody(), message.getReceiptHandle());
+                }
+                return received;
+            });
+        }
+
+        @Override
+        CompletableFuture<Void> delete(String queueUrl, List<String> receiptHandles)
+        {
+            if (receiptHandles.size() == 1) {
+                Handler<com.amazonaws.services.sqs.model.DeleteMessageRequest,
+                        com.amazonaws.services.sqs.model.DeleteMessageResult> handler = new Handler<>();
+                sqs.deleteMessageAsync(new com.amazonaws.services.sqs.model.DeleteMessageRequest(queueUrl, receiptHandles.get(0)), handler);
+                return handler.future.thenApply(result -> null);
+            }
+            List<com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry> entries =
+                    new ArrayList<com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry>(receiptHandles.size());
+            for (int i = 0; i < receiptHandles.size(); i++) {
+                entries.add(new com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry(Integer.toString(i), receiptHandles.get(i)));
+            }
+            Handler<com.amazonaws.services.sqs.model.DeleteMessageBatchRequest,
+                    com.amazonaws.services.sqs.model.DeleteMessageBatchResult> handler = new Handler<>();
+            sqs.deleteMessageBatchAsync(new com.amazonaws.services.sqs.model.DeleteMessageBatchRequest(queueUrl, entries), handler);
+            return handler.future.thenApply(result -> null);
+        }
+
+        @Override
+        public void close()
+        {
+            sqs.shutdown();
+        }
+    }
+
+    private static final class Handler<Q extends AmazonWebServiceRequest, R> implements AsyncHandler<Q, R>
+    {
+        final CompletableFuture<R> future = new CompletableFuture<R>();
+
+        @Override
+        public void onError(Exception exception)
+        {
+            future.completeExceptionally(exception);
+        }
+
+        @Override
+        public void onSuccess(Q request, R result)
+        {
+            future.complete(result);
+        }
+    }
+}
@@ -0,0 +1,728 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import software.amazon.awssdk.regions.Region;
+
+/**
+ * Drives a queue with a configurable number of producers and consumers and reports sustained throughput and
+ * send, receive and end-to-end latency percentiles. Every body starts with the send time, so end-to-end latency
+ * is measured from just before the send to the receive that returned it; producers and consumers run in the
+ * same process for that reason.
+ *
+ * By default an {@link EmbeddedSqsServer} is started on a free port, which measures the client side only; point
+ * --endpoint at ElasticMQ, or at "aws" for the regional endpoint, to include a real server.
+ *
+ * Usage: LoadGenerator [--name=value ...], see {@link #usage()}.
+ */
+public class LoadGenerator
+{
+    private static final int TIMESTAMP_CHARS = 16;
+
+    public enum ClientType
+    {
+        V2_SYNC, V2_ASYNC, V1_ASYNC;
+
+        static ClientType parse(String value)
+        {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+
+        @Override
+        public String toString()
+        {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+
+    private final URI endpoint;
+    private final Region region;
+    private final String queueName;
+    private final ClientType clientType;
+    private final int producers;
+    private final int consumers;
+    private final int batchSize;
+    private final MessageSizes sizes;
+    private final int waitTimeSeconds;
+    private final int pipeline;
+    private final Duration warmup;
+    private final Duration duration;
+    private final Duration reportInterval;
+    private final int metricsPort;
+    private final PrintStream out;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final Recorder sendLatency = new Recorder(3);
+    private final Recorder receiveLatency = new Recorder(3);
+    private final Recorder endToEndLatency = new Recorder(3);
+    private volatile boolean producing = true;
+    private volatile boolean consuming = true;
+
+    private LoadGenerator(Builder builder)
+    {
+        this.endpoint = builder.endpoint;
+        this.region = builder.region;
+        this.queueName = builder.queueName;
+        this.clientType = builder.clientType;
+        this.producers = builder.producers;
+        this.consumers = builder.consumers;
+        this.batchSize = builder.batchSize;
+        this.sizes = builder.sizes;
+        this.waitTimeSeconds = builder.waitTimeSeconds;
+        this.pipeline = builder.pipeline;
+        this.warmup = builder.warmup;
+        this.duration = builder.duration;
+        this.reportInterval = builder.reportInterval;
+        this.metricsPort = builder.metricsPort;
+        this.out = builder.out;
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Builder builder = builder();
+        try {
+            for (String arg : args) {
+                builder.option(arg);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(usage());
+            System.exit(2);
+        }
+        builder.build().run().print(System.out);
+    }
+
+    static String usage()
+    {
+        return "Usage: LoadGenerator [--name=value ...]\n"
+                + "  --endpoint=embedded|aws|URL   server to load (default embedded)\n"
+                + "  --region=us-east-1            signing region\n"
+                + "  --queue=NAME                  existing or new queue (default: a fresh queue, deleted afterwards)\n"
+                + "  --client=v2-sync|v2-async|v1-async\n"
+                + "  --producers=N --consumers=N   worker threads (default 4 and 4)\n"
+                + "  --batch=1..10                 messages per send and per receive (default 10)\n"
+                + "  --size=BYTES|MIN-MAX|B:W,...  body size: fixed, uniform, or weighted mix (default 1024)\n"
+                + "  --wait=0..20                  long-poll wait in seconds (default 1)\n"
+                + "  --pipeline=N                  outstanding sends per producer, async clients only (default 1)\n"
+                + "  --warmup=SECONDS --duration=SECONDS --interval=SECONDS\n"
+                + "  --metrics-port=N              serve client metrics at http://localhost:N/metrics during the run";
+    }
+
+    /**
+     * Runs warm-up and measurement, stops the producers, lets the consumers drain briefly and returns the
+     * figures of the measurement window.
+     */
+    public Report run() throws Exception
+    {
+        EmbeddedSqsServer server = null;
+        URI target = endpoint;
+        if (target == null) {
+            server = EmbeddedSqsServer.builder().build().start();
+            target = server.endpoint();
+        }
+        SqsMetrics metrics = null;
+        MetricsEndpoint metricsEndpoint = null;
+        if (metricsPort >= 0) {
+            metrics = new SqsMetrics();
+            metricsEndpoint = MetricsEndpoint.start(metrics, new InetSocketAddress(metricsPort));
+            out.println("Client metrics at " + metricsEndpoint.uri());
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(producers + consumers, VirtualThreads.platformFactory("load-"));
+        try (LoadClient client = LoadClient.create(clientType, region, "aws".equals(String.valueOf(target)) ? null : target,
+                isLocal(target), producers * pipeline + consumers * 2, metrics)) {
+            String name = queueName != null ? queueName : "load-" + System.currentTimeMillis();
+            String queueUrl = client.createQueue(name);
+            out.printf("%s client, %d producers, %d consumers, batch %d, size %s, wait %ds, queue %s%n",
+                    clientType, producers, consumers, batchSize, sizes, waitTimeSeconds, queueUrl);
+
+            for (int i = 0; i < producers; i++) {
+                workers.execute(() -> produce(client, queueUrl));
+            }
+            for (int i = 0; i < consumers; i++) {
+                workers.execute(() -> consume(client, queueUrl));
+            }
+
+            Thread.sleep(warmup.toMillis());
+            Report report = measure();
+
+            producing = false;
+            Thread.sleep(TimeUnit.SECONDS.toMillis(waitTimeSeconds) + 1000);
+            consuming = false;
+            workers.shutdown();
+            workers.awaitTermination(waitTimeSeconds + 30, TimeUnit.SECONDS);
+            if (queueName == null) {
+                client.deleteQueue(queueUrl);
+            }
+            return report;
+        } finally {
+            workers.shutdownNow();
+            if (metricsEndpoint != null) {
+                metricsEndpoint.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    private Report measure() throws InterruptedException
+    {
+        // Discard what was recorded during warm-up.
+        sendLatency.reset();
+        receiveLatency.reset();
+        endToEndLatency.reset();
+        long sentBefore = sent.sum();
+        long receivedBefore = received.sum();
+        long errorsBefore = errors.sum();
+
+        Histogram send = new Histogram(3);
+        Histogram receive = new Histogram(3);
+        Histogram endToEnd = new Histogram(3);
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        long lastSent = sentBefore;
+        long lastReceived = receivedBefore;
+        long last = start;
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= end) {
+                break;
+            }
+            Thread.sleep(Math.max(1, TimeUnit.NANOSECONDS.toMillis(Math.min(reportInterval.toNanos(), end - now))));
+
+            now = System.nanoTime();
+            Histogram intervalEndToEnd = endToEndLatency.getIntervalHistogram();
+            send.add(sendLatency.getIntervalHistogram());
+            receive.add(receiveLatency.getIntervalHistogram());
+            endToEnd.add(intervalEndToEnd);
+            long sentNow = sent.sum();
+            long receivedNow = received.sum();
+            double seconds = (now - last) / 1e9;
+            out.printf("%6.1fs  sent %9.0f/s  received %9.0f/s  end-to-end p50 %8.2fms  p99 %8.2fms%n",
+                    (now - start) / 1e9, (sentNow - lastSent) / seconds, (receivedNow - lastReceived) / seconds,
+                    intervalEndToEnd.getValueAtPercentile(50) / 1000.0, intervalEndToEnd.getValueAtPercentile(99) / 1000.0);
+            lastSent = sentNow;
+            lastReceived = receivedNow;
+            last = now;
+        }
+        double seconds = (last - start) / 1e9;
+        return new Report(clientType, sent.sum() - sentBefore, received.sum() - receivedBefore,
+                errors.sum() - errorsBefore, seconds, send, receive, endToEnd);
+    }
+
+    private void produce(LoadClient client, String queueUrl)
+    {
+        Semaphore outstanding = new Semaphore(pipeline);
+        try {
+            while (producing) {
+                outstanding.acquire();
+                List<String> bodies = new ArrayList<String>(batchSize);
+                long start = System.nanoTime();
+                for (int i = 0; i < batchSize; i++) {
+                    bodies.add(body(start, sizes.next()));
+                }
+                client.send(queueUrl, bodies).whenComplete((accepted, error) -> {
+                    outstanding.release();
+                    if (error == null) {
+                        sendLatency.recordValue(micros(System.nanoTime() - start));
+                        sent.add(accepted);
+                        errors.add(bodies.size() - accepted);
+                    } else {
+                        errors.increment();
+                    }
+                });
+            }
+            outstanding.acquire(pipeline);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void consume(LoadClient client, String queueUrl)
+    {
+        while (consuming && !Thread.currentThread().isInterrupted()) {
+            long start = System.nanoTime();
+            LoadClient.Received batch;
+            try {
+                batch = client.receive(queueUrl, batchSize, waitTimeSeconds).join();
+            } catch (RuntimeException e) {
+                errors.increment();
+                pause();
+                continue;
+            }
+            long now = System.nanoTime();
+            receiveLatency.recordValue(micros(now - start));
+            if (batch.size() == 0) {
+                continue;
+            }
+            for (String body : batch.bodies) {
+                long sentAt = sentAt(body);
+                if (sentAt != Long.MIN_VALUE) {
+                    endToEndLatency.recordValue(micros(Math.max(0, now - sentAt)));
+                }
+            }
+            received.add(batch.size());
+            try {
+                client.delete(queueUrl, batch.receiptHandles).join();
+            } catch (RuntimeException e) {
+                errors.increment();
+            }
+        }
+    }
+
+    private static void pause()
+    {
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long micros(long nanos)
+    {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    // Send time as fixed-width hex, padded to the requested size.
+    static String body(long nanoTime, int size)
+    {
+        char[] chars = new char[Math.max(size, TIMESTAMP_CHARS)];
+        Arrays.fill(chars, 'x');
+        for (int i = TIMESTAMP_CHARS - 1; i >= 0; i--) {
+            chars[i] = Character.forDigit((int) (nanoTime & 0xf), 16);
+            nanoTime >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    // Long.MIN_VALUE for bodies not written by this generator, e.g. left over in a reused queue.
+    static long sentAt(String body)
+    {
+        if (body.length() < TIMESTAMP_CHARS) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            return Long.parseUnsignedLong(body.substring(0, TIMESTAMP_CHARS), 16);
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    // Loopback endpoints, i.e. ElasticMQ or the embedded server, get dummy credentials.
+    private static boolean isLocal(URI endpoint)
+    {
+        if (endpoint == null || endpoint.getHost() == null) {
+            return false;
+        }
+        try {
+            return InetAddress.getByName(endpoint.getHost()).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Throughput and latency of the measurement window. Latencies are recorded in microseconds.
+     */
+    public static final class Report
+    {
+        private final ClientType clientType;
+        private final long sentMessages;
+        private final long receivedMessages;
+        private final long errors;
+        private final double seconds;
+        private final Histogram sendLatency;
+        private final Histogram receiveLatency;
+        private final Histogram endToEndLatency;
+
+        Report(ClientType clientType, long sentMessages, long receivedMessages, long errors, double seconds,
+               Histogram sendLatency, Histogram receiveLatency, Histogram endToEndLatency)
+        {
+            this.clientType = clientType;
+            this.sentMessages = sentMessages;
+            this.receivedMessages = receivedMessages;
+            this.errors = errors;
+            this.seconds = seconds;
+            this.sendLatency = sendLatency;
+            this.receiveLatency = receiveLatency;
+            this.endToEndLatency = endToEndLatency;
+        }
+
+        public long sentMessages()
+        {
+            return sentMessages;
+        }
+
+        public long receivedMessages()
+        {
+            return receivedMessages;
+        }
+
+        public long errors()
+        {
+            return errors;
+        }
+
+        public double sentPerSecond()
+        {
+            return seconds > 0 ? sentMessages / seconds : 0;
+        }
+
+        public double receivedPerSecond()
+        {
+            return seconds > 0 ? receivedMessages / seconds : 0;
+        }
+
+        // Per request, including the long-poll wait of receives that found the queue empty.
+        public Histogram sendLatency()
+        {
+            return sendLatency;
+        }
+
+        public Histogram receiveLatency()
+        {
+            return receiveLatency;
+        }
+
+        // Per message, from just before its send to the return of the receive that delivered it.
+        public Histogram endToEndLatency()
+        {
+            return endToEndLatency;
+        }
+
+        public void print(PrintStream out)
+        {
+            out.printf("%n%s: sent %.0f msgs/s, received %.0f msgs/s over %.1fs, %d errors%n",
+                    clientType, sentPerSecond(), receivedPerSecond(), seconds, errors);
+            out.printf("%-12s %10s %9s %9s %9s %9s %9s%n", "latency ms", "count", "p50", "p90", "p99", "p99.9", "max");
+            row(out, "send", sendLatency);
+            row(out, "receive", receiveLatency);
+            row(out, "end-to-end", endToEndLatency);
+        }
+
+        private static void row(PrintStream out, String name, Histogram histogram)
+        {
+            out.printf("%-12s %10d %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, histogram.getTotalCount(),
+                    histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(90) / 1000.0,
+                    histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0,
+                    histogram.getMaxValue() / 1000.0);
+        }
+    }
+
+    /**
+     * Body sizes: a fixed size, a uniform range "MIN-MAX", or a weighted mix "SIZE:WEIGHT,...".
+     */
+    static final class MessageSizes
+    {
+        private final int[] sizes;
+        private final int[] cumulativeWeights;
+        private final boolean uniform;
+        private final String spec;
+
+        private MessageSizes(int[] sizes, int[] cumulativeWeights, boolean uniform, String spec)
+        {
+            this.sizes = sizes;
+            this.cumulativeWeights = cumulativeWeights;
+            this.uniform = uniform;
+            this.spec = spec;
+        }
+
+        static MessageSizes parse(String spec)
+        {
+            try {
+                if (spec.contains(":")) {
+                    String[] parts = spec.split(",");
+                    int[] sizes = new int[parts.length];
+                    int[] cumulative = new int[parts.length];
+                    int total = 0;
+                    for (int i = 0; i < parts.length; i++) {
+                        String[] pair = parts[i].split(":");
+                        sizes[i] = Integer.parseInt(pair[0].trim());
+                        total += Integer.parseInt(pair[1].trim());
+                        cumulative[i] = total;
+                    }
+                    return new MessageSizes(sizes, cumulative, false, spec);
+                }
+                int dash = spec.indexOf('-');
+                if (dash > 0) {
+                    int min = Integer.parseInt(spec.substring(0, dash).trim());
+                    int max = Integer.parseInt(spec.substring(dash + 1).trim());
+                    if (max < min) {
+                        throw new IllegalArgumentException("Size range is empty: " + spec);
+                    }
+                    return new MessageSizes(new int[] {min, max}, null, true, spec);
+                }
+                int size = Integer.parseInt(spec.trim());
+                return new MessageSizes(new int[] {size}, new int[] {1}, false, spec);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid size: " + spec);
+            }
+        }
+
+        int next()
+        {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (uniform) {
+                return sizes[0] + random.nextInt(sizes[1] - sizes[0] + 1);
+            }
+            int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            for (int i = 0; i < cumulativeWeights.length; i++) {
+                if (pick < cumulativeWeights[i]) {
+                    return sizes[i];
+                }
+            }
+            return sizes[sizes.length - 1];
+        }
+
+        int min()
+        {
+            int min = Integer.MAX_VALUE;
+            for (int size : sizes) {
+                min = Math.min(min, size);
+            }
+            return min;
+        }
+
+        int max()
+        {
+            int max = 0;
+            for (int size : sizes) {
+                max = Math.max(max, size);
+            }
+            return max;
+        }
+
+        @Override
+        public String toString()
+        {
+            return spec;
+        }
+    }
+
+    public static final class Builder
+    {
+        private URI endpoint;
+        private Region region = Region.US_EAST_1;
+        private String queueName;
+        private ClientType clientType = ClientType.V2_SYNC;
+        private int producers = 4;
+        private int consumers = 4;
+        private int batchSize = SqsLimits.MAX_BATCH_ENTRIES;
+        private MessageSizes sizes = MessageSizes.parse("1024");
+        private int waitTimeSeconds = 1;
+        private int pipeline = 1;
+        private Duration warmup = Duration.ofSeconds(5);
+        private Duration duration = Duration.ofSeconds(30);
+        private Duration reportInterval = Duration.ofSeconds(5);
+        private int metricsPort = -1;
+        private PrintStream out = System.out;
+
+        private Builder()
+        {
+        }
+
+        // Applies one "--name=value" command line option.
+        public Builder option(String arg)
+        {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            String name = arg.substring(2, equals);
+            String value = arg.substring(equals + 1);
+            try {
+                switch (name) {
+                case "endpoint":
+                    return "embedded".equals(value) ? endpoint(null) : endpoint(URI.create(value));
+                case "region":
+                    return region(Region.of(value));
+                case "queue":
+                    return queueName(value);
+                case "client":
+                    return clientType(ClientType.parse(value));
+                case "producers":
+                    return producers(Integer.parseInt(value));
+                case "consumers":
+                    return consumers(Integer.parseInt(value));
+                case "batch":
+                    return batchSize(Integer.parseInt(value));
+                case "size":
+                    return messageSizes(value);
+                case "wait":
+                    return waitTimeSeconds(Integer.parseInt(value));
+                case "pipeline":
+                    return pipeline(Integer.parseInt(value));
+                case "warmup":
+                    return warmup(Duration.ofSeconds(Long.parseLong(value)));
+                case "duration":
+                    return duration(Duration.ofSeconds(Long.parseLong(value)));
+                case "interval":
+                    return reportInterval(Duration.ofSeconds(Long.parseLong(value)));
+                case "metrics-port":
+                    return metricsPort(Integer.parseInt(value));
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value: " + arg);
+            }
+        }
+
+        // null starts an embedded server; the URI "aws" uses the regional endpoint.
+        public Builder endpoint(URI endpoint)
+        {
+            this.endpoint = endpoint;
+            return this;
+        }
+
+        public Builder region(Region region)
+        {
+            this.region = region;
+            return this;
+        }
+
+        // An existing queue is kept afterwards; by default a fresh one is created and deleted.
+        public Builder queueName(String queueName)
+        {
+            this.queueName = queueName;
+            return this;
+        }
+
+        public Builder clientType(ClientType clientType)
+        {
+            this.clientType = clientType;
+            return this;
+        }
+
+        public Builder producers(int producers)
+        {
+            this.producers = producers;
+            return this;
+        }
+
+        public Builder consumers(int consumers)
+        {
+            this.consumers = consumers;
+            return this;
+        }
+
+        // Messages per send and maximum per receive; 1 uses the single-message actions.
+        public Builder batchSize(int batchSize)
+        {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder messageSizes(String spec)
+        {
+            this.sizes = MessageSizes.parse(spec);
+            return this;
+        }
+
+        public Builder waitTimeSeconds(int waitTimeSeconds)
+        {
+            this.waitTimeSeconds = waitTimeSeconds;
+            return this;
+        }
+
+        // Sends each producer keeps in flight; blocking clients always have one.
+        public Builder pipeline(int pipeline)
+        {
+            this.pipeline = pipeline;
+            return this;
+        }
+
+        public Builder warmup(Duration warmup)
+        {
+            this.warmup = warmup;
+            return this;
+        }
+
+        public Builder duration(Duration duration)
+        {
+            this.duration = duration;
+            return this;
+        }
+
+        public Builder reportInterval(Duration reportInterval)
+        {
+            this.reportInterval = reportInterval;
+            return this;
+        }
+
+        // Port of a MetricsEndpoint for the clients under load; 0 picks a free one, -1 (the default) serves none.
+        public Builder metricsPort(int metricsPort)
+        {
+            this.metricsPort = metricsPort;
+            return this;
+        }
+
+        public Builder out(PrintStream out)
+        {
+            this.out = out;
+            return this;
+        }
+
+        public LoadGenerator build()
+        {
+            if (producers < 1 || consumers < 1 || pipeline < 1) {
+                throw new IllegalArgumentException("producers, consumers and pipeline must be at least 1");
+            }
+            if (batchSize < 1 || batchSize > SqsLimits.MAX_BATCH_ENTRIES) {
+                throw new IllegalArgumentException("batch must be between 1 and " + SqsLimits.MAX_BATCH_ENTRIES);
+            }
+            if (waitTimeSeconds < 0 || waitTimeSeconds > SqsLimits.MAX_WAIT_TIME_SECONDS) {
+                throw new IllegalArgumentException("wait must be between 0 and " + SqsLimits.MAX_WAIT_TIME_SECONDS);
+            }
+            if (sizes.min() < TIMESTAMP_CHARS || (long) sizes.max() * batchSize > SqsLimits.MAX_PAYLOAD_BYTES) {
+                throw new IllegalArgumentException("size must be at least " + TIMESTAMP_CHARS
+                        + " bytes and a full batch at most " + SqsLimits.MAX_PAYLOAD_BYTES);
+            }
+            if (duration.isZero() || duration.isNegative() || reportInterval.isZero() || reportInterval.isNegative()) {
+                throw new IllegalArgumentException("duration and interval must be positive");
+            }
+            return new LoadGenerator(this);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+/**
+ * Compresses message bodies on the way out and restores them on the way in. A body of at least
+ * {@code minBodyBytes} is compressed with the configured {@link PayloadCodec} and base64-encoded, since SQS
+ * bodies must be text, and the codec name is stored in the {@value #ATTRIBUTE} message attribute. Bodies that do
+ * not shrink are sent as they are.
+ *
+ * Decoding only looks at the attribute, so a consumer with a codec reads plain and compressed messages alike
+ * and producers can be switched over one at a time. Consumers must request the attribute, for example with
+ * {@code messageAttributeNames("All")}.
+ *
+ * <pre>
+ * MessageCodec codec = MessageCodec.builder().codec(PayloadCodecs.GZIP).build();
+ * BatchingProducer producer = BatchingProducer.builder().client(sqs).queueUrl(queueUrl).codec(codec).build();
+ * QueueConsumer consumer = QueueConsumer.builder().client(sqsAsync).queueUrl(queueUrl).codec(codec)...
+ * </pre>
+ */
+public final class MessageCodec
+{
+    public static final String ATTRIBUTE = "Content-Encoding";
+
+    private static final String DATA_TYPE = "String";
+
+    private final PayloadCodec codec;
+    private final int minBodyBytes;
+    private final int maxDecodedBytes;
+
+    private MessageCodec(Builder builder)
+    {
+        this.codec = builder.codec;
+        this.minBodyBytes = builder.minBodyBytes;
+        this.maxDecodedBytes = builder.maxDecodedBytes;
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public PayloadCodec codec()
+    {
+        return codec;
+    }
+
+    public SendMessageBatchRequestEntry encode(SendMessageBatchRequestEntry entry)
+    {
+        if (entry.messageAttributes().containsKey(ATTRIBUTE)) {
+            return entry;
+        }
+        String encoded = compress(entry.messageBody());
+        if (encoded == null) {
+            return entry;
+        }
+        return entry.toBuilder()
+                .messageBody(encoded)
+                .messageAttributes(withEncoding(entry.messageAttributes()))
+                .build();
+    }
+
+    public SendMessageRequest encode(SendMessageRequest request)
+    {
+        if (request.messageAttributes().containsKey(ATTRIBUTE)) {
+            return request;
+        }
+        String encoded = compress(request.messageBody());
+        if (encoded == null) {
+            return request;
+        }
+        return request.toBuilder()
+                .messageBody(encoded)
+                .messageAttributes(withEncoding(request.messageAttributes()))
+                .build();
+    }
+
+    /**
+     * Returns the original body, whatever codec the producer used.
+     *
+     * @throws IllegalArgumentException if the body cannot be decoded or its codec is unknown
+     */
+    public String decode(Message message)
+    {
+        MessageAttributeValue encoding = message.messageAttributes().get(ATTRIBUTE);
+        return encoding == null ? message.body() : decode(message.body(), encoding.stringValue());
+    }
+
+    public String decode(String body, String encoding)
+    {
+        if (encoding == null || "identity".equals(encoding)) {
+            return body;
+        }
+        PayloadCodec decoder = encoding.equals(codec.name()) ? codec : PayloadCodecs.forName(encoding);
+        byte[] packed = Base64.getDecoder().decode(body);
+        return new String(decoder.decode(packed, maxDecodedBytes), StandardCharsets.UTF_8);
+    }
+
+    // The message with its body decoded and the encoding attribute removed; unencoded messages are returned as is.
+    public Message decoded(Message message)
+    {
+        if (!message.messageAttributes().containsKey(ATTRIBUTE)) {
+            return message;
+        }
+        Map<String, MessageAttributeValue> attributes =
+                new HashMap<String, MessageAttributeValue>(message.messageAttributes());
+        attributes.remove(ATTRIBUTE);
+        return message.toBuilder().body(decode(message)).messageAttributes(attributes).build();
+    }
+
+    // The encoded body, or null when the body is too small or does not shrink.
+    private String compress(String body)
+    {
+        int length = SqsLimits.utf8Length(body);
+        if (length < minBodyBytes) {
+            return null;
+        }
+        byte[] packed = codec.encode(body.getBytes(StandardCharsets.UTF_8));
+        int overhead = ATTRIBUTE.length() + DATA_TYPE.length() + codec.name().length();
+        if ((packed.length + 2) / 3 * 4 + overhead >= length) {
+            return null;
+        }
+        return Base64.getEncoder().encodeToString(packed);
+    }
+
+    private Map<String, MessageAttributeValue> withEncoding(Map<String, MessageAttributeValue> attributes)
+    {
+        Map<String, MessageAttributeValue> result = new HashMap<String, MessageAttributeValue>(attributes);
+        result.put(ATTRIBUTE, MessageAttributeValue.builder().dataType(DATA_TYPE).stringValue(codec.name()).build());
+        return result;
+    }
+
+    public static final class Builder
+    {
+        private PayloadCodec codec = PayloadCodecs.GZIP;
+        private int minBodyBytes = 1024;
+        private int maxDecodedBytes = 16 * 1024 * 1024;
+
+        private Builder()
+        {
+        }
+
+        // Codec for outgoing bodies; incoming bodies are decoded with whichever codec their attribute names.
+        public Builder codec(PayloadCodec codec)
+        {
+            this.codec = codec;
+            return this;
+        }
+
+        public Builder codec(String name)
+        {
+            this.codec = PayloadCodecs.forName(name);
+            return this;
+        }
+
+        // Bodies below this many UTF-8 bytes are sent uncompressed; compression rarely pays off for them.
+        public Builder minBodyBytes(int minBodyBytes)
+        {
+            this.minBodyBytes = minBodyBytes;
+            return this;
+        }
+
+        // Upper bound on a decoded body, against messages that expand to exhaust the heap.
+        public Builder maxDecodedBytes(int maxDecodedBytes)
+        {
+            this.maxDecodedBytes = maxDecodedBytes;
+            return this;
+        }
+
+        public MessageCodec build()
+        {
+            if (codec == null) {
+                throw new IllegalStateException("codec is required");
+            }
+            return new MessageCodec(this);
+        }
+    }
+}
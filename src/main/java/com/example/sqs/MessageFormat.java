@@ -0,0 +1,35 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+/**
+ * Turns schema-described values into message bodies and back. Implementations are thread-safe and reuse
+ * per-thread buffers, so encoding allocates little beyond the resulting body string.
+ */
+public interface MessageFormat
+{
+    String name();
+
+    // Value of the Content-Type message attribute that identifies the format to consumers.
+    String contentType();
+
+    <T> String encode(MessageSchema<T> schema, T value);
+
+    /**
+     * @throws IllegalArgumentException if the body is not valid in this format
+     */
+    <T> T decode(MessageSchema<T> schema, String body);
+}
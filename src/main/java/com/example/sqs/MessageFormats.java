@@ -0,0 +1,44 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+/**
+ * The built-in {@link MessageFormat}s. Binary is several times smaller than JSON and cheaper to parse; JSON is
+ * readable in the console and by consumers that do not have the schema.
+ */
+public final class MessageFormats
+{
+    public static final MessageFormat BINARY = new BinaryMessageFormat();
+    public static final MessageFormat JSON = new JsonMessageFormat();
+
+    private MessageFormats()
+    {
+    }
+
+    /**
+     * @throws IllegalArgumentException for anything but the content type of a built-in format
+     */
+    public static MessageFormat forContentType(String contentType)
+    {
+        if (BINARY.contentType().equals(contentType)) {
+            return BINARY;
+        }
+        if (JSON.contentType().equals(contentType)) {
+            return JSON;
+        }
+        throw new IllegalArgumentException("Unknown message content type " + contentType);
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import software.amazon.awssdk.services.sqs.model.Message;
+
+/**
+ * Processes one received message. Returning normally deletes the message from the queue; throwing leaves
+ * it in the queue so it becomes visible again once its visibility timeout expires.
+ */
+@FunctionalInterface
+public interface MessageHandler
+{
+    void handle(Message message) throws Exception;
+}
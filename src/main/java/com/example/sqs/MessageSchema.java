@@ -0,0 +1,198 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Describes how a message type maps to fields, so that {@link MessageFormat}s can write it without reflection
+ * and without building the body up from strings. Every field has a tag, used by the binary format, and a name,
+ * used by JSON. Neither may change once messages are in flight; new fields get new tags, and readers skip
+ * fields they do not know, so producers and consumers can be upgraded independently.
+ *
+ * <pre>
+ * static final MessageSchema&lt;Order&gt; ORDER = new MessageSchema&lt;Order&gt;("Order",
+ *         field(1, "id", Type.LONG), field(2, "customer", Type.STRING), field(3, "total", Type.DOUBLE))
+ * {
+ *     public void write(Order order, MessageWriter out)
+ *     {
+ *         out.writeLong(field(1), order.id);
+ *         out.writeString(field(2), order.customer);
+ *         out.writeDouble(field(3), order.total);
+ *     }
+ *
+ *     public Order read(MessageReader in)
+ *     {
+ *         Order order = new Order();
+ *         for (Field field; (field = in.next()) != null; ) {
+ *             switch (field.tag()) {
+ *                 case 1: order.id = in.readLong(); break;
+ *                 case 2: order.customer = in.readString(); break;
+ *                 case 3: order.total = in.readDouble(); break;
+ *             }
+ *         }
+ *         return order;
+ *     }
+ * };
+ * </pre>
+ */
+public abstract class MessageSchema<T>
+{
+    public enum Type
+    {
+        INT, LONG, DOUBLE, BOOLEAN, STRING, BYTES
+    }
+
+    public static final class Field
+    {
+        private final int tag;
+        private final String name;
+        private final Type type;
+
+        private Field(int tag, String name, Type type)
+        {
+            this.tag = tag;
+            this.name = name;
+            this.type = type;
+        }
+
+        public int tag()
+        {
+            return tag;
+        }
+
+        public String name()
+        {
+            return name;
+        }
+
+        public Type type()
+        {
+            return type;
+        }
+
+        @Override
+        public String toString()
+        {
+            return name + "(" + tag + ", " + type + ")";
+        }
+    }
+
+    private final String name;
+    private final Map<Integer, Field> byTag;
+    private final Map<String, Field> byName;
+
+    protected MessageSchema(String name, Field... fields)
+    {
+        Map<Integer, Field> tags = new HashMap<Integer, Field>();
+        Map<String, Field> names = new HashMap<String, Field>();
+        for (Field field : fields) {
+            if (tags.put(field.tag, field) != null || names.put(field.name, field) != null) {
+                throw new IllegalArgumentException("Duplicate field " + field + " in schema " + name);
+            }
+        }
+        this.name = name;
+        this.byTag = Collections.unmodifiableMap(tags);
+        this.byName = Collections.unmodifiableMap(names);
+    }
+
+    public static Field field(int tag, String name, Type type)
+    {
+        if (tag < 1 || tag > 0xfffffff) {
+            throw new IllegalArgumentException("Field tags must be between 1 and 2^28 - 1");
+        }
+        return new Field(tag, name, type);
+    }
+
+    public String name()
+    {
+        return name;
+    }
+
+    public Field field(int tag)
+    {
+        Field field = byTag.get(tag);
+        if (field == null) {
+            throw new IllegalArgumentException("No field " + tag + " in schema " + name);
+        }
+        return field;
+    }
+
+    // Null for fields this version of the schema does not know.
+    Field fieldOrNull(int tag)
+    {
+        return byTag.get(tag);
+    }
+
+    Field fieldOrNull(String fieldName)
+    {
+        return byName.get(fieldName);
+    }
+
+    public abstract void write(T value, MessageWriter out);
+
+    public abstract T read(MessageReader in);
+
+    /**
+     * Receives the fields of one message. Null strings and byte arrays are not written, so they read back as
+     * absent fields.
+     */
+    public interface MessageWriter
+    {
+        void writeInt(Field field, int value);
+
+        void writeLong(Field field, long value);
+
+        void writeDouble(Field field, double value);
+
+        void writeBoolean(Field field, boolean value);
+
+        void writeString(Field field, String value);
+
+        void writeBytes(Field field, byte[] value);
+    }
+
+    /**
+     * Iterates over the known fields of one message. After {@link #next()} returns a field, the matching read
+     * method returns its value; a field that is not read is skipped.
+     */
+    public interface MessageReader
+    {
+        // The next field, or null after the last one.
+        Field next();
+
+        int readInt();
+
+        long readLong();
+
+        double readDouble();
+
+        boolean readBoolean();
+
+        String readString();
+
+        byte[] readBytes();
+    }
+
+    static void checkType(Field field, Type type)
+    {
+        if (field.type != type) {
+            throw new IllegalArgumentException("Field " + field + " is not of type " + type);
+        }
+    }
+}
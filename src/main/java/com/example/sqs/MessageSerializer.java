@@ -0,0 +1,142 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.util.Collections;
+import java.util.Map;
+
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+/**
+ * Sends and receives values of one type. Outgoing messages are encoded with the configured
+ * {@link MessageFormat}, whose content type goes into the {@value #ATTRIBUTE} message attribute; incoming
+ * messages are decoded with whichever built-in format that attribute names, so a queue can carry both during a
+ * migration. Messages without the attribute are read in the configured format.
+ *
+ * <pre>
+ * MessageSerializer&lt;Order&gt; orders = MessageSerializer.builder(ORDER).format(MessageFormats.BINARY).build();
+ * producer.send(orders.entry(order));
+ * QueueConsumer.builder()...handler(orders.handler((order, message) -&gt; ship(order)))
+ * </pre>
+ */
+public final class MessageSerializer<T>
+{
+    public static final String ATTRIBUTE = "Content-Type";
+
+    private final MessageSchema<T> schema;
+    private final MessageFormat format;
+    private final Map<String, MessageAttributeValue> attributes;
+
+    private MessageSerializer(Builder<T> builder)
+    {
+        this.schema = builder.schema;
+        this.format = builder.format;
+        this.attributes = Collections.singletonMap(ATTRIBUTE, MessageAttributeValue.builder()
+                .dataType("String")
+                .stringValue(format.contentType())
+                .build());
+    }
+
+    public static <T> Builder<T> builder(MessageSchema<T> schema)
+    {
+        return new Builder<T>(schema);
+    }
+
+    public MessageSchema<T> schema()
+    {
+        return schema;
+    }
+
+    public MessageFormat format()
+    {
+        return format;
+    }
+
+    public String encode(T value)
+    {
+        return format.encode(schema, value);
+    }
+
+    // A batch entry for BatchingProducer#send(SendMessageBatchRequestEntry), which assigns the id.
+    public SendMessageBatchRequestEntry entry(T value)
+    {
+        return SendMessageBatchRequestEntry.builder()
+                .id("0")
+                .messageBody(encode(value))
+                .messageAttributes(attributes)
+                .build();
+    }
+
+    public SendMessageRequest request(String queueUrl, T value)
+    {
+        return SendMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .messageBody(encode(value))
+                .messageAttributes(attributes)
+                .build();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the body does not decode in the format its attribute names
+     */
+    public T decode(Message message)
+    {
+        MessageAttributeValue contentType = message.messageAttributes().get(ATTRIBUTE);
+        MessageFormat decoder = contentType == null || format.contentType().equals(contentType.stringValue())
+                ? format : MessageFormats.forContentType(contentType.stringValue());
+        return decoder.decode(schema, message.body());
+    }
+
+    // Adapts a typed handler for QueueConsumer; a message that does not decode goes to its error handler.
+    public MessageHandler handler(Handler<T> handler)
+    {
+        return message -> handler.handle(decode(message), message);
+    }
+
+    @FunctionalInterface
+    public interface Handler<T>
+    {
+        void handle(T value, Message message) throws Exception;
+    }
+
+    public static final class Builder<T>
+    {
+        private final MessageSchema<T> schema;
+        private MessageFormat format = MessageFormats.BINARY;
+
+        private Builder(MessageSchema<T> schema)
+        {
+            this.schema = schema;
+        }
+
+        public Builder<T> format(MessageFormat format)
+        {
+            this.format = format;
+            return this;
+        }
+
+        public MessageSerializer<T> build()
+        {
+            if (schema == null || format == null) {
+                throw new IllegalStateException("schema and format are required");
+            }
+            return new MessageSerializer<T>(this);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves {@link SqsMetrics#scrape()} at GET /metrics for a Prometheus server to pull. Each scrape renders the
+ * current counters; nothing is computed between scrapes.
+ */
+public class MetricsEndpoint implements AutoCloseable
+{
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final SqsMetrics metrics;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private MetricsEndpoint(SqsMetrics metrics, HttpServer server, ExecutorService executor)
+    {
+        this.metrics = metrics;
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /**
+     * Binds the address and starts serving; port 0 picks a free port.
+     */
+    public static MetricsEndpoint start(SqsMetrics metrics, InetSocketAddress address) throws IOException
+    {
+        HttpServer http = HttpServer.create(address, 16);
+        ExecutorService executor = Executors.newSingleThreadExecutor(VirtualThreads.platformFactory("metrics-endpoint-"));
+        MetricsEndpoint endpoint = new MetricsEndpoint(metrics, http, executor);
+        http.setExecutor(executor);
+        http.createContext("/metrics", endpoint::handle);
+        http.start();
+        return endpoint;
+    }
+
+    public int port()
+    {
+        return server.getAddress().getPort();
+    }
+
+    public URI uri()
+    {
+        InetSocketAddress address = server.getAddress();
+        String host = address.getAddress().isAnyLocalAddress() ? "localhost" : address.getHostString();
+        return URI.create("http://" + host + ":" + port() + "/metrics");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
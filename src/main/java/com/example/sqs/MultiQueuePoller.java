@@ -0,0 +1,590 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.QueueDoesNotExistException;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+
+/**
+ * Consumes many queues, typically hundreds of small per-tenant queues, with a fixed number of open receives
+ * and one handler pool shared by all of them, instead of a poller thread per queue.
+ *
+ * The queues are the ones whose names start with the configured prefixes, looked up again every refresh
+ * interval, plus any added by URL. Whenever a receive slot is free the poller picks the ready queue that is
+ * furthest behind its fair share of slot time (stride scheduling: every receive advances a queue's pass by the
+ * time it held the slot divided by the queue's weight, and the lowest pass goes next). A queue of weight 3 gets
+ * three receives for every one of a queue of weight 1 while both have messages, and an empty long poll, which
+ * holds its slot for the whole wait, costs far more than a receive that comes back full at once. Only a queue
+ * whose last receive returned messages long-polls; new and idle queues are asked with short polls, so they never
+ * sit on a slot while busy queues wait for one. A queue that returns a full receive gets one more concurrent
+ * receive, up to {@code maxReceivesPerQueue}; an empty receive drops it back to one and rests the queue for a
+ * backoff that doubles with each further empty receive, so idle queues cost a request every
+ * {@code maxIdleBackoff} at most and do not hold slots that busy queues could use. A queue coming back from
+ * rest starts at the current pass rather than its old one, so it cannot claim the receives it missed.
+ *
+ * A handled message holds its in-flight slot until its delete is confirmed. With an acknowledger factory
+ * every queue gets a {@link BatchingAcknowledger} of its own and handled messages are deleted in batches.
+ *
+ * <pre>
+ * MultiQueuePoller poller = MultiQueuePoller.builder()
+ *         .client(sqsAsync).queueNamePrefix("tenant-")
+ *         .handler((queueUrl, message) -&gt; process(queueUrl, message.body()))
+ *         .build();
+ * poller.start();
+ * </pre>
+ */
+public class MultiQueuePoller implements AutoCloseable
+{
+    /**
+     * Processes one message of one of the queues; returning deletes it, throwing leaves it for redelivery.
+     */
+    @FunctionalInterface
+    public interface Handler
+    {
+        void handle(String queueUrl, Message message) throws Exception;
+    }
+
+    // Least slot time charged for a receive, so that quick receives cost the same whatever their latency.
+    private static final long MIN_CHARGE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final SqsAsyncClient sqs;
+    private final List<String> prefixes;
+    private final List<String> fixedQueueUrls;
+    private final ToIntFunction<String> weights;
+    private final Handler handler;
+    private final BiConsumer<Message, Throwable> errorHandler;
+    private final Function<String, BatchingAcknowledger> acknowledgerFactory;
+    private final int maxConcurrentReceives;
+    private final int maxReceivesPerQueue;
+    private final int maxInFlightMessages;
+    private final int waitTimeSeconds;
+    private final long minIdleBackoffMillis;
+    private final long maxIdleBackoffMillis;
+    private final long refreshIntervalMillis;
+    private final ExecutorService handlerPool;
+    private final ScheduledExecutorService scheduler;
+
+    // Guarded by this
+    private final Map<String, PolledQueue> queues = new LinkedHashMap<String, PolledQueue>();
+    // Kept when a queue is dropped, since its last messages may still be deleted through it.
+    private final Map<String, BatchingAcknowledger> acknowledgers = new HashMap<String, BatchingAcknowledger>();
+    private final PriorityQueue<PolledQueue> ready = new PriorityQueue<PolledQueue>(
+            (a, b) -> Double.compare(a.pass, b.pass));
+    private double virtualTime;
+    private int openReceives;
+    private int inFlightMessages;
+    private boolean running;
+
+    private MultiQueuePoller(Builder builder)
+    {
+        this.sqs = builder.sqs;
+        this.prefixes = new ArrayList<String>(builder.prefixes);
+        this.fixedQueueUrls = new ArrayList<String>(builder.queueUrls);
+        this.weights = builder.weights;
+        this.handler = builder.handler;
+        this.errorHandler = builder.errorHandler;
+        this.acknowledgerFactory = builder.acknowledgerFactory;
+        this.maxConcurrentReceives = builder.maxConcurrentReceives;
+        this.maxReceivesPerQueue = builder.maxReceivesPerQueue;
+        this.maxInFlightMessages = builder.maxInFlightMessages;
+        this.waitTimeSeconds = builder.waitTimeSeconds;
+        this.minIdleBackoffMillis = builder.minIdleBackoff.toMillis();
+        this.maxIdleBackoffMillis = builder.maxIdleBackoff.toMillis();
+        this.refreshIntervalMillis = builder.refreshInterval.toMillis();
+        this.handlerPool = Executors.newFixedThreadPool(builder.handlerThreads,
+                VirtualThreads.platformFactory("multi-queue-handler-"));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(VirtualThreads.platformFactory("multi-queue-timer-"));
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Looks up the queues and starts receiving.
+     */
+    public void start()
+    {
+        synchronized (this) {
+            if (running) {
+                throw new IllegalStateException("Poller already started");
+            }
+            running = true;
+        }
+        refresh();
+        if (refreshIntervalMillis > 0 && !prefixes.isEmpty()) {
+            scheduler.scheduleWithFixedDelay(this::refreshQuietly, refreshIntervalMillis, refreshIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Lists the queues of every prefix again; new queues are polled from now on, vanished ones are dropped once
+     * their open receives return. ListQueues returns at most 1000 URLs per prefix.
+     *
+     * @return the number of queues polled
+     */
+    public int refresh()
+    {
+        Set<String> found = new HashSet<String>(fixedQueueUrls);
+        for (String prefix : prefixes) {
+            found.addAll(sqs.listQueues(r -> r.queueNamePrefix(prefix)).join().queueUrls());
+        }
+        synchronized (this) {
+            for (PolledQueue queue : new ArrayList<PolledQueue>(queues.values())) {
+                if (!found.contains(queue.url)) {
+                    remove(queue);
+                }
+            }
+            for (String url : found) {
+                if (!queues.containsKey(url)) {
+                    int weight = weights.applyAsInt(url);
+                    BatchingAcknowledger acknowledger = acknowledgerFactory != null
+                            ? acknowledgers.computeIfAbsent(url, acknowledgerFactory) : null;
+                    PolledQueue queue = new PolledQueue(url, 1.0 / Math.max(1, weight), acknowledger);
+                    queues.put(url, queue);
+                    makeReady(queue);
+                }
+            }
+        }
+        fill();
+        return queueCount();
+    }
+
+    private void refreshQuietly()
+    {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            // Keeps polling the known queues; the next refresh tries again.
+            ConsumerSupport.logFailure("Listing queues failed", e);
+        }
+    }
+
+    public synchronized int queueCount()
+    {
+        return queues.size();
+    }
+
+    public synchronized int openReceives()
+    {
+        return openReceives;
+    }
+
+    public synchronized int inFlightMessages()
+    {
+        return inFlightMessages;
+    }
+
+    // ReceiveMessage calls made to one queue so far; 0 for an unknown queue.
+    public synchronized long receives(String queueUrl)
+    {
+        PolledQueue queue = queues.get(queueUrl);
+        return queue != null ? queue.receives.get() : 0;
+    }
+
+    // Called with the lock held.
+    private void makeReady(PolledQueue queue)
+    {
+        if (queue.ready || queue.removed || queue.resting || queue.receiving >= queue.maxReceives) {
+            return;
+        }
+        // No credit for time spent idle or unknown.
+        queue.pass = Math.max(queue.pass, virtualTime);
+        queue.ready = true;
+        ready.add(queue);
+    }
+
+    // Called with the lock held.
+    private void remove(PolledQueue queue)
+    {
+        queue.removed = true;
+        queues.remove(queue.url);
+        if (queue.ready) {
+            ready.remove(queue);
+            queue.ready = false;
+        }
+    }
+
+    // Starts receives while there are free slots, in-flight capacity and ready queues.
+    private void fill()
+    {
+        List<Runnable> receives = new ArrayList<Runnable>();
+        synchronized (this) {
+            while (running && openReceives < maxConcurrentReceives && inFlightMessages < maxInFlightMessages
+                    && !ready.isEmpty()) {
+                PolledQueue queue = ready.poll();
+                queue.ready = false;
+                virtualTime = queue.pass;
+                // Reserve the messages now so concurrent receives cannot overshoot the limit together.
+                int batch = Math.min(SqsLimits.MAX_BATCH_ENTRIES, maxInFlightMessages - inFlightMessages);
+                int wait = queue.active ? waitTimeSeconds : 0;
+                inFlightMessages += batch;
+                openReceives++;
+                queue.receiving++;
+                makeReady(queue);
+                receives.add(() -> receive(queue, batch, wait));
+            }
+        }
+        for (Runnable receive : receives) {
+            receive.run();
+        }
+    }
+
+    private void receive(PolledQueue queue, int batch, int wait)
+    {
+        queue.receives.incrementAndGet();
+        long started = System.nanoTime();
+        sqs.receiveMessage(ReceiveMessageRequest.builder()
+                .queueUrl(queue.url)
+                .maxNumberOfMessages(batch)
+                .waitTimeSeconds(wait)
+                .messageAttributeNames("All")
+                .build())
+           .whenComplete((response, error) -> received(queue, batch, System.nanoTime() - started, response, error));
+    }
+
+    private void received(PolledQueue queue, int batch, long elapsedNanos, ReceiveMessageResponse response,
+            Throwable error)
+    {
+        List<Message> messages = response != null ? response.messages() : Collections.<Message>emptyList();
+        synchronized (this) {
+            queue.pass += queue.stride * Math.max(MIN_CHARGE_NANOS, elapsedNanos) / 1e9;
+            openReceives--;
+            queue.receiving--;
+            queue.active = !messages.isEmpty();
+            inFlightMessages -= batch - messages.size();
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof QueueDoesNotExistException) {
+                remove(queue);
+            } else if (messages.isEmpty()) {
+                // Empty, or failed: rest the queue for longer each time.
+                queue.maxReceives = 1;
+                queue.emptyStreak++;
+                if (!queue.resting && queue.receiving == 0) {
+                    queue.resting = true;
+                    long backoff = Math.min(maxIdleBackoffMillis,
+                            minIdleBackoffMillis << Math.min(20, queue.emptyStreak - 1));
+                    // Jitter, so queues that went idle together do not wake together.
+                    backoff = (long) (backoff * ThreadLocalRandom.current().nextDouble(0.8, 1.2));
+                    scheduleWake(queue, backoff);
+                }
+            } else {
+                queue.emptyStreak = 0;
+                if (messages.size() >= batch) {
+                    queue.maxReceives = Math.min(maxReceivesPerQueue, queue.maxReceives + 1);
+                }
+                makeReady(queue);
+            }
+            if (!running && inFlightMessages == 0 && openReceives == 0) {
+                notifyAll();
+            }
+        }
+        for (Message message : messages) {
+            ConsumerSupport.handOver(handlerPool, () -> process(queue, message), this::release);
+        }
+        fill();
+    }
+
+    // Called with the lock held.
+    private void scheduleWake(PolledQueue queue, long delayMillis)
+    {
+        try {
+            scheduler.schedule(() -> {
+                synchronized (this) {
+                    queue.resting = false;
+                    makeReady(queue);
+                }
+                fill();
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the queue stays at rest.
+        }
+    }
+
+    private void process(PolledQueue queue, Message message)
+    {
+        try {
+            handler.handle(queue.url, message);
+        } catch (Throwable t) {
+            errorHandler.accept(message, t);
+            release();
+            return;
+        }
+        ConsumerSupport.delete(sqs, queue.acknowledger, queue.url, message).whenComplete((ignored, error) -> {
+            if (error != null) {
+                errorHandler.accept(message, ConsumerSupport.cause(error));
+            }
+            release();
+        });
+    }
+
+    private void release()
+    {
+        synchronized (this) {
+            inFlightMessages--;
+            if (!running && inFlightMessages == 0 && openReceives == 0) {
+                notifyAll();
+            }
+        }
+        fill();
+    }
+
+    /**
+     * Stops receiving, lets the open receives return and waits until every received message has been handled.
+     *
+     * @return true if everything drained within the timeout
+     */
+    public boolean shutdown(Duration timeout) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        boolean drained;
+        synchronized (this) {
+            running = false;
+            while (openReceives > 0 || inFlightMessages > 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+            drained = openReceives == 0 && inFlightMessages == 0;
+        }
+        scheduler.shutdownNow();
+        handlerPool.shutdown();
+        drained &= handlerPool.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        List<BatchingAcknowledger> open;
+        synchronized (this) {
+            open = new ArrayList<BatchingAcknowledger>(acknowledgers.values());
+        }
+        for (BatchingAcknowledger acknowledger : open) {
+            acknowledger.close();
+        }
+        return drained;
+    }
+
+    @Override
+    public void close()
+    {
+        try {
+            shutdown(Duration.ofSeconds(SqsLimits.MAX_WAIT_TIME_SECONDS + 10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Scheduling state of one queue; guarded by the poller.
+    private static final class PolledQueue
+    {
+        final String url;
+        final double stride;
+        final BatchingAcknowledger acknowledger;
+        final AtomicLong receives = new AtomicLong();
+        double pass;
+        int receiving;
+        int maxReceives = 1;
+        int emptyStreak;
+        // Last receive returned messages; only such queues long-poll.
+        boolean active;
+        boolean ready;
+        boolean resting;
+        boolean removed;
+
+        PolledQueue(String url, double stride, BatchingAcknowledger acknowledger)
+        {
+            this.url = url;
+            this.stride = stride;
+            this.acknowledger = acknowledger;
+        }
+    }
+
+    public static final class Builder
+    {
+        private SqsAsyncClient sqs;
+        private final List<String> prefixes = new ArrayList<String>();
+        private final List<String> queueUrls = new ArrayList<String>();
+        private ToIntFunction<String> weights = url -> 1;
+        private Handler handler;
+        private BiConsumer<Message, Throwable> errorHandler = ConsumerSupport.LOG_FAILURE;
+        private Function<String, BatchingAcknowledger> acknowledgerFactory;
+        private int maxConcurrentReceives = 16;
+        private int maxReceivesPerQueue = 4;
+        private int handlerThreads = 10;
+        private int maxInFlightMessages = 100;
+        private int waitTimeSeconds = 2;
+        private Duration minIdleBackoff = Duration.ofSeconds(1);
+        private Duration maxIdleBackoff = Duration.ofSeconds(30);
+        private Duration refreshInterval = Duration.ofMinutes(1);
+
+        private Builder()
+        {
+        }
+
+        public Builder client(SqsAsyncClient sqs)
+        {
+            this.sqs = sqs;
+            return this;
+        }
+
+        // Polls every queue whose name starts with the prefix; may be given several times.
+        public Builder queueNamePrefix(String prefix)
+        {
+            this.prefixes.add(prefix);
+            return this;
+        }
+
+        // Polls these queues as well as those found by prefix.
+        public Builder queueUrls(Collection<String> queueUrls)
+        {
+            this.queueUrls.addAll(queueUrls);
+            return this;
+        }
+
+        // Share of receives per queue URL relative to the others; 1 by default.
+        public Builder weights(ToIntFunction<String> weights)
+        {
+            this.weights = weights;
+            return this;
+        }
+
+        public Builder handler(Handler handler)
+        {
+            this.handler = handler;
+            return this;
+        }
+
+        // For handlers that do not care which queue a message came from.
+        public Builder handler(MessageHandler handler)
+        {
+            this.handler = (queueUrl, message) -> handler.handle(message);
+            return this;
+        }
+
+        // Gets handler and delete failures; defaults to logging them.
+        public Builder errorHandler(BiConsumer<Message, Throwable> errorHandler)
+        {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        // Makes the acknowledger of a queue when it is first polled; the poller closes them on shutdown.
+        // Without one every message is deleted with its own call.
+        public Builder acknowledgers(Function<String, BatchingAcknowledger> acknowledgerFactory)
+        {
+            this.acknowledgerFactory = acknowledgerFactory;
+            return this;
+        }
+
+        // ReceiveMessage calls open at once over all queues.
+        public Builder maxConcurrentReceives(int maxConcurrentReceives)
+        {
+            this.maxConcurrentReceives = maxConcurrentReceives;
+            return this;
+        }
+
+        // Concurrent receives a busy queue can grow to.
+        public Builder maxReceivesPerQueue(int maxReceivesPerQueue)
+        {
+            this.maxReceivesPerQueue = maxReceivesPerQueue;
+            return this;
+        }
+
+        public Builder handlerThreads(int handlerThreads)
+        {
+            this.handlerThreads = handlerThreads;
+            return this;
+        }
+
+        // Messages received but not yet handled, over all queues.
+        public Builder maxInFlightMessages(int maxInFlightMessages)
+        {
+            this.maxInFlightMessages = maxInFlightMessages;
+            return this;
+        }
+
+        // Long-poll wait of receives on active queues; short, so that a queue going quiet gives its slot back soon.
+        public Builder waitTimeSeconds(int waitTimeSeconds)
+        {
+            this.waitTimeSeconds = waitTimeSeconds;
+            return this;
+        }
+
+        // Rest after the first empty receive; doubles with each further one up to maxIdleBackoff.
+        public Builder minIdleBackoff(Duration minIdleBackoff)
+        {
+            this.minIdleBackoff = minIdleBackoff;
+            return this;
+        }
+
+        public Builder maxIdleBackoff(Duration maxIdleBackoff)
+        {
+            this.maxIdleBackoff = maxIdleBackoff;
+            return this;
+        }
+
+        // How often the prefixes are listed again; zero leaves it to refresh().
+        public Builder refreshInterval(Duration refreshInterval)
+        {
+            this.refreshInterval = refreshInterval;
+            return this;
+        }
+
+        public MultiQueuePoller build()
+        {
+            if (sqs == null || handler == null) {
+                throw new IllegalStateException("client and handler are required");
+            }
+            if (prefixes.isEmpty() && queueUrls.isEmpty()) {
+                throw new IllegalStateException("a queue name prefix or queue URLs are required");
+            }
+            if (maxConcurrentReceives < 1 || maxReceivesPerQueue < 1 || handlerThreads < 1 || maxInFlightMessages < 1) {
+                throw new IllegalStateException("receive, thread and in-flight limits must be positive");
+            }
+            if (waitTimeSeconds < 0 || waitTimeSeconds > SqsLimits.MAX_WAIT_TIME_SECONDS
+                    || minIdleBackoff.toMillis() < 1 || maxIdleBackoff.compareTo(minIdleBackoff) < 0) {
+                throw new IllegalStateException("waitTimeSeconds or idle backoff out of range");
+            }
+            return new MultiQueuePoller(this);
+        }
+    }
+}
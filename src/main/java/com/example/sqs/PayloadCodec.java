@@ -0,0 +1,33 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+/**
+ * Compression algorithm for message bodies. {@link MessageCodec} records {@link #name()} in a message attribute
+ * so that consumers can pick the matching codec, so the name must not change once messages are in flight.
+ * Implementations are shared between threads and must be thread-safe.
+ */
+public interface PayloadCodec
+{
+    String name();
+
+    byte[] encode(byte[] data);
+
+    /**
+     * @throws IllegalArgumentException if the data is corrupt or decodes to more than {@code maxLength} bytes
+     */
+    byte[] decode(byte[] data, int maxLength);
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Built-in {@link PayloadCodec}s and the registry consumers use to look a codec up by name.
+ *
+ * gzip uses the JDK's zlib and is readable by every SQS client library; zstd compresses JSON about as well at
+ * several times the speed but needs the optional zstd-jni dependency on the classpath. Other algorithms, LZ4 for
+ * example, can be added with {@link #register(PayloadCodec)} on producers and consumers alike.
+ */
+public final class PayloadCodecs
+{
+    public static final PayloadCodec GZIP = new Gzip(Deflater.DEFAULT_COMPRESSION);
+
+    private static final ConcurrentMap<String, PayloadCodec> CODECS = new ConcurrentHashMap<String, PayloadCodec>();
+
+    static {
+        CODECS.put(GZIP.name(), GZIP);
+    }
+
+    private PayloadCodecs()
+    {
+    }
+
+    // gzip at a deflate level from 1 (fastest) to 9 (smallest).
+    public static PayloadCodec gzip(int level)
+    {
+        return new Gzip(level);
+    }
+
+    // zstd at a level from 1 to 22; the library default is 3.
+    public static PayloadCodec zstd(int level)
+    {
+        try {
+            return new ZstdCodec(level);
+        } catch (NoClassDefFoundError e) {
+            throw new IllegalStateException("zstd needs com.github.luben:zstd-jni on the classpath", e);
+        }
+    }
+
+    public static void register(PayloadCodec codec)
+    {
+        CODECS.put(codec.name(), codec);
+    }
+
+    /**
+     * @throws IllegalArgumentException if no codec of that name is registered or available
+     */
+    public static PayloadCodec forName(String name)
+    {
+        PayloadCodec codec = CODECS.get(name);
+        if (codec == null && ZstdCodec.NAME.equals(name)) {
+            // Loaded on first use so the zstd-jni dependency stays optional.
+            codec = CODECS.computeIfAbsent(name, n -> zstd(ZstdCodec.DEFAULT_LEVEL));
+        }
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown payload codec " + name);
+        }
+        return codec;
+    }
+
+    // Writes the gzip framing around a raw deflate stream, so the Deflater and Inflater of each thread can be
+    // reset and reused rather than allocated, with their native zlib state, for every message.
+    private static final class Gzip implements PayloadCodec
+    {
+        private static final int HEADER = 10;
+        private static final int TRAILER = 8;
+        // Retained per thread; a message body can never be larger.
+        private static final int MAX_RETAINED_BUFFER = SqsLimits.MAX_PAYLOAD_BYTES;
+
+        private final int level;
+        private final ThreadLocal<State> state;
+
+        Gzip(int level)
+        {
+            this.level = level;
+            this.state = ThreadLocal.withInitial(State::new);
+        }
+
+        @Override
+        public String name()
+        {
+            return "gzip";
+        }
+
+        @Override
+        public byte[] encode(byte[] data)
+        {
+            State s = state.get();
+            Deflater deflater = s.deflater(level);
+            deflater.setInput(data);
+            deflater.finish();
+
+            byte[] out = s.buffer(HEADER + data.length / 2 + 64);
+            out[0] = (byte) 0x1f;
+            out[1] = (byte) 0x8b;
+            out[2] = Deflater.DEFLATED;
+            Arrays.fill(out, 3, HEADER - 1, (byte) 0);
+            out[HEADER - 1] = (byte) 0xff;
+            int length = HEADER;
+            while (!deflater.finished()) {
+                if (length == out.length) {
+                    out = s.grow(out.length * 2);
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            s.crc.reset();
+            s.crc.update(data, 0, data.length);
+
+            byte[] result = Arrays.copyOf(out, length + TRAILER);
+            writeInt(result, length, (int) s.crc.getValue());
+            writeInt(result, length + 4, data.length);
+            s.release();
+            return result;
+        }
+
+        @Override
+        public byte[] decode(byte[] data, int maxLength)
+        {
+            if (data.length < HEADER + TRAILER || (data[0] & 0xff) != 0x1f || (data[1] & 0xff) != 0x8b
+                    || data[2] != Deflater.DEFLATED) {
+                throw new IllegalArgumentException("Not a gzip stream");
+            }
+            if (data[3] != 0) {
+                // Optional header fields are never written by encode; other producers rarely set them.
+                throw new IllegalArgumentException("Unsupported gzip header flags " + data[3]);
+            }
+            // The trailer holds the length modulo 2^32, exact for anything that fits a message.
+            long size = readInt(data, data.length - 4) & 0xffffffffL;
+            if (size > maxLength) {
+                throw new IllegalArgumentException("Decoded size " + size + " exceeds " + maxLength + " bytes");
+            }
+
+            State s = state.get();
+            Inflater inflater = s.inflater();
+            inflater.setInput(data, HEADER, data.length - HEADER - TRAILER);
+            byte[] out = new byte[(int) size];
+            try {
+                int length = 0;
+                while (length < out.length) {
+                    int n = inflater.inflate(out, length, out.length - length);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += n;
+                }
+                // The end of the deflate stream may only be seen once the output is full.
+                if (!inflater.finished() && length == out.length && inflater.inflate(s.probe) > 0
+                        || !inflater.finished() || length != out.length) {
+                    throw new IllegalArgumentException("gzip length does not match its trailer");
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("Corrupt gzip stream", e);
+            }
+            s.crc.reset();
+            s.crc.update(out, 0, out.length);
+            if ((int) s.crc.getValue() != readInt(data, data.length - TRAILER)) {
+                throw new IllegalArgumentException("gzip checksum mismatch");
+            }
+            return out;
+        }
+
+        private static void writeInt(byte[] b, int offset, int value)
+        {
+            b[offset] = (byte) value;
+            b[offset + 1] = (byte) (value >>> 8);
+            b[offset + 2] = (byte) (value >>> 16);
+            b[offset + 3] = (byte) (value >>> 24);
+        }
+
+        private static int readInt(byte[] b, int offset)
+        {
+            return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8 | (b[offset + 2] & 0xff) << 16
+                    | (b[offset + 3] & 0xff) << 24;
+        }
+
+        private static final class State
+        {
+            final CRC32 crc = new CRC32();
+            final byte[] probe = new byte[1];
+            private Deflater deflater;
+            private Inflater inflater;
+            private byte[] buffer = new byte[4096];
+
+            Deflater deflater(int level)
+            {
+                if (deflater == null) {
+                    deflater = new Deflater(level, true);
+                }
+                deflater.reset();
+                return deflater;
+            }
+
+            Inflater inflater()
+            {
+                if (inflater == null) {
+                    inflater = new Inflater(true);
+                }
+                inflater.reset();
+                return inflater;
+            }
+
+            byte[] buffer(int minimum)
+            {
+                if (buffer.length < minimum) {
+                    buffer = new byte[minimum];
+                }
+                return buffer;
+            }
+
+            byte[] grow(int size)
+            {
+                buffer = Arrays.copyOf(buffer, size);
+                return buffer;
+            }
+
+            // Drops a buffer that grew for an unusually large body.
+            void release()
+            {
+                if (buffer.length > MAX_RETAINED_BUFFER) {
+                    buffer = new byte[4096];
+                }
+            }
+        }
+    }
+}
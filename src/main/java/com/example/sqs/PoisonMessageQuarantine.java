@@ -0,0 +1,435 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+
+/**
+ * Takes messages that keep failing out of a queue early, instead of letting each of them hold a handler
+ * thread and a visibility timeout per attempt until the redrive policy gives up on it. {@link QueueConsumer}
+ * reports every failure; the quarantine remembers the exception type per message id in a small LRU cache and
+ * judges a message poison when
+ * <ul>
+ * <li>it failed with one of the {@link Builder#poisonOn(Class) poison types}, or</li>
+ * <li>it failed {@code maxFailures} times in a row with the same exception type, or</li>
+ * <li>it failed again with an ApproximateReceiveCount of {@code maxReceiveCount} or more, which also counts
+ * attempts made by other consumers.</li>
+ * </ul>
+ * Poison messages are copied to the quarantine queue with their attributes plus the failure (QuarantineReason,
+ * QuarantineSourceQueue, QuarantineReceiveCount, as far as the ten-attribute limit allows) and deleted from the
+ * source queue, one SendMessageBatch and one DeleteMessageBatch per batch. A message whose copy or delete
+ * failed comes back, is recognised from the cache and goes straight to the quarantine again without running
+ * the handler.
+ */
+public class PoisonMessageQuarantine extends RequestBatcher<PoisonMessageQuarantine.Entry, Void>
+{
+    private static final int MAX_REASON_LENGTH = 256;
+
+    private final SqsClient sqs;
+    private final String queueUrl;
+    private final String quarantineQueueUrl;
+    private final int maxFailures;
+    private final int maxReceiveCount;
+    private final List<Class<? extends Throwable>> poisonTypes;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicLong quarantined = new AtomicLong();
+
+    // Guarded by itself; access-ordered, so the least recently failing messages are forgotten first.
+    private final LinkedHashMap<String, Failure> failures;
+
+    private PoisonMessageQuarantine(Builder builder)
+    {
+        super(SqsLimits.MAX_BATCH_ENTRIES, SqsLimits.MAX_PAYLOAD_BYTES, builder.linger, 1);
+        this.sqs = builder.sqs;
+        this.queueUrl = builder.queueUrl;
+        this.quarantineQueueUrl = builder.quarantineQueueUrl;
+        this.maxFailures = builder.maxFailures;
+        this.maxReceiveCount = builder.maxReceiveCount;
+        this.poisonTypes = new ArrayList<Class<? extends Throwable>>(builder.poisonTypes);
+        this.maxAttempts = builder.maxAttempts;
+        this.retryBackoffMillis = builder.retryBackoff.toMillis();
+        final int capacity = builder.capacity;
+        this.failures = new LinkedHashMap<String, Failure>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Failure> eldest)
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    // The queue the messages are received from.
+    public String queueUrl()
+    {
+        return queueUrl;
+    }
+
+    public String quarantineQueueUrl()
+    {
+        return quarantineQueueUrl;
+    }
+
+    // Messages copied to the quarantine queue and deleted from the source queue.
+    public long quarantined()
+    {
+        return quarantined.get();
+    }
+
+    /**
+     * True if the message was judged poison before and should be quarantined without running the handler.
+     */
+    public boolean isKnownPoison(Message message)
+    {
+        synchronized (failures) {
+            Failure failure = failures.get(message.messageId());
+            return failure != null && failure.poison;
+        }
+    }
+
+    /**
+     * Records a handler failure and quarantines the message if it is now judged poison.
+     *
+     * @return completes with true once the message is in the quarantine queue and deleted from the source queue,
+     *         with false if it is not poison; fails if the quarantine failed
+     */
+    public CompletableFuture<Boolean> onFailure(Message message, Throwable error)
+    {
+        String type = error.getClass().getName();
+        boolean poison;
+        synchronized (failures) {
+            Failure failure = failures.get(message.messageId());
+            if (failure == null || !failure.type.equals(type)) {
+                failure = new Failure(type);
+                failures.put(message.messageId(), failure);
+            }
+            failure.count++;
+            failure.reason = reason(error);
+            failure.poison |= isPoisonType(error) || failure.count >= maxFailures
+                    || receiveCount(message) >= maxReceiveCount;
+            poison = failure.poison;
+        }
+        if (!poison) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return quarantine(message).thenApply(ignored -> true);
+    }
+
+    /**
+     * Copies the message to the quarantine queue and deletes it from the source queue. The future fails if
+     * either step failed; the message then comes back to the consumer.
+     */
+    public CompletableFuture<Void> quarantine(Message message)
+    {
+        String reason;
+        synchronized (failures) {
+            Failure failure = failures.get(message.messageId());
+            reason = failure != null ? failure.reason : "unknown";
+        }
+        SendMessageBatchRequestEntry copy = copy(message, reason);
+        return submit(new Entry(copy, message.receiptHandle(), message.messageId()), SqsLimits.payloadSize(copy));
+    }
+
+    private boolean isPoisonType(Throwable error)
+    {
+        for (Class<? extends Throwable> type : poisonTypes) {
+            if (type.isInstance(error)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int receiveCount(Message message)
+    {
+        String count = message.attributes().get(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT);
+        return count != null ? Integer.parseInt(count) : 1;
+    }
+
+    private static String reason(Throwable error)
+    {
+        String reason = error.getMessage() != null ? error.getClass().getName() + ": " + error.getMessage()
+                : error.getClass().getName();
+        return reason.length() > MAX_REASON_LENGTH ? reason.substring(0, MAX_REASON_LENGTH) : reason;
+    }
+
+    private SendMessageBatchRequestEntry copy(Message message, String reason)
+    {
+        Map<String, MessageAttributeValue> attributes = new LinkedHashMap<String, MessageAttributeValue>(
+                message.messageAttributes());
+        addIfRoom(attributes, "QuarantineReason", "String", reason);
+        addIfRoom(attributes, "QuarantineSourceQueue", "String", queueUrl);
+        addIfRoom(attributes, "QuarantineReceiveCount", "Number", Integer.toString(receiveCount(message)));
+        SendMessageBatchRequestEntry.Builder entry = SendMessageBatchRequestEntry.builder()
+                .id(Long.toString(ids.incrementAndGet()))
+                .messageBody(message.body())
+                .messageAttributes(attributes);
+        if (quarantineQueueUrl.endsWith(".fifo")) {
+            String group = message.attributes().get(MessageSystemAttributeName.MESSAGE_GROUP_ID);
+            entry.messageGroupId(group != null ? group : message.messageId())
+                 .messageDeduplicationId(message.messageId());
+        }
+        SendMessageBatchRequestEntry copy = entry.build();
+        // A body close to the limit still goes, without the failure details.
+        return SqsLimits.payloadSize(copy) <= SqsLimits.MAX_PAYLOAD_BYTES ? copy
+                : copy.toBuilder().messageAttributes(message.messageAttributes()).build();
+    }
+
+    private static void addIfRoom(Map<String, MessageAttributeValue> attributes, String name, String type, String value)
+    {
+        if (attributes.size() < SqsLimits.MAX_MESSAGE_ATTRIBUTES && !attributes.containsKey(name)) {
+            attributes.put(name, MessageAttributeValue.builder().dataType(type).stringValue(value).build());
+        }
+    }
+
+    @Override
+    protected void sendBatch(List<Pending<Entry, Void>> batch)
+    {
+        List<Pending<Entry, Void>> copied = new ArrayList<Pending<Entry, Void>>(batch.size());
+        List<Pending<Entry, Void>> remaining = batch;
+        for (int attempt = 1; !remaining.isEmpty(); attempt++) {
+            if (attempt > 1) {
+                sleep(retryBackoffMillis * (attempt - 1));
+            }
+            List<SendMessageBatchRequestEntry> entries = new ArrayList<SendMessageBatchRequestEntry>(remaining.size());
+            for (Pending<Entry, Void> pending : remaining) {
+                entries.add(pending.entry().copy);
+            }
+            SendMessageBatchResponse response = sqs.sendMessageBatch(r -> r.queueUrl(quarantineQueueUrl).entries(entries));
+            remaining = retryable(remaining, response.failed(), attempt, copied);
+        }
+        if (copied.isEmpty()) {
+            return;
+        }
+
+        // Only what reached the quarantine queue is deleted; the rest stays where it is.
+        List<Pending<Entry, Void>> deleted = new ArrayList<Pending<Entry, Void>>(copied.size());
+        remaining = copied;
+        for (int attempt = 1; !remaining.isEmpty(); attempt++) {
+            if (attempt > 1) {
+                sleep(retryBackoffMillis * (attempt - 1));
+            }
+            List<DeleteMessageBatchRequestEntry> entries = new ArrayList<DeleteMessageBatchRequestEntry>(remaining.size());
+            for (Pending<Entry, Void> pending : remaining) {
+                entries.add(DeleteMessageBatchRequestEntry.builder()
+                        .id(pending.entry().copy.id())
+                        .receiptHandle(pending.entry().receiptHandle)
+                        .build());
+            }
+            DeleteMessageBatchResponse response = sqs.deleteMessageBatch(r -> r.queueUrl(queueUrl).entries(entries));
+            remaining = retryable(remaining, response.failed(), attempt, deleted);
+        }
+        synchronized (failures) {
+            for (Pending<Entry, Void> pending : deleted) {
+                failures.remove(pending.entry().messageId);
+            }
+        }
+        quarantined.addAndGet(deleted.size());
+        for (Pending<Entry, Void> pending : deleted) {
+            pending.future().complete(null);
+        }
+    }
+
+    /**
+     * Sorts the entries of one call: succeeded ones go to {@code succeeded}, failed ones are either returned
+     * for another attempt or completed exceptionally.
+     */
+    private List<Pending<Entry, Void>> retryable(List<Pending<Entry, Void>> sent, List<BatchResultErrorEntry> errors,
+            int attempt, List<Pending<Entry, Void>> succeeded)
+    {
+        Map<String, BatchResultErrorEntry> failed = new HashMap<String, BatchResultErrorEntry>();
+        for (BatchResultErrorEntry error : errors) {
+            failed.put(error.id(), error);
+        }
+        List<Pending<Entry, Void>> retries = new ArrayList<Pending<Entry, Void>>(failed.size());
+        for (Pending<Entry, Void> pending : sent) {
+            BatchResultErrorEntry error = failed.get(pending.entry().copy.id());
+            if (error == null) {
+                succeeded.add(pending);
+            } else if (!Boolean.TRUE.equals(error.senderFault()) && attempt < maxAttempts) {
+                retries.add(pending);
+            } else {
+                pending.future().completeExceptionally(new BatchEntryFailedException(error));
+            }
+        }
+        return retries;
+    }
+
+    private static void sleep(long millis)
+    {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while retrying quarantine", e);
+        }
+    }
+
+    // Exception type of the last failure and how often it happened in a row.
+    private static final class Failure
+    {
+        final String type;
+        int count;
+        String reason;
+        boolean poison;
+
+        Failure(String type)
+        {
+            this.type = type;
+        }
+    }
+
+    /**
+     * A message on its way to the quarantine queue.
+     */
+    static final class Entry
+    {
+        final SendMessageBatchRequestEntry copy;
+        final String receiptHandle;
+        final String messageId;
+
+        Entry(SendMessageBatchRequestEntry copy, String receiptHandle, String messageId)
+        {
+            this.copy = copy;
+            this.receiptHandle = receiptHandle;
+            this.messageId = messageId;
+        }
+    }
+
+    public static final class Builder
+    {
+        private SqsClient sqs;
+        private String queueUrl;
+        private String quarantineQueueUrl;
+        private int maxFailures = 2;
+        private int maxReceiveCount = 3;
+        private final List<Class<? extends Throwable>> poisonTypes = new ArrayList<Class<? extends Throwable>>();
+        private int capacity = 10000;
+        private Duration linger = Duration.ofMillis(50);
+        private int maxAttempts = 3;
+        private Duration retryBackoff = Duration.ofMillis(100);
+
+        private Builder()
+        {
+        }
+
+        public Builder client(SqsClient sqs)
+        {
+            this.sqs = sqs;
+            return this;
+        }
+
+        // The queue the consumer receives from.
+        public Builder queueUrl(String queueUrl)
+        {
+            this.queueUrl = queueUrl;
+            return this;
+        }
+
+        public Builder quarantineQueueUrl(String quarantineQueueUrl)
+        {
+            this.quarantineQueueUrl = quarantineQueueUrl;
+            return this;
+        }
+
+        // Consecutive failures with the same exception type that make a message poison.
+        public Builder maxFailures(int maxFailures)
+        {
+            this.maxFailures = maxFailures;
+            return this;
+        }
+
+        // ApproximateReceiveCount at which a single failure makes a message poison; keep it below the redrive policy's.
+        public Builder maxReceiveCount(int maxReceiveCount)
+        {
+            this.maxReceiveCount = maxReceiveCount;
+            return this;
+        }
+
+        // An exception that no retry can fix, such as a body that does not parse; quarantined on the first failure.
+        // Call once per type.
+        public Builder poisonOn(Class<? extends Throwable> type)
+        {
+            this.poisonTypes.add(type);
+            return this;
+        }
+
+        // Message ids whose failures are remembered.
+        public Builder capacity(int capacity)
+        {
+            this.capacity = capacity;
+            return this;
+        }
+
+        // How long a partially filled batch waits for more poison messages before it is sent.
+        public Builder linger(Duration linger)
+        {
+            this.linger = linger;
+            return this;
+        }
+
+        // Total number of times an entry is sent or deleted before a service-side failure is given up on.
+        public Builder maxAttempts(int maxAttempts)
+        {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder retryBackoff(Duration retryBackoff)
+        {
+            this.retryBackoff = retryBackoff;
+            return this;
+        }
+
+        public PoisonMessageQuarantine build()
+        {
+            if (sqs == null || queueUrl == null || quarantineQueueUrl == null) {
+                throw new IllegalStateException("client, queueUrl and quarantineQueueUrl are required");
+            }
+            if (queueUrl.equals(quarantineQueueUrl)) {
+                throw new IllegalStateException("quarantineQueueUrl must differ from queueUrl");
+            }
+            if (maxFailures < 1 || maxReceiveCount < 1 || capacity < 1 || maxAttempts < 1) {
+                throw new IllegalStateException("maxFailures, maxReceiveCount, capacity and maxAttempts must be positive");
+            }
+            return new PoisonMessageQuarantine(this);
+        }
+    }
+}
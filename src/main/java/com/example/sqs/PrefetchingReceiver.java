@@ -0,0 +1,411 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesRequest;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+
+/**
+ * Receive-ahead buffer for a single queue. Instead of polling only after the previous batch has been
+ * processed, the receiver keeps full-size ReceiveMessage calls running in the background until the local
+ * buffer reaches the high watermark, and starts again once it drops to the low watermark. Callers take
+ * messages from the buffer and rarely wait for a round trip.
+ *
+ * Buffered messages are invisible to other consumers and their visibility timeout keeps running. The receiver
+ * records a deadline for every message, measured from the moment its receive was sent, and never hands out a
+ * message with less than {@code minRemainingVisibility} left. Such messages, and everything still buffered on
+ * close, are released with a visibility timeout of 0 so another consumer can pick them up immediately.
+ *
+ * <pre>
+ * PrefetchingReceiver receiver = PrefetchingReceiver.builder()
+ *         .client(sqsAsync).queueUrl(queueUrl)
+ *         .build();
+ * receiver.start();
+ * Message message = receiver.poll(Duration.ofSeconds(20));
+ * </pre>
+ */
+public class PrefetchingReceiver implements AutoCloseable
+{
+    private final SqsAsyncClient sqs;
+    private final String queueUrl;
+    private final int lowWatermark;
+    private final int highWatermark;
+    private final int maxConcurrentReceives;
+    private final int waitTimeSeconds;
+    private final long minRemainingNanos;
+    private final long errorBackoffMillis;
+    private final ScheduledExecutorService scheduler;
+
+    // Guarded by this
+    private final ArrayDeque<Buffered> buffer = new ArrayDeque<Buffered>();
+    private Integer visibilityTimeout;
+    private int outstandingReceives;
+    private int requestedMessages;
+    private boolean starting;
+    private boolean running;
+    private boolean closed;
+
+    private PrefetchingReceiver(Builder builder)
+    {
+        this.sqs = builder.sqs;
+        this.queueUrl = builder.queueUrl;
+        this.lowWatermark = builder.lowWatermark;
+        this.highWatermark = builder.highWatermark;
+        this.maxConcurrentReceives = builder.maxConcurrentReceives;
+        this.waitTimeSeconds = builder.waitTimeSeconds;
+        this.visibilityTimeout = builder.visibilityTimeout;
+        this.minRemainingNanos = builder.minRemainingVisibility.toNanos();
+        this.errorBackoffMillis = builder.errorBackoff.toMillis();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(VirtualThreads.platformFactory("prefetch-"));
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public String queueUrl()
+    {
+        return queueUrl;
+    }
+
+    public synchronized int buffered()
+    {
+        return buffer.size();
+    }
+
+    /**
+     * Starts prefetching. Without an explicit visibility timeout the queue's own is looked up first, since
+     * deadlines cannot be tracked without it. Receives wait for the lookup; if it fails, the receiver stays
+     * stopped and start can be called again.
+     */
+    public void start()
+    {
+        Integer timeout;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Receiver closed");
+            }
+            if (running || starting) {
+                throw new IllegalStateException("Receiver already started");
+            }
+            starting = true;
+            timeout = visibilityTimeout;
+        }
+        try {
+            if (timeout == null) {
+                timeout = Integer.parseInt(sqs.getQueueAttributes(GetQueueAttributesRequest.builder()
+                        .queueUrl(queueUrl)
+                        .attributeNames(QueueAttributeName.VISIBILITY_TIMEOUT)
+                        .build()).join().attributes().get(QueueAttributeName.VISIBILITY_TIMEOUT));
+            }
+        } finally {
+            synchronized (this) {
+                starting = false;
+                // Only now may receives go out, since each one needs the timeout.
+                if (timeout != null && !closed) {
+                    visibilityTimeout = timeout;
+                    running = true;
+                }
+                notifyAll();
+            }
+        }
+        long sweep = Math.max(100, TimeUnit.NANOSECONDS.toMillis(minRemainingNanos) / 2);
+        try {
+            scheduler.scheduleWithFixedDelay(this::releaseExpiring, sweep, sweep, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed during the lookup
+            return;
+        }
+        fill();
+    }
+
+    /**
+     * Takes the next buffered message, waiting up to the timeout for one to arrive.
+     *
+     * @return the message, or null if none arrived in time
+     */
+    public Message poll(Duration timeout) throws InterruptedException
+    {
+        List<Message> messages = receive(1, timeout);
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    /**
+     * Takes up to maxMessages buffered messages, waiting up to waitTime if the buffer is empty. Like
+     * ReceiveMessage, it returns as soon as at least one message is available.
+     */
+    public List<Message> receive(int maxMessages, Duration waitTime) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + waitTime.toNanos();
+        List<Message> messages = new ArrayList<Message>(Math.min(maxMessages, SqsLimits.MAX_BATCH_ENTRIES));
+        List<Buffered> expiring = new ArrayList<Buffered>();
+        synchronized (this) {
+            while (true) {
+                long now = System.nanoTime();
+                Buffered next;
+                while (messages.size() < maxMessages && (next = buffer.poll()) != null) {
+                    if (next.deadline - now < minRemainingNanos) {
+                        expiring.add(next);
+                    } else {
+                        messages.add(next.message);
+                    }
+                }
+                long remaining = deadline - now;
+                if (!messages.isEmpty() || remaining <= 0 || closed || !(running || starting)) {
+                    break;
+                }
+                fillLocked();
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            fillLocked();
+        }
+        release(expiring);
+        return messages;
+    }
+
+    private synchronized void fill()
+    {
+        fillLocked();
+    }
+
+    // Starts receives while the buffer plus what is already asked for stays below the high watermark.
+    // Nothing is started above the low watermark, so receives go out in full batches rather than one by one.
+    private void fillLocked()
+    {
+        if (!running || buffer.size() + requestedMessages > lowWatermark) {
+            return;
+        }
+        while (outstandingReceives < maxConcurrentReceives) {
+            int count = Math.min(SqsLimits.MAX_BATCH_ENTRIES, highWatermark - buffer.size() - requestedMessages);
+            if (count <= 0) {
+                return;
+            }
+            outstandingReceives++;
+            requestedMessages += count;
+            receiveAsync(count);
+        }
+    }
+
+    // Called with the lock held.
+    private void receiveAsync(int count)
+    {
+        long sent = System.nanoTime();
+        int timeout = visibilityTimeout;
+        long timeoutNanos = TimeUnit.SECONDS.toNanos(timeout);
+        sqs.receiveMessage(ReceiveMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .maxNumberOfMessages(count)
+                .waitTimeSeconds(waitTimeSeconds)
+                .visibilityTimeout(timeout)
+                .messageAttributeNames("All")
+                .build()).whenComplete((response, error) -> {
+                    List<Buffered> orphans = new ArrayList<Buffered>();
+                    synchronized (this) {
+                        outstandingReceives--;
+                        requestedMessages -= count;
+                        if (response != null) {
+                            for (Message message : response.messages()) {
+                                Buffered buffered = new Buffered(message, sent + timeoutNanos);
+                                // Received after close; give it straight back.
+                                (running ? buffer : orphans).add(buffered);
+                            }
+                            notifyAll();
+                        }
+                        if (error == null) {
+                            fillLocked();
+                        }
+                    }
+                    release(orphans);
+                    if (error != null) {
+                        try {
+                            scheduler.schedule(this::fill, errorBackoffMillis, TimeUnit.MILLISECONDS);
+                        } catch (RejectedExecutionException e) {
+                            // Closed
+                        }
+                    }
+                });
+    }
+
+    private void releaseExpiring()
+    {
+        List<Buffered> expiring = new ArrayList<Buffered>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            for (Iterator<Buffered> it = buffer.iterator(); it.hasNext(); ) {
+                Buffered next = it.next();
+                if (next.deadline - now < minRemainingNanos) {
+                    expiring.add(next);
+                    it.remove();
+                }
+            }
+            fillLocked();
+        }
+        release(expiring);
+    }
+
+    // Makes the messages visible again right away instead of when their timeout runs out.
+    private void release(List<Buffered> messages)
+    {
+        for (int start = 0; start < messages.size(); start += SqsLimits.MAX_BATCH_ENTRIES) {
+            List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<ChangeMessageVisibilityBatchRequestEntry>();
+            for (Buffered buffered : messages.subList(start, Math.min(messages.size(), start + SqsLimits.MAX_BATCH_ENTRIES))) {
+                entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                        .id(Integer.toString(entries.size()))
+                        .receiptHandle(buffered.message.receiptHandle())
+                        .visibilityTimeout(0)
+                        .build());
+            }
+            // Best effort; a message that is not released simply becomes visible when its timeout expires.
+            sqs.changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest.builder()
+                    .queueUrl(queueUrl)
+                    .entries(entries)
+                    .build());
+        }
+    }
+
+    /**
+     * Stops prefetching and releases every buffered message. Receives still open release their messages
+     * as they return.
+     */
+    @Override
+    public void close()
+    {
+        List<Buffered> remaining;
+        synchronized (this) {
+            running = false;
+            closed = true;
+            remaining = new ArrayList<Buffered>(buffer);
+            buffer.clear();
+            notifyAll();
+        }
+        scheduler.shutdownNow();
+        release(remaining);
+    }
+
+    private static final class Buffered
+    {
+        final Message message;
+        final long deadline;
+
+        Buffered(Message message, long deadline)
+        {
+            this.message = message;
+            this.deadline = deadline;
+        }
+    }
+
+    public static final class Builder
+    {
+        private SqsAsyncClient sqs;
+        private String queueUrl;
+        private int lowWatermark = 10;
+        private int highWatermark = 40;
+        private int maxConcurrentReceives = 2;
+        private int waitTimeSeconds = SqsLimits.MAX_WAIT_TIME_SECONDS;
+        private Integer visibilityTimeout;
+        private Duration minRemainingVisibility = Duration.ofSeconds(5);
+        private Duration errorBackoff = Duration.ofSeconds(1);
+
+        private Builder()
+        {
+        }
+
+        public Builder client(SqsAsyncClient sqs)
+        {
+            this.sqs = sqs;
+            return this;
+        }
+
+        public Builder queueUrl(String queueUrl)
+        {
+            this.queueUrl = queueUrl;
+            return this;
+        }
+
+        // Prefetching resumes once buffered plus requested messages drop to this level.
+        public Builder lowWatermark(int lowWatermark)
+        {
+            this.lowWatermark = lowWatermark;
+            return this;
+        }
+
+        // Upper bound on buffered plus requested messages.
+        public Builder highWatermark(int highWatermark)
+        {
+            this.highWatermark = highWatermark;
+            return this;
+        }
+
+        public Builder maxConcurrentReceives(int maxConcurrentReceives)
+        {
+            this.maxConcurrentReceives = maxConcurrentReceives;
+            return this;
+        }
+
+        public Builder waitTimeSeconds(int waitTimeSeconds)
+        {
+            this.waitTimeSeconds = waitTimeSeconds;
+            return this;
+        }
+
+        // Requested on every receive; by default the queue's visibility timeout is looked up on start.
+        public Builder visibilityTimeout(Integer visibilityTimeout)
+        {
+            this.visibilityTimeout = visibilityTimeout;
+            return this;
+        }
+
+        // Buffered messages with less visibility left than this are released instead of handed out.
+        public Builder minRemainingVisibility(Duration minRemainingVisibility)
+        {
+            this.minRemainingVisibility = minRemainingVisibility;
+            return this;
+        }
+
+        public Builder errorBackoff(Duration errorBackoff)
+        {
+            this.errorBackoff = errorBackoff;
+            return this;
+        }
+
+        public PrefetchingReceiver build()
+        {
+            if (sqs == null || queueUrl == null) {
+                throw new IllegalStateException("client and queueUrl are required");
+            }
+            if (lowWatermark < 0 || highWatermark <= lowWatermark) {
+                throw new IllegalStateException("highWatermark must be above lowWatermark");
+            }
+            return new PrefetchingReceiver(this);
+        }
+    }
+}
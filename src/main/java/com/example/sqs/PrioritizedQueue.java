@@ -0,0 +1,194 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+
+/**
+ * Priority levels over a set of queues, one per level: {@code name-p0} holds the most urgent messages,
+ * {@code name-p1} the next and so on ({@code name-pN.fifo} for FIFO queues). SQS itself has no priorities, so
+ * the producer side is only routing; the order in which levels are read is up to a {@link PriorityConsumer} over
+ * {@link #levelUrls()}.
+ *
+ * <pre>
+ * PrioritizedQueue jobs = PrioritizedQueue.builder().client(sqs).name("jobs").levels(3).build();
+ * jobs.send(0, interactiveJob);
+ * jobs.send(2, backfillJob);
+ * PriorityConsumer consumer = PriorityConsumer.builder()
+ *         .client(sqsAsync).queueUrls(jobs.levelUrls())
+ *         .handler(message -&gt; run(message.body()))
+ *         .build();
+ * consumer.start();
+ * </pre>
+ */
+public class PrioritizedQueue implements AutoCloseable
+{
+    private static final String FIFO_SUFFIX = ".fifo";
+
+    private final String baseName;
+    private final boolean fifo;
+    private final List<String> levelUrls;
+    private final List<BatchingProducer> producers;
+
+    private PrioritizedQueue(Builder builder)
+    {
+        this.fifo = builder.name.endsWith(FIFO_SUFFIX);
+        this.baseName = fifo ? builder.name.substring(0, builder.name.length() - FIFO_SUFFIX.length()) : builder.name;
+        Map<String, String> attributes = new HashMap<String, String>(builder.attributes);
+        if (fifo) {
+            attributes.put("FifoQueue", "true");
+            attributes.putIfAbsent("ContentBasedDeduplication", "true");
+        }
+        Function<String, BatchingProducer> producerFactory = builder.producerFactory != null ? builder.producerFactory
+                : url -> BatchingProducer.builder().client(builder.sqs).queueUrl(url).build();
+        List<String> urls = new ArrayList<String>(builder.levels);
+        List<BatchingProducer> levelProducers = new ArrayList<BatchingProducer>(builder.levels);
+        for (int i = 0; i < builder.levels; i++) {
+            String name = levelName(i);
+            // Returns the existing queue when one with the same attributes is there already.
+            String url = builder.sqs.createQueue(r -> r.queueName(name).attributesWithStrings(attributes)).queueUrl();
+            urls.add(url);
+            levelProducers.add(producerFactory.apply(url));
+        }
+        this.levelUrls = Collections.unmodifiableList(urls);
+        this.producers = levelProducers;
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public String levelName(int priority)
+    {
+        return baseName + "-p" + priority + (fifo ? FIFO_SUFFIX : "");
+    }
+
+    public int levels()
+    {
+        return levelUrls.size();
+    }
+
+    public String levelUrl(int priority)
+    {
+        return levelUrls.get(checked(priority));
+    }
+
+    // Queue URLs by priority, the most urgent first.
+    public List<String> levelUrls()
+    {
+        return levelUrls;
+    }
+
+    // Sends to the queue of a priority level, 0 being the most urgent; standard queues only.
+    public CompletableFuture<SendMessageBatchResultEntry> send(int priority, String body)
+    {
+        if (fifo) {
+            throw new IllegalArgumentException("Messages to a FIFO queue need a message group id");
+        }
+        return producers.get(checked(priority)).send(body);
+    }
+
+    // Sends to a FIFO level; groups are ordered within a level, not across levels.
+    public CompletableFuture<SendMessageBatchResultEntry> send(int priority, String body, String messageGroupId)
+    {
+        return producers.get(checked(priority)).send(body, messageGroupId);
+    }
+
+    private int checked(int priority)
+    {
+        if (priority < 0 || priority >= levelUrls.size()) {
+            throw new IllegalArgumentException("priority must be between 0 and " + (levelUrls.size() - 1));
+        }
+        return priority;
+    }
+
+    // Flushes and closes the producers of all levels.
+    @Override
+    public void close()
+    {
+        for (BatchingProducer producer : producers) {
+            producer.close();
+        }
+    }
+
+    public static final class Builder
+    {
+        private SqsClient sqs;
+        private String name;
+        private int levels;
+        private Map<String, String> attributes = new HashMap<String, String>();
+        private Function<String, BatchingProducer> producerFactory;
+
+        private Builder()
+        {
+        }
+
+        public Builder client(SqsClient sqs)
+        {
+            this.sqs = sqs;
+            return this;
+        }
+
+        // Base name of the level queues; ends in .fifo for FIFO levels.
+        public Builder name(String name)
+        {
+            this.name = name;
+            return this;
+        }
+
+        // Number of priority levels; their queues are created where missing.
+        public Builder levels(int levels)
+        {
+            this.levels = levels;
+            return this;
+        }
+
+        // Attributes for the level queues, the same for every level.
+        public Builder attributes(Map<String, String> attributes)
+        {
+            this.attributes = new HashMap<String, String>(attributes);
+            return this;
+        }
+
+        // Builds the producer of one level URL; by default a BatchingProducer with default settings.
+        public Builder producerFactory(Function<String, BatchingProducer> producerFactory)
+        {
+            this.producerFactory = producerFactory;
+            return this;
+        }
+
+        public PrioritizedQueue build()
+        {
+            if (sqs == null || name == null) {
+                throw new IllegalStateException("client and name are required");
+            }
+            if (levels < 1) {
+                throw new IllegalStateException("levels must be positive");
+            }
+            return new PrioritizedQueue(this);
+        }
+    }
+}
@@ -0,0 +1,526 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+
+/**
+ * Consumer over the queues of several priority levels, such as those of a {@link PrioritizedQueue}, given most
+ * urgent first. Each fetcher works in rounds: it reserves a batch of in-flight slots, receives from the first
+ * level of the round, and fills what that level left of the batch from the others in priority order, until the
+ * batch is full or every level has been asked. While the first level keeps returning full batches a round is one
+ * ReceiveMessage call, however many levels there are; further calls are only made for levels that higher ones
+ * leave room for.
+ *
+ * In {@link Mode#STRICT} mode the first level is always the most urgent one. In {@link Mode#WEIGHTED} mode it is
+ * picked by smooth weighted round-robin over the level weights, so that with every level backlogged each gets
+ * about its share of the rounds. Against starvation, a level that no round has read for {@code maxAge} goes first
+ * in the next round, whatever the mode.
+ *
+ * Only the first receive of a round after an empty one long-polls; the others ask with short polls, so a round
+ * never waits on a lower level while a higher one has messages. On an otherwise idle queue that long poll is on
+ * the first level of the round, so a message arriving at another level waits up to {@code waitTimeSeconds}.
+ *
+ * Slots are given back only once SQS has confirmed the delete of the message that held them. An acknowledger
+ * factory gives every level a {@link BatchingAcknowledger} of its own, so those deletes go out in batches.
+ */
+public class PriorityConsumer implements AutoCloseable
+{
+    public enum Mode
+    {
+        // A lower level only gets what is left of a batch after all higher levels.
+        STRICT,
+        // The level read first is picked in proportion to the weights; the rest of the batch still goes by priority.
+        WEIGHTED
+    }
+
+    private final SqsAsyncClient sqs;
+    private final List<String> queueUrls;
+    private final Mode mode;
+    private final int[] weights;
+    private final long maxAgeNanos;
+    private final MessageHandler handler;
+    private final BiConsumer<Message, Throwable> errorHandler;
+    // By queue URL; empty without an acknowledger factory.
+    private final Map<String, BatchingAcknowledger> acknowledgers = new HashMap<String, BatchingAcknowledger>();
+    private final int fetchers;
+    private final int maxInFlightMessages;
+    private final int waitTimeSeconds;
+    private final Integer visibilityTimeout;
+    private final long errorBackoffMillis;
+    private final ExecutorService handlerPool;
+    private final ScheduledExecutorService backoff;
+    private final AtomicLongArray received;
+    private final AtomicLongArray receiveCalls;
+    // When each level was last asked for messages; read by the aging check.
+    private final AtomicLongArray lastRead;
+
+    // Guarded by this
+    private final ArrayDeque<Integer> parkedFetchers = new ArrayDeque<Integer>();
+    private final int[] currentWeights;
+    private int inFlightMessages;
+    private int activeFetchers;
+    private boolean running;
+
+    private PriorityConsumer(Builder builder)
+    {
+        this.sqs = builder.sqs;
+        this.queueUrls = Collections.unmodifiableList(new ArrayList<String>(builder.queueUrls));
+        this.mode = builder.mode;
+        this.weights = builder.weights != null ? builder.weights.clone() : halvingWeights(queueUrls.size());
+        this.maxAgeNanos = builder.maxAge.toNanos();
+        this.handler = builder.handler;
+        this.errorHandler = builder.errorHandler;
+        if (builder.acknowledgerFactory != null) {
+            for (String url : queueUrls) {
+                acknowledgers.put(url, builder.acknowledgerFactory.apply(url));
+            }
+        }
+        this.fetchers = builder.fetchers;
+        this.maxInFlightMessages = builder.maxInFlightMessages;
+        this.waitTimeSeconds = builder.waitTimeSeconds;
+        this.visibilityTimeout = builder.visibilityTimeout;
+        this.errorBackoffMillis = builder.errorBackoff.toMillis();
+        this.handlerPool = Executors.newFixedThreadPool(builder.handlerThreads,
+                VirtualThreads.platformFactory("priority-handler-"));
+        this.backoff = Executors.newSingleThreadScheduledExecutor(VirtualThreads.platformFactory("priority-backoff-"));
+        int levels = queueUrls.size();
+        this.received = new AtomicLongArray(levels);
+        this.receiveCalls = new AtomicLongArray(levels);
+        this.lastRead = new AtomicLongArray(levels);
+        this.currentWeights = new int[levels];
+    }
+
+    // Each level weighs half as much as the one above it.
+    private static int[] halvingWeights(int levels)
+    {
+        int[] weights = new int[levels];
+        for (int i = 0; i < levels; i++) {
+            weights[i] = 1 << Math.min(30, levels - 1 - i);
+        }
+        return weights;
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public int levels()
+    {
+        return queueUrls.size();
+    }
+
+    // Messages received from a level since the start.
+    public long received(int level)
+    {
+        return received.get(level);
+    }
+
+    // ReceiveMessage calls made on a level since the start.
+    public long receiveCalls(int level)
+    {
+        return receiveCalls.get(level);
+    }
+
+    public synchronized int inFlightMessages()
+    {
+        return inFlightMessages;
+    }
+
+    public void start()
+    {
+        synchronized (this) {
+            if (running || activeFetchers > 0) {
+                throw new IllegalStateException("Consumer already started");
+            }
+            running = true;
+            activeFetchers = fetchers;
+            long now = System.nanoTime();
+            for (int i = 0; i < lastRead.length(); i++) {
+                lastRead.set(i, now);
+            }
+        }
+        for (int i = 0; i < fetchers; i++) {
+            poll(i, true);
+        }
+    }
+
+    private void poll(int fetcher, boolean longPoll)
+    {
+        int slots;
+        int[] order;
+        synchronized (this) {
+            if (!running) {
+                activeFetchers--;
+                notifyAll();
+                return;
+            }
+            slots = Math.min(SqsLimits.MAX_BATCH_ENTRIES, maxInFlightMessages - inFlightMessages);
+            if (slots <= 0) {
+                parkedFetchers.add(fetcher);
+                return;
+            }
+            // Reserved for the whole round; what the levels do not fill is given back at its end.
+            inFlightMessages += slots;
+            order = order();
+        }
+        new Round(fetcher, order, slots).receive(0, longPoll ? waitTimeSeconds : 0);
+    }
+
+    // Levels in the order a round reads them. Called with the lock held.
+    private int[] order()
+    {
+        int levels = queueUrls.size();
+        int first = mode == Mode.WEIGHTED ? nextWeighted() : 0;
+        if (maxAgeNanos > 0) {
+            long now = System.nanoTime();
+            int oldest = -1;
+            for (int i = 0; i < levels; i++) {
+                long read = lastRead.get(i);
+                if (now - read >= maxAgeNanos && (oldest < 0 || read - lastRead.get(oldest) < 0)) {
+                    oldest = i;
+                }
+            }
+            if (oldest >= 0) {
+                first = oldest;
+            }
+        }
+        int[] order = new int[levels];
+        order[0] = first;
+        for (int i = 0, k = 1; i < levels; i++) {
+            if (i != first) {
+                order[k++] = i;
+            }
+        }
+        return order;
+    }
+
+    // Smooth weighted round-robin: spreads each level's turns evenly instead of running them in blocks.
+    private int nextWeighted()
+    {
+        int total = 0;
+        int best = 0;
+        for (int i = 0; i < weights.length; i++) {
+            currentWeights[i] += weights[i];
+            total += weights[i];
+            if (currentWeights[i] > currentWeights[best]) {
+                best = i;
+            }
+        }
+        currentWeights[best] -= total;
+        return best;
+    }
+
+    // One fetcher's pass over the levels. Its steps run one after another, each in the previous one's callback.
+    private final class Round
+    {
+        private final int fetcher;
+        private final int[] order;
+        private int remaining;
+        private int messages;
+        private boolean failed;
+
+        Round(int fetcher, int[] order, int slots)
+        {
+            this.fetcher = fetcher;
+            this.order = order;
+            this.remaining = slots;
+        }
+
+        void receive(int index, int wait)
+        {
+            int level = order[index];
+            String url = queueUrls.get(level);
+            ReceiveMessageRequest.Builder request = ReceiveMessageRequest.builder()
+                    .queueUrl(url)
+                    .maxNumberOfMessages(remaining)
+                    .waitTimeSeconds(wait)
+                    .messageAttributeNames("All");
+            if (visibilityTimeout != null) {
+                request.visibilityTimeout(visibilityTimeout);
+            }
+            lastRead.set(level, System.nanoTime());
+            receiveCalls.incrementAndGet(level);
+            sqs.receiveMessage(request.build()).whenComplete((response, error) -> {
+                if (error != null) {
+                    failed = true;
+                } else {
+                    List<Message> batch = response.messages();
+                    received.addAndGet(level, batch.size());
+                    remaining -= batch.size();
+                    messages += batch.size();
+                    dispatch(url, batch);
+                }
+                if (remaining > 0 && index + 1 < order.length) {
+                    receive(index + 1, 0);
+                } else {
+                    finish();
+                }
+            });
+        }
+
+        private void finish()
+        {
+            release(remaining);
+            if (messages == 0 && failed) {
+                backoff.schedule(() -> poll(fetcher, false), errorBackoffMillis, TimeUnit.MILLISECONDS);
+            } else {
+                poll(fetcher, messages == 0);
+            }
+        }
+    }
+
+    private void dispatch(String url, List<Message> messages)
+    {
+        for (Message message : messages) {
+            ConsumerSupport.handOver(handlerPool, () -> process(url, message), () -> release(1));
+        }
+    }
+
+    private void process(String url, Message message)
+    {
+        try {
+            handler.handle(message);
+        } catch (Throwable t) {
+            errorHandler.accept(message, t);
+            release(1);
+            return;
+        }
+        ConsumerSupport.delete(sqs, acknowledgers.get(url), url, message).whenComplete((ignored, error) -> {
+            if (error != null) {
+                errorHandler.accept(message, ConsumerSupport.cause(error));
+            }
+            release(1);
+        });
+    }
+
+    private void release(int messages)
+    {
+        Integer[] parked;
+        synchronized (this) {
+            inFlightMessages -= messages;
+            if (inFlightMessages == 0 && !running) {
+                notifyAll();
+            }
+            if (messages == 0 || parkedFetchers.isEmpty()) {
+                return;
+            }
+            parked = parkedFetchers.toArray(new Integer[0]);
+            parkedFetchers.clear();
+        }
+        // Parked fetchers re-check the limit and park again if the slots are gone.
+        for (Integer fetcher : parked) {
+            poll(fetcher, false);
+        }
+    }
+
+    /**
+     * Stops fetching, lets the open rounds finish, and waits until every message already received has been
+     * handled. Messages that are still in flight when the timeout expires become visible again later.
+     *
+     * @return true if everything drained within the timeout
+     */
+    public boolean shutdown(Duration timeout) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        boolean drained;
+        synchronized (this) {
+            running = false;
+            activeFetchers -= parkedFetchers.size();
+            parkedFetchers.clear();
+            while (activeFetchers > 0 || inFlightMessages > 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+            drained = activeFetchers == 0 && inFlightMessages == 0;
+        }
+        handlerPool.shutdown();
+        backoff.shutdownNow();
+        drained &= handlerPool.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        for (BatchingAcknowledger acknowledger : acknowledgers.values()) {
+            acknowledger.close();
+        }
+        return drained;
+    }
+
+    @Override
+    public void close()
+    {
+        try {
+            shutdown(Duration.ofSeconds(SqsLimits.MAX_WAIT_TIME_SECONDS + 10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static final class Builder
+    {
+        private SqsAsyncClient sqs;
+        private List<String> queueUrls;
+        private Mode mode = Mode.STRICT;
+        private int[] weights;
+        private Duration maxAge = Duration.ofSeconds(30);
+        private MessageHandler handler;
+        private BiConsumer<Message, Throwable> errorHandler = ConsumerSupport.LOG_FAILURE;
+        private Function<String, BatchingAcknowledger> acknowledgerFactory;
+        private int fetchers = 2;
+        private int handlerThreads = 10;
+        private int maxInFlightMessages = 100;
+        private int waitTimeSeconds = 5;
+        private Integer visibilityTimeout;
+        private Duration errorBackoff = Duration.ofSeconds(1);
+
+        private Builder()
+        {
+        }
+
+        public Builder client(SqsAsyncClient sqs)
+        {
+            this.sqs = sqs;
+            return this;
+        }
+
+        // Queue URLs of the levels, the most urgent first.
+        public Builder queueUrls(List<String> queueUrls)
+        {
+            this.queueUrls = queueUrls;
+            return this;
+        }
+
+        public Builder mode(Mode mode)
+        {
+            this.mode = mode;
+            return this;
+        }
+
+        // Share of rounds each level goes first in WEIGHTED mode; by default each level half the one above.
+        public Builder weights(int... weights)
+        {
+            this.weights = weights.clone();
+            return this;
+        }
+
+        // Longest a level goes without being read before it is put first; zero turns aging off.
+        public Builder maxAge(Duration maxAge)
+        {
+            this.maxAge = maxAge;
+            return this;
+        }
+
+        public Builder handler(MessageHandler handler)
+        {
+            this.handler = handler;
+            return this;
+        }
+
+        // Gets handler and delete failures; they are logged unless another handler is given.
+        public Builder errorHandler(BiConsumer<Message, Throwable> errorHandler)
+        {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        // Makes one acknowledger per level, given its queue URL; the consumer closes them on shutdown.
+        public Builder acknowledgers(Function<String, BatchingAcknowledger> acknowledgerFactory)
+        {
+            this.acknowledgerFactory = acknowledgerFactory;
+            return this;
+        }
+
+        // Number of rounds run concurrently.
+        public Builder fetchers(int fetchers)
+        {
+            this.fetchers = fetchers;
+            return this;
+        }
+
+        public Builder handlerThreads(int handlerThreads)
+        {
+            this.handlerThreads = handlerThreads;
+            return this;
+        }
+
+        // Messages received but not yet handled, including those waiting for a handler thread.
+        public Builder maxInFlightMessages(int maxInFlightMessages)
+        {
+            this.maxInFlightMessages = maxInFlightMessages;
+            return this;
+        }
+
+        // Long-poll wait of the first receive after an empty round; also the most a lower level waits when idle.
+        public Builder waitTimeSeconds(int waitTimeSeconds)
+        {
+            this.waitTimeSeconds = waitTimeSeconds;
+            return this;
+        }
+
+        // Overrides the queues' visibility timeout for received messages.
+        public Builder visibilityTimeout(Integer visibilityTimeout)
+        {
+            this.visibilityTimeout = visibilityTimeout;
+            return this;
+        }
+
+        // Pause before a fetcher starts another round after one in which every receive failed.
+        public Builder errorBackoff(Duration errorBackoff)
+        {
+            this.errorBackoff = errorBackoff;
+            return this;
+        }
+
+        public PriorityConsumer build()
+        {
+            if (sqs == null || queueUrls == null || queueUrls.isEmpty() || handler == null) {
+                throw new IllegalStateException("client, queueUrls and handler are required");
+            }
+            if (weights != null && weights.length != queueUrls.size()) {
+                throw new IllegalStateException("weights needs one weight per level");
+            }
+            if (weights != null && Arrays.stream(weights).anyMatch(w -> w < 1)) {
+                throw new IllegalStateException("weights must be positive");
+            }
+            if (maxAge.isNegative() || fetchers < 1 || maxInFlightMessages < 1) {
+                throw new IllegalStateException("maxAge must not be negative, fetchers and maxInFlightMessages positive");
+            }
+            if (waitTimeSeconds < 0 || waitTimeSeconds > SqsLimits.MAX_WAIT_TIME_SECONDS) {
+                throw new IllegalStateException("waitTimeSeconds must be between 0 and " + SqsLimits.MAX_WAIT_TIME_SECONDS);
+            }
+            return new PriorityConsumer(this);
+        }
+    }
+}
@@ -0,0 +1,557 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+
+/**
+ * Long-polling consumer for a single queue. A fixed number of fetchers keep ReceiveMessage calls open on the
+ * asynchronous client and hand every message to a bounded pool of handler threads. A fetcher only asks for as
+ * many messages as there are free in-flight slots, and stops fetching while the bodies in flight exceed the
+ * byte limit, so a slow handler never pulls in messages that would sit in memory until their visibility
+ * timeout runs out.
+ *
+ * With an {@link AdaptiveReceivePolicy} the wait time, batch size and number of open receives follow the
+ * traffic instead: up to {@code maxPollers} fetchers exist, and those above the policy's current poller count
+ * retire until the queue gets busy again.
+ *
+ * On a FIFO queue messages are handled in order within each message group: every group gets its own lane on a
+ * {@link StripedExecutor} over the handler threads, so groups run in parallel while a slow group only holds up
+ * itself. If a message fails, the rest of its group from the same receive is skipped rather than handled out of
+ * order; SQS keeps the group back until they all become visible again and redelivers them in sequence. The
+ * next message of a group also waits until the delete of the one before it is confirmed.
+ *
+ * With a {@link PoisonMessageQuarantine} every failure is reported to it, and messages it judges poison are
+ * moved to its quarantine queue instead of being retried until the redrive policy gives up on them. A message
+ * holds its slot, and on a FIFO queue its group, until the quarantine has moved it.
+ *
+ * <pre>
+ * QueueConsumer consumer = QueueConsumer.builder()
+ *         .client(sqsAsync).queueUrl(queueUrl)
+ *         .handler(message -&gt; process(message.body()))
+ *         .build();
+ * consumer.start();
+ * ...
+ * consumer.shutdown(Duration.ofSeconds(30));
+ * </pre>
+ */
+public class QueueConsumer implements AutoCloseable
+{
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+
+    private final SqsAsyncClient sqs;
+    private final String queueUrl;
+    private final MessageHandler handler;
+    private final BiConsumer<Message, Throwable> errorHandler;
+    private final MessageCodec codec;
+    private final BatchingAcknowledger acknowledger;
+    private final PoisonMessageQuarantine quarantine;
+    private final VisibilityExtender extender;
+    private final int fetchers;
+    private final int maxInFlightMessages;
+    private final long maxInFlightBytes;
+    private final int waitTimeSeconds;
+    private final AdaptiveReceivePolicy policy;
+    private final Integer visibilityTimeout;
+    private final long errorBackoffMillis;
+    private final ExecutorService handlerPool;
+    private final StripedExecutor groups;
+    private final ScheduledExecutorService backoff;
+
+    // Guarded by this
+    private final ArrayDeque<Integer> parkedFetchers = new ArrayDeque<Integer>();
+    private final ArrayDeque<Integer> retiredFetchers = new ArrayDeque<Integer>();
+    private int inFlightMessages;
+    private long inFlightBytes;
+    private int activeFetchers;
+    private boolean running;
+
+    private QueueConsumer(Builder builder)
+    {
+        this.sqs = builder.sqs;
+        this.queueUrl = builder.queueUrl;
+        this.handler = builder.handler;
+        this.errorHandler = builder.errorHandler;
+        this.codec = builder.codec;
+        this.acknowledger = builder.acknowledger;
+        this.quarantine = builder.quarantine;
+        this.extender = builder.extender;
+        this.policy = builder.policy;
+        this.fetchers = policy != null ? policy.maxPollers() : builder.fetchers;
+        this.maxInFlightMessages = builder.maxInFlightMessages;
+        this.maxInFlightBytes = builder.maxInFlightBytes;
+        this.waitTimeSeconds = builder.waitTimeSeconds;
+        this.visibilityTimeout = builder.visibilityTimeout != null || extender == null
+                ? builder.visibilityTimeout : Integer.valueOf(extender.visibilityTimeoutSeconds());
+        this.errorBackoffMillis = builder.errorBackoff.toMillis();
+        this.handlerPool = Executors.newFixedThreadPool(builder.handlerThreads, r -> thread(r, "consumer-handler-"));
+        boolean ordered = builder.orderedByMessageGroup != null
+                ? builder.orderedByMessageGroup : queueUrl.endsWith(".fifo");
+        this.groups = ordered ? new StripedExecutor(handlerPool) : null;
+        this.backoff = Executors.newSingleThreadScheduledExecutor(r -> thread(r, "consumer-backoff-"));
+    }
+
+    private static Thread thread(Runnable r, String prefix)
+    {
+        Thread t = new Thread(r, prefix + THREAD_IDS.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public String queueUrl()
+    {
+        return queueUrl;
+    }
+
+    public synchronized int inFlightMessages()
+    {
+        return inFlightMessages;
+    }
+
+    public synchronized long inFlightBytes()
+    {
+        return inFlightBytes;
+    }
+
+    public void start()
+    {
+        synchronized (this) {
+            if (running || activeFetchers > 0) {
+                throw new IllegalStateException("Consumer already started");
+            }
+            running = true;
+            activeFetchers = fetchers;
+        }
+        for (int i = 0; i < fetchers; i++) {
+            poll(i);
+        }
+    }
+
+    private void poll(int fetcher)
+    {
+        int slots;
+        synchronized (this) {
+            if (!running) {
+                fetcherStopped();
+                return;
+            }
+            if (policy != null && fetcher >= policy.pollers()) {
+                retiredFetchers.add(fetcher);
+                return;
+            }
+            int batch = policy != null ? policy.maxNumberOfMessages() : SqsLimits.MAX_BATCH_ENTRIES;
+            slots = Math.min(batch, maxInFlightMessages - inFlightMessages);
+            if (slots <= 0 || inFlightBytes >= maxInFlightBytes) {
+                parkedFetchers.add(fetcher);
+                return;
+            }
+            // Reserve the slots now so concurrent fetchers cannot overshoot the limit together.
+            inFlightMessages += slots;
+        }
+
+        final int reserved = slots;
+        ReceiveMessageRequest.Builder request = ReceiveMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .maxNumberOfMessages(reserved)
+                .waitTimeSeconds(policy != null ? policy.waitTimeSeconds() : waitTimeSeconds)
+                .messageAttributeNames("All");
+        if (groups != null || quarantine != null) {
+            request.attributeNamesWithStrings(MessageSystemAttributeName.MESSAGE_GROUP_ID.toString(),
+                    MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT.toString());
+        }
+        if (visibilityTimeout != null) {
+            request.visibilityTimeout(visibilityTimeout);
+        }
+        sqs.receiveMessage(request.build()).whenComplete((response, error) -> {
+            if (error != null) {
+                release(reserved, 0);
+                backoff.schedule(() -> poll(fetcher), errorBackoffMillis, TimeUnit.MILLISECONDS);
+                return;
+            }
+            dispatch(response, reserved);
+            if (policy != null) {
+                policy.record(reserved, response.messages().size());
+                reactivate();
+            }
+            poll(fetcher);
+        });
+    }
+
+    private void dispatch(ReceiveMessageResponse response, int reserved)
+    {
+        List<Message> messages = response.messages();
+        long bytes = 0;
+        for (Message message : messages) {
+            bytes += SqsLimits.utf8Length(message.body());
+        }
+        synchronized (this) {
+            inFlightMessages -= reserved - messages.size();
+            inFlightBytes += bytes;
+        }
+        // Groups in this receive with a failed message; shared by the group lanes, so concurrent.
+        Set<String> failedGroups = groups != null && !messages.isEmpty() ? ConcurrentHashMap.<String>newKeySet() : null;
+        for (Message message : messages) {
+            if (extender != null) {
+                extender.track(message);
+            }
+            String group = groups != null ? message.attributesAsStrings().get("MessageGroupId") : null;
+            Executor lane = group != null ? task -> groups.execute(group, task) : handlerPool;
+            ConsumerSupport.handOver(lane, () -> process(message, group, failedGroups), () -> {
+                untrack(message);
+                release(1, SqsLimits.utf8Length(message.body()));
+            });
+        }
+        if (messages.size() < reserved) {
+            unpark();
+        }
+    }
+
+    /**
+     * Handles one message. The future completes once the message is settled, deleted, quarantined or left in the
+     * queue, and tells whether it left the queue, so that the rest of its group may go on; its in-flight slot is
+     * only freed then.
+     */
+    private CompletableFuture<Boolean> process(Message message)
+    {
+        CompletableFuture<?> removed;
+        try {
+            if (quarantine != null && quarantine.isKnownPoison(message)) {
+                removed = quarantine.quarantine(message);
+            } else {
+                // Decoded on the handler thread; a body that fails to decode goes to the error handler.
+                handler.handle(codec != null ? codec.decoded(message) : message);
+                removed = ConsumerSupport.delete(sqs, acknowledger, queueUrl, message);
+            }
+        } catch (Throwable t) {
+            errorHandler.accept(message, t);
+            removed = quarantine != null
+                    ? quarantine.onFailure(message, t)
+                    : CompletableFuture.completedFuture(false);
+        }
+        return removed.handle((result, error) -> {
+            if (error != null) {
+                errorHandler.accept(message, ConsumerSupport.cause(error));
+            }
+            untrack(message);
+            release(1, SqsLimits.utf8Length(message.body()));
+            return error == null && !Boolean.FALSE.equals(result);
+        });
+    }
+
+    // On a FIFO queue runs on the group's lane, after the messages before it in the same group.
+    private void process(Message message, String group, Set<String> failedGroups)
+    {
+        if (group == null) {
+            process(message);
+            return;
+        }
+        if (failedGroups.contains(group)) {
+            // Left in flight untouched, so it comes back after the failed message instead of overtaking it.
+            untrack(message);
+            release(1, SqsLimits.utf8Length(message.body()));
+            return;
+        }
+        // The next message of the group waits until this one left the queue, or it could overtake a redelivery.
+        if (!process(message).join()) {
+            failedGroups.add(group);
+        }
+    }
+
+    private void untrack(Message message)
+    {
+        if (extender != null) {
+            extender.untrack(message);
+        }
+    }
+
+    private void release(int messages, long bytes)
+    {
+        synchronized (this) {
+            inFlightMessages -= messages;
+            inFlightBytes -= bytes;
+            if (inFlightMessages == 0 && !running) {
+                notifyAll();
+            }
+        }
+        unpark();
+    }
+
+    // Restarts fetchers that stopped for lack of capacity; they re-check the limits and park again if needed.
+    private void unpark()
+    {
+        Integer[] fetchers;
+        synchronized (this) {
+            if (parkedFetchers.isEmpty()) {
+                return;
+            }
+            fetchers = parkedFetchers.toArray(new Integer[0]);
+            parkedFetchers.clear();
+        }
+        for (Integer fetcher : fetchers) {
+            poll(fetcher);
+        }
+    }
+
+    // Restarts retired fetchers the policy wants back after a busy receive.
+    private void reactivate()
+    {
+        int pollers = policy.pollers();
+        Integer[] fetchers;
+        synchronized (this) {
+            fetchers = retiredFetchers.stream().filter(f -> f < pollers).toArray(Integer[]::new);
+            if (fetchers.length == 0) {
+                return;
+            }
+            retiredFetchers.removeIf(f -> f < pollers);
+        }
+        for (Integer fetcher : fetchers) {
+            poll(fetcher);
+        }
+    }
+
+    // Called with the lock held when a fetcher sees that the consumer is stopping.
+    private void fetcherStopped()
+    {
+        activeFetchers--;
+        notifyAll();
+    }
+
+    /**
+     * Stops fetching, lets the open long polls return, and waits until every message already received has
+     * been handled. Messages that are still in flight when the timeout expires become visible again later.
+     *
+     * @return true if everything drained within the timeout
+     */
+    public boolean shutdown(Duration timeout) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        boolean drained;
+        synchronized (this) {
+            running = false;
+            // Parked and retired fetchers have no receive outstanding and simply stop.
+            activeFetchers -= parkedFetchers.size() + retiredFetchers.size();
+            parkedFetchers.clear();
+            retiredFetchers.clear();
+            while (activeFetchers > 0 || inFlightMessages > 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+            drained = activeFetchers == 0 && inFlightMessages == 0;
+        }
+        handlerPool.shutdown();
+        backoff.shutdownNow();
+        drained &= handlerPool.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        if (acknowledger != null) {
+            acknowledger.flush();
+        }
+        if (quarantine != null) {
+            quarantine.flush();
+        }
+        return drained;
+    }
+
+    @Override
+    public void close()
+    {
+        try {
+            shutdown(Duration.ofSeconds(SqsLimits.MAX_WAIT_TIME_SECONDS + 10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static final class Builder
+    {
+        private SqsAsyncClient sqs;
+        private String queueUrl;
+        private MessageHandler handler;
+        private BiConsumer<Message, Throwable> errorHandler = ConsumerSupport.LOG_FAILURE;
+        private BatchingAcknowledger acknowledger;
+        private PoisonMessageQuarantine quarantine;
+        private VisibilityExtender extender;
+        private int fetchers = 2;
+        private int handlerThreads = 10;
+        private int maxInFlightMessages = 100;
+        private long maxInFlightBytes = 64L * 1024 * 1024;
+        private int waitTimeSeconds = SqsLimits.MAX_WAIT_TIME_SECONDS;
+        private AdaptiveReceivePolicy policy;
+        private MessageCodec codec;
+        private Integer visibilityTimeout;
+        private Duration errorBackoff = Duration.ofSeconds(1);
+        private Boolean orderedByMessageGroup;
+
+        private Builder()
+        {
+        }
+
+        public Builder client(SqsAsyncClient sqs)
+        {
+            this.sqs = sqs;
+            return this;
+        }
+
+        public Builder queueUrl(String queueUrl)
+        {
+            this.queueUrl = queueUrl;
+            return this;
+        }
+
+        public Builder handler(MessageHandler handler)
+        {
+            this.handler = handler;
+            return this;
+        }
+
+        // Gets handler and delete failures, which leave the message in the queue; logs them by default.
+        public Builder errorHandler(BiConsumer<Message, Throwable> errorHandler)
+        {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        // Deletes handled messages in batches; without one every message is deleted with its own call.
+        public Builder acknowledger(BatchingAcknowledger acknowledger)
+        {
+            this.acknowledger = acknowledger;
+            return this;
+        }
+
+        // Moves messages that keep failing to a quarantine queue before the redrive policy would.
+        public Builder quarantine(PoisonMessageQuarantine quarantine)
+        {
+            this.quarantine = quarantine;
+            return this;
+        }
+
+        // Keeps messages invisible while their handler runs; receives then default to its visibility timeout.
+        public Builder visibilityExtender(VisibilityExtender extender)
+        {
+            this.extender = extender;
+            return this;
+        }
+
+        // Number of ReceiveMessage calls kept open concurrently.
+        public Builder fetchers(int fetchers)
+        {
+            this.fetchers = fetchers;
+            return this;
+        }
+
+        public Builder handlerThreads(int handlerThreads)
+        {
+            this.handlerThreads = handlerThreads;
+            return this;
+        }
+
+        // Messages received but not yet handled, including those waiting for a handler thread.
+        public Builder maxInFlightMessages(int maxInFlightMessages)
+        {
+            this.maxInFlightMessages = maxInFlightMessages;
+            return this;
+        }
+
+        // Total body size of in-flight messages above which fetching pauses.
+        public Builder maxInFlightBytes(long maxInFlightBytes)
+        {
+            this.maxInFlightBytes = maxInFlightBytes;
+            return this;
+        }
+
+        public Builder waitTimeSeconds(int waitTimeSeconds)
+        {
+            this.waitTimeSeconds = waitTimeSeconds;
+            return this;
+        }
+
+        // Adapts wait time, batch size and fetcher count to the traffic; replaces fetchers and waitTimeSeconds.
+        public Builder receivePolicy(AdaptiveReceivePolicy policy)
+        {
+            this.policy = policy;
+            return this;
+        }
+
+        // Restores bodies compressed by a producer's codec before they reach the handler.
+        public Builder codec(MessageCodec codec)
+        {
+            this.codec = codec;
+            return this;
+        }
+
+        // Overrides the queue's visibility timeout for received messages.
+        public Builder visibilityTimeout(Integer visibilityTimeout)
+        {
+            this.visibilityTimeout = visibilityTimeout;
+            return this;
+        }
+
+        // Pause before a fetcher retries after a failed receive.
+        public Builder errorBackoff(Duration errorBackoff)
+        {
+            this.errorBackoff = errorBackoff;
+            return this;
+        }
+
+        /**
+         * Handles messages of the same message group one at a time, in the order they were received. On by
+         * default for queues whose URL ends in .fifo; messages without a group are handled unordered.
+         */
+        public Builder orderedByMessageGroup(boolean orderedByMessageGroup)
+        {
+            this.orderedByMessageGroup = orderedByMessageGroup;
+            return this;
+        }
+
+        public QueueConsumer build()
+        {
+            if (sqs == null || queueUrl == null || handler == null) {
+                throw new IllegalStateException("client, queueUrl and handler are required");
+            }
+            if (extender != null && !extender.queueUrl().equals(queueUrl)) {
+                throw new IllegalStateException("visibilityExtender belongs to a different queue");
+            }
+            if (quarantine != null && !quarantine.queueUrl().equals(queueUrl)) {
+                throw new IllegalStateException("quarantine belongs to a different queue");
+            }
+            return new QueueConsumer(this);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.CreateQueueRequest;
+import software.amazon.awssdk.services.sqs.model.CreateQueueResponse;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesRequest;
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.QueueDoesNotExistException;
+
+/**
+ * Caches queue name to URL and name to ARN lookups for a while. Concurrent lookups of the same name share a
+ * single in-flight request, so a fleet of workers starting at once resolves each queue only once per process.
+ * Queues created through {@link #createQueue(CreateQueueRequest)} are cached from the create response, and a
+ * {@link QueueDoesNotExistException} raised inside {@link #withQueueUrl(String, Function)} drops the name.
+ */
+public class QueueResolver
+{
+    private final SqsClient sqs;
+    private final long ttlNanos;
+    private final ConcurrentMap<String, Cached> urls = new ConcurrentHashMap<String, Cached>();
+    private final ConcurrentMap<String, Cached> arns = new ConcurrentHashMap<String, Cached>();
+
+    public QueueResolver(SqsClient sqs)
+    {
+        this(sqs, Duration.ofMinutes(15));
+    }
+
+    public QueueResolver(SqsClient sqs, Duration ttl)
+    {
+        this.sqs = sqs;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    public String queueUrl(String queueName)
+    {
+        return resolve(urls, queueName, name -> sqs.getQueueUrl(GetQueueUrlRequest.builder()
+                .queueName(name)
+                .build()).queueUrl());
+    }
+
+    public String queueArn(String queueName)
+    {
+        return resolve(arns, queueName, name -> sqs.getQueueAttributes(GetQueueAttributesRequest.builder()
+                .queueUrl(queueUrl(name))
+                .attributeNames(QueueAttributeName.QUEUE_ARN)
+                .build()).attributes().get(QueueAttributeName.QUEUE_ARN));
+    }
+
+    public CreateQueueResponse createQueue(CreateQueueRequest request)
+    {
+        CreateQueueResponse response = sqs.createQueue(request);
+        remember(request.queueName(), response.queueUrl());
+        return response;
+    }
+
+    /**
+     * Creates a FIFO queue, or returns the URL of the existing one. The name must end in .fifo. With
+     * content-based deduplication a message without a deduplication id is deduplicated on a hash of its body.
+     */
+    public String createFifoQueue(String queueName, boolean contentBasedDeduplication)
+    {
+        Map<QueueAttributeName, String> attributes = new EnumMap<QueueAttributeName, String>(QueueAttributeName.class);
+        attributes.put(QueueAttributeName.FIFO_QUEUE, "true");
+        attributes.put(QueueAttributeName.CONTENT_BASED_DEDUPLICATION, Boolean.toString(contentBasedDeduplication));
+        return createQueue(CreateQueueRequest.builder()
+                .queueName(queueName)
+                .attributes(attributes)
+                .build()).queueUrl();
+    }
+
+    // Seeds the cache with a URL learned some other way, for example from a ListQueues response.
+    public void remember(String queueName, String queueUrl)
+    {
+        urls.put(queueName, new Cached(CompletableFuture.completedFuture(queueUrl), System.nanoTime() + ttlNanos));
+    }
+
+    public void invalidate(String queueName)
+    {
+        urls.remove(queueName);
+        arns.remove(queueName);
+    }
+
+    /**
+     * Runs a call against the queue's URL. If the queue turns out not to exist (it was deleted, or recreated
+     * under a new URL) the cached entries are dropped before the exception propagates, so the next call
+     * resolves the name again.
+     */
+    public <T> T withQueueUrl(String queueName, Function<String, T> call)
+    {
+        try {
+            return call.apply(queueUrl(queueName));
+        } catch (QueueDoesNotExistException e) {
+            invalidate(queueName);
+            throw e;
+        }
+    }
+
+    private String resolve(ConcurrentMap<String, Cached> cache, String name, Function<String, String> loader)
+    {
+        while (true) {
+            long now = System.nanoTime();
+            Cached cached = cache.get(name);
+            if (cached != null && cached.expiresAt - now > 0) {
+                return cached.join(cache, name);
+            }
+
+            // Only the thread that installs the placeholder loads the value; everyone else waits on it.
+            Cached loading = new Cached(new CompletableFuture<String>(), now + ttlNanos);
+            boolean installed = cached == null
+                    ? cache.putIfAbsent(name, loading) == null
+                    : cache.replace(name, cached, loading);
+            if (!installed) {
+                continue;
+            }
+            try {
+                loading.value.complete(loader.apply(name));
+            } catch (RuntimeException e) {
+                cache.remove(name, loading);
+                loading.value.completeExceptionally(e);
+                throw e;
+            }
+            return loading.value.join();
+        }
+    }
+
+    private static final class Cached
+    {
+        final CompletableFuture<String> value;
+        final long expiresAt;
+
+        Cached(CompletableFuture<String> value, long expiresAt)
+        {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        String join(ConcurrentMap<String, Cached> cache, String name)
+        {
+            try {
+                return value.join();
+            } catch (CompletionException e) {
+                cache.remove(name, this);
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+
+/**
+ * Command-line queue maintenance for cron jobs and scripts. It only uses SDK v2 and the Apache HTTP client, so
+ * it runs from the slim jar, with an AppCDS archive, or as a native image (see the slim, appcds and native
+ * profiles in the pom).
+ *
+ * <pre>
+ * QueueTools [--endpoint=URL] [--region=REGION] COMMAND [ARGS]
+ *     list [PREFIX]          queue URLs
+ *     create NAME            creates the queue and prints its URL; NAME.fifo creates a FIFO queue with
+ *                            content-based deduplication
+ *     delete NAME
+ *     purge NAME
+ *     depth NAME             visible, in-flight and delayed message counts
+ *     send NAME BODY         prints the message id
+ *     redrive DLQ [TARGET]   moves the messages of a dead-letter queue back to its source queue, or to TARGET
+ *     selftest               runs every command against an embedded server
+ * </pre>
+ *
+ * Loopback endpoints get dummy credentials, as ElasticMQ and the embedded server accept anything.
+ */
+public final class QueueTools
+{
+    private static final String USAGE = "Usage: QueueTools [--endpoint=URL] [--region=REGION] "
+            + "list [PREFIX] | create NAME | delete NAME | purge NAME | depth NAME | send NAME BODY | redrive DLQ [TARGET] | selftest";
+
+    private final SqsClient sqs;
+    private final PrintStream out;
+
+    QueueTools(SqsClient sqs, PrintStream out)
+    {
+        this.sqs = sqs;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        URI endpoint = null;
+        Region region = null;
+        List<String> command = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.startsWith("--endpoint=")) {
+                endpoint = URI.create(arg.substring("--endpoint=".length()));
+            } else if (arg.startsWith("--region=")) {
+                region = Region.of(arg.substring("--region=".length()));
+            } else {
+                command.add(arg);
+            }
+        }
+        if (command.isEmpty()) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        if ("selftest".equals(command.get(0))) {
+            selfTest();
+            return;
+        }
+        try (SqsClient sqs = client(region, endpoint)) {
+            int status = new QueueTools(sqs, System.out).run(command);
+            if (status != 0) {
+                System.exit(status);
+            }
+        }
+    }
+
+    static SqsClient client(Region region, URI endpoint) throws IOException
+    {
+        SqsClientSettings.Builder settings = SqsClientSettings.builder().prewarmConnections(0);
+        if (endpoint != null && InetAddress.getByName(endpoint.getHost()).isLoopbackAddress()) {
+            settings.credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("x", "x")));
+        }
+        if (region == null && endpoint != null) {
+            region = Region.US_EAST_1;
+        }
+        // A factory per process; the tool makes a handful of calls and exits.
+        return new SqsClientFactory(settings.build()).client(region, endpoint);
+    }
+
+    int run(List<String> command) throws InterruptedException
+    {
+        String name = command.get(0);
+        List<String> args = command.subList(1, command.size());
+        switch (name) {
+            case "list":
+                for (String url : sqs.listQueues(r -> r.queueNamePrefix(args.isEmpty() ? null : args.get(0)))
+                        .queueUrls()) {
+                    out.println(url);
+                }
+                return 0;
+            case "create":
+                requireArgs(args, 1);
+                String queue = args.get(0);
+                out.println(queue.endsWith(".fifo")
+                        ? new QueueResolver(sqs).createFifoQueue(queue, true)
+                        : sqs.createQueue(r -> r.queueName(queue)).queueUrl());
+                return 0;
+            case "delete":
+                requireArgs(args, 1);
+                sqs.deleteQueue(r -> r.queueUrl(queueUrl(args.get(0))));
+                return 0;
+            case "purge":
+                requireArgs(args, 1);
+                sqs.purgeQueue(r -> r.queueUrl(queueUrl(args.get(0))));
+                return 0;
+            case "depth":
+                requireArgs(args, 1);
+                Map<QueueAttributeName, String> attributes = sqs.getQueueAttributes(r -> r
+                        .queueUrl(queueUrl(args.get(0)))
+                        .attributeNames(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES,
+                                QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE,
+                                QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_DELAYED))
+                        .attributes();
+                out.println("visible=" + attributes.get(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES)
+                        + " inflight=" + attributes.get(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE)
+                        + " delayed=" + attributes.get(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_DELAYED));
+                return 0;
+            case "send":
+                requireArgs(args, 2);
+                out.println(sqs.sendMessage(r -> r.queueUrl(queueUrl(args.get(0))).messageBody(args.get(1)))
+                        .messageId());
+                return 0;
+            case "redrive":
+                requireArgs(args, 1);
+                DeadLetterRedriver.Result result = DeadLetterRedriver.builder()
+                        .client(sqs)
+                        .sourceQueueUrl(queueUrl(args.get(0)))
+                        .targetQueueUrl(args.size() > 1 ? queueUrl(args.get(1)) : null)
+                        .build()
+                        .run();
+                out.println(result);
+                return result.sendFailures() + result.deleteFailures() == 0 ? 0 : 1;
+            default:
+                System.err.println(USAGE);
+                return 2;
+        }
+    }
+
+    // Accepts a queue URL as well as a name.
+    private String queueUrl(String queue)
+    {
+        return queue.contains("://") ? queue : sqs.getQueueUrl(r -> r.queueName(queue)).queueUrl();
+    }
+
+    private static void requireArgs(List<String> args, int count)
+    {
+        if (args.size() < count) {
+            throw new IllegalArgumentException(USAGE);
+        }
+    }
+
+    // Exercises every command once; also the training run that records the AppCDS class list.
+    private static void selfTest() throws IOException, InterruptedException
+    {
+        try (EmbeddedSqsServer server = EmbeddedSqsServer.builder().build().start();
+             SqsClient sqs = client(null, server.endpoint())) {
+            QueueTools tools = new QueueTools(sqs, System.out);
+            String queue = "queue-tools-selftest";
+            String deadLetterQueue = queue + "-dlq";
+            for (List<String> command : Arrays.asList(
+                    Arrays.asList("create", queue),
+                    Arrays.asList("create", deadLetterQueue),
+                    Arrays.asList("send", deadLetterQueue, "hello"),
+                    Arrays.asList("redrive", deadLetterQueue, queue),
+                    Arrays.asList("depth", queue),
+                    Arrays.asList("list"))) {
+                tools.run(command);
+            }
+            String url = sqs.getQueueUrl(r -> r.queueName(queue)).queueUrl();
+            for (Message message : sqs.receiveMessage(r -> r.queueUrl(url).waitTimeSeconds(1)).messages()) {
+                sqs.deleteMessage(r -> r.queueUrl(url).receiptHandle(message.receiptHandle()));
+            }
+            tools.run(Arrays.asList("purge", queue));
+            tools.run(Arrays.asList("delete", queue));
+            tools.run(Arrays.asList("delete", deadLetterQueue));
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryUtils;
+
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.awscore.retry.AwsRetryPolicy;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.core.retry.conditions.RetryCondition;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+
+/**
+ * Client-side rate limit for SQS calls that adapts to throttling: a token bucket per operation and queue,
+ * whose rate is cut multiplicatively whenever SQS throttles a call and grows back additively with every call
+ * that succeeds (AIMD, as in TCP congestion control). One governor is meant to be shared by every client and
+ * thread of a process, e.g. {@link #shared()} registered through {@link SqsClientSettings.Builder#rateGovernor},
+ * so all callers draw on the same budget and back off together instead of retrying into the throttle.
+ *
+ * On synchronous clients every attempt takes a permit, retries included, and waits for it on the calling
+ * thread. Asynchronous clients must not block the threads that complete their futures, so there each call takes
+ * a permit up front and, if it is not due yet, is started later from the governor's timer. A cut only counts
+ * attempts that started after the previous cut, so the burst of throttles from calls already under way when SQS
+ * started pushing back lowers the rate once, not once per call. Errors with a throttling code, HTTP 429 or 503,
+ * and OverLimit count as throttles.
+ *
+ * A synchronous v2 client needs {@link #interceptor()}, which takes the permits, and {@link #retryPolicy()}, whose
+ * retry condition sees the error of every failed attempt. An asynchronous one needs {@link #asyncInterceptor()}
+ * and the retry policy, and is then wrapped with {@link #govern}. {@link SqsClientFactory} does all of this. v1
+ * clients take {@link #requestHandler()}.
+ */
+public final class RateGovernor
+{
+    private static final RateGovernor SHARED = builder().build();
+
+    private final double initialRate;
+    private final double minRate;
+    private final double maxRate;
+    private final double decreaseFactor;
+    private final double additiveIncrease;
+    private final double burstSeconds;
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+    private final LongAdder throttles = new LongAdder();
+    // Starts deferred asynchronous calls; created on first use.
+    private volatile ScheduledExecutorService timer;
+
+    private RateGovernor(Builder builder)
+    {
+        this.initialRate = builder.initialRate;
+        this.minRate = builder.minRate;
+        this.maxRate = builder.maxRate;
+        this.decreaseFactor = builder.decreaseFactor;
+        this.additiveIncrease = builder.additiveIncrease;
+        this.burstSeconds = builder.burst.toNanos() / 1e9;
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    // Process-wide governor with default settings.
+    public static RateGovernor shared()
+    {
+        return SHARED;
+    }
+
+    /**
+     * Interceptor to register on synchronous SDK v2 clients together with {@link #retryPolicy()}.
+     */
+    public ExecutionInterceptor interceptor()
+    {
+        return new RateGovernorInterceptor(this, true);
+    }
+
+    /**
+     * Interceptor for asynchronous SDK v2 clients: reports the outcome of calls without taking permits, which
+     * the client returned by {@link #govern} does.
+     */
+    public ExecutionInterceptor asyncInterceptor()
+    {
+        return new RateGovernorInterceptor(this, false);
+    }
+
+    /**
+     * Wraps an asynchronous client so that its calls wait for permits without blocking a thread. The client
+     * should carry {@link #asyncInterceptor()} and {@link #retryPolicy()}, or throttles are not reported.
+     */
+    public SqsAsyncClient govern(SqsAsyncClient sqs)
+    {
+        return new GovernedSqsAsyncClient(sqs, this);
+    }
+
+    /**
+     * The SDK's default retry policy, with a retry condition that also reports each throttled attempt.
+     */
+    public RetryPolicy retryPolicy()
+    {
+        RetryCondition retryCondition = AwsRetryPolicy.defaultRetryCondition();
+        return AwsRetryPolicy.defaultRetryPolicy().toBuilder()
+                .retryCondition(context -> {
+                    RateGovernorInterceptor.attemptFailed(this, context);
+                    return retryCondition.shouldRetry(context);
+                })
+                .build();
+    }
+
+    /**
+     * Handler to register on v1 clients with {@code withRequestHandlers}.
+     */
+    public RequestHandler2 requestHandler()
+    {
+        return new RateGovernorRequestHandler(this);
+    }
+
+    /**
+     * Takes a permit for one call, waiting until the bucket of the operation and queue has one.
+     *
+     * @param queueUrl the queue called, or null for calls not made on a queue
+     * @return when the permit was granted, in {@link System#nanoTime()} terms, to pass to {@link #throttled}
+     */
+    public long acquire(String operation, String queueUrl) throws InterruptedException
+    {
+        long wait = bucket(operation, queueUrl).reserve();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        return System.nanoTime();
+    }
+
+    // Runs the call once it has a permit: at once if one is free, otherwise from the timer when it is due.
+    <T> CompletableFuture<T> whenPermitted(String operation, String queueUrl, Supplier<CompletableFuture<T>> call)
+    {
+        long wait = bucket(operation, queueUrl).reserve();
+        if (wait <= 0) {
+            return call.get();
+        }
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        timer().schedule(() -> {
+            try {
+                call.get().whenComplete((response, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else {
+                        result.complete(response);
+                    }
+                });
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }, wait, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    private ScheduledExecutorService timer()
+    {
+        ScheduledExecutorService current = timer;
+        if (current == null) {
+            synchronized (this) {
+                current = timer;
+                if (current == null) {
+                    current = Executors.newSingleThreadScheduledExecutor(VirtualThreads.platformFactory("rate-governor-"));
+                    timer = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Reports a throttled call; the rate is cut unless it already was after the call's permit was granted.
+     */
+    public void throttled(String operation, String queueUrl, long acquiredAt)
+    {
+        throttles.increment();
+        bucket(operation, queueUrl).decrease(acquiredAt);
+    }
+
+    // Reports a call that went through, which grows the rate a little.
+    public void succeeded(String operation, String queueUrl)
+    {
+        bucket(operation, queueUrl).increase();
+    }
+
+    // Current rate of the operation and queue in calls per second; the initial rate if none was made yet.
+    public double rate(String operation, String queueUrl)
+    {
+        Bucket bucket = buckets.get(key(operation, queueUrl));
+        return bucket == null ? initialRate : bucket.rate();
+    }
+
+    // Throttled calls reported since the start.
+    public long throttles()
+    {
+        return throttles.sum();
+    }
+
+    static boolean isThrottle(Throwable error)
+    {
+        if (error instanceof AwsServiceException) {
+            AwsServiceException service = (AwsServiceException) error;
+            return service.isThrottlingException() || service.statusCode() == 503
+                    || service.awsErrorDetails() != null && "OverLimit".equals(service.awsErrorDetails().errorCode());
+        }
+        if (error instanceof AmazonServiceException) {
+            AmazonServiceException service = (AmazonServiceException) error;
+            return RetryUtils.isThrottlingException(service) || service.getStatusCode() == 503
+                    || "OverLimit".equals(service.getErrorCode());
+        }
+        return false;
+    }
+
+    private static String key(String operation, String queueUrl)
+    {
+        return queueUrl == null ? operation : operation + ' ' + queueUrl;
+    }
+
+    private Bucket bucket(String operation, String queueUrl)
+    {
+        String key = key(operation, queueUrl);
+        Bucket bucket = buckets.get(key);
+        return bucket != null ? bucket : buckets.computeIfAbsent(key, k -> new Bucket());
+    }
+
+    private final class Bucket
+    {
+        // Guarded by this
+        private double rate = initialRate;
+        private double tokens = capacity();
+        private long refilledAt = System.nanoTime();
+        // Before any permit, so that the first throttle always cuts.
+        private long decreasedAt = refilledAt - 1;
+
+        synchronized double rate()
+        {
+            return rate;
+        }
+
+        // Takes a token, going into debt if there is none; returns how long the caller waits for it, in nanos.
+        synchronized long reserve()
+        {
+            refill();
+            tokens -= 1;
+            return tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+        }
+
+        synchronized void decrease(long acquiredAt)
+        {
+            if (acquiredAt - decreasedAt <= 0) {
+                // Sent before the last cut took effect: the same congestion event.
+                return;
+            }
+            refill();
+            rate = Math.max(minRate, rate * decreaseFactor);
+            // Drops the saved-up burst so the lower rate applies at once.
+            tokens = Math.min(tokens, 0);
+            decreasedAt = System.nanoTime();
+        }
+
+        // Every success adds increase / rate, so at full use the rate grows by additiveIncrease per second.
+        synchronized void increase()
+        {
+            refill();
+            rate = Math.min(maxRate, rate + additiveIncrease / rate);
+        }
+
+        // Called with the lock held, before every rate change so the time so far is credited at the old rate.
+        private void refill()
+        {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity(), tokens + (now - refilledAt) / 1e9 * rate);
+            refilledAt = now;
+        }
+
+        private double capacity()
+        {
+            return Math.max(1, rate * burstSeconds);
+        }
+    }
+
+    public static final class Builder
+    {
+        // FIFO queues allow 300 calls per second and operation without high throughput mode.
+        private double initialRate = 300;
+        private double minRate = 1;
+        private double maxRate = 3000;
+        private double decreaseFactor = 0.5;
+        private double additiveIncrease = 20;
+        private Duration burst = Duration.ofMillis(100);
+
+        private Builder()
+        {
+        }
+
+        // Calls per second each operation and queue starts with.
+        public Builder initialRate(double initialRate)
+        {
+            this.initialRate = initialRate;
+            return this;
+        }
+
+        // Floor for cuts, so a bucket never stops altogether.
+        public Builder minRate(double minRate)
+        {
+            this.minRate = minRate;
+            return this;
+        }
+
+        public Builder maxRate(double maxRate)
+        {
+            this.maxRate = maxRate;
+            return this;
+        }
+
+        // Factor the rate is multiplied with on a throttle, between 0 and 1.
+        public Builder decreaseFactor(double decreaseFactor)
+        {
+            this.decreaseFactor = decreaseFactor;
+            return this;
+        }
+
+        // Calls per second the rate grows by per second of successful calls at that rate.
+        public Builder additiveIncrease(double additiveIncrease)
+        {
+            this.additiveIncrease = additiveIncrease;
+            return this;
+        }
+
+        // Calls an idle bucket saves up, as time at its current rate.
+        public Builder burst(Duration burst)
+        {
+            this.burst = burst;
+            return this;
+        }
+
+        public RateGovernor build()
+        {
+            if (minRate <= 0 || minRate > initialRate || initialRate > maxRate) {
+                throw new IllegalStateException("rates must satisfy 0 < minRate <= initialRate <= maxRate");
+            }
+            if (decreaseFactor <= 0 || decreaseFactor >= 1) {
+                throw new IllegalStateException("decreaseFactor must be between 0 and 1");
+            }
+            if (additiveIncrease < 0 || burst.isNegative()) {
+                throw new IllegalStateException("additiveIncrease and burst must not be negative");
+            }
+            return new RateGovernor(this);
+        }
+    }
+}
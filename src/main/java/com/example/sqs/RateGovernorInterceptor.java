@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.core.retry.RetryPolicyContext;
+
+/**
+ * Applies a {@link RateGovernor} to SDK v2 clients. The transmission hook runs once per attempt, so on synchronous
+ * clients retries take a permit like first attempts. On asynchronous clients it runs on SDK threads and only
+ * notes when the attempt started; the permit was taken before the call by {@link GovernedSqsAsyncClient}.
+ * Throttled attempts that are retried are only visible to the retry condition of
+ * {@link RateGovernor#retryPolicy()}, which reports them through {@link #attemptFailed}; the last attempt's
+ * error arrives here.
+ */
+final class RateGovernorInterceptor implements ExecutionInterceptor
+{
+    private static final ExecutionAttribute<Long> ACQUIRED = new ExecutionAttribute<Long>("RateGovernor.acquired");
+    // Permit time of the attempt whose throttle was reported last, so the final error is not reported twice.
+    private static final ExecutionAttribute<Long> REPORTED = new ExecutionAttribute<Long>("RateGovernor.reported");
+
+    private final RateGovernor governor;
+    private final boolean takesPermits;
+
+    RateGovernorInterceptor(RateGovernor governor, boolean takesPermits)
+    {
+        this.governor = governor;
+        this.takesPermits = takesPermits;
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes attributes)
+    {
+        if (!takesPermits) {
+            attributes.putAttribute(ACQUIRED, System.nanoTime());
+            return;
+        }
+        try {
+            attributes.putAttribute(ACQUIRED, governor.acquire(operation(attributes), queueUrl(context.request())));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw AbortedException.create("Interrupted while waiting for a rate permit", e);
+        }
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes attributes)
+    {
+        governor.succeeded(operation(attributes), queueUrl(context.request()));
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes attributes)
+    {
+        if (RateGovernor.isThrottle(context.exception())) {
+            report(governor, attributes, context.request());
+        }
+    }
+
+    // Called by the retry condition for every failed attempt that the retry policy considers.
+    static void attemptFailed(RateGovernor governor, RetryPolicyContext context)
+    {
+        if (RateGovernor.isThrottle(context.exception())) {
+            report(governor, context.executionAttributes(), context.originalRequest());
+        }
+    }
+
+    private static void report(RateGovernor governor, ExecutionAttributes attributes, SdkRequest request)
+    {
+        Long acquired = attributes.getAttribute(ACQUIRED);
+        // Without the interceptor no permit was taken; the throttle still counts as new.
+        long acquiredAt = acquired != null ? acquired : System.nanoTime();
+        if (acquired != null && acquired.equals(attributes.getAttribute(REPORTED))) {
+            return;
+        }
+        attributes.putAttribute(REPORTED, acquiredAt);
+        governor.throttled(operation(attributes), queueUrl(request), acquiredAt);
+    }
+
+    private static String operation(ExecutionAttributes attributes)
+    {
+        String name = attributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+        return name != null ? name : "Unknown";
+    }
+
+    private static String queueUrl(SdkRequest request)
+    {
+        return request.getValueForField("QueueUrl", String.class).orElse(null);
+    }
+}
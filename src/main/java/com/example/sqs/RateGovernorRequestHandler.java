@@ -0,0 +1,94 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.util.List;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+
+/**
+ * Applies a {@link RateGovernor} to v1 clients. The attempt hooks run for every attempt, retries included, on
+ * the thread making it.
+ */
+final class RateGovernorRequestHandler extends RequestHandler2
+{
+    private static final HandlerContextKey<Long> ACQUIRED = new HandlerContextKey<Long>("RateGovernor.acquired");
+
+    private final RateGovernor governor;
+
+    RateGovernorRequestHandler(RateGovernor governor)
+    {
+        this.governor = governor;
+    }
+
+    @Override
+    public void beforeAttempt(HandlerBeforeAttemptContext context)
+    {
+        Request<?> request = context.getRequest();
+        try {
+            request.addHandlerContext(ACQUIRED, governor.acquire(operation(request), queueUrl(request)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while waiting for a rate permit", e);
+        }
+    }
+
+    @Override
+    public void afterAttempt(HandlerAfterAttemptContext context)
+    {
+        Request<?> request = context.getRequest();
+        if (RateGovernor.isThrottle(context.getException())) {
+            Long acquired = request.getHandlerContext(ACQUIRED);
+            governor.throttled(operation(request), queueUrl(request), acquired != null ? acquired : System.nanoTime());
+        }
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response)
+    {
+        governor.succeeded(operation(request), queueUrl(request));
+    }
+
+    private static String operation(Request<?> request)
+    {
+        String name = request.getHandlerContext(HandlerContextKey.OPERATION_NAME);
+        return name != null ? name : "Unknown";
+    }
+
+    // The SQS client moves the QueueUrl parameter into the endpoint and resource path before the first attempt.
+    private static String queueUrl(Request<?> request)
+    {
+        List<String> values = request.getParameters().get("QueueUrl");
+        if (values != null && !values.isEmpty()) {
+            return values.get(0);
+        }
+        String path = request.getResourcePath();
+        if (path == null || path.isEmpty() || "/".equals(path)) {
+            return null;
+        }
+        String endpoint = request.getEndpoint().toString();
+        if (endpoint.endsWith("/")) {
+            endpoint = endpoint.substring(0, endpoint.length() - 1);
+        }
+        return endpoint + (path.startsWith("/") ? path : "/" + path);
+    }
+}
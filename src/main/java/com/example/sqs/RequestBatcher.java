@@ -0,0 +1,257 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects single entries from any number of threads and hands them to {@link #sendBatch(List)} in groups.
+ * A group is flushed when it reaches the entry limit, when the next entry would push it over the byte
+ * limit, or when its oldest entry has waited for the linger time. Groups reach the sender executor in the
+ * order they were cut, so a single sender thread sends them in submission order. They are handed over outside
+ * the buffer lock, so an executor that runs a group on the submitting thread does not hold up other callers; if
+ * the executor rejects a group, its futures fail.
+ *
+ * @param <E> the request entry type
+ * @param <R> the per-entry result type
+ */
+public abstract class RequestBatcher<E, R> implements AutoCloseable
+{
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long lingerNanos;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService sender;
+
+    private final Object lock = new Object();
+
+    // Guarded by lock
+    private List<Pending<E, R>> buffer;
+    private long bufferBytes;
+    private long generation;
+    private boolean closed;
+    // Cut groups waiting to be handed to the sender, and whether a thread is handing them over.
+    private final ArrayDeque<List<Pending<E, R>>> cut = new ArrayDeque<List<Pending<E, R>>>();
+    private boolean handingOver;
+
+    protected RequestBatcher(int maxEntries, long maxBytes, Duration linger, int senderThreads)
+    {
+        this(maxEntries, maxBytes, linger, Executors.newFixedThreadPool(senderThreads, r -> daemon(r, "batcher-send-")));
+    }
+
+    // The batcher takes ownership of the sender executor and shuts it down on close.
+    protected RequestBatcher(int maxEntries, long maxBytes, Duration linger, ExecutorService sender)
+    {
+        if (maxEntries < 1 || maxEntries > SqsLimits.MAX_BATCH_ENTRIES) {
+            throw new IllegalArgumentException("maxEntries must be between 1 and " + SqsLimits.MAX_BATCH_ENTRIES);
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.lingerNanos = linger.toNanos();
+        this.buffer = new ArrayList<Pending<E, R>>(maxEntries);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "batcher-linger-"));
+        this.sender = sender;
+    }
+
+    private static Thread daemon(Runnable r, String prefix)
+    {
+        Thread t = new Thread(r, prefix + THREAD_IDS.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    }
+
+    /**
+     * Sends one group of entries and completes the future of every one of them, either with a result
+     * or exceptionally. Runs on a sender thread; an exception thrown from here fails the whole group.
+     */
+    protected abstract void sendBatch(List<Pending<E, R>> batch);
+
+    protected CompletableFuture<R> submit(E entry, long bytes)
+    {
+        Pending<E, R> pending = new Pending<E, R>(entry, bytes);
+        if (bytes > maxBytes) {
+            pending.future.completeExceptionally(new IllegalArgumentException(
+                    "Entry of " + bytes + " bytes exceeds the batch limit of " + maxBytes + " bytes"));
+            return pending.future;
+        }
+
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Batcher is closed");
+            }
+            if (!buffer.isEmpty() && bufferBytes + bytes > maxBytes) {
+                cutLocked();
+            }
+            buffer.add(pending);
+            bufferBytes += bytes;
+            if (buffer.size() >= maxEntries || bufferBytes >= maxBytes) {
+                cutLocked();
+            } else if (buffer.size() == 1) {
+                scheduleLingerLocked();
+            }
+        }
+        handOver();
+        return pending.future;
+    }
+
+    /**
+     * Sends whatever is buffered right now without waiting for the linger time.
+     */
+    public void flush()
+    {
+        synchronized (lock) {
+            cutLocked();
+        }
+        handOver();
+    }
+
+    /**
+     * Flushes the buffer and waits for all outstanding batches to complete.
+     */
+    @Override
+    public void close()
+    {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        scheduler.shutdownNow();
+        try {
+            // A linger task that is already running may still cut a batch, which the sender has to take.
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        sender.shutdown();
+        try {
+            sender.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void scheduleLingerLocked()
+    {
+        final long scheduledGeneration = generation;
+        scheduler.schedule(() -> {
+            synchronized (lock) {
+                if (generation == scheduledGeneration) {
+                    cutLocked();
+                }
+            }
+            handOver();
+        }, lingerNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void cutLocked()
+    {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        cut.add(buffer);
+        buffer = new ArrayList<Pending<E, R>>(maxEntries);
+        bufferBytes = 0;
+        generation++;
+    }
+
+    // Hands the cut groups to the sender in order. One thread does so at a time, without holding the lock.
+    private void handOver()
+    {
+        synchronized (lock) {
+            if (handingOver) {
+                return;
+            }
+            handingOver = true;
+        }
+        while (true) {
+            final List<Pending<E, R>> batch;
+            synchronized (lock) {
+                batch = cut.poll();
+                if (batch == null) {
+                    handingOver = false;
+                    return;
+                }
+            }
+            try {
+                sender.execute(() -> send(batch));
+            } catch (RejectedExecutionException e) {
+                fail(batch, e);
+            }
+        }
+    }
+
+    private void send(List<Pending<E, R>> batch)
+    {
+        try {
+            sendBatch(batch);
+        } catch (Throwable t) {
+            fail(batch, t);
+        }
+    }
+
+    private static <E, R> void fail(List<Pending<E, R>> batch, Throwable error)
+    {
+        for (Pending<E, R> pending : batch) {
+            pending.future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * An entry waiting in the buffer together with the future handed back to its caller.
+     */
+    public static final class Pending<E, R>
+    {
+        private final E entry;
+        private final long bytes;
+        private final CompletableFuture<R> future = new CompletableFuture<R>();
+
+        Pending(E entry, long bytes)
+        {
+            this.entry = entry;
+            this.bytes = bytes;
+        }
+
+        public E entry()
+        {
+            return entry;
+        }
+
+        public long bytes()
+        {
+            return bytes;
+        }
+
+        public CompletableFuture<R> future()
+        {
+            return future;
+        }
+    }
+}
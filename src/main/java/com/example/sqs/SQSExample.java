@@ -30,7 +30,6 @@ import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityRequest;
 import software.amazon.awssdk.services.sqs.model.CreateQueueRequest;
-import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
 import software.amazon.awssdk.services.sqs.model.DeleteQueueRequest;
 import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
 import software.amazon.awssdk.services.sqs.model.GetQueueUrlResponse;
@@ -128,12 +127,13 @@ public class SQSExample {
 
         System.out.println("\nDelete Messages");
         // snippet-start:[sqs.java2.sqs_example.delete_message]
-        for (Message message : messages) {
-            DeleteMessageRequest deleteMessageRequest = DeleteMessageRequest.builder()
-                    .queueUrl(queueUrl)
-                    .receiptHandle(message.receiptHandle())
-                    .build();
-            sqsClient.deleteMessage(deleteMessageRequest);
+        try (BatchingAcknowledger acknowledger = BatchingAcknowledger.builder()
+                .client(sqsClient)
+                .queueUrl(queueUrl)
+                .build()) {
+            for (Message message : messages) {
+                acknowledger.acknowledge(message);
+            }
         }
         // snippet-end:[sqs.java2.sqs_example.delete_message]
 
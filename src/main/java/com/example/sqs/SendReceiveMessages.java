@@ -25,8 +25,6 @@ package com.example.sqs;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.CreateQueueRequest;
 import software.amazon.awssdk.services.sqs.model.CreateQueueResponse;
-import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
-import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
 import software.amazon.awssdk.services.sqs.model.Message;
 import software.amazon.awssdk.services.sqs.model.QueueNameExistsException;
 import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
@@ -46,21 +44,19 @@ public class SendReceiveMessages
     {
     	SqsClient sqs = SqsClient.builder().build();
 
+        // The create response already carries the queue URL; no need for a separate getQueueUrl call.
+        String queueUrl;
         try {
         	CreateQueueRequest request = CreateQueueRequest.builder()
         			.queueName(QUEUE_NAME)
         			.build();
             CreateQueueResponse create_result = sqs.createQueue(request);
+            queueUrl = create_result.queueUrl();
         } catch (QueueNameExistsException e) {
         	throw e;
 
         }
 
-        GetQueueUrlRequest getQueueRequest = GetQueueUrlRequest.builder()
-        		.queueName(QUEUE_NAME)
-        		.build();
-        String queueUrl = sqs.getQueueUrl(getQueueRequest).queueUrl();
-
         SendMessageRequest send_msg_request = SendMessageRequest.builder()
                 .queueUrl(queueUrl)
                 .messageBody("hello world")
@@ -92,13 +88,14 @@ public class SendReceiveMessages
         		.build();
         List<Message> messages = sqs.receiveMessage(receiveRequest).messages();
 
-        // delete messages from the queue
-        for (Message m : messages) {
-        	DeleteMessageRequest deleteRequest = DeleteMessageRequest.builder()
-        			.queueUrl(queueUrl)
-        			.receiptHandle(m.receiptHandle())
-        			.build();
-            sqs.deleteMessage(deleteRequest);
+        // delete messages from the queue, combined into DeleteMessageBatch requests
+        try (BatchingAcknowledger acknowledger = BatchingAcknowledger.builder()
+                .client(sqs)
+                .queueUrl(queueUrl)
+                .build()) {
+            for (Message m : messages) {
+                acknowledger.acknowledge(m);
+            }
         }
     }
 }
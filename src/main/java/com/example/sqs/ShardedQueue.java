@@ -0,0 +1,451 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+
+/**
+ * One logical queue spread over several physical queues, the shards {@code name-0} to {@code name-(N-1)}
+ * ({@code name-i.fifo} for a FIFO queue), to get past the throughput and in-flight limits of a single queue.
+ *
+ * Producers route a message by its key with jump consistent hashing, so a key always lands on the same shard
+ * and growing from N to N+1 shards moves only a 1/(N+1) share of the keys, all of them to the new shard. On a
+ * FIFO queue the key is also the message group id, which keeps each group in order on its shard. Messages
+ * without a key, and all messages with {@link Routing#ROUND_ROBIN}, are spread evenly instead. Consumers run
+ * one {@link QueueConsumer} per shard.
+ *
+ * The shard count is not stored anywhere: every instance counts the shards that exist with ListQueues, when it
+ * is built and again on every refresh. Shards an instance creates itself are routed to at once, as ListQueues
+ * can take a while to list new queues. {@link #addShards(int)} creates further shards with the attributes of
+ * shard 0, and every other instance picks them up on a refresh once they are listed. Until then it keeps
+ * routing by the old count, so a moved key can have messages in both shards for a while, and FIFO order across
+ * that move is not guaranteed. Shards are never removed.
+ *
+ * <pre>
+ * ShardedQueue orders = ShardedQueue.builder().client(sqs).name("orders").shards(4).build();
+ * orders.send(customerId, body);
+ * orders.startConsumers(url -&gt; QueueConsumer.builder().client(sqsAsync).queueUrl(url).handler(handler).build());
+ * </pre>
+ */
+public class ShardedQueue implements AutoCloseable
+{
+    private static final String FIFO_SUFFIX = ".fifo";
+    // Shard attributes that are copied when more shards are created.
+    private static final List<String> COPIED_ATTRIBUTES = Arrays.asList(
+            "VisibilityTimeout", "DelaySeconds", "ReceiveMessageWaitTimeSeconds", "MessageRetentionPeriod",
+            "MaximumMessageSize", "RedrivePolicy", "KmsMasterKeyId", "KmsDataKeyReusePeriodSeconds",
+            "FifoQueue", "ContentBasedDeduplication");
+
+    public enum Routing
+    {
+        // Keys map to fixed shards; needed for FIFO queues and for any per-key locality.
+        CONSISTENT_HASH,
+        // Every message goes to the next shard in turn, which spreads load evenly whatever the keys.
+        ROUND_ROBIN
+    }
+
+    private final SqsClient sqs;
+    private final String baseName;
+    private final boolean fifo;
+    private final Routing routing;
+    private final Function<String, BatchingProducer> producerFactory;
+    private final ScheduledExecutorService refresher;
+    private final AtomicInteger next = new AtomicInteger();
+
+    // Shard URLs by index; replaced as a whole when shards are added.
+    private volatile List<String> shards;
+
+    // Guarded by this
+    private final Map<String, BatchingProducer> producers = new HashMap<String, BatchingProducer>();
+    private final Map<String, QueueConsumer> consumers = new LinkedHashMap<String, QueueConsumer>();
+    private Function<String, QueueConsumer> consumerFactory;
+    private boolean closed;
+
+    private ShardedQueue(Builder builder)
+    {
+        this.sqs = builder.sqs;
+        this.fifo = builder.name.endsWith(FIFO_SUFFIX);
+        this.baseName = fifo ? builder.name.substring(0, builder.name.length() - FIFO_SUFFIX.length()) : builder.name;
+        this.routing = builder.routing;
+        this.producerFactory = builder.producerFactory != null ? builder.producerFactory
+                : url -> BatchingProducer.builder().client(sqs).queueUrl(url).build();
+        List<String> created = builder.shards > 0 ? createShards(0, builder.shards, builder.attributes)
+                : Collections.<String>emptyList();
+        // ListQueues may not show queues created a moment ago, but can show more added by other instances.
+        List<String> found = discover();
+        this.shards = found.size() > created.size() ? found : created;
+        if (shards.isEmpty()) {
+            throw new IllegalStateException("Queue " + builder.name + " has no shards; set shards(n) to create them");
+        }
+        if (!builder.refreshInterval.isZero()) {
+            long millis = builder.refreshInterval.toMillis();
+            this.refresher = Executors.newSingleThreadScheduledExecutor(VirtualThreads.platformFactory("shard-refresh-"));
+            refresher.scheduleWithFixedDelay(this::refreshQuietly, millis, millis, TimeUnit.MILLISECONDS);
+        } else {
+            this.refresher = null;
+        }
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public String shardName(int index)
+    {
+        return baseName + "-" + index + (fifo ? FIFO_SUFFIX : "");
+    }
+
+    public int shardCount()
+    {
+        return shards.size();
+    }
+
+    public List<String> shardUrls()
+    {
+        return shards;
+    }
+
+    // Index of the shard a key is routed to with consistent hashing at the current shard count.
+    public int shardFor(String key)
+    {
+        return jumpHash(hash(key), shards.size());
+    }
+
+    // Sends to the next shard in turn; standard queues only.
+    public CompletableFuture<SendMessageBatchResultEntry> send(String body)
+    {
+        if (fifo) {
+            throw new IllegalArgumentException("Messages to a sharded FIFO queue need a key as message group id");
+        }
+        return producer(roundRobin()).send(body);
+    }
+
+    /**
+     * Sends to the shard of the key. On a FIFO queue the key is the message group id; shards created here
+     * deduplicate by content unless the attributes say otherwise.
+     */
+    public CompletableFuture<SendMessageBatchResultEntry> send(String key, String body)
+    {
+        String url = routing == Routing.CONSISTENT_HASH ? shards.get(shardFor(key)) : roundRobin();
+        return fifo ? producer(url).send(body, key) : producer(url).send(body);
+    }
+
+    private String roundRobin()
+    {
+        List<String> current = shards;
+        return current.get(Math.floorMod(next.getAndIncrement(), current.size()));
+    }
+
+    private synchronized BatchingProducer producer(String url)
+    {
+        if (closed) {
+            throw new IllegalStateException("Queue is closed");
+        }
+        BatchingProducer producer = producers.get(url);
+        if (producer == null) {
+            producer = producerFactory.apply(url);
+            producers.put(url, producer);
+        }
+        return producer;
+    }
+
+    /**
+     * Starts a consumer on every shard, and later on every shard that a refresh finds. The factory is given the
+     * shard URL and returns a consumer for it that is not started yet.
+     */
+    public synchronized void startConsumers(Function<String, QueueConsumer> consumerFactory)
+    {
+        if (this.consumerFactory != null) {
+            throw new IllegalStateException("Consumers already started");
+        }
+        this.consumerFactory = consumerFactory;
+        startMissingConsumers();
+    }
+
+    // Called with the lock held.
+    private void startMissingConsumers()
+    {
+        if (consumerFactory == null || closed) {
+            return;
+        }
+        for (String url : shards) {
+            if (!consumers.containsKey(url)) {
+                QueueConsumer consumer = consumerFactory.apply(url);
+                if (!consumer.queueUrl().equals(url)) {
+                    throw new IllegalStateException("Consumer for " + url + " reads " + consumer.queueUrl());
+                }
+                consumer.start();
+                consumers.put(url, consumer);
+            }
+        }
+    }
+
+    /**
+     * Creates {@code count} more shards with the attributes of shard 0 and starts routing to them.
+     *
+     * @return the new shard count
+     */
+    public synchronized int addShards(int count)
+    {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be positive");
+        }
+        Map<String, String> template = sqs.getQueueAttributes(r -> r.queueUrl(shards.get(0))
+                .attributeNames(QueueAttributeName.ALL)).attributesAsStrings();
+        Map<String, String> attributes = new HashMap<String, String>();
+        for (String name : COPIED_ATTRIBUTES) {
+            if (template.containsKey(name)) {
+                attributes.put(name, template.get(name));
+            }
+        }
+        int from = shards.size();
+        List<String> grown = new ArrayList<String>(shards);
+        grown.addAll(createShards(from, from + count, attributes));
+        shards = Collections.unmodifiableList(grown);
+        startMissingConsumers();
+        return shards.size();
+    }
+
+    /**
+     * Counts the shards again with ListQueues, to find shards added by other instances; new ones receive
+     * messages from now on and get a consumer if consumers run.
+     *
+     * @return the current shard count
+     */
+    public synchronized int refresh()
+    {
+        List<String> found = discover();
+        if (found.size() > shards.size()) {
+            shards = found;
+            startMissingConsumers();
+        }
+        return shards.size();
+    }
+
+    private void refreshQuietly()
+    {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            // Keeps the known shards; the next refresh tries again.
+            ConsumerSupport.logFailure("Refreshing the shards of " + baseName + " failed", e);
+        }
+    }
+
+    private List<String> createShards(int from, int to, Map<String, String> attributes)
+    {
+        Map<String, String> withFifo = new HashMap<String, String>(attributes);
+        if (fifo) {
+            withFifo.put("FifoQueue", "true");
+            withFifo.putIfAbsent("ContentBasedDeduplication", "true");
+        }
+        List<String> urls = new ArrayList<String>(to - from);
+        for (int i = from; i < to; i++) {
+            String name = shardName(i);
+            urls.add(sqs.createQueue(r -> r.queueName(name).attributesWithStrings(withFifo)).queueUrl());
+        }
+        return Collections.unmodifiableList(urls);
+    }
+
+    // Shards are numbered without gaps; a gap ends the list, so a half-finished addShards is not routed to.
+    private List<String> discover()
+    {
+        String prefix = baseName + "-";
+        TreeMap<Integer, String> byIndex = new TreeMap<Integer, String>();
+        for (String url : sqs.listQueues(r -> r.queueNamePrefix(prefix)).queueUrls()) {
+            String name = url.substring(url.lastIndexOf('/') + 1);
+            if (name.endsWith(FIFO_SUFFIX) != fifo) {
+                continue;
+            }
+            String index = name.substring(prefix.length(), name.length() - (fifo ? FIFO_SUFFIX.length() : 0));
+            if (!index.isEmpty() && index.length() < 6 && index.chars().allMatch(Character::isDigit)
+                    && (index.length() == 1 || index.charAt(0) != '0')) {
+                byIndex.put(Integer.valueOf(index), url);
+            }
+        }
+        List<String> found = new ArrayList<String>(byIndex.size());
+        while (byIndex.containsKey(found.size())) {
+            found.add(byIndex.get(found.size()));
+        }
+        return Collections.unmodifiableList(found);
+    }
+
+    // FNV-1a over the characters, then the MurmurHash3 finalizer to spread short keys over all 64 bits.
+    static long hash(String key)
+    {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * Jump consistent hash (Lamping and Veach): the bucket of a key among {@code buckets}, such that going
+     * from n to n+1 buckets moves a key only into bucket n, and does so for a 1/(n+1) share of the keys.
+     */
+    static int jumpHash(long key, int buckets)
+    {
+        long bucket = -1;
+        long jump = 0;
+        while (jump < buckets) {
+            bucket = jump;
+            key = key * 2862933555777941757L + 1;
+            jump = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+
+    /**
+     * Stops the consumers, waiting for each to drain within the timeout, then flushes and closes the producers.
+     *
+     * @return true if every consumer drained
+     */
+    public boolean shutdown(Duration timeout) throws InterruptedException
+    {
+        List<QueueConsumer> running;
+        List<BatchingProducer> open;
+        synchronized (this) {
+            if (closed) {
+                return true;
+            }
+            closed = true;
+            running = new ArrayList<QueueConsumer>(consumers.values());
+            open = new ArrayList<BatchingProducer>(producers.values());
+        }
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+        long deadline = System.nanoTime() + timeout.toNanos();
+        boolean drained = true;
+        for (QueueConsumer consumer : running) {
+            drained &= consumer.shutdown(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+        }
+        for (BatchingProducer producer : open) {
+            producer.close();
+        }
+        return drained;
+    }
+
+    @Override
+    public void close()
+    {
+        try {
+            shutdown(Duration.ofSeconds(SqsLimits.MAX_WAIT_TIME_SECONDS + 10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static final class Builder
+    {
+        private SqsClient sqs;
+        private String name;
+        private int shards;
+        private Map<String, String> attributes = new HashMap<String, String>();
+        private Routing routing = Routing.CONSISTENT_HASH;
+        private Function<String, BatchingProducer> producerFactory;
+        private Duration refreshInterval = Duration.ofMinutes(1);
+
+        private Builder()
+        {
+        }
+
+        public Builder client(SqsClient sqs)
+        {
+            this.sqs = sqs;
+            return this;
+        }
+
+        // Logical name; ends in .fifo for a sharded FIFO queue.
+        public Builder name(String name)
+        {
+            this.name = name;
+            return this;
+        }
+
+        // Creates shards 0 to shards - 1 where missing; without it the existing shards are used.
+        public Builder shards(int shards)
+        {
+            this.shards = shards;
+            return this;
+        }
+
+        // Attributes for shards created by shards(n); added shards copy those of shard 0.
+        public Builder attributes(Map<String, String> attributes)
+        {
+            this.attributes = new HashMap<String, String>(attributes);
+            return this;
+        }
+
+        public Builder routing(Routing routing)
+        {
+            this.routing = routing;
+            return this;
+        }
+
+        // Builds the producer of one shard URL; by default a BatchingProducer with default settings.
+        public Builder producerFactory(Function<String, BatchingProducer> producerFactory)
+        {
+            this.producerFactory = producerFactory;
+            return this;
+        }
+
+        // How often shards added by other instances are looked for; zero leaves it to refresh().
+        public Builder refreshInterval(Duration refreshInterval)
+        {
+            this.refreshInterval = refreshInterval;
+            return this;
+        }
+
+        public ShardedQueue build()
+        {
+            if (sqs == null || name == null) {
+                throw new IllegalStateException("client and name are required");
+            }
+            if (shards < 0 || refreshInterval.isNegative()) {
+                throw new IllegalStateException("shards and refreshInterval must not be negative");
+            }
+            if (routing == Routing.ROUND_ROBIN && name.endsWith(FIFO_SUFFIX)) {
+                throw new IllegalStateException("FIFO queues need CONSISTENT_HASH routing to keep groups in order");
+            }
+            return new ShardedQueue(this);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import io.netty.channel.ChannelOption;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.SqsAsyncClientBuilder;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.SqsClientBuilder;
+import software.amazon.awssdk.services.sqs.model.ListQueuesRequest;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+
+/**
+ * Registry of long-lived SQS clients, one per region and endpoint. Clients are expensive to build (connection
+ * pool, thread pools, credential chain) and safe to share, so callers ask the factory instead of calling
+ * {@code SqsClient.builder().build()} on every use. Synchronous clients run on the Apache HTTP client and
+ * asynchronous clients on the Netty client, both configured from one {@link SqsClientSettings}.
+ */
+public final class SqsClientFactory implements AutoCloseable
+{
+    private static final SqsClientFactory SHARED = new SqsClientFactory(SqsClientSettings.defaults());
+
+    private final SqsClientSettings settings;
+    private final ConcurrentMap<String, SqsClient> syncClients = new ConcurrentHashMap<String, SqsClient>();
+    private final ConcurrentMap<String, SqsAsyncClient> asyncClients = new ConcurrentHashMap<String, SqsAsyncClient>();
+
+    public SqsClientFactory(SqsClientSettings settings)
+    {
+        this.settings = settings;
+    }
+
+    // Process-wide factory with default settings.
+    public static SqsClientFactory shared()
+    {
+        return SHARED;
+    }
+
+    public SqsClientSettings settings()
+    {
+        return settings;
+    }
+
+    // Client for the region and endpoint resolved by the SDK default chains.
+    public SqsClient client()
+    {
+        return client(null, null);
+    }
+
+    public SqsClient client(Region region)
+    {
+        return client(region, null);
+    }
+
+    public SqsClient client(Region region, URI endpoint)
+    {
+        return cached(syncClients, key(region, endpoint), () -> {
+            SqsClient client = buildSync(region, endpoint);
+            prewarm(client);
+            return client;
+        });
+    }
+
+    public SqsAsyncClient asyncClient()
+    {
+        return asyncClient(null, null);
+    }
+
+    public SqsAsyncClient asyncClient(Region region)
+    {
+        return asyncClient(region, null);
+    }
+
+    public SqsAsyncClient asyncClient(Region region, URI endpoint)
+    {
+        return cached(asyncClients, key(region, endpoint), () -> {
+            SqsAsyncClient client = buildAsync(region, endpoint);
+            prewarm(client);
+            return client;
+        });
+    }
+
+    // Builds and prewarms outside the map, since computeIfAbsent would make the network calls under a bin lock.
+    // Two callers racing for a new key both build; the one that loses closes its client.
+    private static <C extends SdkAutoCloseable> C cached(ConcurrentMap<String, C> clients, String key,
+            Supplier<C> factory)
+    {
+        C client = clients.get(key);
+        if (client != null) {
+            return client;
+        }
+        C built = factory.get();
+        C raced = clients.putIfAbsent(key, built);
+        if (raced == null) {
+            return built;
+        }
+        built.close();
+        return raced;
+    }
+
+    private static String key(Region region, URI endpoint)
+    {
+        return (region == null ? "default" : region.id()) + '|' + (endpoint == null ? "" : endpoint.toString());
+    }
+
+    private SqsClient buildSync(Region region, URI endpoint)
+    {
+        SqsClientBuilder builder = SqsClient.builder()
+                .httpClientBuilder(ApacheHttpClient.builder()
+                        .maxConnections(settings.maxConnections())
+                        .connectionTimeout(settings.connectionTimeout())
+                        .socketTimeout(settings.socketTimeout())
+                        .connectionMaxIdleTime(settings.connectionMaxIdleTime())
+                        .connectionTimeToLive(settings.connectionTimeToLive())
+                        .useIdleConnectionReaper(true));
+        if (region != null) {
+            builder.region(region);
+        }
+        if (endpoint != null) {
+            builder.endpointOverride(endpoint);
+        }
+        if (settings.credentialsProvider() != null) {
+            builder.credentialsProvider(settings.credentialsProvider());
+        }
+        ClientOverrideConfiguration override = overrideConfiguration(true);
+        if (override != null) {
+            builder.overrideConfiguration(override);
+        }
+        return builder.build();
+    }
+
+    private SqsAsyncClient buildAsync(Region region, URI endpoint)
+    {
+        SqsAsyncClientBuilder builder = SqsAsyncClient.builder()
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                        .maxConcurrency(settings.maxConnections())
+                        .connectionTimeout(settings.connectionTimeout())
+                        .readTimeout(settings.socketTimeout())
+                        .connectionMaxIdleTime(settings.connectionMaxIdleTime())
+                        .connectionTimeToLive(settings.connectionTimeToLive())
+                        .useIdleConnectionReaper(true)
+                        .putChannelOption(ChannelOption.SO_KEEPALIVE, settings.tcpKeepAlive())
+                        .putChannelOption(ChannelOption.TCP_NODELAY, settings.tcpNoDelay()));
+        if (region != null) {
+            builder.region(region);
+        }
+        if (endpoint != null) {
+            builder.endpointOverride(endpoint);
+        }
+        if (settings.credentialsProvider() != null) {
+            builder.credentialsProvider(settings.credentialsProvider());
+        }
+        ClientOverrideConfiguration override = overrideConfiguration(false);
+        if (override != null) {
+            builder.overrideConfiguration(override);
+        }
+        // Permits are taken before each call here; the interceptor on the SDK threads must not wait for them.
+        return settings.rateGovernor() != null ? settings.rateGovernor().govern(builder.build()) : builder.build();
+    }
+
+    // Interceptors and retry policy for the metrics and rate governor of the settings; null if neither is set.
+    private ClientOverrideConfiguration overrideConfiguration(boolean sync)
+    {
+        if (settings.metrics() == null && settings.rateGovernor() == null) {
+            return null;
+        }
+        ClientOverrideConfiguration.Builder override = ClientOverrideConfiguration.builder();
+        if (settings.metrics() != null) {
+            override.addExecutionInterceptor(settings.metrics().interceptor());
+        }
+        if (settings.rateGovernor() != null) {
+            RateGovernor governor = settings.rateGovernor();
+            override.addExecutionInterceptor(sync ? governor.interceptor() : governor.asyncInterceptor())
+                    .retryPolicy(governor.retryPolicy());
+        }
+        return override.build();
+    }
+
+    // Any cheap call makes the pool open a connection; running them concurrently forces one connection each.
+    private static ListQueuesRequest prewarmRequest()
+    {
+        return ListQueuesRequest.builder().queueNamePrefix("prewarm-").build();
+    }
+
+    private void prewarm(SqsClient client)
+    {
+        int connections = settings.prewarmConnections();
+        if (connections <= 0) {
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(connections);
+        try {
+            List<CompletableFuture<?>> calls = new ArrayList<CompletableFuture<?>>(connections);
+            for (int i = 0; i < connections; i++) {
+                calls.add(CompletableFuture.runAsync(() -> client.listQueues(prewarmRequest()), pool));
+            }
+            awaitQuietly(calls);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void prewarm(SqsAsyncClient client)
+    {
+        int connections = settings.prewarmConnections();
+        List<CompletableFuture<?>> calls = new ArrayList<CompletableFuture<?>>(connections);
+        for (int i = 0; i < connections; i++) {
+            calls.add(client.listQueues(prewarmRequest()));
+        }
+        awaitQuietly(calls);
+    }
+
+    // A failed warm-up call is not fatal; the client simply opens that connection on first real use.
+    private static void awaitQuietly(List<CompletableFuture<?>> calls)
+    {
+        try {
+            CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).join();
+        } catch (RuntimeException e) {
+            // ignored
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        for (SqsClient client : syncClients.values()) {
+            client.close();
+        }
+        syncClients.clear();
+        for (SqsAsyncClient client : asyncClients.values()) {
+            client.close();
+        }
+        asyncClients.clear();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+
+/**
+ * HTTP transport settings applied to every client built by a {@link SqsClientFactory}.
+ */
+public final class SqsClientSettings
+{
+    private final int maxConnections;
+    private final Duration connectionTimeout;
+    private final Duration socketTimeout;
+    private final Duration connectionMaxIdleTime;
+    private final Duration connectionTimeToLive;
+    private final boolean tcpKeepAlive;
+    private final boolean tcpNoDelay;
+    private final int prewarmConnections;
+    private final AwsCredentialsProvider credentialsProvider;
+    private final SqsMetrics metrics;
+    private final RateGovernor rateGovernor;
+
+    private SqsClientSettings(Builder builder)
+    {
+        this.maxConnections = builder.maxConnections;
+        this.connectionTimeout = builder.connectionTimeout;
+        this.socketTimeout = builder.socketTimeout;
+        this.connectionMaxIdleTime = builder.connectionMaxIdleTime;
+        this.connectionTimeToLive = builder.connectionTimeToLive;
+        this.tcpKeepAlive = builder.tcpKeepAlive;
+        this.tcpNoDelay = builder.tcpNoDelay;
+        this.prewarmConnections = builder.prewarmConnections;
+        this.credentialsProvider = builder.credentialsProvider;
+        this.metrics = builder.metrics;
+        this.rateGovernor = builder.rateGovernor;
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public static SqsClientSettings defaults()
+    {
+        return builder().build();
+    }
+
+    public int maxConnections()
+    {
+        return maxConnections;
+    }
+
+    public Duration connectionTimeout()
+    {
+        return connectionTimeout;
+    }
+
+    public Duration socketTimeout()
+    {
+        return socketTimeout;
+    }
+
+    public Duration connectionMaxIdleTime()
+    {
+        return connectionMaxIdleTime;
+    }
+
+    public Duration connectionTimeToLive()
+    {
+        return connectionTimeToLive;
+    }
+
+    public boolean tcpKeepAlive()
+    {
+        return tcpKeepAlive;
+    }
+
+    public boolean tcpNoDelay()
+    {
+        return tcpNoDelay;
+    }
+
+    public int prewarmConnections()
+    {
+        return prewarmConnections;
+    }
+
+    public AwsCredentialsProvider credentialsProvider()
+    {
+        return credentialsProvider;
+    }
+
+    public SqsMetrics metrics()
+    {
+        return metrics;
+    }
+
+    public RateGovernor rateGovernor()
+    {
+        return rateGovernor;
+    }
+
+    public static final class Builder
+    {
+        private int maxConnections = 200;
+        private Duration connectionTimeout = Duration.ofSeconds(2);
+        // Must stay above the 20 second long-poll wait or every empty receive times out.
+        private Duration socketTimeout = Duration.ofSeconds(30);
+        private Duration connectionMaxIdleTime = Duration.ofSeconds(60);
+        private Duration connectionTimeToLive = Duration.ofMinutes(5);
+        private boolean tcpKeepAlive = true;
+        private boolean tcpNoDelay = true;
+        private int prewarmConnections = 0;
+        private AwsCredentialsProvider credentialsProvider;
+        private SqsMetrics metrics;
+        private RateGovernor rateGovernor;
+
+        private Builder()
+        {
+        }
+
+        // Size of the connection pool (Apache) or maximum concurrent requests (Netty).
+        public Builder maxConnections(int maxConnections)
+        {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder connectionTimeout(Duration connectionTimeout)
+        {
+            this.connectionTimeout = connectionTimeout;
+            return this;
+        }
+
+        public Builder socketTimeout(Duration socketTimeout)
+        {
+            this.socketTimeout = socketTimeout;
+            return this;
+        }
+
+        // How long an idle pooled connection is kept open for reuse.
+        public Builder connectionMaxIdleTime(Duration connectionMaxIdleTime)
+        {
+            this.connectionMaxIdleTime = connectionMaxIdleTime;
+            return this;
+        }
+
+        // Upper bound on the age of a pooled connection, so DNS changes are eventually picked up.
+        public Builder connectionTimeToLive(Duration connectionTimeToLive)
+        {
+            this.connectionTimeToLive = connectionTimeToLive;
+            return this;
+        }
+
+        // SO_KEEPALIVE. The SDK's Apache client always enables it; this applies to Netty.
+        public Builder tcpKeepAlive(boolean tcpKeepAlive)
+        {
+            this.tcpKeepAlive = tcpKeepAlive;
+            return this;
+        }
+
+        // TCP_NODELAY. The SDK's Apache client always enables it; this applies to Netty.
+        public Builder tcpNoDelay(boolean tcpNoDelay)
+        {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        // Number of connections opened as soon as a client is created; 0 opens them lazily.
+        public Builder prewarmConnections(int prewarmConnections)
+        {
+            this.prewarmConnections = prewarmConnections;
+            return this;
+        }
+
+        // Credentials for every client; null uses the SDK default provider chain.
+        public Builder credentialsProvider(AwsCredentialsProvider credentialsProvider)
+        {
+            this.credentialsProvider = credentialsProvider;
+            return this;
+        }
+
+        // Registers the metrics interceptor on every client; null records nothing.
+        public Builder metrics(SqsMetrics metrics)
+        {
+            this.metrics = metrics;
+            return this;
+        }
+
+        // Rate-limits every client's calls and backs off on throttling, e.g. RateGovernor.shared(); null for none.
+        // Synchronous clients wait for permits on the calling thread, asynchronous ones on the governor's timer.
+        public Builder rateGovernor(RateGovernor rateGovernor)
+        {
+            this.rateGovernor = rateGovernor;
+            return this;
+        }
+
+        public SqsClientSettings build()
+        {
+            return new SqsClientSettings(this);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.util.Map;
+
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+
+/**
+ * Service-side limits of SQS and helpers for sizing request payloads against them.
+ */
+public final class SqsLimits
+{
+    // Maximum number of entries in any *Batch request and of messages per receive.
+    public static final int MAX_BATCH_ENTRIES = 10;
+
+    // Maximum size of a single message, and of the sum of all messages in one batch.
+    public static final int MAX_PAYLOAD_BYTES = 256 * 1024;
+
+    // Maximum long-poll wait of a ReceiveMessage call.
+    public static final int MAX_WAIT_TIME_SECONDS = 20;
+
+    // Maximum visibility timeout of a message (12 hours).
+    public static final int MAX_VISIBILITY_TIMEOUT_SECONDS = 12 * 60 * 60;
+
+    // Maximum number of message attributes on one message.
+    public static final int MAX_MESSAGE_ATTRIBUTES = 10;
+
+    private SqsLimits()
+    {
+    }
+
+    // Number of bytes the string occupies in UTF-8, computed without encoding it.
+    public static int utf8Length(CharSequence s)
+    {
+        if (s == null) {
+            return 0;
+        }
+        int length = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    // Size SQS counts against the payload limit: body plus message attribute names, types and values.
+    public static int payloadSize(String body, Map<String, MessageAttributeValue> attributes)
+    {
+        int size = utf8Length(body);
+        if (attributes != null) {
+            for (Map.Entry<String, MessageAttributeValue> attribute : attributes.entrySet()) {
+                MessageAttributeValue value = attribute.getValue();
+                size += utf8Length(attribute.getKey()) + utf8Length(value.dataType());
+                if (value.stringValue() != null) {
+                    size += utf8Length(value.stringValue());
+                } else if (value.binaryValue() != null) {
+                    size += value.binaryValue().asByteBuffer().remaining();
+                }
+            }
+        }
+        return size;
+    }
+
+    public static int payloadSize(SendMessageBatchRequestEntry entry)
+    {
+        return payloadSize(entry.messageBody(), entry.messageAttributes());
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.handlers.RequestHandler2;
+
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+
+/**
+ * Per-operation client metrics for SQS calls, fed by {@link SqsMetricsInterceptor} for SDK v2 clients and
+ * {@link SqsMetricsRequestHandler} for v1 clients, and rendered on demand in the Prometheus text format.
+ *
+ * Recording only touches counters created on the first call of an operation: latencies go into fixed
+ * histogram buckets, and batch fill and empty receives are kept as counter pairs so any ratio can be derived
+ * over any window. Nothing is aggregated in the background; a scrape reads the counters as they are.
+ */
+public final class SqsMetrics
+{
+    // Upper bounds of the latency buckets, in microseconds.
+    private static final long[] BUCKET_BOUNDS_MICROS = {
+        1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+        1_000_000, 2_500_000, 5_000_000, 10_000_000, 20_000_000, 30_000_000,
+    };
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Operation>> sdks =
+            new ConcurrentHashMap<String, ConcurrentMap<String, Operation>>();
+
+    /**
+     * Interceptor to register on SDK v2 clients, e.g. through {@link SqsClientSettings.Builder#metrics}.
+     */
+    public ExecutionInterceptor interceptor()
+    {
+        return new SqsMetricsInterceptor(operations("v2"));
+    }
+
+    /**
+     * Handler to register on v1 clients with {@code withRequestHandlers}.
+     */
+    public RequestHandler2 requestHandler()
+    {
+        return new SqsMetricsRequestHandler(operations("v1"));
+    }
+
+    private ConcurrentMap<String, Operation> operations(String sdk)
+    {
+        return sdks.computeIfAbsent(sdk, k -> new ConcurrentHashMap<String, Operation>());
+    }
+
+    // Metrics of one operation, or null if no client has made that call yet.
+    public Operation operation(String sdk, String operationName)
+    {
+        Map<String, Operation> operations = sdks.get(sdk);
+        return operations == null ? null : operations.get(operationName);
+    }
+
+    static Operation operation(ConcurrentMap<String, Operation> operations, String operationName)
+    {
+        Operation operation = operations.get(operationName);
+        return operation != null ? operation : operations.computeIfAbsent(operationName, k -> new Operation());
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format, version 0.0.4.
+     */
+    public String scrape()
+    {
+        StringBuilder out = new StringBuilder(4096);
+        Map<String, Map<String, Operation>> sorted = new TreeMap<String, Map<String, Operation>>();
+        for (Map.Entry<String, ConcurrentMap<String, Operation>> sdk : sdks.entrySet()) {
+            sorted.put(sdk.getKey(), new TreeMap<String, Operation>(sdk.getValue()));
+        }
+
+        header(out, "sqs_client_request_duration_seconds", "histogram",
+                "Latency of SQS calls, from the first attempt to the final response or error.");
+        for (Map.Entry<String, Map<String, Operation>> sdk : sorted.entrySet()) {
+            for (Map.Entry<String, Operation> operation : sdk.getValue().entrySet()) {
+                operation.getValue().writeHistogram(out, labels(sdk.getKey(), operation.getKey()));
+            }
+        }
+        counter(out, sorted, "sqs_client_requests_total", "Completed SQS calls.", Operation::requests);
+        counter(out, sorted, "sqs_client_errors_total", "SQS calls that failed after all retries.", Operation::errors);
+        counter(out, sorted, "sqs_client_retries_total", "Attempts beyond the first one.", Operation::retries);
+        counter(out, sorted, "sqs_client_throttles_total", "Attempts rejected for throttling.", Operation::throttles);
+        counter(out, sorted, "sqs_client_request_bytes_total", "Request body bytes sent, retries included.",
+                Operation::requestBytes);
+        counter(out, sorted, "sqs_client_response_bytes_total", "Response body bytes received.", Operation::responseBytes);
+        counter(out, sorted, "sqs_client_batch_entries_total",
+                "Entries sent in batch calls, or messages returned by receives.", Operation::batchEntries);
+        counter(out, sorted, "sqs_client_batch_capacity_total",
+                "Entries the same calls could have carried: 10 per batch call, MaxNumberOfMessages per receive.",
+                Operation::batchCapacity);
+        counter(out, sorted, "sqs_client_empty_receives_total", "Receives that returned no message.",
+                Operation::emptyReceives);
+
+        header(out, "sqs_client_batch_fill_ratio", "gauge", "batch_entries_total / batch_capacity_total since start.");
+        for (Map.Entry<String, Map<String, Operation>> sdk : sorted.entrySet()) {
+            for (Map.Entry<String, Operation> operation : sdk.getValue().entrySet()) {
+                long capacity = operation.getValue().batchCapacity();
+                if (capacity > 0) {
+                    sample(out, "sqs_client_batch_fill_ratio", labels(sdk.getKey(), operation.getKey()),
+                            (double) operation.getValue().batchEntries() / capacity);
+                }
+            }
+        }
+        header(out, "sqs_client_empty_receive_ratio", "gauge", "empty_receives_total / requests_total since start.");
+        for (Map.Entry<String, Map<String, Operation>> sdk : sorted.entrySet()) {
+            Operation receive = sdk.getValue().get("ReceiveMessage");
+            if (receive != null && receive.requests() > 0) {
+                sample(out, "sqs_client_empty_receive_ratio", labels(sdk.getKey(), "ReceiveMessage"),
+                        (double) receive.emptyReceives() / receive.requests());
+            }
+        }
+        return out.toString();
+    }
+
+    private interface Reading
+    {
+        long read(Operation operation);
+    }
+
+    private static void counter(StringBuilder out, Map<String, Map<String, Operation>> sorted, String name, String help,
+                                Reading reading)
+    {
+        header(out, name, "counter", help);
+        for (Map.Entry<String, Map<String, Operation>> sdk : sorted.entrySet()) {
+            for (Map.Entry<String, Operation> operation : sdk.getValue().entrySet()) {
+                out.append(name).append(labels(sdk.getKey(), operation.getKey())).append(' ')
+                   .append(reading.read(operation.getValue())).append('\n');
+            }
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help)
+    {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value)
+    {
+        out.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+
+    // Operation names come from the SDK model, so they never need escaping.
+    private static String labels(String sdk, String operation)
+    {
+        return "{sdk=\"" + sdk + "\",operation=\"" + operation + "\"}";
+    }
+
+    /**
+     * Counters of one operation of one SDK. All methods are thread-safe.
+     */
+    public static final class Operation
+    {
+        private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_MICROS.length + 1];
+        private final LongAdder latencyMicros = new LongAdder();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder throttles = new LongAdder();
+        private final LongAdder requestBytes = new LongAdder();
+        private final LongAdder responseBytes = new LongAdder();
+        private final LongAdder batchEntries = new LongAdder();
+        private final LongAdder batchCapacity = new LongAdder();
+        private final LongAdder emptyReceives = new LongAdder();
+
+        Operation()
+        {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void recordCall(long latencyNanos, boolean failed)
+        {
+            long micros = TimeUnit.NANOSECONDS.toMicros(latencyNanos);
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            latencyMicros.add(micros);
+            requests.increment();
+            if (failed) {
+                errors.increment();
+            }
+        }
+
+        void recordRetry()
+        {
+            retries.increment();
+        }
+
+        void recordThrottle()
+        {
+            throttles.increment();
+        }
+
+        void recordBytes(long sent, long received)
+        {
+            if (sent > 0) {
+                requestBytes.add(sent);
+            }
+            if (received > 0) {
+                responseBytes.add(received);
+            }
+        }
+
+        void recordBatch(int entries, int capacity)
+        {
+            batchEntries.add(entries);
+            batchCapacity.add(capacity);
+        }
+
+        void recordEmptyReceive()
+        {
+            emptyReceives.increment();
+        }
+
+        public long requests()
+        {
+            return requests.sum();
+        }
+
+        public long errors()
+        {
+            return errors.sum();
+        }
+
+        public long retries()
+        {
+            return retries.sum();
+        }
+
+        public long throttles()
+        {
+            return throttles.sum();
+        }
+
+        public long requestBytes()
+        {
+            return requestBytes.sum();
+        }
+
+        public long responseBytes()
+        {
+            return responseBytes.sum();
+        }
+
+        public long batchEntries()
+        {
+            return batchEntries.sum();
+        }
+
+        public long batchCapacity()
+        {
+            return batchCapacity.sum();
+        }
+
+        public long emptyReceives()
+        {
+            return emptyReceives.sum();
+        }
+
+        private void writeHistogram(StringBuilder out, String labels)
+        {
+            String prefix = labels.substring(0, labels.length() - 1) + ",le=\"";
+            long cumulative = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+                cumulative += buckets[i].sum();
+                out.append("sqs_client_request_duration_seconds_bucket").append(prefix)
+                   .append(BUCKET_BOUNDS_MICROS[i] / 1e6).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += buckets[BUCKET_BOUNDS_MICROS.length].sum();
+            out.append("sqs_client_request_duration_seconds_bucket").append(prefix).append("+Inf\"} ")
+               .append(cumulative).append('\n');
+            out.append("sqs_client_request_duration_seconds_sum").append(labels).append(' ')
+               .append(latencyMicros.sum() / 1e6).append('\n');
+            out.append("sqs_client_request_duration_seconds_count").append(labels).append(' ')
+               .append(cumulative).append('\n');
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.SdkResponse;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.SdkHttpHeaders;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+
+/**
+ * Feeds {@link SqsMetrics} from the SDK v2 interceptor chain. The transmission hooks run once per attempt, so
+ * every attempt after the first counts as a retry, and attempts answered with 429 or 503 as throttled.
+ */
+final class SqsMetricsInterceptor implements ExecutionInterceptor
+{
+    private static final ExecutionAttribute<Long> START = new ExecutionAttribute<Long>("SqsMetrics.start");
+    private static final ExecutionAttribute<Integer> ATTEMPTS = new ExecutionAttribute<Integer>("SqsMetrics.attempts");
+    private static final ExecutionAttribute<Boolean> THROTTLED = new ExecutionAttribute<Boolean>("SqsMetrics.throttled");
+
+    private final ConcurrentMap<String, SqsMetrics.Operation> operations;
+
+    SqsMetricsInterceptor(ConcurrentMap<String, SqsMetrics.Operation> operations)
+    {
+        this.operations = operations;
+    }
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes attributes)
+    {
+        attributes.putAttribute(START, System.nanoTime());
+        attributes.putAttribute(ATTEMPTS, 0);
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes attributes)
+    {
+        SqsMetrics.Operation operation = operation(attributes);
+        int attempts = attributes.getAttribute(ATTEMPTS) + 1;
+        attributes.putAttribute(ATTEMPTS, attempts);
+        attributes.putAttribute(THROTTLED, Boolean.FALSE);
+        if (attempts > 1) {
+            operation.recordRetry();
+        }
+        operation.recordBytes(requestBytes(context), 0);
+    }
+
+    @Override
+    public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes attributes)
+    {
+        SqsMetrics.Operation operation = operation(attributes);
+        SdkHttpResponse response = context.httpResponse();
+        if (response.statusCode() == 429 || response.statusCode() == 503) {
+            attributes.putAttribute(THROTTLED, Boolean.TRUE);
+            operation.recordThrottle();
+        }
+        operation.recordBytes(0, contentLength(response));
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes attributes)
+    {
+        SqsMetrics.Operation operation = operation(attributes);
+        operation.recordCall(System.nanoTime() - attributes.getAttribute(START), false);
+        recordBatch(operation, context.request(), context.response());
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes attributes)
+    {
+        SqsMetrics.Operation operation = operation(attributes);
+        Long start = attributes.getAttribute(START);
+        operation.recordCall(start == null ? 0 : System.nanoTime() - start, true);
+        // Throttling errors SQS reports with a 400 are only recognisable from the error code.
+        Throwable exception = context.exception();
+        if (exception instanceof AwsServiceException && ((AwsServiceException) exception).isThrottlingException()
+                && !Boolean.TRUE.equals(attributes.getAttribute(THROTTLED))) {
+            operation.recordThrottle();
+        }
+    }
+
+    private SqsMetrics.Operation operation(ExecutionAttributes attributes)
+    {
+        String name = attributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+        return SqsMetrics.operation(operations, name != null ? name : "Unknown");
+    }
+
+    private static void recordBatch(SqsMetrics.Operation operation, SdkRequest request, SdkResponse response)
+    {
+        if (request instanceof ReceiveMessageRequest) {
+            Integer max = ((ReceiveMessageRequest) request).maxNumberOfMessages();
+            int received = ((ReceiveMessageResponse) response).messages().size();
+            operation.recordBatch(received, max == null ? 1 : max);
+            if (received == 0) {
+                operation.recordEmptyReceive();
+            }
+        } else if (request instanceof SendMessageBatchRequest) {
+            operation.recordBatch(((SendMessageBatchRequest) request).entries().size(), SqsLimits.MAX_BATCH_ENTRIES);
+        } else if (request instanceof DeleteMessageBatchRequest) {
+            operation.recordBatch(((DeleteMessageBatchRequest) request).entries().size(), SqsLimits.MAX_BATCH_ENTRIES);
+        } else if (request instanceof ChangeMessageVisibilityBatchRequest) {
+            operation.recordBatch(((ChangeMessageVisibilityBatchRequest) request).entries().size(),
+                    SqsLimits.MAX_BATCH_ENTRIES);
+        }
+    }
+
+    // The query protocol form-encodes the parameters into the body after the interceptors have run, but the
+    // marshalled request already carries its Content-Length.
+    private static long requestBytes(Context.BeforeTransmission context)
+    {
+        long length = contentLength(context.httpRequest());
+        if (length > 0) {
+            return length;
+        }
+        Optional<RequestBody> body = context.requestBody();
+        if (body.isPresent()) {
+            return body.get().contentLength();
+        }
+        Optional<AsyncRequestBody> asyncBody = context.asyncRequestBody();
+        if (asyncBody.isPresent() && asyncBody.get().contentLength().isPresent()) {
+            return asyncBody.get().contentLength().get();
+        }
+        return 0;
+    }
+
+    private static long contentLength(SdkHttpHeaders message)
+    {
+        Optional<String> length = message.firstMatchingHeader("Content-Length");
+        if (!length.isPresent()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(length.get().trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+
+/**
+ * Feeds {@link SqsMetrics} from the request handler chain of v1 clients. The query protocol sends the
+ * parameters form-encoded only once the HTTP client builds the request, so request bytes are the unencoded
+ * size of the parameters, which undercounts characters that need percent-encoding.
+ */
+final class SqsMetricsRequestHandler extends RequestHandler2
+{
+    private static final HandlerContextKey<Long> START = new HandlerContextKey<Long>("SqsMetrics.start");
+    private static final HandlerContextKey<Integer> ATTEMPTS = new HandlerContextKey<Integer>("SqsMetrics.attempts");
+
+    private final ConcurrentMap<String, SqsMetrics.Operation> operations;
+
+    SqsMetricsRequestHandler(ConcurrentMap<String, SqsMetrics.Operation> operations)
+    {
+        this.operations = operations;
+    }
+
+    @Override
+    public void beforeRequest(Request<?> request)
+    {
+        request.addHandlerContext(START, System.nanoTime());
+        request.addHandlerContext(ATTEMPTS, 0);
+    }
+
+    @Override
+    public void beforeAttempt(HandlerBeforeAttemptContext context)
+    {
+        Request<?> request = context.getRequest();
+        SqsMetrics.Operation operation = operation(request);
+        Integer previous = request.getHandlerContext(ATTEMPTS);
+        int attempts = previous == null ? 1 : previous + 1;
+        request.addHandlerContext(ATTEMPTS, attempts);
+        if (attempts > 1) {
+            operation.recordRetry();
+        }
+        operation.recordBytes(parameterBytes(request), 0);
+    }
+
+    @Override
+    public void afterAttempt(HandlerAfterAttemptContext context)
+    {
+        SqsMetrics.Operation operation = operation(context.getRequest());
+        Exception exception = context.getException();
+        if (exception instanceof AmazonServiceException && RetryUtils.isThrottlingException((AmazonServiceException) exception)) {
+            operation.recordThrottle();
+        }
+        Response<?> response = context.getResponse();
+        if (response != null && response.getHttpResponse() != null) {
+            operation.recordBytes(0, contentLength(response.getHttpResponse().getHeaders()));
+        }
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response)
+    {
+        SqsMetrics.Operation operation = operation(request);
+        operation.recordCall(elapsed(request), false);
+        recordBatch(operation, request.getOriginalRequest(), response.getAwsResponse());
+    }
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception e)
+    {
+        operation(request).recordCall(elapsed(request), true);
+    }
+
+    private SqsMetrics.Operation operation(Request<?> request)
+    {
+        String name = request.getHandlerContext(HandlerContextKey.OPERATION_NAME);
+        return SqsMetrics.operation(operations, name != null ? name : "Unknown");
+    }
+
+    private static long elapsed(Request<?> request)
+    {
+        Long start = request.getHandlerContext(START);
+        return start == null ? 0 : System.nanoTime() - start;
+    }
+
+    private static void recordBatch(SqsMetrics.Operation operation, AmazonWebServiceRequest request, Object response)
+    {
+        if (request instanceof ReceiveMessageRequest && response instanceof ReceiveMessageResult) {
+            Integer max = ((ReceiveMessageRequest) request).getMaxNumberOfMessages();
+            int received = ((ReceiveMessageResult) response).getMessages().size();
+            operation.recordBatch(received, max == null ? 1 : max);
+            if (received == 0) {
+                operation.recordEmptyReceive();
+            }
+        } else if (request instanceof SendMessageBatchRequest) {
+            operation.recordBatch(((SendMessageBatchRequest) request).getEntries().size(), SqsLimits.MAX_BATCH_ENTRIES);
+        } else if (request instanceof DeleteMessageBatchRequest) {
+            operation.recordBatch(((DeleteMessageBatchRequest) request).getEntries().size(), SqsLimits.MAX_BATCH_ENTRIES);
+        } else if (request instanceof ChangeMessageVisibilityBatchRequest) {
+            operation.recordBatch(((ChangeMessageVisibilityBatchRequest) request).getEntries().size(),
+                    SqsLimits.MAX_BATCH_ENTRIES);
+        }
+    }
+
+    // name=value pairs joined by '&'.
+    private static long parameterBytes(Request<?> request)
+    {
+        long bytes = 0;
+        for (Map.Entry<String, List<String>> parameter : request.getParameters().entrySet()) {
+            for (String value : parameter.getValue()) {
+                bytes += SqsLimits.utf8Length(parameter.getKey()) + SqsLimits.utf8Length(value) + 2;
+            }
+        }
+        return bytes > 0 ? bytes - 1 : 0;
+    }
+
+    private static long contentLength(Map<String, String> headers)
+    {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if ("Content-Length".equalsIgnoreCase(header.getKey())) {
+                try {
+                    return Long.parseLong(header.getValue().trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks that share a key one at a time and in submission order, and tasks with different keys in parallel
+ * on a shared executor. Every key is its own stripe: a queue of pending tasks that at most one pool thread works
+ * on at a time and that disappears once it runs empty. Unlike a fixed set of single-threaded lanes, unrelated
+ * keys never share a lane, so a slow or blocked key holds one thread and delays nothing but its own later tasks.
+ *
+ * A stripe runs one task per turn and then goes to the back of the executor's queue, so a key with a long
+ * backlog gets no more than its share of the threads while other keys are waiting.
+ */
+public final class StripedExecutor
+{
+    private final Executor executor;
+    private final ConcurrentMap<Object, Stripe> stripes = new ConcurrentHashMap<Object, Stripe>();
+
+    public StripedExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Runs the task after every task submitted earlier with an equal key.
+     *
+     * @throws RejectedExecutionException if the executor refuses to start the key's stripe; tasks queued behind
+     *         the rejected one in the meantime then run on the calling thread
+     */
+    public void execute(Object key, Runnable task)
+    {
+        while (true) {
+            Stripe stripe = stripes.get(key);
+            if (stripe == null) {
+                Stripe created = new Stripe(key);
+                stripe = stripes.putIfAbsent(key, created);
+                if (stripe == null) {
+                    stripe = created;
+                }
+            }
+            boolean start;
+            synchronized (stripe) {
+                if (stripe.finished) {
+                    // Emptied and removed after we looked it up; the next lookup creates a fresh one.
+                    continue;
+                }
+                stripe.tasks.add(task);
+                start = !stripe.scheduled;
+                stripe.scheduled = true;
+            }
+            if (start) {
+                try {
+                    executor.execute(stripe);
+                } catch (RejectedExecutionException e) {
+                    stripe.rejected(task);
+                    throw e;
+                }
+            }
+            return;
+        }
+    }
+
+    // Number of keys with tasks queued or running.
+    public int activeKeys()
+    {
+        return stripes.size();
+    }
+
+    private final class Stripe implements Runnable
+    {
+        final Object key;
+        // Guarded by this
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+        boolean scheduled;
+        boolean finished;
+
+        Stripe(Object key)
+        {
+            this.key = key;
+        }
+
+        @Override
+        public void run()
+        {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        finish();
+                        return;
+                    }
+                }
+                runSafely(task);
+                synchronized (this) {
+                    if (tasks.isEmpty()) {
+                        finish();
+                        return;
+                    }
+                }
+                try {
+                    executor.execute(this);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // The executor is shutting down; finish the backlog on this thread rather than drop it.
+                }
+            }
+        }
+
+        // Called with the lock held.
+        private void finish()
+        {
+            scheduled = false;
+            finished = true;
+            stripes.remove(key, this);
+        }
+
+        void rejected(Runnable task)
+        {
+            synchronized (this) {
+                tasks.removeLastOccurrence(task);
+                if (tasks.isEmpty()) {
+                    finish();
+                    return;
+                }
+            }
+            run();
+        }
+
+        private void runSafely(Runnable task)
+        {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel: deadlines are rounded up to a fixed tick and kept in a ring of buckets, so scheduling
+ * and cancelling are constant time no matter how many timeouts are pending, and a single thread advancing
+ * the wheel replaces one timer per entry. Deadlines further out than one revolution share a bucket with
+ * nearer ones and are skipped until their tick comes round.
+ *
+ * Not thread-safe; callers serialize access.
+ */
+public final class TimingWheel<T>
+{
+    private final long tickMillis;
+    private final int mask;
+    private final Timeout<T>[] buckets;
+    private long currentTick;
+    private int size;
+
+    public TimingWheel(Duration tick, int wheelSize, long startMillis)
+    {
+        if (tick.toMillis() <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("tick and wheelSize must be positive");
+        }
+        int buckets = Integer.highestOneBit(wheelSize);
+        if (buckets < wheelSize) {
+            buckets <<= 1;
+        }
+        this.tickMillis = tick.toMillis();
+        this.mask = buckets - 1;
+        this.buckets = newBuckets(buckets);
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Timeout<T>[] newBuckets(int size)
+    {
+        return (Timeout<T>[]) new Timeout<?>[size];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Schedules the value to expire at the given time. Deadlines at or before the current tick expire on
+     * the next call to {@link #advance}.
+     */
+    public Timeout<T> schedule(T value, long deadlineMillis)
+    {
+        long tick = Math.max((deadlineMillis + tickMillis - 1) / tickMillis, currentTick + 1);
+        Timeout<T> timeout = new Timeout<T>(this, value, tick);
+        int index = (int) (tick & mask);
+        timeout.next = buckets[index];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        buckets[index] = timeout;
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Moves the wheel to the given time and passes every value whose deadline has been reached to the callback.
+     */
+    public void advance(long nowMillis, Consumer<T> expired)
+    {
+        long target = nowMillis / tickMillis;
+        long steps = Math.min(target - currentTick, buckets.length);
+        for (long step = 1; step <= steps; step++) {
+            Timeout<T> timeout = buckets[(int) ((currentTick + step) & mask)];
+            while (timeout != null) {
+                Timeout<T> next = timeout.next;
+                if (timeout.tick <= target) {
+                    remove(timeout);
+                    expired.accept(timeout.value);
+                }
+                timeout = next;
+            }
+        }
+        if (target > currentTick) {
+            currentTick = target;
+        }
+    }
+
+    private void remove(Timeout<T> timeout)
+    {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[(int) (timeout.tick & mask)] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.wheel = null;
+        size--;
+    }
+
+    public static final class Timeout<T>
+    {
+        private TimingWheel<T> wheel;
+        private final T value;
+        private final long tick;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+
+        private Timeout(TimingWheel<T> wheel, T value, long tick)
+        {
+            this.wheel = wheel;
+            this.value = value;
+            this.tick = tick;
+        }
+
+        public T value()
+        {
+            return value;
+        }
+
+        /**
+         * Removes the timeout from the wheel.
+         *
+         * @return false if it had already expired or been cancelled
+         */
+        public boolean cancel()
+        {
+            if (wheel == null) {
+                return false;
+            }
+            wheel.remove(this);
+            return true;
+        }
+    }
+}
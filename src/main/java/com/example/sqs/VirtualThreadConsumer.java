@@ -0,0 +1,326 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+
+/**
+ * Thread-per-poll consumer built on the blocking {@link SqsClient}. Every long poll runs on its own thread and
+ * every received message is handled on a thread of its own, which is only affordable with virtual threads:
+ * a blocked virtual thread costs a few hundred bytes of heap instead of an OS thread and its stack. That makes
+ * it practical to hold thousands of concurrent polls across many queues. On a JVM without virtual threads the
+ * same code runs on platform threads; see {@link VirtualThreads}.
+ */
+public class VirtualThreadConsumer implements AutoCloseable
+{
+    private final SqsClient sqs;
+    private final List<String> queueUrls;
+    private final int pollersPerQueue;
+    private final MessageHandler handler;
+    private final BiConsumer<Message, Throwable> errorHandler;
+    private final BatchingAcknowledger acknowledger;
+    private final int waitTimeSeconds;
+    private final long errorBackoffMillis;
+    private final int maxInFlightMessages;
+    private final Semaphore inFlight;
+    private final ThreadFactory pollerFactory;
+    private final ExecutorService handlers;
+    private final boolean virtual;
+    private final List<Thread> pollers = new ArrayList<Thread>();
+    private volatile boolean running;
+
+    private VirtualThreadConsumer(Builder builder)
+    {
+        this.sqs = builder.sqs;
+        this.queueUrls = new ArrayList<String>(builder.queueUrls);
+        this.pollersPerQueue = builder.pollersPerQueue;
+        this.handler = builder.handler;
+        this.errorHandler = builder.errorHandler;
+        this.acknowledger = builder.acknowledger;
+        this.waitTimeSeconds = builder.waitTimeSeconds;
+        this.errorBackoffMillis = builder.errorBackoff.toMillis();
+        this.maxInFlightMessages = builder.maxInFlightMessages;
+        this.inFlight = new Semaphore(builder.maxInFlightMessages);
+        this.virtual = builder.virtualThreads && VirtualThreads.available();
+        if (virtual) {
+            this.pollerFactory = VirtualThreads.factory("vt-poller-");
+            this.handlers = VirtualThreads.newThreadPerTaskExecutor("vt-handler-");
+        } else {
+            this.pollerFactory = VirtualThreads.platformFactory("poller-");
+            this.handlers = Executors.newCachedThreadPool(VirtualThreads.platformFactory("handler-"));
+        }
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public boolean usingVirtualThreads()
+    {
+        return virtual;
+    }
+
+    public int inFlightMessages()
+    {
+        return maxInFlightMessages - inFlight.availablePermits();
+    }
+
+    public synchronized void start()
+    {
+        if (running || !pollers.isEmpty()) {
+            throw new IllegalStateException("Consumer already started");
+        }
+        running = true;
+        for (String queueUrl : queueUrls) {
+            for (int i = 0; i < pollersPerQueue; i++) {
+                Thread poller = pollerFactory.newThread(() -> poll(queueUrl));
+                pollers.add(poller);
+                poller.start();
+            }
+        }
+    }
+
+    private void poll(String queueUrl)
+    {
+        while (running) {
+            int permits;
+            try {
+                permits = acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (permits == 0) {
+                return;
+            }
+
+            List<Message> messages;
+            try {
+                messages = sqs.receiveMessage(ReceiveMessageRequest.builder()
+                        .queueUrl(queueUrl)
+                        .maxNumberOfMessages(permits)
+                        .waitTimeSeconds(waitTimeSeconds)
+                        .messageAttributeNames("All")
+                        .build()).messages();
+            } catch (RuntimeException e) {
+                inFlight.release(permits);
+                if (!sleep(errorBackoffMillis)) {
+                    return;
+                }
+                continue;
+            }
+
+            inFlight.release(permits - messages.size());
+            for (Message message : messages) {
+                ConsumerSupport.handOver(handlers, () -> process(queueUrl, message), inFlight::release);
+            }
+        }
+    }
+
+    // Blocks for one in-flight slot, then takes as many more as are free, up to a full batch.
+    // Returns 0 if the consumer stopped while waiting.
+    private int acquire() throws InterruptedException
+    {
+        while (!inFlight.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+            if (!running) {
+                return 0;
+            }
+        }
+        int permits = 1;
+        while (permits < SqsLimits.MAX_BATCH_ENTRIES && inFlight.tryAcquire()) {
+            permits++;
+        }
+        return permits;
+    }
+
+    private void process(String queueUrl, Message message)
+    {
+        try {
+            handler.handle(message);
+            if (acknowledger != null && acknowledger.queueUrl().equals(queueUrl)) {
+                // Blocking is cheap here; the slot stays taken until the batch with this message is deleted.
+                acknowledger.acknowledge(message).join();
+            } else {
+                sqs.deleteMessage(DeleteMessageRequest.builder()
+                        .queueUrl(queueUrl)
+                        .receiptHandle(message.receiptHandle())
+                        .build());
+            }
+        } catch (Throwable t) {
+            errorHandler.accept(message, ConsumerSupport.cause(t));
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    private static boolean sleep(long millis)
+    {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stops polling once the open receives return and waits for every in-flight message to be handled.
+     *
+     * @return true if everything drained within the timeout
+     */
+    public boolean shutdown(Duration timeout) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        List<Thread> started;
+        synchronized (this) {
+            running = false;
+            started = new ArrayList<Thread>(pollers);
+        }
+        for (Thread poller : started) {
+            poller.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        }
+        boolean drained = inFlight.tryAcquire(maxInFlightMessages,
+                Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        if (drained) {
+            inFlight.release(maxInFlightMessages);
+        }
+        handlers.shutdown();
+        if (acknowledger != null) {
+            acknowledger.flush();
+        }
+        return drained;
+    }
+
+    @Override
+    public void close()
+    {
+        try {
+            shutdown(Duration.ofSeconds(SqsLimits.MAX_WAIT_TIME_SECONDS + 10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static final class Builder
+    {
+        private SqsClient sqs;
+        private final List<String> queueUrls = new ArrayList<String>();
+        private int pollersPerQueue = 1;
+        private MessageHandler handler;
+        private BiConsumer<Message, Throwable> errorHandler = ConsumerSupport.LOG_FAILURE;
+        private BatchingAcknowledger acknowledger;
+        private int waitTimeSeconds = SqsLimits.MAX_WAIT_TIME_SECONDS;
+        private Duration errorBackoff = Duration.ofSeconds(1);
+        private int maxInFlightMessages = 1000;
+        private boolean virtualThreads = true;
+
+        private Builder()
+        {
+        }
+
+        public Builder client(SqsClient sqs)
+        {
+            this.sqs = sqs;
+            return this;
+        }
+
+        public Builder queueUrl(String queueUrl)
+        {
+            this.queueUrls.add(queueUrl);
+            return this;
+        }
+
+        public Builder queueUrls(List<String> queueUrls)
+        {
+            this.queueUrls.addAll(queueUrls);
+            return this;
+        }
+
+        // Number of concurrent long polls on each queue, each on its own thread.
+        public Builder pollersPerQueue(int pollersPerQueue)
+        {
+            this.pollersPerQueue = pollersPerQueue;
+            return this;
+        }
+
+        public Builder handler(MessageHandler handler)
+        {
+            this.handler = handler;
+            return this;
+        }
+
+        // Gets handler and delete failures; logs them by default.
+        public Builder errorHandler(BiConsumer<Message, Throwable> errorHandler)
+        {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        // Used for messages of the acknowledger's own queue; other queues are deleted one message at a time.
+        public Builder acknowledger(BatchingAcknowledger acknowledger)
+        {
+            this.acknowledger = acknowledger;
+            return this;
+        }
+
+        public Builder waitTimeSeconds(int waitTimeSeconds)
+        {
+            this.waitTimeSeconds = waitTimeSeconds;
+            return this;
+        }
+
+        public Builder errorBackoff(Duration errorBackoff)
+        {
+            this.errorBackoff = errorBackoff;
+            return this;
+        }
+
+        // Messages received but not yet handled, across all queues.
+        public Builder maxInFlightMessages(int maxInFlightMessages)
+        {
+            this.maxInFlightMessages = maxInFlightMessages;
+            return this;
+        }
+
+        // Set to false to run the same thread-per-poll model on platform threads, e.g. for comparison.
+        public Builder virtualThreads(boolean virtualThreads)
+        {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        public VirtualThreadConsumer build()
+        {
+            if (sqs == null || queueUrls.isEmpty() || handler == null) {
+                throw new IllegalStateException("client, at least one queueUrl and handler are required");
+            }
+            return new VirtualThreadConsumer(this);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Access to Java 21 virtual threads from code that is still compiled for Java 8. The JDK methods are looked
+ * up reflectively; on an older runtime every method falls back to ordinary daemon platform threads, so callers
+ * behave the same, only with a higher cost per blocked thread.
+ */
+public final class VirtualThreads
+{
+    private static final Method OF_VIRTUAL = lookup(Thread.class, "ofVirtual");
+    private static final Method BUILDER_NAME = lookup(builderClass(), "name", String.class, long.class);
+    private static final Method BUILDER_FACTORY = lookup(builderClass(), "factory");
+    private static final Method THREAD_PER_TASK = lookup(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+    private static final boolean AVAILABLE = probe();
+
+    private VirtualThreads()
+    {
+    }
+
+    public static boolean available()
+    {
+        return AVAILABLE;
+    }
+
+    // On Java 19 and 20 the methods exist but throw unless preview features are enabled.
+    private static boolean probe()
+    {
+        if (OF_VIRTUAL == null || BUILDER_NAME == null || BUILDER_FACTORY == null || THREAD_PER_TASK == null) {
+            return false;
+        }
+        try {
+            BUILDER_FACTORY.invoke(OF_VIRTUAL.invoke(null));
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Thread factory producing virtual threads named prefix0, prefix1, ..., or daemon platform threads with
+     * the same names when virtual threads are not available.
+     */
+    public static ThreadFactory factory(String prefix)
+    {
+        if (available()) {
+            try {
+                Object builder = OF_VIRTUAL.invoke(null);
+                builder = BUILDER_NAME.invoke(builder, prefix, 0L);
+                return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Virtual threads reported available but could not be created", e);
+            }
+        }
+        return platformFactory(prefix);
+    }
+
+    /**
+     * Executor that starts a new thread for every task, virtual when possible.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String prefix)
+    {
+        if (available()) {
+            try {
+                return (ExecutorService) THREAD_PER_TASK.invoke(null, factory(prefix));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Virtual threads reported available but could not be created", e);
+            }
+        }
+        return Executors.newCachedThreadPool(platformFactory(prefix));
+    }
+
+    public static ThreadFactory platformFactory(String prefix)
+    {
+        final AtomicInteger ids = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + ids.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static Class<?> builderClass()
+    {
+        try {
+            return Class.forName("java.lang.Thread$Builder");
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static Method lookup(Class<?> type, String name, Class<?>... parameters)
+    {
+        if (type == null) {
+            return null;
+        }
+        try {
+            return type.getMethod(name, parameters);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+import software.amazon.awssdk.services.sqs.model.Message;
+
+/**
+ * Keeps messages of a single queue invisible for as long as they are being processed. Every tracked receipt
+ * handle is extended by the configured visibility timeout shortly before it would expire, until it is
+ * untracked. That allows a short visibility timeout on the queue, so the work of a crashed consumer is
+ * redelivered quickly, without slow messages being delivered a second time while still in progress.
+ *
+ * Deadlines live in a {@link TimingWheel} advanced by one thread, and the handles due in a tick are extended
+ * together in ChangeMessageVisibilityBatch requests. Extensions stop once a message has been invisible for the
+ * 12 hours SQS allows.
+ */
+public class VisibilityExtender implements AutoCloseable
+{
+    private final SqsClient sqs;
+    private final String queueUrl;
+    private final int visibilityTimeoutSeconds;
+    private final long heartbeatMillis;
+    private final long retryMillis;
+    private final ScheduledExecutorService ticker;
+    private final ExecutorService sender;
+
+    // Guarded by this
+    private final TimingWheel<Tracked> wheel;
+    private final Map<String, Tracked> tracked = new HashMap<String, Tracked>();
+
+    private VisibilityExtender(Builder builder)
+    {
+        this.sqs = builder.sqs;
+        this.queueUrl = builder.queueUrl;
+        this.visibilityTimeoutSeconds = (int) builder.visibilityTimeout.getSeconds();
+        this.heartbeatMillis = builder.visibilityTimeout.minus(builder.margin).toMillis();
+        this.retryMillis = builder.tick.toMillis();
+        this.wheel = new TimingWheel<Tracked>(builder.tick, builder.wheelSize, System.currentTimeMillis());
+        this.ticker = Executors.newSingleThreadScheduledExecutor(VirtualThreads.platformFactory("visibility-tick-"));
+        this.sender = Executors.newFixedThreadPool(builder.senderThreads, VirtualThreads.platformFactory("visibility-send-"));
+        long tick = builder.tick.toMillis();
+        ticker.scheduleAtFixedRate(this::tick, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    public String queueUrl()
+    {
+        return queueUrl;
+    }
+
+    // Timeout each extension sets; also the one consumers should request on receive.
+    public int visibilityTimeoutSeconds()
+    {
+        return visibilityTimeoutSeconds;
+    }
+
+    public synchronized int trackedMessages()
+    {
+        return tracked.size();
+    }
+
+    /**
+     * Starts extending a message that has just been received with {@link #visibilityTimeoutSeconds()}.
+     */
+    public void track(Message message)
+    {
+        track(message.receiptHandle());
+    }
+
+    public synchronized void track(String receiptHandle)
+    {
+        long now = System.currentTimeMillis();
+        Tracked entry = new Tracked(receiptHandle, now);
+        Tracked previous = tracked.put(receiptHandle, entry);
+        if (previous != null) {
+            previous.timeout.cancel();
+        }
+        entry.timeout = wheel.schedule(entry, now + heartbeatMillis);
+    }
+
+    /**
+     * Stops extending a message, normally once it has been deleted or its processing failed.
+     */
+    public void untrack(Message message)
+    {
+        untrack(message.receiptHandle());
+    }
+
+    public synchronized void untrack(String receiptHandle)
+    {
+        Tracked entry = tracked.remove(receiptHandle);
+        if (entry != null) {
+            entry.timeout.cancel();
+        }
+    }
+
+    private void tick()
+    {
+        List<Tracked> due = new ArrayList<Tracked>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            wheel.advance(now, due::add);
+            for (Tracked entry : due) {
+                entry.timeout = wheel.schedule(entry, now + heartbeatMillis);
+            }
+        }
+
+        List<ChangeMessageVisibilityBatchRequestEntry> batch = new ArrayList<ChangeMessageVisibilityBatchRequestEntry>();
+        List<Tracked> owners = new ArrayList<Tracked>();
+        for (Tracked entry : due) {
+            long remaining = TimeUnit.SECONDS.toMillis(SqsLimits.MAX_VISIBILITY_TIMEOUT_SECONDS) - (now - entry.receivedAt);
+            int timeout = (int) Math.min(visibilityTimeoutSeconds, TimeUnit.MILLISECONDS.toSeconds(remaining));
+            if (timeout <= 0) {
+                // SQS will not extend past 12 hours; the message becomes visible when the current timeout runs out.
+                untrack(entry.receiptHandle);
+                continue;
+            }
+            batch.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                    .id(Integer.toString(batch.size()))
+                    .receiptHandle(entry.receiptHandle)
+                    .visibilityTimeout(timeout)
+                    .build());
+            owners.add(entry);
+            if (batch.size() == SqsLimits.MAX_BATCH_ENTRIES) {
+                send(batch, owners);
+                batch = new ArrayList<ChangeMessageVisibilityBatchRequestEntry>();
+                owners = new ArrayList<Tracked>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            send(batch, owners);
+        }
+    }
+
+    private void send(List<ChangeMessageVisibilityBatchRequestEntry> batch, List<Tracked> owners)
+    {
+        try {
+            sender.execute(() -> extend(batch, owners));
+        } catch (RejectedExecutionException e) {
+            // Closing
+        }
+    }
+
+    private void extend(List<ChangeMessageVisibilityBatchRequestEntry> batch, List<Tracked> owners)
+    {
+        ChangeMessageVisibilityBatchResponse response;
+        try {
+            response = sqs.changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest.builder()
+                    .queueUrl(queueUrl)
+                    .entries(batch)
+                    .build());
+        } catch (RuntimeException e) {
+            // Try again on the next tick instead of waiting a whole heartbeat.
+            retry(owners);
+            return;
+        }
+
+        List<Tracked> retries = new ArrayList<Tracked>();
+        for (BatchResultErrorEntry error : response.failed()) {
+            Tracked entry = owners.get(Integer.parseInt(error.id()));
+            if (Boolean.TRUE.equals(error.senderFault())) {
+                // Typically the message was deleted or its receipt handle expired.
+                untrack(entry.receiptHandle);
+            } else {
+                retries.add(entry);
+            }
+        }
+        retry(retries);
+    }
+
+    private synchronized void retry(List<Tracked> entries)
+    {
+        long now = System.currentTimeMillis();
+        for (Tracked entry : entries) {
+            // Skip handles untracked or re-tracked in the meantime.
+            if (tracked.get(entry.receiptHandle) == entry && entry.timeout.cancel()) {
+                entry.timeout = wheel.schedule(entry, now + retryMillis);
+            }
+        }
+    }
+
+    /**
+     * Stops extending; tracked messages become visible again when their current timeout runs out.
+     */
+    @Override
+    public void close()
+    {
+        ticker.shutdownNow();
+        sender.shutdown();
+        synchronized (this) {
+            for (Tracked entry : tracked.values()) {
+                entry.timeout.cancel();
+            }
+            tracked.clear();
+        }
+    }
+
+    private static final class Tracked
+    {
+        final String receiptHandle;
+        final long receivedAt;
+        TimingWheel.Timeout<Tracked> timeout;
+
+        Tracked(String receiptHandle, long receivedAt)
+        {
+            this.receiptHandle = receiptHandle;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    public static final class Builder
+    {
+        private SqsClient sqs;
+        private String queueUrl;
+        private Duration visibilityTimeout = Duration.ofSeconds(30);
+        private Duration margin = Duration.ofSeconds(10);
+        private Duration tick = Duration.ofMillis(500);
+        private int wheelSize = 512;
+        private int senderThreads = 2;
+
+        private Builder()
+        {
+        }
+
+        public Builder client(SqsClient sqs)
+        {
+            this.sqs = sqs;
+            return this;
+        }
+
+        public Builder queueUrl(String queueUrl)
+        {
+            this.queueUrl = queueUrl;
+            return this;
+        }
+
+        // Whole seconds; each extension makes the message invisible for this long again.
+        public Builder visibilityTimeout(Duration visibilityTimeout)
+        {
+            this.visibilityTimeout = visibilityTimeout;
+            return this;
+        }
+
+        // How long before expiry a message is extended; covers the tick and the request latency.
+        public Builder margin(Duration margin)
+        {
+            this.margin = margin;
+            return this;
+        }
+
+        // Resolution of the timing wheel.
+        public Builder tick(Duration tick)
+        {
+            this.tick = tick;
+            return this;
+        }
+
+        // Number of buckets; deadlines up to wheelSize ticks ahead are found without skipping.
+        public Builder wheelSize(int wheelSize)
+        {
+            this.wheelSize = wheelSize;
+            return this;
+        }
+
+        public Builder senderThreads(int senderThreads)
+        {
+            this.senderThreads = senderThreads;
+            return this;
+        }
+
+        public VisibilityExtender build()
+        {
+            if (sqs == null || queueUrl == null) {
+                throw new IllegalStateException("client and queueUrl are required");
+            }
+            long seconds = visibilityTimeout.getSeconds();
+            if (seconds < 1 || seconds > SqsLimits.MAX_VISIBILITY_TIMEOUT_SECONDS) {
+                throw new IllegalStateException("visibilityTimeout must be between 1 second and 12 hours");
+            }
+            if (margin.compareTo(tick) < 0 || margin.compareTo(visibilityTimeout) >= 0) {
+                throw new IllegalStateException("margin must be at least one tick and shorter than visibilityTimeout");
+            }
+            return new VisibilityExtender(this);
+        }
+    }
+}
@@ -27,9 +27,7 @@ import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchReq
 import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
 import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityRequest;
 import software.amazon.awssdk.services.sqs.model.CreateQueueRequest;
-import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
 import software.amazon.awssdk.services.sqs.model.CreateQueueResponse;
-import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
 import software.amazon.awssdk.services.sqs.model.QueueNameExistsException;
 import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
 
@@ -45,7 +43,7 @@ public class VisibilityTimeout
     public static void changeMessageVisibilitySingle(
             String queue_url, int timeout)
     {
-    	SqsClient sqs = SqsClient.builder().build();
+    	SqsClient sqs = SqsClientFactory.shared().client();
 
         // Get the receipt handle for the first message in the queue.
     	ReceiveMessageRequest receiveRequest = ReceiveMessageRequest.builder()
@@ -68,7 +66,7 @@ public class VisibilityTimeout
     public static void changeMessageVisibilityMultiple(
             String queue_url, int timeout)
     {
-    	SqsClient sqs = SqsClient.builder().build();
+    	SqsClient sqs = SqsClientFactory.shared().client();
 
         List<ChangeMessageVisibilityBatchRequestEntry> entries =
             new ArrayList<ChangeMessageVisibilityBatchRequestEntry>();
@@ -104,33 +102,31 @@ public class VisibilityTimeout
     public static void main(String[] args)
     {
         final String queue_name = "testQueue" + new Date().getTime();
-        SqsClient sqs = SqsClient.builder().build();
+        SqsClient sqs = SqsClientFactory.shared().client();
 
         // first, create a queue (unless it exists already)
 
         CreateQueueRequest createRequest = CreateQueueRequest.builder()
         		.queueName(queue_name)
         		.build();
+        final String queue_url;
         try {
             CreateQueueResponse cq_result = sqs.createQueue(createRequest);
+            queue_url = cq_result.queueUrl();
         } catch (QueueNameExistsException e) {
         	throw e;
 
 
         }
 
-        GetQueueUrlRequest getRequest = GetQueueUrlRequest.builder()
-        		.queueName(queue_name)
-        		.build();
-        final String queue_url = sqs.getQueueUrl(getRequest).queueUrl();
-
-        // Send some messages to the queue
-        for (int i = 0; i < 20; i++) {
-        	SendMessageRequest sendRequest = SendMessageRequest.builder()
-        			.queueUrl(queue_url)
-        			.messageBody("This is message " + i)
-        			.build();
-            sqs.sendMessage(sendRequest);
+        // Send some messages to the queue; the producer combines them into batches of up to 10
+        try (BatchingProducer producer = BatchingProducer.builder()
+                .client(sqs)
+                .queueUrl(queue_url)
+                .build()) {
+            for (int i = 0; i < 20; i++) {
+                producer.send("This is message " + i);
+            }
         }
 
         // change visibility timeout (single)
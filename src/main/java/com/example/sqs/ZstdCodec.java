@@ -0,0 +1,68 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdException;
+
+/**
+ * zstd through zstd-jni, kept in its own class so that nothing references the library unless the codec is used.
+ * The compression and decompression contexts hold native memory and are reused per thread.
+ */
+final class ZstdCodec implements PayloadCodec
+{
+    static final String NAME = "zstd";
+    static final int DEFAULT_LEVEL = 3;
+
+    private final ThreadLocal<ZstdCompressCtx> compressors;
+    private final ThreadLocal<ZstdDecompressCtx> decompressors = ThreadLocal.withInitial(ZstdDecompressCtx::new);
+
+    ZstdCodec(int level)
+    {
+        this.compressors = ThreadLocal.withInitial(() -> new ZstdCompressCtx().setLevel(level).setContentSize(true));
+    }
+
+    @Override
+    public String name()
+    {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(byte[] data)
+    {
+        return compressors.get().compress(data);
+    }
+
+    @Override
+    public byte[] decode(byte[] data, int maxLength)
+    {
+        long size = Zstd.getFrameContentSize(data);
+        if (size < 0) {
+            throw new IllegalArgumentException("zstd frame without content size");
+        }
+        if (size > maxLength) {
+            throw new IllegalArgumentException("Decoded size " + size + " exceeds " + maxLength + " bytes");
+        }
+        try {
+            return decompressors.get().decompress(data, (int) size);
+        } catch (ZstdException e) {
+            throw new IllegalArgumentException("Corrupt zstd frame", e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.batching;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+import com.example.sqs.BatchEntryFailedException;
+import com.example.sqs.BatchingAcknowledger;
+import org.junit.Test;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResultEntry;
+
+public class BatchingAcknowledgerTest {
+
+    // Fails "flaky" handles once with a service error and "expired" handles always with a sender error.
+    private static class FlakyClient implements SqsClient {
+        final List<DeleteMessageBatchRequest> requests = new CopyOnWriteArrayList<>();
+        final Set<String> failedOnce = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public DeleteMessageBatchResponse deleteMessageBatch(DeleteMessageBatchRequest request) {
+            requests.add(request);
+            List<DeleteMessageBatchResultEntry> successful = new ArrayList<>();
+            List<BatchResultErrorEntry> failed = new ArrayList<>();
+            for (DeleteMessageBatchRequestEntry entry : request.entries()) {
+                String handle = entry.receiptHandle();
+                if (handle.startsWith("flaky") && failedOnce.add(handle)) {
+                    failed.add(BatchResultErrorEntry.builder().id(entry.id()).code("InternalError")
+                            .senderFault(false).build());
+                } else if (handle.startsWith("expired")) {
+                    failed.add(BatchResultErrorEntry.builder().id(entry.id()).code("ReceiptHandleIsInvalid")
+                            .senderFault(true).build());
+                } else {
+                    successful.add(DeleteMessageBatchResultEntry.builder().id(entry.id()).build());
+                }
+            }
+            return DeleteMessageBatchResponse.builder().successful(successful).failed(failed).build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "sqs";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testReceiptHandlesAreDeletedInBatches() throws Exception {
+        FlakyClient sqs = new FlakyClient();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        try (BatchingAcknowledger acknowledger = BatchingAcknowledger.builder().client(sqs).queueUrl("q")
+                .linger(Duration.ofHours(1)).build()) {
+            for (int i = 0; i < 25; i++) {
+                futures.add(acknowledger.acknowledge("handle-" + i));
+            }
+        }
+        for (CompletableFuture<Void> future : futures) {
+            future.get();
+        }
+        assertEquals(3, sqs.requests.size());
+    }
+
+    @Test
+    public void testOnlyServiceSideFailuresAreRetried() throws Exception {
+        FlakyClient sqs = new FlakyClient();
+        try (BatchingAcknowledger acknowledger = BatchingAcknowledger.builder().client(sqs).queueUrl("q")
+                .retryBackoff(Duration.ofMillis(1)).build()) {
+            CompletableFuture<Void> ok = acknowledger.acknowledge("ok");
+            CompletableFuture<Void> flaky = acknowledger.acknowledge("flaky");
+            CompletableFuture<Void> expired = acknowledger.acknowledge("expired");
+            acknowledger.flush();
+
+            ok.get();
+            flaky.get();
+            try {
+                expired.get();
+                throw new AssertionError("Expected the expired handle to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof BatchEntryFailedException);
+                assertEquals("ReceiptHandleIsInvalid", ((BatchEntryFailedException) e.getCause()).code());
+            }
+        }
+        assertEquals(2, sqs.requests.size());
+        assertEquals(1, sqs.requests.get(1).entries().size());
+        assertEquals("flaky", sqs.requests.get(1).entries().get(0).receiptHandle());
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.batching;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.example.sqs.BatchEntryFailedException;
+import com.example.sqs.BatchingProducer;
+import org.junit.Test;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+
+public class BatchingProducerTest {
+
+    // Records every batch request and fails any entry whose body is "fail". A batch with an entry "wait" is held
+    // until the latch opens.
+    private static class RecordingClient implements SqsClient {
+        final List<SendMessageBatchRequest> requests = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        public SendMessageBatchResponse sendMessageBatch(SendMessageBatchRequest request) {
+            requests.add(request);
+            if (request.entries().stream().anyMatch(entry -> entry.messageBody().equals("wait"))) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            List<SendMessageBatchResultEntry> successful = new ArrayList<>();
+            List<BatchResultErrorEntry> failed = new ArrayList<>();
+            for (SendMessageBatchRequestEntry entry : request.entries()) {
+                if (entry.messageBody().equals("fail")) {
+                    failed.add(BatchResultErrorEntry.builder().id(entry.id()).code("InvalidMessageContents")
+                            .senderFault(true).build());
+                } else {
+                    successful.add(SendMessageBatchResultEntry.builder().id(entry.id())
+                            .messageId("m-" + entry.messageBody()).build());
+                }
+            }
+            return SendMessageBatchResponse.builder().successful(successful).failed(failed).build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "sqs";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testFullBatchesAreSentWithoutWaitingForLinger() throws Exception {
+        RecordingClient sqs = new RecordingClient();
+        List<CompletableFuture<SendMessageBatchResultEntry>> futures = new ArrayList<>();
+        try (BatchingProducer producer = BatchingProducer.builder().client(sqs).queueUrl("q")
+                .linger(Duration.ofHours(1)).build()) {
+            for (int i = 0; i < 20; i++) {
+                futures.add(producer.send(Integer.toString(i)));
+            }
+            for (int i = 0; i < 20; i++) {
+                assertEquals("m-" + i, futures.get(i).get().messageId());
+            }
+        }
+        assertEquals(2, sqs.requests.size());
+        assertEquals(10, sqs.requests.get(0).entries().size());
+    }
+
+    @Test
+    public void testPartialBatchIsSentAfterLinger() throws Exception {
+        RecordingClient sqs = new RecordingClient();
+        try (BatchingProducer producer = BatchingProducer.builder().client(sqs).queueUrl("q")
+                .linger(Duration.ofMillis(10)).build()) {
+            CompletableFuture<SendMessageBatchResultEntry> a = producer.send("a");
+            CompletableFuture<SendMessageBatchResultEntry> b = producer.send("b");
+            assertEquals("m-a", a.get().messageId());
+            assertEquals("m-b", b.get().messageId());
+            assertEquals(1, sqs.requests.size());
+            assertEquals(2, sqs.requests.get(0).entries().size());
+        }
+    }
+
+    @Test
+    public void testBatchIsSplitAtPayloadLimit() throws Exception {
+        RecordingClient sqs = new RecordingClient();
+        char[] chars = new char[100 * 1024];
+        Arrays.fill(chars, 'x');
+        String body = new String(chars);
+        try (BatchingProducer producer = BatchingProducer.builder().client(sqs).queueUrl("q")
+                .linger(Duration.ofHours(1)).build()) {
+            for (int i = 0; i < 5; i++) {
+                producer.send(body);
+            }
+        }
+        // 100 KB bodies fit two to a 256 KB batch.
+        assertEquals(3, sqs.requests.size());
+        for (SendMessageBatchRequest request : sqs.requests) {
+            assertTrue(request.entries().size() <= 2);
+        }
+    }
+
+    @Test
+    public void testFailedEntryOnlyFailsItsOwnFuture() throws Exception {
+        RecordingClient sqs = new RecordingClient();
+        try (BatchingProducer producer = BatchingProducer.builder().client(sqs).queueUrl("q").build()) {
+            CompletableFuture<SendMessageBatchResultEntry> ok = producer.send("ok");
+            CompletableFuture<SendMessageBatchResultEntry> failed = producer.send("fail");
+            producer.flush();
+            assertEquals("m-ok", ok.get().messageId());
+            try {
+                failed.get();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof BatchEntryFailedException);
+                assertEquals("InvalidMessageContents", ((BatchEntryFailedException) e.getCause()).code());
+                return;
+            }
+            throw new AssertionError("Expected the failed entry to complete exceptionally");
+        }
+    }
+
+    @Test
+    public void testRejectedBatchFailsItsFutures() throws Exception {
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.shutdown();
+        try (BatchingProducer producer = BatchingProducer.builder().client(new RecordingClient()).queueUrl("q")
+                .senderExecutor(stopped).build()) {
+            CompletableFuture<SendMessageBatchResultEntry> future = producer.send("a");
+            producer.flush();
+            try {
+                future.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+                return;
+            }
+            throw new AssertionError("Expected the rejected entry to complete exceptionally");
+        }
+    }
+
+    @Test
+    public void testBatchRunOnCallingThreadDoesNotBlockOtherSenders() throws Exception {
+        RecordingClient sqs = new RecordingClient();
+        // Runs every batch on the thread that hands it over.
+        ExecutorService direct = new AbstractExecutorService() {
+            private volatile boolean shutdown;
+
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+
+            @Override
+            public void shutdown() {
+                shutdown = true;
+            }
+
+            @Override
+            public List<Runnable> shutdownNow() {
+                shutdown = true;
+                return new ArrayList<>();
+            }
+
+            @Override
+            public boolean isShutdown() {
+                return shutdown;
+            }
+
+            @Override
+            public boolean isTerminated() {
+                return shutdown;
+            }
+
+            @Override
+            public boolean awaitTermination(long timeout, TimeUnit unit) {
+                return true;
+            }
+        };
+        try (BatchingProducer producer = BatchingProducer.builder().client(sqs).queueUrl("q")
+                .maxBatchSize(1).senderExecutor(direct).build()) {
+            CompletableFuture<SendMessageBatchResultEntry> held =
+                    CompletableFuture.supplyAsync(() -> producer.send("wait")).thenCompose(f -> f);
+            while (sqs.requests.isEmpty()) {
+                Thread.sleep(1);
+            }
+            // The held batch runs outside the buffer lock, so this send returns; its batch queues behind.
+            CompletableFuture<SendMessageBatchResultEntry> other =
+                    CompletableFuture.supplyAsync(() -> producer.send("b")).get(5, TimeUnit.SECONDS);
+            assertEquals(1, sqs.requests.size());
+            sqs.latch.countDown();
+            assertEquals("m-wait", held.get(5, TimeUnit.SECONDS).messageId());
+            assertEquals("m-b", other.get(5, TimeUnit.SECONDS).messageId());
+        }
+    }
+
+    @Test
+    public void testFifoGroupStopsAfterFailedBatch() throws Exception {
+        RecordingClient sqs = new RecordingClient();
+        try (BatchingProducer producer = BatchingProducer.builder().client(sqs).queueUrl("q.fifo")
+                .maxBatchSize(1).build()) {
+            CompletableFuture<SendMessageBatchResultEntry> held = producer.send("wait", "h");
+            CompletableFuture<SendMessageBatchResultEntry> failed = producer.send("fail", "g");
+            CompletableFuture<SendMessageBatchResultEntry> after = producer.send("b", "g");
+            CompletableFuture<SendMessageBatchResultEntry> otherGroup = producer.send("c", "h");
+            sqs.latch.countDown();
+            assertEquals("m-wait", held.get(5, TimeUnit.SECONDS).messageId());
+            assertEquals("m-c", otherGroup.get(5, TimeUnit.SECONDS).messageId());
+            assertTrue(failed.handle((r, e) -> e).get() instanceof BatchEntryFailedException);
+            assertTrue(after.handle((r, e) -> e).get() instanceof IllegalStateException);
+
+            // Sent after the failure was seen, so the group goes on.
+            assertEquals("m-d", producer.send("d", "g").get(5, TimeUnit.SECONDS).messageId());
+        }
+        for (SendMessageBatchRequest request : sqs.requests) {
+            assertTrue(request.entries().stream().noneMatch(entry -> entry.messageBody().equals("b")));
+        }
+    }
+
+    @Test
+    public void testCloseWhileLingerFiresSendsEverything() throws Exception {
+        RecordingClient sqs = new RecordingClient();
+        for (int i = 0; i < 200; i++) {
+            CompletableFuture<SendMessageBatchResultEntry> future;
+            try (BatchingProducer producer = BatchingProducer.builder().client(sqs).queueUrl("q")
+                    .linger(Duration.ofNanos(i * 5000)).build()) {
+                future = producer.send(Integer.toString(i));
+            }
+            assertEquals("m-" + i, future.get(5, TimeUnit.SECONDS).messageId());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.batching;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.example.sqs.MessageCodec;
+import com.example.sqs.PayloadCodecs;
+import com.example.sqs.SqsLimits;
+import org.junit.Test;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+
+public class MessageCodecTest {
+
+    private static String json(int records) {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < records; i++) {
+            body.append(i == 0 ? "" : ",").append("{\"orderId\":").append(1000 + i)
+                    .append(",\"status\":\"SHIPPED\",\"customer\":\"customer-").append(i % 7)
+                    .append("\",\"note\":\"café ✓\"}");
+        }
+        return body.append("]").toString();
+    }
+
+    private static Message received(SendMessageBatchRequestEntry entry) {
+        return Message.builder().messageId("m").body(entry.messageBody())
+                .messageAttributes(entry.messageAttributes()).build();
+    }
+
+    private static void roundTrip(MessageCodec codec, String name) {
+        String body = json(200);
+        SendMessageBatchRequestEntry entry = codec.encode(
+                SendMessageBatchRequestEntry.builder().id("1").messageBody(body).build());
+
+        assertEquals(name, entry.messageAttributes().get(MessageCodec.ATTRIBUTE).stringValue());
+        assertTrue("encoded " + SqsLimits.payloadSize(entry) + " of " + body.length(),
+                SqsLimits.payloadSize(entry) * 4 < body.length());
+        Message decoded = codec.decoded(received(entry));
+        assertEquals(body, decoded.body());
+        assertFalse(decoded.messageAttributes().containsKey(MessageCodec.ATTRIBUTE));
+    }
+
+    @Test
+    public void testGzipRoundTrip() {
+        roundTrip(MessageCodec.builder().codec(PayloadCodecs.GZIP).build(), "gzip");
+    }
+
+    @Test
+    public void testZstdRoundTrip() {
+        roundTrip(MessageCodec.builder().codec("zstd").build(), "zstd");
+    }
+
+    @Test
+    public void testSmallAndPlainBodiesPassThrough() {
+        MessageCodec codec = MessageCodec.builder().build();
+        SendMessageBatchRequestEntry small = SendMessageBatchRequestEntry.builder().id("1").messageBody("hi").build();
+        assertSame(small, codec.encode(small));
+
+        Message plain = Message.builder().messageId("m").body(json(200)).build();
+        assertSame(plain, codec.decoded(plain));
+    }
+
+    @Test
+    public void testDecodesWhicheverCodecTheProducerUsed() {
+        MessageCodec zstdProducer = MessageCodec.builder().codec("zstd").build();
+        MessageCodec gzipConsumer = MessageCodec.builder().codec(PayloadCodecs.GZIP).build();
+        String body = json(50);
+        SendMessageBatchRequestEntry entry = zstdProducer.encode(
+                SendMessageBatchRequestEntry.builder().id("1").messageBody(body).build());
+        assertEquals(body, gzipConsumer.decode(received(entry)));
+    }
+
+    @Test
+    public void testGzipInteroperatesWithJdkStreams() throws Exception {
+        byte[] data = json(100).getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(PayloadCodecs.GZIP.encode(data)))) {
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                read.write(buffer, 0, n);
+            }
+        }
+        assertArrayEquals(data, read.toByteArray());
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(written)) {
+            out.write(data);
+        }
+        assertArrayEquals(data, PayloadCodecs.GZIP.decode(written.toByteArray(), data.length));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsBodiesThatDecodeBeyondTheLimit() {
+        MessageCodec producer = MessageCodec.builder().build();
+        MessageCodec consumer = MessageCodec.builder().maxDecodedBytes(1000).build();
+        SendMessageBatchRequestEntry entry = producer.encode(
+                SendMessageBatchRequestEntry.builder().id("1").messageBody(json(200)).build());
+        consumer.decode(received(entry));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsUnknownCodec() {
+        MessageCodec.builder().build().decode("AAAA", "brotli");
+    }
+}
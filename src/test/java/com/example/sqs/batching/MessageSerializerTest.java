@@ -0,0 +1,219 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.batching;
+
+import static com.example.sqs.MessageSchema.field;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import com.example.sqs.MessageFormat;
+import com.example.sqs.MessageFormats;
+import com.example.sqs.MessageSchema;
+import com.example.sqs.MessageSerializer;
+import org.junit.Test;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+
+public class MessageSerializerTest {
+
+    static class Order {
+        int quantity;
+        long id;
+        double total;
+        boolean express;
+        String customer;
+        byte[] signature;
+        String note;
+    }
+
+    // Version 1 of the schema; version 2 below adds the note.
+    static class OrderSchema extends MessageSchema<Order> {
+        OrderSchema(Field... extra) {
+            super("Order", concat(extra));
+        }
+
+        private static Field[] concat(Field... extra) {
+            Field[] fields = {
+                    field(1, "quantity", Type.INT), field(2, "id", Type.LONG), field(3, "total", Type.DOUBLE),
+                    field(4, "express", Type.BOOLEAN), field(5, "customer", Type.STRING),
+                    field(6, "signature", Type.BYTES)};
+            Field[] all = Arrays.copyOf(fields, fields.length + extra.length);
+            System.arraycopy(extra, 0, all, fields.length, extra.length);
+            return all;
+        }
+
+        @Override
+        public void write(Order order, MessageWriter out) {
+            out.writeInt(field(1), order.quantity);
+            out.writeLong(field(2), order.id);
+            out.writeDouble(field(3), order.total);
+            out.writeBoolean(field(4), order.express);
+            out.writeString(field(5), order.customer);
+            out.writeBytes(field(6), order.signature);
+        }
+
+        @Override
+        public Order read(MessageReader in) {
+            Order order = new Order();
+            for (Field field; (field = in.next()) != null; ) {
+                switch (field.tag()) {
+                    case 1: order.quantity = in.readInt(); break;
+                    case 2: order.id = in.readLong(); break;
+                    case 3: order.total = in.readDouble(); break;
+                    case 4: order.express = in.readBoolean(); break;
+                    case 5: order.customer = in.readString(); break;
+                    case 6: order.signature = in.readBytes(); break;
+                    default: break;
+                }
+            }
+            return order;
+        }
+    }
+
+    static class OrderSchemaV2 extends OrderSchema {
+        OrderSchemaV2() {
+            super(field(7, "note", Type.STRING));
+        }
+
+        @Override
+        public void write(Order order, MessageWriter out) {
+            out.writeString(field(7), order.note);
+            super.write(order, out);
+        }
+    }
+
+    private static Order order() {
+        Order order = new Order();
+        order.quantity = -3;
+        order.id = Long.MIN_VALUE + 1;
+        order.total = 1234.5;
+        order.express = true;
+        order.customer = "Zoë 🚀 \"quoted\"";
+        order.signature = new byte[] {0, -1, 127, -128};
+        order.note = "leave at the door";
+        return order;
+    }
+
+    private static void assertOrder(Order expected, Order actual) {
+        assertEquals(expected.quantity, actual.quantity);
+        assertEquals(expected.id, actual.id);
+        assertEquals(expected.total, actual.total, 0);
+        assertEquals(expected.express, actual.express);
+        assertEquals(expected.customer, actual.customer);
+        assertArrayEquals(expected.signature, actual.signature);
+    }
+
+    private static Message received(SendMessageBatchRequestEntry entry) {
+        return Message.builder().messageId("m").body(entry.messageBody())
+                .messageAttributes(entry.messageAttributes()).build();
+    }
+
+    @Test
+    public void testRoundTripsInBothFormats() {
+        for (MessageFormat format : new MessageFormat[] {MessageFormats.BINARY, MessageFormats.JSON}) {
+            MessageSerializer<Order> serializer = MessageSerializer.builder(new OrderSchema()).format(format).build();
+            for (int i = 0; i < 3; i++) {
+                assertOrder(order(), serializer.decode(received(serializer.entry(order()))));
+            }
+        }
+    }
+
+    @Test
+    public void testBinaryIsSmallerThanJson() {
+        OrderSchema schema = new OrderSchema();
+        String binary = MessageFormats.BINARY.encode(schema, order());
+        String json = MessageFormats.JSON.encode(schema, order());
+        assertTrue(json, json.startsWith("{\"quantity\":-3,\"id\":-9223372036854775807,"));
+        assertTrue(binary.length() + " vs " + json.length(), binary.length() < json.length());
+    }
+
+    @Test
+    public void testOldReadersSkipNewFieldsAndAbsentFieldsStayDefault() {
+        for (MessageFormat format : new MessageFormat[] {MessageFormats.BINARY, MessageFormats.JSON}) {
+            String body = format.encode(new OrderSchemaV2(), order());
+            assertOrder(order(), format.decode(new OrderSchema(), body));
+
+            Order sparse = new Order();
+            Order decoded = format.decode(new OrderSchemaV2(), format.encode(new OrderSchema(), sparse));
+            assertNull(decoded.customer);
+            assertNull(decoded.signature);
+            assertEquals(0, decoded.id);
+        }
+    }
+
+    @Test
+    public void testConsumerDecodesWhicheverFormatTheProducerUsed() {
+        MessageSerializer<Order> jsonProducer =
+                MessageSerializer.builder(new OrderSchema()).format(MessageFormats.JSON).build();
+        MessageSerializer<Order> binaryConsumer = MessageSerializer.builder(new OrderSchema()).build();
+        assertOrder(order(), binaryConsumer.decode(received(jsonProducer.entry(order()))));
+    }
+
+    @Test
+    public void testEncodingInsideASchemaDoesNotClobberTheBuffer() {
+        OrderSchema inner = new OrderSchema();
+        MessageSchema<Order> outer = new MessageSchema<Order>("Envelope",
+                field(1, "order", MessageSchema.Type.STRING), field(2, "id", MessageSchema.Type.LONG)) {
+            @Override
+            public void write(Order order, MessageWriter out) {
+                out.writeLong(field(2), 42);
+                out.writeString(field(1), MessageFormats.BINARY.encode(inner, order));
+            }
+
+            @Override
+            public Order read(MessageReader in) {
+                Order order = null;
+                for (Field field; (field = in.next()) != null; ) {
+                    if (field.tag() == 1) {
+                        order = MessageFormats.BINARY.decode(inner, in.readString());
+                    }
+                }
+                return order;
+            }
+        };
+        assertOrder(order(), MessageFormats.BINARY.decode(outer, MessageFormats.BINARY.encode(outer, order())));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsCorruptBinary() {
+        String body = MessageFormats.BINARY.encode(new OrderSchema(), order());
+        MessageFormats.BINARY.decode(new OrderSchema(), body.substring(0, body.length() - 8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvalidJson() {
+        MessageFormats.JSON.decode(new OrderSchema(), "{\"quantity\": ");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsWritingAFieldWithTheWrongType() {
+        MessageFormats.BINARY.encode(new MessageSchema<String>("Bad", field(1, "n", MessageSchema.Type.INT)) {
+            @Override
+            public void write(String value, MessageWriter out) {
+                out.writeString(field(1), value);
+            }
+
+            @Override
+            public String read(MessageReader in) {
+                return null;
+            }
+        }, "x");
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.example.sqs.SqsLimits;
+import com.example.sqs.VirtualThreadConsumer;
+import com.example.sqs.VirtualThreads;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageResponse;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+
+/**
+ * Compares the thread-per-poll {@link VirtualThreadConsumer} on virtual threads and on platform threads.
+ * The SQS client is simulated: every receive blocks for a fixed latency and then returns a full batch, so the
+ * numbers reflect the cost of the threading model rather than of the network. For each poller count it
+ * reports sustained messages per second, heap and resident memory per poller, and live platform threads.
+ *
+ * Usage: ThreadModelBenchmark [pollers,...] [seconds] [receiveLatencyMillis]
+ * It lives with the tests so that it stays out of the jar; run it from the test classpath.
+ * Virtual threads need a Java 21 runtime; on older JVMs only the platform variant runs.
+ */
+public class ThreadModelBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        String[] pollerCounts = (args.length > 0 ? args[0] : "100,1000,4000").split(",");
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        long latencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 50;
+
+        System.out.println("Java " + System.getProperty("java.version")
+                + ", virtual threads " + (VirtualThreads.available() ? "available" : "not available"));
+        System.out.printf("%-9s %8s %12s %14s %14s %10s%n",
+                "mode", "pollers", "msgs/s", "heap B/poller", "rss B/poller", "os threads");
+
+        for (String count : pollerCounts) {
+            int pollers = Integer.parseInt(count.trim());
+            run(false, pollers, seconds, latencyMillis);
+            if (VirtualThreads.available()) {
+                run(true, pollers, seconds, latencyMillis);
+            }
+        }
+    }
+
+    private static void run(boolean virtual, int pollers, int seconds, long latencyMillis) throws Exception
+    {
+        SimulatedClient sqs = new SimulatedClient(latencyMillis);
+        List<String> queues = new ArrayList<String>();
+        for (int i = 0; i < pollers; i++) {
+            queues.add("queue-" + i);
+        }
+
+        settle();
+        long heapBefore = usedHeap();
+        long rssBefore = residentBytes();
+
+        VirtualThreadConsumer consumer = VirtualThreadConsumer.builder()
+                .client(sqs)
+                .queueUrls(queues)
+                .virtualThreads(virtual)
+                .maxInFlightMessages(pollers * SqsLimits.MAX_BATCH_ENTRIES)
+                .handler(message -> { })
+                .build();
+        consumer.start();
+
+        // Let every poller reach its first blocking receive before sampling memory.
+        Thread.sleep(Math.max(1000, latencyMillis * 4));
+        long heapDuring = usedHeap();
+        long rssDuring = residentBytes();
+        int osThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        long startCount = sqs.delivered.get();
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        double rate = (sqs.delivered.get() - startCount) / ((System.nanoTime() - start) / 1e9);
+
+        consumer.shutdown(Duration.ofSeconds(10));
+        System.out.printf("%-9s %8d %12.0f %14d %14d %10d%n",
+                virtual ? "virtual" : "platform", pollers, rate,
+                (heapDuring - heapBefore) / pollers,
+                rssBefore < 0 ? -1 : (rssDuring - rssBefore) / pollers,
+                osThreads);
+    }
+
+    private static void settle() throws InterruptedException
+    {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+    }
+
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // Resident set size from /proc; -1 where that is not available.
+    private static long residentBytes()
+    {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // fall through
+        }
+        return -1;
+    }
+
+    // Every receive blocks for the configured latency, then returns a full batch.
+    private static final class SimulatedClient implements SqsClient
+    {
+        private final long latencyMillis;
+        final AtomicLong delivered = new AtomicLong();
+
+        SimulatedClient(long latencyMillis)
+        {
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public ReceiveMessageResponse receiveMessage(ReceiveMessageRequest request)
+        {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<Message> messages = new ArrayList<Message>(request.maxNumberOfMessages());
+            for (int i = 0; i < request.maxNumberOfMessages(); i++) {
+                messages.add(Message.builder().messageId("m").receiptHandle("r").body("payload").build());
+            }
+            delivered.addAndGet(messages.size());
+            return ReceiveMessageResponse.builder().messages(messages).build();
+        }
+
+        @Override
+        public DeleteMessageResponse deleteMessage(DeleteMessageRequest request)
+        {
+            return DeleteMessageResponse.builder().build();
+        }
+
+        @Override
+        public String serviceName()
+        {
+            return "sqs";
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.client;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.sqs.QueueResolver;
+import org.junit.Test;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.CreateQueueRequest;
+import software.amazon.awssdk.services.sqs.model.CreateQueueResponse;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesRequest;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesResponse;
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
+import software.amazon.awssdk.services.sqs.model.GetQueueUrlResponse;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.QueueDoesNotExistException;
+
+public class QueueResolverTest {
+
+    private static class CountingClient implements SqsClient {
+        final AtomicInteger urlLookups = new AtomicInteger();
+        final AtomicInteger attributeLookups = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public GetQueueUrlResponse getQueueUrl(GetQueueUrlRequest request) {
+            urlLookups.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return GetQueueUrlResponse.builder().queueUrl("http://localhost:9324/queue/" + request.queueName()).build();
+        }
+
+        @Override
+        public GetQueueAttributesResponse getQueueAttributes(GetQueueAttributesRequest request) {
+            attributeLookups.incrementAndGet();
+            return GetQueueAttributesResponse.builder()
+                    .attributes(Collections.singletonMap(QueueAttributeName.QUEUE_ARN, "arn:" + request.queueUrl()))
+                    .build();
+        }
+
+        @Override
+        public CreateQueueResponse createQueue(CreateQueueRequest request) {
+            return CreateQueueResponse.builder().queueUrl("http://localhost:9324/queue/" + request.queueName()).build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "sqs";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testConcurrentLookupsShareOneRequest() throws Exception {
+        CountingClient sqs = new CountingClient();
+        QueueResolver resolver = new QueueResolver(sqs);
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        List<Future<String>> lookups = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            lookups.add(pool.submit(() -> resolver.queueUrl("MyQueue")));
+        }
+        Thread.sleep(50);
+        sqs.release.countDown();
+        for (Future<String> lookup : lookups) {
+            assertEquals("http://localhost:9324/queue/MyQueue", lookup.get());
+        }
+        pool.shutdown();
+        assertEquals(1, sqs.urlLookups.get());
+    }
+
+    @Test
+    public void testCreateResponseAndArnAreCached() {
+        CountingClient sqs = new CountingClient();
+        QueueResolver resolver = new QueueResolver(sqs);
+        resolver.createQueue(CreateQueueRequest.builder().queueName("MyQueue").build());
+        assertEquals("http://localhost:9324/queue/MyQueue", resolver.queueUrl("MyQueue"));
+        assertEquals("arn:http://localhost:9324/queue/MyQueue", resolver.queueArn("MyQueue"));
+        assertEquals("arn:http://localhost:9324/queue/MyQueue", resolver.queueArn("MyQueue"));
+        assertEquals(0, sqs.urlLookups.get());
+        assertEquals(1, sqs.attributeLookups.get());
+    }
+
+    @Test
+    public void testEntriesExpireAndAreDroppedWhenQueueIsGone() throws Exception {
+        CountingClient sqs = new CountingClient();
+        sqs.release.countDown();
+        QueueResolver resolver = new QueueResolver(sqs, Duration.ofMillis(20));
+        resolver.queueUrl("MyQueue");
+        Thread.sleep(40);
+        resolver.queueUrl("MyQueue");
+        assertEquals(2, sqs.urlLookups.get());
+
+        try {
+            resolver.withQueueUrl("MyQueue", url -> {
+                throw QueueDoesNotExistException.builder().message("gone").build();
+            });
+        } catch (QueueDoesNotExistException expected) {
+            // the resolver forgets the name before rethrowing
+        }
+        resolver.queueUrl("MyQueue");
+        assertEquals(3, sqs.urlLookups.get());
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
+import com.example.sqs.EmbeddedSqsServer;
+import com.example.sqs.RateGovernor;
+import com.example.sqs.SqsClientFactory;
+import com.example.sqs.SqsClientSettings;
+import org.junit.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.SqsClient;
+
+public class RateGovernorTest {
+
+    private static SqsClientFactory factory(RateGovernor governor) {
+        return new SqsClientFactory(SqsClientSettings.builder()
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("x", "x")))
+                .rateGovernor(governor)
+                .build());
+    }
+
+    @Test
+    public void testCutsOncePerThrottleAndGrowsBackAdditively() throws Exception {
+        RateGovernor governor = RateGovernor.builder().initialRate(100).additiveIncrease(10).build();
+        long first = governor.acquire("ReceiveMessage", "q");
+        governor.throttled("ReceiveMessage", "q", first);
+        assertEquals(50, governor.rate("ReceiveMessage", "q"), 0.001);
+        // Same permit as the one already reported: part of the same congestion event.
+        governor.throttled("ReceiveMessage", "q", first);
+        assertEquals(50, governor.rate("ReceiveMessage", "q"), 0.001);
+        governor.throttled("ReceiveMessage", "q", governor.acquire("ReceiveMessage", "q"));
+        assertEquals(25, governor.rate("ReceiveMessage", "q"), 0.001);
+        // Other operations and queues keep their own rate.
+        assertEquals(100, governor.rate("SendMessage", "q"), 0.001);
+        assertEquals(100, governor.rate("ReceiveMessage", "other"), 0.001);
+
+        for (int i = 0; i < 25; i++) {
+            governor.succeeded("ReceiveMessage", "q");
+        }
+        double rate = governor.rate("ReceiveMessage", "q");
+        assertTrue("rate " + rate, rate > 30 && rate < 36);
+        assertEquals(3, governor.throttles());
+    }
+
+    @Test
+    public void testLimitsCallsPerQueue() throws Exception {
+        RateGovernor governor = RateGovernor.builder().initialRate(50).maxRate(50).build();
+        try (EmbeddedSqsServer server = EmbeddedSqsServer.builder().build().start();
+             SqsClientFactory factory = factory(governor)) {
+            SqsClient sqs = factory.client(Region.US_EAST_1, server.endpoint());
+            String queueUrl = sqs.createQueue(r -> r.queueName("governed")).queueUrl();
+            long start = System.nanoTime();
+            for (int i = 0; i < 30; i++) {
+                sqs.sendMessage(r -> r.queueUrl(queueUrl).messageBody("body"));
+            }
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            // A 100 ms burst of 5 calls, then 25 more at 50 per second.
+            assertTrue("took " + elapsedMillis + " ms", elapsedMillis >= 400);
+            assertEquals(50, governor.rate("SendMessage", queueUrl), 0.001);
+        }
+    }
+
+    @Test
+    public void testBacksOffWhenServerThrottles() throws Exception {
+        RateGovernor governor = RateGovernor.builder().initialRate(400).maxRate(1000).build();
+        try (EmbeddedSqsServer server = EmbeddedSqsServer.builder().maxRequestsPerSecond(50).build().start();
+             SqsClientFactory factory = factory(governor)) {
+            SqsClient sqs = factory.client(Region.US_EAST_1, server.endpoint());
+            String queueUrl = sqs.createQueue(r -> r.queueName("throttled")).queueUrl();
+            ExecutorService senders = Executors.newFixedThreadPool(4);
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                results.add(senders.submit(() -> {
+                    for (int i = 0; i < 40; i++) {
+                        sqs.sendMessage(r -> r.queueUrl(queueUrl).messageBody("body"));
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                // Throws if a send failed even after the SDK's retries.
+                result.get();
+            }
+            senders.shutdown();
+
+            assertTrue(governor.throttles() > 0);
+            double rate = governor.rate("SendMessage", queueUrl);
+            assertTrue("rate " + rate, rate < 200);
+        }
+    }
+
+    @Test
+    public void testAsyncClientDefersCallsWithoutBlocking() throws Exception {
+        RateGovernor governor = RateGovernor.builder().initialRate(50).maxRate(50).build();
+        try (EmbeddedSqsServer server = EmbeddedSqsServer.builder().build().start();
+             SqsClientFactory factory = factory(governor)) {
+            SqsAsyncClient sqs = factory.asyncClient(Region.US_EAST_1, server.endpoint());
+            String queueUrl = sqs.createQueue(r -> r.queueName("governed-async")).join().queueUrl();
+            long start = System.nanoTime();
+            List<CompletableFuture<?>> sends = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                sends.add(sqs.sendMessage(r -> r.queueUrl(queueUrl).messageBody("body")));
+            }
+            long issuedMillis = (System.nanoTime() - start) / 1_000_000;
+            CompletableFuture.allOf(sends.toArray(new CompletableFuture<?>[0])).join();
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            // Issuing returns at once; the calls are spread out by the governor's timer instead.
+            assertTrue("issuing took " + issuedMillis + " ms", issuedMillis < 300);
+            assertTrue("took " + elapsedMillis + " ms", elapsedMillis >= 400);
+        }
+    }
+
+    @Test
+    public void testAsyncClientBacksOffWhenServerThrottles() throws Exception {
+        RateGovernor governor = RateGovernor.builder().initialRate(400).maxRate(1000).build();
+        try (EmbeddedSqsServer server = EmbeddedSqsServer.builder().maxRequestsPerSecond(50).build().start();
+             SqsClientFactory factory = factory(governor)) {
+            SqsAsyncClient sqs = factory.asyncClient(Region.US_EAST_1, server.endpoint());
+            String queueUrl = sqs.createQueue(r -> r.queueName("throttled-async")).join().queueUrl();
+            // Each send is chained on the previous one's completion, as consumers chain their receives.
+            List<CompletableFuture<?>> chains = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                CompletableFuture<?> chain = CompletableFuture.completedFuture(null);
+                for (int i = 0; i < 40; i++) {
+                    chain = chain.thenCompose(previous -> sqs.sendMessage(r -> r.queueUrl(queueUrl).messageBody("body")));
+                }
+                chains.add(chain);
+            }
+            CompletableFuture.allOf(chains.toArray(new CompletableFuture<?>[0])).join();
+
+            assertTrue(governor.throttles() > 0);
+            double rate = governor.rate("SendMessage", queueUrl);
+            assertTrue("rate " + rate, rate < 200);
+        }
+    }
+
+    @Test
+    public void testV1HandlerCutsRateOfThrottledQueue() throws Exception {
+        RateGovernor governor = RateGovernor.builder().initialRate(200).build();
+        try (EmbeddedSqsServer server = EmbeddedSqsServer.builder().maxRequestsPerSecond(20).build().start()) {
+            AmazonSQS sqs = AmazonSQSClientBuilder.standard()
+                    .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("x", "x")))
+                    .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(
+                            server.endpoint().toString(), "us-east-1"))
+                    .withRequestHandlers(governor.requestHandler())
+                    .build();
+            String queueUrl = sqs.createQueue("throttled-v1").getQueueUrl();
+            for (int i = 0; i < 60; i++) {
+                sqs.sendMessage(queueUrl, "body");
+            }
+            sqs.shutdown();
+
+            assertTrue(governor.throttles() > 0);
+            assertTrue(governor.rate("SendMessage", queueUrl) < 200);
+        }
+    }
+}
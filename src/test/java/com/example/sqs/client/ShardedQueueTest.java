@@ -0,0 +1,257 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.sqs.BatchingProducer;
+import com.example.sqs.QueueConsumer;
+import com.example.sqs.ShardedQueue;
+import com.example.sqs.server.EmbeddedSqs;
+import org.junit.ClassRule;
+import org.junit.Test;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.CreateQueueRequest;
+import software.amazon.awssdk.services.sqs.model.CreateQueueResponse;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesRequest;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesResponse;
+import software.amazon.awssdk.services.sqs.model.ListQueuesRequest;
+import software.amazon.awssdk.services.sqs.model.ListQueuesResponse;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+
+public class ShardedQueueTest {
+
+    @ClassRule
+    public static final EmbeddedSqs embedded = new EmbeddedSqs();
+
+    // ListQueues on real SQS can leave out queues created a moment ago; this one lists none until told to.
+    private static class LaggingListClient implements SqsClient {
+        volatile boolean listed;
+
+        @Override
+        public CreateQueueResponse createQueue(CreateQueueRequest request) {
+            return embedded.client().createQueue(request);
+        }
+
+        @Override
+        public GetQueueAttributesResponse getQueueAttributes(GetQueueAttributesRequest request) {
+            return embedded.client().getQueueAttributes(request);
+        }
+
+        @Override
+        public ListQueuesResponse listQueues(ListQueuesRequest request) {
+            return listed ? embedded.client().listQueues(request) : ListQueuesResponse.builder().build();
+        }
+
+        @Override
+        public String serviceName() {
+            return embedded.client().serviceName();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static List<Message> drain(String queueUrl) {
+        List<Message> all = new ArrayList<>();
+        List<Message> batch;
+        while (!(batch = embedded.client().receiveMessage(r -> r.queueUrl(queueUrl).maxNumberOfMessages(10)
+                .attributeNamesWithStrings("All")).messages()).isEmpty()) {
+            all.addAll(batch);
+        }
+        return all;
+    }
+
+    private static void sendAll(List<CompletableFuture<?>> sends) {
+        CompletableFuture.allOf(sends.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    @Test
+    public void testKeysStayOnTheirShard() throws Exception {
+        try (ShardedQueue queue = ShardedQueue.builder().client(embedded.client()).name("orders").shards(4).build()) {
+            List<CompletableFuture<?>> sends = new ArrayList<>();
+            for (int i = 0; i < 800; i++) {
+                String key = "customer-" + (i % 200);
+                sends.add(queue.send(key, key));
+            }
+            sendAll(sends);
+
+            assertEquals(4, queue.shardCount());
+            for (int shard = 0; shard < 4; shard++) {
+                List<Message> messages = drain(queue.shardUrls().get(shard));
+                assertTrue("shard " + shard + " got " + messages.size(), messages.size() > 100 && messages.size() < 300);
+                for (Message message : messages) {
+                    assertEquals(shard, queue.shardFor(message.body()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRoundRobinSpreadsEvenly() throws Exception {
+        try (ShardedQueue queue = ShardedQueue.builder().client(embedded.client()).name("events").shards(4)
+                .routing(ShardedQueue.Routing.ROUND_ROBIN).build()) {
+            List<CompletableFuture<?>> sends = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                sends.add(queue.send("same key", "event " + i));
+            }
+            sendAll(sends);
+            for (String url : queue.shardUrls()) {
+                assertEquals(10, drain(url).size());
+            }
+        }
+    }
+
+    @Test
+    public void testAddedShardsTakeOnlyTheirShareOfKeys() throws Exception {
+        ShardedQueue queue = ShardedQueue.builder().client(embedded.client()).name("payments").shards(4)
+                .attributes(Collections.singletonMap("VisibilityTimeout", "45")).build();
+        // Another process using the same logical queue.
+        ShardedQueue other = ShardedQueue.builder().client(embedded.client()).name("payments")
+                .refreshInterval(Duration.ZERO).build();
+        assertEquals(4, other.shardCount());
+
+        int[] before = new int[10000];
+        for (int i = 0; i < before.length; i++) {
+            before[i] = queue.shardFor("key-" + i);
+        }
+        assertEquals(5, queue.addShards(1));
+        int moved = 0;
+        for (int i = 0; i < before.length; i++) {
+            int after = queue.shardFor("key-" + i);
+            if (after != before[i]) {
+                assertEquals(4, after);
+                moved++;
+            }
+        }
+        assertTrue("moved " + moved, moved > 1700 && moved < 2300);
+
+        String newShard = queue.shardUrls().get(4);
+        assertTrue(newShard, newShard.endsWith("/payments-4"));
+        assertEquals("45", embedded.client().getQueueAttributes(r -> r.queueUrl(newShard)
+                .attributeNames(QueueAttributeName.VISIBILITY_TIMEOUT)).attributes().get(QueueAttributeName.VISIBILITY_TIMEOUT));
+        assertEquals(4, other.shardCount());
+        assertEquals(5, other.refresh());
+        queue.close();
+        other.close();
+    }
+
+    @Test
+    public void testConsumersFollowAddedShards() throws Exception {
+        Set<String> received = ConcurrentHashMap.newKeySet();
+        try (ShardedQueue queue = ShardedQueue.builder().client(embedded.client()).name("jobs").shards(3).build()) {
+            queue.startConsumers(url -> QueueConsumer.builder()
+                    .client(embedded.asyncClient()).queueUrl(url).waitTimeSeconds(1)
+                    .handler(message -> received.add(message.body()))
+                    .build());
+            List<CompletableFuture<?>> sends = new ArrayList<>();
+            for (int i = 0; i < 60; i++) {
+                sends.add(queue.send("job " + i));
+            }
+            queue.addShards(1);
+            for (int i = 60; i < 200; i++) {
+                sends.add(queue.send("key " + i, "job " + i));
+            }
+            sendAll(sends);
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (received.size() < 200 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(200, received.size());
+            assertTrue(queue.shutdown(Duration.ofSeconds(5)));
+        }
+    }
+
+    @Test
+    public void testFifoShardsKeepGroupOrder() throws Exception {
+        try (ShardedQueue queue = ShardedQueue.builder().client(embedded.client()).name("ledger.fifo").shards(3).build()) {
+            assertTrue(queue.shardUrls().get(2), queue.shardUrls().get(2).endsWith("/ledger-2.fifo"));
+            List<CompletableFuture<?>> sends = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                for (int account = 0; account < 6; account++) {
+                    sends.add(queue.send("account-" + account, account + ":" + i));
+                }
+            }
+            sendAll(sends);
+
+            Map<String, AtomicInteger> next = new ConcurrentHashMap<>();
+            int total = 0;
+            for (String url : queue.shardUrls()) {
+                // Received messages hold their group back until deleted, so delete batch by batch.
+                List<Message> batch;
+                while (!(batch = embedded.client().receiveMessage(r -> r.queueUrl(url).maxNumberOfMessages(10)
+                        .attributeNamesWithStrings("All")).messages()).isEmpty()) {
+                    for (Message message : batch) {
+                        String group = message.attributesAsStrings().get(MessageSystemAttributeName.MESSAGE_GROUP_ID.toString());
+                        String body = message.body();
+                        assertEquals("account-" + body.substring(0, body.indexOf(':')), group);
+                        assertEquals(url, queue.shardUrls().get(queue.shardFor(group)));
+                        int i = Integer.parseInt(body.substring(body.indexOf(':') + 1));
+                        assertEquals(next.computeIfAbsent(group, g -> new AtomicInteger()).getAndIncrement(), i);
+                        embedded.client().deleteMessage(r -> r.queueUrl(url).receiptHandle(message.receiptHandle()));
+                        total++;
+                    }
+                }
+            }
+            assertEquals(120, total);
+        }
+    }
+
+    @Test
+    public void testCreatedShardsAreUsedBeforeTheyAreListed() throws Exception {
+        LaggingListClient lagging = new LaggingListClient();
+        try (ShardedQueue queue = ShardedQueue.builder().client(lagging).name("invoices").shards(3)
+                .producerFactory(url -> BatchingProducer.builder().client(embedded.client()).queueUrl(url).build())
+                .refreshInterval(Duration.ZERO).build()) {
+            assertEquals(3, queue.shardCount());
+            assertEquals(5, queue.addShards(2));
+            assertEquals(5, queue.refresh());
+            assertTrue(queue.shardUrls().get(4), queue.shardUrls().get(4).endsWith("/invoices-4"));
+
+            List<CompletableFuture<?>> sends = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                sends.add(queue.send("key-" + i, "invoice " + i));
+            }
+            sendAll(sends);
+            int total = 0;
+            for (String url : queue.shardUrls()) {
+                total += drain(url).size();
+            }
+            assertEquals(50, total);
+
+            // A shard added elsewhere is picked up once it is listed.
+            embedded.client().createQueue(r -> r.queueName("invoices-5"));
+            assertEquals(5, queue.refresh());
+            lagging.listed = true;
+            assertEquals(6, queue.refresh());
+        }
+    }
+}
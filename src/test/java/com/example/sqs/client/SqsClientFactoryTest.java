@@ -0,0 +1,62 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.client;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.net.URI;
+
+import com.example.sqs.SqsClientFactory;
+import com.example.sqs.SqsClientSettings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+
+public class SqsClientFactoryTest {
+
+    private SqsClientFactory factory;
+
+    @Before
+    public void setUp() {
+        factory = new SqsClientFactory(SqsClientSettings.builder()
+                .maxConnections(16)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("x", "x")))
+                .build());
+    }
+
+    @After
+    public void tearDown() {
+        factory.close();
+    }
+
+    @Test
+    public void testClientIsSharedPerRegionAndEndpoint() {
+        URI local = URI.create("http://localhost:9324");
+        assertSame(factory.client(Region.US_WEST_2, local), factory.client(Region.US_WEST_2, local));
+        assertSame(factory.asyncClient(Region.US_WEST_2, local), factory.asyncClient(Region.US_WEST_2, local));
+    }
+
+    @Test
+    public void testDistinctEndpointsGetDistinctClients() {
+        assertNotSame(factory.client(Region.US_WEST_2, URI.create("http://localhost:9324")),
+                factory.client(Region.US_WEST_2, URI.create("http://localhost:9325")));
+        assertNotSame(factory.client(Region.US_WEST_2), factory.client(Region.EU_WEST_1));
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
+import com.example.sqs.EmbeddedSqsServer;
+import com.example.sqs.MetricsEndpoint;
+import com.example.sqs.SqsClientFactory;
+import com.example.sqs.SqsClientSettings;
+import com.example.sqs.SqsMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.QueueDoesNotExistException;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+
+public class SqsMetricsTest {
+
+    private EmbeddedSqsServer server;
+    private SqsMetrics metrics;
+    private SqsClientFactory factory;
+    private SqsClient sqs;
+
+    @Before
+    public void setUp() throws Exception {
+        server = EmbeddedSqsServer.builder().build().start();
+        metrics = new SqsMetrics();
+        factory = new SqsClientFactory(SqsClientSettings.builder()
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("x", "x")))
+                .metrics(metrics)
+                .build());
+        sqs = factory.client(Region.US_EAST_1, server.endpoint());
+    }
+
+    @After
+    public void tearDown() {
+        factory.close();
+        server.close();
+    }
+
+    @Test
+    public void testRecordsBatchFillEmptyReceivesAndBytes() {
+        String queueUrl = sqs.createQueue(b -> b.queueName("metrics")).queueUrl();
+        sqs.sendMessageBatch(b -> b.queueUrl(queueUrl).entries(
+                SendMessageBatchRequestEntry.builder().id("1").messageBody("one").build(),
+                SendMessageBatchRequestEntry.builder().id("2").messageBody("two").build()));
+        sqs.receiveMessage(b -> b.queueUrl(queueUrl).maxNumberOfMessages(10));
+        sqs.receiveMessage(b -> b.queueUrl(queueUrl).maxNumberOfMessages(10));
+
+        SqsMetrics.Operation send = metrics.operation("v2", "SendMessageBatch");
+        assertEquals(1, send.requests());
+        assertEquals(2, send.batchEntries());
+        assertEquals(10, send.batchCapacity());
+        assertTrue(send.requestBytes() > 0);
+        assertTrue(send.responseBytes() > 0);
+
+        SqsMetrics.Operation receive = metrics.operation("v2", "ReceiveMessage");
+        assertEquals(2, receive.requests());
+        assertEquals(1, receive.emptyReceives());
+        assertEquals(2, receive.batchEntries());
+        assertEquals(20, receive.batchCapacity());
+        assertNull(metrics.operation("v1", "ReceiveMessage"));
+    }
+
+    @Test
+    public void testCountsErrorsOnceAfterRetries() {
+        try {
+            sqs.getQueueUrl(b -> b.queueName("missing"));
+        } catch (QueueDoesNotExistException e) {
+            // expected
+        }
+        SqsMetrics.Operation operation = metrics.operation("v2", "GetQueueUrl");
+        assertEquals(1, operation.requests());
+        assertEquals(1, operation.errors());
+        assertEquals(0, operation.retries());
+    }
+
+    @Test
+    public void testRecordsV1CallsUnderTheirOwnLabel() {
+        AmazonSQS v1 = AmazonSQSClientBuilder.standard()
+                .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("x", "x")))
+                .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(server.endpoint().toString(), "us-east-1"))
+                .withRequestHandlers(metrics.requestHandler())
+                .build();
+        try {
+            String queueUrl = v1.createQueue("metrics-v1").getQueueUrl();
+            v1.sendMessage(queueUrl, "hello");
+            v1.receiveMessage(queueUrl);
+
+            SqsMetrics.Operation receive = metrics.operation("v1", "ReceiveMessage");
+            assertEquals(1, receive.requests());
+            assertEquals(1, receive.batchEntries());
+            assertEquals(0, receive.emptyReceives());
+            assertTrue(metrics.operation("v1", "SendMessage").requestBytes() > 0);
+        } finally {
+            v1.shutdown();
+        }
+    }
+
+    @Test
+    public void testEndpointServesTextExposition() throws Exception {
+        sqs.listQueues();
+        try (MetricsEndpoint endpoint = MetricsEndpoint.start(metrics, new InetSocketAddress("localhost", 0))) {
+            HttpURLConnection connection = (HttpURLConnection) endpoint.uri().toURL().openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+            String body = read(connection.getInputStream());
+
+            assertTrue(body.contains("# TYPE sqs_client_request_duration_seconds histogram"));
+            assertTrue(body.contains("sqs_client_request_duration_seconds_count{sdk=\"v2\",operation=\"ListQueues\"} 1"));
+            assertTrue(body.contains("sqs_client_request_duration_seconds_bucket{sdk=\"v2\",operation=\"ListQueues\",le=\"+Inf\"} 1"));
+            assertTrue(body.contains("sqs_client_requests_total{sdk=\"v2\",operation=\"ListQueues\"} 1"));
+        }
+    }
+
+    private static String read(InputStream in) throws Exception {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = input.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+
+import com.example.sqs.AdaptiveReceivePolicy;
+import org.junit.Test;
+
+public class AdaptiveReceivePolicyTest {
+
+    private static AdaptiveReceivePolicy policy() {
+        return AdaptiveReceivePolicy.builder().maxPollers(4).adjustInterval(Duration.ZERO).build();
+    }
+
+    @Test
+    public void testBusyQueueGetsShortWaitsFullBatchesAndMorePollers() {
+        AdaptiveReceivePolicy policy = policy();
+        for (int i = 0; i < 30; i++) {
+            policy.record(policy.maxNumberOfMessages(), policy.maxNumberOfMessages());
+        }
+        assertEquals(1, policy.waitTimeSeconds());
+        assertEquals(10, policy.maxNumberOfMessages());
+        assertEquals(4, policy.pollers());
+    }
+
+    @Test
+    public void testIdleQueueGetsLongWaitsAndFewerPollers() {
+        AdaptiveReceivePolicy policy = policy();
+        for (int i = 0; i < 10; i++) {
+            policy.record(10, 10);
+        }
+        assertEquals(4, policy.pollers());
+        for (int i = 0; i < 30; i++) {
+            policy.record(policy.maxNumberOfMessages(), 0);
+        }
+        assertEquals(20, policy.waitTimeSeconds());
+        assertEquals(1, policy.maxNumberOfMessages());
+        assertEquals(1, policy.pollers());
+    }
+
+    @Test
+    public void testBurstAfterIdleRestoresFullBatchesQuickly() {
+        AdaptiveReceivePolicy policy = policy();
+        for (int i = 0; i < 30; i++) {
+            policy.record(policy.maxNumberOfMessages(), 0);
+        }
+        assertEquals(1, policy.maxNumberOfMessages());
+        for (int i = 0; i < 4; i++) {
+            policy.record(policy.maxNumberOfMessages(), policy.maxNumberOfMessages());
+        }
+        assertEquals(10, policy.maxNumberOfMessages());
+        assertTrue(policy.waitTimeSeconds() < 20);
+    }
+
+    @Test
+    public void testPollerChangesAreRateLimited() {
+        AdaptiveReceivePolicy policy = AdaptiveReceivePolicy.builder()
+                .maxPollers(4).adjustInterval(Duration.ofHours(1)).build();
+        for (int i = 0; i < 10; i++) {
+            policy.record(10, 10);
+        }
+        assertEquals(2, policy.pollers());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRejectsWaitAboveServiceLimit() {
+        AdaptiveReceivePolicy.builder().maxWaitTimeSeconds(21).build();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.sqs.DeduplicationFilter;
+import com.example.sqs.MessageHandler;
+import org.junit.Test;
+import software.amazon.awssdk.services.sqs.model.Message;
+
+public class DeduplicationFilterTest {
+
+    private static final int KEYS = 300;
+
+    private static Message message(String id) {
+        return Message.builder().messageId(id).receiptHandle("r-" + id).body("body").build();
+    }
+
+    @Test
+    public void testHandlerDropsCopiesOfProcessedMessages() throws Exception {
+        DeduplicationFilter filter = DeduplicationFilter.builder().build();
+        AtomicInteger handled = new AtomicInteger();
+        MessageHandler handler = filter.handler(message -> handled.incrementAndGet());
+
+        handler.handle(message("a"));
+        handler.handle(message("b"));
+        handler.handle(message("a"));
+
+        assertEquals(2, handled.get());
+        assertEquals(1, filter.duplicates());
+        assertTrue(filter.contains("a"));
+        assertFalse(filter.contains("c"));
+    }
+
+    @Test
+    public void testFailedMessageIsHandledAgain() throws Exception {
+        DeduplicationFilter filter = DeduplicationFilter.builder().build();
+        AtomicInteger attempts = new AtomicInteger();
+        MessageHandler handler = filter.handler(message -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("first attempt fails");
+            }
+        });
+
+        try {
+            handler.handle(message("a"));
+            fail("handler failure was swallowed");
+        } catch (IllegalStateException expected) {
+        }
+        assertFalse(filter.contains("a"));
+        handler.handle(message("a"));
+        handler.handle(message("a"));
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testCopyArrivingDuringHandlingIsLeftInQueue() throws Exception {
+        DeduplicationFilter filter = DeduplicationFilter.builder().build();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MessageHandler handler = filter.handler(message -> {
+            started.countDown();
+            release.await();
+        });
+        Thread first = new Thread(() -> {
+            try {
+                handler.handle(message("a"));
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        first.start();
+        started.await();
+        try {
+            handler.handle(message("a"));
+            fail("copy was acknowledged while the first delivery was still being handled");
+        } catch (IllegalStateException expected) {
+        }
+        release.countDown();
+        first.join();
+        handler.handle(message("a"));
+        assertEquals(1, filter.duplicates());
+    }
+
+    @Test
+    public void testKeysExpire() throws Exception {
+        DeduplicationFilter filter = DeduplicationFilter.builder().expireAfter(Duration.ofMillis(60)).build();
+        filter.add("old");
+        assertTrue(filter.contains("old"));
+        Thread.sleep(100);
+        assertFalse(filter.contains("old"));
+        assertTrue(filter.add("old"));
+        assertFalse(filter.add("old"));
+    }
+
+    @Test
+    public void testMemoryStaysBoundedAndRecentKeysSurvive() {
+        DeduplicationFilter filter = DeduplicationFilter.builder().capacity(100000).expireAfter(Duration.ofHours(1)).build();
+        long memory = filter.memoryBytes();
+        String[] keys = new String[1000000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = UUID.randomUUID().toString();
+            filter.add(keys[i]);
+        }
+
+        assertEquals(memory, filter.memoryBytes());
+        assertTrue("memory was " + memory, memory <= 100000 * 16 * 4);
+        for (int i = keys.length - 100000; i < keys.length; i++) {
+            assertTrue(filter.contains(keys[i]));
+        }
+        int remembered = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.contains(keys[i])) {
+                remembered++;
+            }
+        }
+        assertEquals(0, remembered);
+    }
+
+    @Test
+    public void testRemovalKeepsProbeRunsIntact() throws Exception {
+        // 32-slot tables mostly full. Handlers are nested, so a failed claim is removed after later keys were
+        // inserted behind it in the same probe run.
+        DeduplicationFilter filter = DeduplicationFilter.builder().capacity(48 * 24).expireAfter(Duration.ofHours(1)).build();
+        Random random = new Random(42);
+        Set<String> processed = new HashSet<>();
+        for (int i = 0; i < 2000; i++) {
+            handleNested(filter, random, processed, 3);
+            for (int k = 0; k < KEYS; k++) {
+                assertEquals("m" + k, processed.contains("m" + k), filter.contains("m" + k));
+            }
+        }
+        assertTrue(processed.size() > KEYS / 2);
+    }
+
+    private static void handleNested(DeduplicationFilter filter, Random random, Set<String> processed, int depth)
+            throws Exception {
+        String id = "m" + random.nextInt(KEYS);
+        boolean fail = random.nextInt(3) > 0;
+        try {
+            filter.handler(message -> {
+                if (depth > 1) {
+                    handleNested(filter, random, processed, depth - 1);
+                }
+                if (fail) {
+                    throw new IllegalStateException();
+                }
+            }).handle(message(id));
+            processed.add(id);
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
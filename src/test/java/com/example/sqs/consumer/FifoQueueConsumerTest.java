@@ -0,0 +1,198 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.example.sqs.BatchingProducer;
+import com.example.sqs.PoisonMessageQuarantine;
+import com.example.sqs.QueueConsumer;
+import com.example.sqs.QueueResolver;
+import com.example.sqs.server.EmbeddedSqs;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+
+public class FifoQueueConsumerTest {
+
+    private static final int GROUPS = 6;
+    private static final int PER_GROUP = 40;
+
+    @ClassRule
+    public static final EmbeddedSqs embedded = new EmbeddedSqs();
+
+    private static final AtomicInteger queues = new AtomicInteger();
+    private String queueUrl;
+
+    @Before
+    public void setUp() {
+        queueUrl = new QueueResolver(embedded.client())
+                .createFifoQueue("ordered-" + queues.incrementAndGet() + ".fifo", true);
+        try (BatchingProducer producer = BatchingProducer.builder().client(embedded.client()).queueUrl(queueUrl).build()) {
+            for (int i = 0; i < PER_GROUP; i++) {
+                for (int group = 0; group < GROUPS; group++) {
+                    producer.send(group + ":" + i, "g" + group);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBlockedGroupDoesNotStallOthers() throws Exception {
+        Map<String, List<Integer>> handled = new ConcurrentHashMap<>();
+        Map<String, Long> finished = new ConcurrentHashMap<>();
+        CountDownLatch othersDone = new CountDownLatch(GROUPS - 1);
+        AtomicBoolean othersFinishedWhileBlocked = new AtomicBoolean();
+        QueueConsumer consumer = QueueConsumer.builder()
+                .client(embedded.asyncClient()).queueUrl(queueUrl)
+                .fetchers(2).handlerThreads(4).waitTimeSeconds(1)
+                .handler(message -> {
+                    String group = message.attributes().get(MessageSystemAttributeName.MESSAGE_GROUP_ID);
+                    int i = Integer.parseInt(message.body().substring(message.body().indexOf(':') + 1));
+                    // The first message of g0 holds its thread until every other group is done.
+                    if (group.equals("g0") && i == 0) {
+                        othersFinishedWhileBlocked.set(othersDone.await(20, TimeUnit.SECONDS));
+                    }
+                    List<Integer> order = handled.computeIfAbsent(group, g -> Collections.synchronizedList(new ArrayList<>()));
+                    order.add(i);
+                    if (order.size() == PER_GROUP) {
+                        finished.put(group, System.nanoTime());
+                        if (!group.equals("g0")) {
+                            othersDone.countDown();
+                        }
+                    }
+                })
+                .build();
+        consumer.start();
+        awaitFinished(finished, GROUPS);
+        assertTrue(consumer.shutdown(Duration.ofSeconds(5)));
+
+        assertTrue(othersFinishedWhileBlocked.get());
+        assertInOrder(handled);
+    }
+
+    @Test
+    public void testFailureRedeliversRestOfGroupInOrder() throws Exception {
+        Map<String, List<Integer>> handled = new ConcurrentHashMap<>();
+        Map<String, Long> finished = new ConcurrentHashMap<>();
+        AtomicBoolean failed = new AtomicBoolean();
+        AtomicLong errors = new AtomicLong();
+        QueueConsumer consumer = QueueConsumer.builder()
+                .client(embedded.asyncClient()).queueUrl(queueUrl)
+                .handlerThreads(4).waitTimeSeconds(1).visibilityTimeout(1)
+                .handler(message -> {
+                    String group = message.attributes().get(MessageSystemAttributeName.MESSAGE_GROUP_ID);
+                    int i = Integer.parseInt(message.body().substring(message.body().indexOf(':') + 1));
+                    if (group.equals("g2") && i == 5 && failed.compareAndSet(false, true)) {
+                        throw new IllegalStateException("first attempt fails");
+                    }
+                    List<Integer> order = handled.computeIfAbsent(group, g -> Collections.synchronizedList(new ArrayList<>()));
+                    order.add(i);
+                    if (order.size() == PER_GROUP) {
+                        finished.put(group, System.nanoTime());
+                    }
+                })
+                .errorHandler((message, error) -> errors.incrementAndGet())
+                .build();
+        consumer.start();
+        awaitFinished(finished, GROUPS);
+        assertTrue(consumer.shutdown(Duration.ofSeconds(5)));
+
+        assertEquals(1, errors.get());
+        assertInOrder(handled);
+    }
+
+    @Test
+    public void testGroupWaitsUntilPoisonMessageIsQuarantined() throws Exception {
+        String quarantineUrl = embedded.client()
+                .createQueue(r -> r.queueName("ordered-quarantine-" + queues.get())).queueUrl();
+        // A long linger, so the next message of the group would overtake the quarantine if it did not wait.
+        PoisonMessageQuarantine quarantine = PoisonMessageQuarantine.builder()
+                .client(embedded.client()).queueUrl(queueUrl).quarantineQueueUrl(quarantineUrl)
+                .poisonOn(IllegalArgumentException.class).linger(Duration.ofMillis(300))
+                .build();
+        Map<String, List<Integer>> handled = new ConcurrentHashMap<>();
+        Map<String, Long> finished = new ConcurrentHashMap<>();
+        AtomicLong quarantinedBeforeNext = new AtomicLong(-1);
+        QueueConsumer consumer = QueueConsumer.builder()
+                .client(embedded.asyncClient()).queueUrl(queueUrl)
+                .handlerThreads(4).waitTimeSeconds(1)
+                .quarantine(quarantine)
+                .handler(message -> {
+                    String group = message.attributes().get(MessageSystemAttributeName.MESSAGE_GROUP_ID);
+                    int i = Integer.parseInt(message.body().substring(message.body().indexOf(':') + 1));
+                    if (group.equals("g2") && i == 5) {
+                        throw new IllegalArgumentException("unreadable");
+                    }
+                    if (group.equals("g2") && i == 6) {
+                        quarantinedBeforeNext.set(quarantine.quarantined());
+                    }
+                    List<Integer> order = handled.computeIfAbsent(group, g -> Collections.synchronizedList(new ArrayList<>()));
+                    order.add(i);
+                    if (order.size() == (group.equals("g2") ? PER_GROUP - 1 : PER_GROUP)) {
+                        finished.put(group, System.nanoTime());
+                    }
+                })
+                .errorHandler((message, error) -> { })
+                .build();
+        consumer.start();
+        awaitFinished(finished, GROUPS);
+        assertTrue(consumer.shutdown(Duration.ofSeconds(5)));
+        quarantine.close();
+
+        assertEquals(1, quarantinedBeforeNext.get());
+        List<Integer> g2 = handled.remove("g2");
+        assertEquals(PER_GROUP - 1, g2.size());
+        for (int i = 0; i < g2.size(); i++) {
+            assertEquals(i < 5 ? i : i + 1, (int) g2.get(i));
+        }
+        assertEquals(GROUPS - 1, handled.size());
+        for (List<Integer> order : handled.values()) {
+            assertEquals(PER_GROUP, order.size());
+        }
+    }
+
+    private static void assertInOrder(Map<String, List<Integer>> handled) {
+        assertEquals(GROUPS, handled.size());
+        for (List<Integer> order : handled.values()) {
+            assertEquals(PER_GROUP, order.size());
+            for (int i = 0; i < PER_GROUP; i++) {
+                assertEquals(i, (int) order.get(i));
+            }
+        }
+    }
+
+    private static void awaitFinished(Map<String, Long> finished, int groups) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000;
+        while (finished.size() < groups && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
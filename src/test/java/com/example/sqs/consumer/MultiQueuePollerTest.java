@@ -0,0 +1,162 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.sqs.BatchingAcknowledger;
+import com.example.sqs.BatchingProducer;
+import com.example.sqs.MultiQueuePoller;
+import com.example.sqs.server.EmbeddedSqs;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class MultiQueuePollerTest {
+
+    @ClassRule
+    public static final EmbeddedSqs embedded = new EmbeddedSqs();
+
+    private static String queueWith(String name, int messages) {
+        String url = embedded.client().createQueue(r -> r.queueName(name)).queueUrl();
+        try (BatchingProducer producer = BatchingProducer.builder().client(embedded.client()).queueUrl(url).build()) {
+            for (int i = 0; i < messages; i++) {
+                producer.send(name + " " + i);
+            }
+        }
+        return url;
+    }
+
+    private static void await(AtomicInteger counter, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (counter.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testIdleQueuesBackOffWhileBusyOneDrains() throws Exception {
+        List<String> idle = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            idle.add(queueWith("tenant-idle-" + i, 0));
+        }
+        String busy = queueWith("tenant-busy", 600);
+        AtomicInteger handled = new AtomicInteger();
+        MultiQueuePoller poller = MultiQueuePoller.builder()
+                .client(embedded.asyncClient()).queueNamePrefix("tenant-")
+                .maxConcurrentReceives(4).waitTimeSeconds(1)
+                .minIdleBackoff(Duration.ofMillis(500)).maxIdleBackoff(Duration.ofSeconds(10))
+                .handler(message -> handled.incrementAndGet())
+                .build();
+        poller.start();
+        assertEquals(41, poller.queueCount());
+        await(handled, 600);
+        // Keep polling for a while with nothing left anywhere.
+        Thread.sleep(2000);
+        assertTrue(poller.shutdown(Duration.ofSeconds(5)));
+
+        assertEquals(600, handled.get());
+        for (String url : idle) {
+            // 500 ms, 1 s, 2 s, 4 s of rest in a few seconds: a handful of receives each, not one per second.
+            assertTrue(url + " " + poller.receives(url), poller.receives(url) <= 5);
+        }
+        assertTrue("busy " + poller.receives(busy), poller.receives(busy) >= 60);
+    }
+
+    @Test
+    public void testWeightsShareReceives() throws Exception {
+        // Enough receives that one slow receive, charged its full latency, cannot skew the ratio.
+        String heavy = queueWith("weighted-heavy", 800);
+        String light = queueWith("weighted-light", 800);
+        Map<String, AtomicInteger> handled = new ConcurrentHashMap<>();
+        AtomicInteger total = new AtomicInteger();
+        MultiQueuePoller poller = MultiQueuePoller.builder()
+                .client(embedded.asyncClient()).queueNamePrefix("weighted-")
+                .weights(url -> url.equals(heavy) ? 3 : 1)
+                .maxConcurrentReceives(1).waitTimeSeconds(1)
+                .handler((queueUrl, message) -> {
+                    handled.computeIfAbsent(queueUrl, u -> new AtomicInteger()).incrementAndGet();
+                    total.incrementAndGet();
+                })
+                .build();
+        poller.start();
+        await(total, 800);
+        assertTrue(poller.shutdown(Duration.ofSeconds(5)));
+
+        double ratio = (double) handled.get(heavy).get() / handled.get(light).get();
+        assertTrue("ratio " + ratio, ratio > 2.4 && ratio < 3.6);
+    }
+
+    @Test
+    public void testAcknowledgersDeleteHandledMessages() throws Exception {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String url = queueWith("acked-" + i, 50);
+            embedded.client().setQueueAttributes(r -> r.queueUrl(url)
+                    .attributesWithStrings(Collections.singletonMap("VisibilityTimeout", "1")));
+            urls.add(url);
+        }
+        List<String> acknowledged = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger handled = new AtomicInteger();
+        MultiQueuePoller poller = MultiQueuePoller.builder()
+                .client(embedded.asyncClient()).queueNamePrefix("acked-").waitTimeSeconds(1)
+                .acknowledgers(url -> {
+                    acknowledged.add(url);
+                    return BatchingAcknowledger.builder().client(embedded.client()).queueUrl(url).build();
+                })
+                .handler(message -> handled.incrementAndGet())
+                .build();
+        poller.start();
+        await(handled, 150);
+        assertTrue(poller.shutdown(Duration.ofSeconds(5)));
+        assertEquals(0, poller.inFlightMessages());
+        assertEquals(150, handled.get());
+        assertEquals(3, acknowledged.size());
+
+        // Anything not deleted would be visible again by now.
+        Thread.sleep(1500);
+        for (String url : urls) {
+            assertTrue(url, embedded.client().receiveMessage(r -> r.queueUrl(url).maxNumberOfMessages(10))
+                    .messages().isEmpty());
+        }
+    }
+
+    @Test
+    public void testRefreshFindsNewQueues() throws Exception {
+        queueWith("growing-0", 10);
+        AtomicInteger handled = new AtomicInteger();
+        MultiQueuePoller poller = MultiQueuePoller.builder()
+                .client(embedded.asyncClient()).queueNamePrefix("growing-").waitTimeSeconds(1)
+                .refreshInterval(Duration.ZERO)
+                .handler(message -> handled.incrementAndGet())
+                .build();
+        poller.start();
+        await(handled, 10);
+        queueWith("growing-1", 20);
+        assertEquals(2, poller.refresh());
+        await(handled, 30);
+        assertTrue(poller.shutdown(Duration.ofSeconds(5)));
+        assertEquals(30, handled.get());
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.sqs.PoisonMessageQuarantine;
+import com.example.sqs.QueueConsumer;
+import com.example.sqs.server.EmbeddedSqs;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+
+public class PoisonMessageQuarantineTest {
+
+    @ClassRule
+    public static final EmbeddedSqs embedded = new EmbeddedSqs();
+
+    private static final AtomicInteger queues = new AtomicInteger();
+    private String queueUrl;
+    private String quarantineUrl;
+
+    @Before
+    public void setUp() {
+        int n = queues.incrementAndGet();
+        queueUrl = embedded.client().createQueue(r -> r.queueName("work-" + n)).queueUrl();
+        quarantineUrl = embedded.client().createQueue(r -> r.queueName("quarantine-" + n)).queueUrl();
+        for (int i = 0; i < 20; i++) {
+            String body = (i % 5 == 0 ? "poison " : "good ") + i;
+            embedded.client().sendMessage(r -> r.queueUrl(queueUrl).messageBody(body));
+        }
+    }
+
+    // Handles until the queue is empty; poison messages throw. Returns the attempts per body.
+    private Map<String, AtomicInteger> consume(PoisonMessageQuarantine quarantine, RuntimeException failure)
+            throws Exception {
+        Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+        QueueConsumer consumer = QueueConsumer.builder()
+                .client(embedded.asyncClient()).queueUrl(queueUrl)
+                .fetchers(2).handlerThreads(4).waitTimeSeconds(1)
+                // Failed messages come back after a second.
+                .visibilityTimeout(1)
+                .quarantine(quarantine)
+                .handler(message -> {
+                    attempts.computeIfAbsent(message.body(), b -> new AtomicInteger()).incrementAndGet();
+                    if (message.body().startsWith("poison")) {
+                        throw failure;
+                    }
+                })
+                .errorHandler((message, error) -> { })
+                .build();
+        consumer.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (depth(queueUrl) > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(consumer.shutdown(Duration.ofSeconds(5)));
+        quarantine.close();
+        return attempts;
+    }
+
+    private long depth(String url) {
+        Map<QueueAttributeName, String> attributes = embedded.client().getQueueAttributes(r -> r.queueUrl(url)
+                .attributeNames(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES,
+                        QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE)).attributes();
+        return Long.parseLong(attributes.get(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES))
+                + Long.parseLong(attributes.get(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE));
+    }
+
+    private List<Message> quarantined() {
+        return embedded.client().receiveMessage(r -> r.queueUrl(quarantineUrl).maxNumberOfMessages(10)
+                .messageAttributeNames("All")).messages();
+    }
+
+    private PoisonMessageQuarantine.Builder quarantine() {
+        return PoisonMessageQuarantine.builder()
+                .client(embedded.client()).queueUrl(queueUrl).quarantineQueueUrl(quarantineUrl)
+                .maxReceiveCount(100);
+    }
+
+    @Test
+    public void testRepeatedFailuresAreQuarantinedEarly() throws Exception {
+        PoisonMessageQuarantine quarantine = quarantine().maxFailures(2).build();
+        Map<String, AtomicInteger> attempts = consume(quarantine, new IllegalStateException("bad order"));
+
+        assertEquals(4, quarantine.quarantined());
+        Set<String> bodies = new HashSet<>();
+        for (Message message : quarantined()) {
+            bodies.add(message.body());
+            assertEquals(IllegalStateException.class.getName() + ": bad order",
+                    message.messageAttributes().get("QuarantineReason").stringValue());
+            assertEquals(queueUrl, message.messageAttributes().get("QuarantineSourceQueue").stringValue());
+            assertEquals("2", message.messageAttributes().get("QuarantineReceiveCount").stringValue());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("poison 0", "poison 5", "poison 10", "poison 15")), bodies);
+        for (Map.Entry<String, AtomicInteger> entry : attempts.entrySet()) {
+            assertEquals(entry.getKey(), entry.getKey().startsWith("poison") ? 2 : 1, entry.getValue().get());
+        }
+    }
+
+    @Test
+    public void testPoisonTypesAreQuarantinedOnFirstFailure() throws Exception {
+        PoisonMessageQuarantine quarantine = quarantine().maxFailures(10)
+                .poisonOn(IllegalArgumentException.class).build();
+        Map<String, AtomicInteger> attempts = consume(quarantine, new NumberFormatException("not a number"));
+
+        assertEquals(4, quarantine.quarantined());
+        assertEquals(4, quarantined().size());
+        assertEquals(1, attempts.get("poison 5").get());
+    }
+
+    @Test
+    public void testReceiveCountCoversEarlierAttempts() throws Exception {
+        // Every message was received once already, by a consumer that gave it back.
+        List<Message> received = new ArrayList<>();
+        while (received.size() < 20) {
+            received.addAll(embedded.client().receiveMessage(r -> r.queueUrl(queueUrl).maxNumberOfMessages(10)).messages());
+        }
+        for (Message message : received) {
+            embedded.client().changeMessageVisibility(r -> r.queueUrl(queueUrl).receiptHandle(message.receiptHandle())
+                    .visibilityTimeout(0));
+        }
+        PoisonMessageQuarantine quarantine = quarantine().maxFailures(10).maxReceiveCount(2).build();
+        Map<String, AtomicInteger> attempts = consume(quarantine, new IllegalStateException("bad order"));
+
+        assertEquals(4, quarantine.quarantined());
+        assertEquals(1, attempts.get("poison 0").get());
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.sqs.PrefetchingReceiver;
+import org.junit.Test;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesRequest;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesResponse;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+
+public class PrefetchingReceiverTest {
+
+    // In-memory queue; an empty receive completes after a short simulated long poll.
+    private static class InMemoryQueue implements SqsAsyncClient {
+        final ConcurrentLinkedQueue<Message> messages = new ConcurrentLinkedQueue<>();
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicInteger released = new AtomicInteger();
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        volatile CompletableFuture<GetQueueAttributesResponse> attributes = CompletableFuture.completedFuture(
+                GetQueueAttributesResponse.builder()
+                        .attributes(Collections.singletonMap(QueueAttributeName.VISIBILITY_TIMEOUT, "30"))
+                        .build());
+
+        InMemoryQueue(int count) {
+            for (int i = 0; i < count; i++) {
+                messages.add(Message.builder().messageId("m" + i).receiptHandle("r" + i).body("body " + i).build());
+            }
+        }
+
+        @Override
+        public CompletableFuture<ReceiveMessageResponse> receiveMessage(ReceiveMessageRequest request) {
+            List<Message> batch = new ArrayList<>();
+            Message message;
+            while (batch.size() < request.maxNumberOfMessages() && (message = messages.poll()) != null) {
+                batch.add(message);
+            }
+            received.addAndGet(batch.size());
+            CompletableFuture<ReceiveMessageResponse> response = new CompletableFuture<>();
+            ReceiveMessageResponse result = ReceiveMessageResponse.builder().messages(batch).build();
+            timer.schedule(() -> response.complete(result), batch.isEmpty() ? 50 : 1, TimeUnit.MILLISECONDS);
+            return response;
+        }
+
+        @Override
+        public CompletableFuture<ChangeMessageVisibilityBatchResponse> changeMessageVisibilityBatch(
+                ChangeMessageVisibilityBatchRequest request) {
+            released.addAndGet(request.entries().size());
+            return CompletableFuture.completedFuture(ChangeMessageVisibilityBatchResponse.builder().build());
+        }
+
+        @Override
+        public CompletableFuture<GetQueueAttributesResponse> getQueueAttributes(GetQueueAttributesRequest request) {
+            return attributes;
+        }
+
+        @Override
+        public String serviceName() {
+            return "sqs";
+        }
+
+        @Override
+        public void close() {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBufferFillsAheadOfConsumption() throws Exception {
+        InMemoryQueue sqs = new InMemoryQueue(100);
+        try (PrefetchingReceiver receiver = PrefetchingReceiver.builder()
+                .client(sqs).queueUrl("q").visibilityTimeout(30)
+                .lowWatermark(5).highWatermark(20)
+                .build()) {
+            receiver.start();
+            Thread.sleep(200);
+            assertEquals(20, receiver.buffered());
+
+            for (int i = 0; i < 15; i++) {
+                assertNotNull(receiver.poll(Duration.ofSeconds(1)));
+            }
+            // Dropping to the low watermark triggered a refill while messages were still buffered.
+            Thread.sleep(200);
+            assertEquals(20, receiver.buffered());
+            assertEquals(35, sqs.received.get());
+        }
+        assertEquals(20, sqs.released.get());
+        sqs.close();
+    }
+
+    @Test
+    public void testMessagesCloseToExpiryAreReleased() throws Exception {
+        InMemoryQueue sqs = new InMemoryQueue(5);
+        try (PrefetchingReceiver receiver = PrefetchingReceiver.builder()
+                .client(sqs).queueUrl("q").visibilityTimeout(1)
+                .minRemainingVisibility(Duration.ofMillis(800))
+                .build()) {
+            receiver.start();
+            Thread.sleep(700);
+            assertEquals(0, receiver.buffered());
+            assertEquals(5, sqs.released.get());
+            assertTrue(receiver.receive(10, Duration.ofMillis(100)).isEmpty());
+        }
+        sqs.close();
+    }
+
+    @Test
+    public void testReceiveWaitsForVisibilityTimeoutLookup() throws Exception {
+        InMemoryQueue sqs = new InMemoryQueue(100);
+        CompletableFuture<GetQueueAttributesResponse> lookup = new CompletableFuture<>();
+        sqs.attributes = lookup;
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try (PrefetchingReceiver receiver = PrefetchingReceiver.builder()
+                .client(sqs).queueUrl("q")
+                .lowWatermark(5).highWatermark(20)
+                .build()) {
+            Future<?> started = callers.submit(receiver::start);
+            Thread.sleep(100);
+            Future<Message> polled = callers.submit(() -> receiver.poll(Duration.ofSeconds(5)));
+            Thread.sleep(100);
+            assertFalse(polled.isDone());
+            assertEquals(0, sqs.received.get());
+
+            lookup.complete(GetQueueAttributesResponse.builder()
+                    .attributes(Collections.singletonMap(QueueAttributeName.VISIBILITY_TIMEOUT, "30"))
+                    .build());
+            started.get(5, TimeUnit.SECONDS);
+            assertNotNull(polled.get(5, TimeUnit.SECONDS));
+            // Prefetching went on filling up to the high watermark.
+            Thread.sleep(200);
+            assertEquals(19, receiver.buffered());
+        } finally {
+            callers.shutdownNow();
+        }
+        sqs.close();
+    }
+
+    @Test
+    public void testFailedLookupLeavesReceiverStopped() throws Exception {
+        InMemoryQueue sqs = new InMemoryQueue(10);
+        CompletableFuture<GetQueueAttributesResponse> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("lookup failed"));
+        sqs.attributes = failed;
+        try (PrefetchingReceiver receiver = PrefetchingReceiver.builder()
+                .client(sqs).queueUrl("q")
+                .build()) {
+            try {
+                receiver.start();
+                fail("start should fail with the lookup");
+            } catch (CompletionException expected) {
+            }
+            assertTrue(receiver.receive(1, Duration.ofMillis(100)).isEmpty());
+            assertEquals(0, sqs.received.get());
+
+            sqs.attributes = CompletableFuture.completedFuture(GetQueueAttributesResponse.builder()
+                    .attributes(Collections.singletonMap(QueueAttributeName.VISIBILITY_TIMEOUT, "30"))
+                    .build());
+            receiver.start();
+            assertNotNull(receiver.poll(Duration.ofSeconds(5)));
+        }
+        sqs.close();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.sqs.BatchingAcknowledger;
+import com.example.sqs.PrioritizedQueue;
+import com.example.sqs.PriorityConsumer;
+import com.example.sqs.server.EmbeddedSqs;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class PriorityConsumerTest {
+
+    @ClassRule
+    public static final EmbeddedSqs embedded = new EmbeddedSqs();
+
+    // Sends count messages with the given priority; bodies are "p<priority> <i>".
+    private static void fill(PrioritizedQueue queue, int priority, int count) {
+        for (int i = 0; i < count; i++) {
+            queue.send(priority, "p" + priority + " " + i);
+        }
+    }
+
+    private static void await(AtomicInteger counter, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (counter.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testStrictModeDrainsHigherLevelsFirst() throws Exception {
+        List<String> handled = new CopyOnWriteArrayList<>();
+        AtomicInteger count = new AtomicInteger();
+        PrioritizedQueue jobs = PrioritizedQueue.builder().client(embedded.client()).name("strict-jobs").levels(3).build();
+        assertEquals(3, jobs.levels());
+        assertTrue(jobs.levelUrl(0).endsWith("/strict-jobs-p0"));
+        fill(jobs, 2, 100);
+        fill(jobs, 1, 100);
+        fill(jobs, 0, 200);
+        jobs.close();
+        PriorityConsumer consumer = PriorityConsumer.builder()
+                .client(embedded.asyncClient()).queueUrls(jobs.levelUrls())
+                .fetchers(1).handlerThreads(4).maxInFlightMessages(10).waitTimeSeconds(1)
+                .handler(message -> {
+                    handled.add(message.body().substring(0, 2));
+                    count.incrementAndGet();
+                })
+                .build();
+        consumer.start();
+        await(count, 200);
+        // Only the round that found the top level short of a full batch went further down.
+        long lowerCalls = consumer.receiveCalls(1) + consumer.receiveCalls(2);
+        await(count, 400);
+        assertTrue(consumer.shutdown(Duration.ofSeconds(5)));
+
+        assertEquals(400, handled.size());
+        assertTrue("lower level calls " + lowerCalls, lowerCalls <= 4);
+        assertTrue("top level calls " + consumer.receiveCalls(0), consumer.receiveCalls(0) >= 20);
+        assertTrue(handled.lastIndexOf("p0") < handled.indexOf("p2"));
+        assertTrue(handled.lastIndexOf("p0") < handled.indexOf("p1"));
+        assertTrue(handled.lastIndexOf("p1") < handled.indexOf("p2") + 10);
+    }
+
+    @Test
+    public void testWeightedModeSharesRounds() throws Exception {
+        AtomicInteger high = new AtomicInteger();
+        AtomicInteger low = new AtomicInteger();
+        PrioritizedQueue jobs = PrioritizedQueue.builder().client(embedded.client()).name("weighted-jobs").levels(2).build();
+        fill(jobs, 0, 300);
+        fill(jobs, 1, 300);
+        jobs.close();
+        PriorityConsumer consumer = PriorityConsumer.builder()
+                .client(embedded.asyncClient()).queueUrls(jobs.levelUrls())
+                .mode(PriorityConsumer.Mode.WEIGHTED).weights(3, 1)
+                .fetchers(1).handlerThreads(1).maxInFlightMessages(10).waitTimeSeconds(1)
+                .handler(message -> (message.body().startsWith("p0") ? high : low).incrementAndGet())
+                .build();
+        consumer.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (high.get() + low.get() < 200 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        int highShare = high.get();
+        int lowShare = low.get();
+        assertTrue(consumer.shutdown(Duration.ofSeconds(5)));
+
+        double share = (double) lowShare / (highShare + lowShare);
+        assertTrue("low share " + share, share > 0.1 && share < 0.45);
+    }
+
+    @Test
+    public void testAgingReadsStarvedLevel() throws Exception {
+        AtomicInteger high = new AtomicInteger();
+        AtomicInteger low = new AtomicInteger();
+        PrioritizedQueue jobs = PrioritizedQueue.builder().client(embedded.client()).name("aging-jobs").levels(2).build();
+        fill(jobs, 0, 1000);
+        fill(jobs, 1, 20);
+        jobs.close();
+        PriorityConsumer consumer = PriorityConsumer.builder()
+                .client(embedded.asyncClient()).queueUrls(jobs.levelUrls())
+                .maxAge(Duration.ofMillis(200))
+                .fetchers(1).handlerThreads(2).maxInFlightMessages(10).waitTimeSeconds(1)
+                .handler(message -> {
+                    Thread.sleep(2);
+                    (message.body().startsWith("p0") ? high : low).incrementAndGet();
+                })
+                .build();
+        consumer.start();
+        await(low, 20);
+        int highDone = high.get();
+        assertTrue(consumer.shutdown(Duration.ofSeconds(5)));
+
+        assertEquals(20, low.get());
+        assertTrue("high " + highDone, highDone < 1000);
+    }
+
+    @Test
+    public void testAcknowledgersDeleteHandledMessages() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        List<String> acknowledged = new CopyOnWriteArrayList<>();
+        PrioritizedQueue jobs = PrioritizedQueue.builder().client(embedded.client()).name("acked-jobs").levels(2)
+                .attributes(Collections.singletonMap("VisibilityTimeout", "1")).build();
+        fill(jobs, 0, 30);
+        fill(jobs, 1, 30);
+        jobs.close();
+        PriorityConsumer consumer = PriorityConsumer.builder()
+                .client(embedded.asyncClient()).queueUrls(jobs.levelUrls()).waitTimeSeconds(1)
+                .acknowledgers(url -> {
+                    acknowledged.add(url);
+                    return BatchingAcknowledger.builder().client(embedded.client()).queueUrl(url).build();
+                })
+                .handler(message -> count.incrementAndGet())
+                .build();
+        consumer.start();
+        await(count, 60);
+        assertTrue(consumer.shutdown(Duration.ofSeconds(5)));
+        assertEquals(60, count.get());
+        assertEquals(jobs.levelUrls(), acknowledged);
+
+        // Anything not deleted would be visible again by now.
+        Thread.sleep(1500);
+        for (String url : jobs.levelUrls()) {
+            assertTrue(url, embedded.client().receiveMessage(r -> r.queueUrl(url).maxNumberOfMessages(10))
+                    .messages().isEmpty());
+        }
+    }
+}
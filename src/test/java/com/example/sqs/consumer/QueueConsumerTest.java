@@ -0,0 +1,186 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.sqs.AdaptiveReceivePolicy;
+import com.example.sqs.QueueConsumer;
+import org.junit.Test;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageResponse;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+
+public class QueueConsumerTest {
+
+    // In-memory queue; an empty receive completes after a short simulated long poll.
+    private static class InMemoryQueue implements SqsAsyncClient {
+        final ConcurrentLinkedQueue<Message> messages = new ConcurrentLinkedQueue<>();
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicInteger deleted = new AtomicInteger();
+        final AtomicInteger maxOutstanding = new AtomicInteger();
+        final AtomicInteger lastWaitTime = new AtomicInteger();
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+        InMemoryQueue(int count) {
+            for (int i = 0; i < count; i++) {
+                messages.add(Message.builder().messageId("m" + i).receiptHandle("r" + i).body("body " + i).build());
+            }
+        }
+
+        @Override
+        public CompletableFuture<ReceiveMessageResponse> receiveMessage(ReceiveMessageRequest request) {
+            lastWaitTime.set(request.waitTimeSeconds());
+            List<Message> batch = new ArrayList<>();
+            Message message;
+            while (batch.size() < request.maxNumberOfMessages() && (message = messages.poll()) != null) {
+                batch.add(message);
+            }
+            int outstanding = received.addAndGet(batch.size()) - deleted.get();
+            maxOutstanding.accumulateAndGet(outstanding, Math::max);
+            CompletableFuture<ReceiveMessageResponse> response = new CompletableFuture<>();
+            ReceiveMessageResponse result = ReceiveMessageResponse.builder().messages(batch).build();
+            if (batch.isEmpty()) {
+                timer.schedule(() -> response.complete(result), 20, TimeUnit.MILLISECONDS);
+            } else {
+                response.complete(result);
+            }
+            return response;
+        }
+
+        @Override
+        public CompletableFuture<DeleteMessageResponse> deleteMessage(DeleteMessageRequest request) {
+            deleted.incrementAndGet();
+            return CompletableFuture.completedFuture(DeleteMessageResponse.builder().build());
+        }
+
+        @Override
+        public String serviceName() {
+            return "sqs";
+        }
+
+        @Override
+        public void close() {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testInFlightMessagesStayWithinLimit() throws Exception {
+        InMemoryQueue sqs = new InMemoryQueue(300);
+        QueueConsumer consumer = QueueConsumer.builder()
+                .client(sqs).queueUrl("q")
+                .fetchers(4).handlerThreads(4).maxInFlightMessages(20)
+                .handler(message -> Thread.sleep(1))
+                .build();
+        consumer.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (sqs.deleted.get() < 300 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(consumer.shutdown(Duration.ofSeconds(5)));
+        sqs.close();
+
+        assertEquals(300, sqs.deleted.get());
+        assertTrue("outstanding was " + sqs.maxOutstanding.get(), sqs.maxOutstanding.get() <= 20);
+    }
+
+    @Test
+    public void testShutdownDrainsReceivedMessages() throws Exception {
+        InMemoryQueue sqs = new InMemoryQueue(1000);
+        QueueConsumer consumer = QueueConsumer.builder()
+                .client(sqs).queueUrl("q")
+                .fetchers(2).handlerThreads(2).maxInFlightMessages(40)
+                .handler(message -> Thread.sleep(2))
+                .build();
+        consumer.start();
+        Thread.sleep(50);
+        assertTrue(consumer.shutdown(Duration.ofSeconds(5)));
+        sqs.close();
+
+        assertEquals(sqs.received.get(), sqs.deleted.get());
+        assertEquals(0, consumer.inFlightMessages());
+        assertTrue(sqs.received.get() < 1000);
+    }
+
+    @Test
+    public void testFailedMessagesAreNotDeleted() throws Exception {
+        InMemoryQueue sqs = new InMemoryQueue(10);
+        AtomicInteger failures = new AtomicInteger();
+        QueueConsumer consumer = QueueConsumer.builder()
+                .client(sqs).queueUrl("q")
+                .handler(message -> {
+                    if (message.body().endsWith("3")) {
+                        throw new IllegalStateException("boom");
+                    }
+                })
+                .errorHandler((message, error) -> failures.incrementAndGet())
+                .build();
+        consumer.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sqs.deleted.get() + failures.get() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(consumer.shutdown(Duration.ofSeconds(5)));
+        sqs.close();
+
+        assertEquals(9, sqs.deleted.get());
+        assertEquals(1, failures.get());
+    }
+
+    @Test
+    public void testReceivePolicyDrainsAndBacksOffWhenEmpty() throws Exception {
+        InMemoryQueue sqs = new InMemoryQueue(500);
+        AdaptiveReceivePolicy policy = AdaptiveReceivePolicy.builder()
+                .maxPollers(4).adjustInterval(Duration.ZERO)
+                .build();
+        QueueConsumer consumer = QueueConsumer.builder()
+                .client(sqs).queueUrl("q")
+                .receivePolicy(policy).handlerThreads(4).maxInFlightMessages(40)
+                .handler(message -> { })
+                .build();
+        consumer.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (sqs.deleted.get() < 500 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // Let the empty receives pull the policy back towards idle.
+        while (policy.pollers() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        assertTrue(consumer.shutdown(Duration.ofSeconds(5)));
+        sqs.close();
+
+        assertEquals(500, sqs.deleted.get());
+        assertEquals(1, policy.pollers());
+        assertTrue("wait was " + sqs.lastWaitTime.get(), sqs.lastWaitTime.get() >= 10);
+    }
+}
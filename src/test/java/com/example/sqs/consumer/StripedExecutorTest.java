@@ -0,0 +1,132 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.sqs.StripedExecutor;
+import org.junit.After;
+import org.junit.Test;
+
+public class StripedExecutorTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testTasksOfOneKeyRunInOrderAndNeverOverlap() throws Exception {
+        StripedExecutor executor = new StripedExecutor(pool);
+        Map<Integer, List<Integer>> seen = new ConcurrentHashMap<>();
+        Map<Integer, AtomicInteger> running = new ConcurrentHashMap<>();
+        AtomicInteger overlaps = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(8 * 200);
+        for (int i = 0; i < 200; i++) {
+            for (int key = 0; key < 8; key++) {
+                int k = key;
+                int n = i;
+                seen.computeIfAbsent(k, x -> Collections.synchronizedList(new ArrayList<>()));
+                running.computeIfAbsent(k, x -> new AtomicInteger());
+                executor.execute(k, () -> {
+                    if (running.get(k).incrementAndGet() > 1) {
+                        overlaps.incrementAndGet();
+                    }
+                    seen.get(k).add(n);
+                    running.get(k).decrementAndGet();
+                    done.countDown();
+                });
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(0, overlaps.get());
+        for (List<Integer> order : seen.values()) {
+            for (int i = 0; i < 200; i++) {
+                assertEquals(i, (int) order.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testBlockedKeyDoesNotStallOthers() throws Exception {
+        StripedExecutor executor = new StripedExecutor(pool);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch others = new CountDownLatch(100);
+        AtomicInteger behindBlocked = new AtomicInteger();
+        executor.execute("slow", () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute("slow", behindBlocked::incrementAndGet);
+        for (int i = 0; i < 100; i++) {
+            executor.execute("key-" + i, others::countDown);
+        }
+
+        assertTrue(others.await(5, TimeUnit.SECONDS));
+        assertEquals(0, behindBlocked.get());
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.activeKeys() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, behindBlocked.get());
+        assertEquals(0, executor.activeKeys());
+    }
+
+    @Test
+    public void testBacklogFinishesAfterShutdown() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        StripedExecutor executor = new StripedExecutor(single);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        executor.execute("k", () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            executor.execute("k", ran::incrementAndGet);
+        }
+        started.await();
+        single.shutdown();
+        release.countDown();
+
+        assertTrue(single.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(5, ran.get());
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.example.sqs.TimingWheel;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    @Test
+    public void testExpiresInDeadlineOrderAcrossRevolutions() {
+        TimingWheel<String> wheel = new TimingWheel<>(Duration.ofMillis(10), 8, 0);
+        wheel.schedule("far", 500);
+        wheel.schedule("near", 25);
+        wheel.schedule("mid", 75);
+        List<String> expired = new ArrayList<>();
+
+        wheel.advance(20, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advance(30, expired::add);
+        assertEquals(Arrays.asList("near"), expired);
+        // "far" shares a bucket with deadlines one revolution earlier and must not fire with them.
+        wheel.advance(100, expired::add);
+        assertEquals(Arrays.asList("near", "mid"), expired);
+        wheel.advance(1000, expired::add);
+        assertEquals(Arrays.asList("near", "mid", "far"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testCancelledTimeoutsDoNotExpire() {
+        TimingWheel<String> wheel = new TimingWheel<>(Duration.ofMillis(10), 8, 0);
+        TimingWheel.Timeout<String> cancelled = wheel.schedule("a", 20);
+        wheel.schedule("b", 20);
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+
+        List<String> expired = new ArrayList<>();
+        wheel.advance(50, expired::add);
+        assertEquals(Arrays.asList("b"), expired);
+    }
+}
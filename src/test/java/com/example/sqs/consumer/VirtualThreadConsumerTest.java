@@ -0,0 +1,166 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.sqs.VirtualThreadConsumer;
+import com.example.sqs.VirtualThreads;
+import org.junit.Test;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageResponse;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+
+public class VirtualThreadConsumerTest {
+
+    // One in-memory queue per URL; empty receives block briefly like a long poll.
+    private static class InMemoryQueues implements SqsClient {
+        final ConcurrentMap<String, ConcurrentLinkedQueue<Message>> queues = new ConcurrentHashMap<>();
+        final AtomicInteger deleted = new AtomicInteger();
+
+        void fill(String queueUrl, int count) {
+            ConcurrentLinkedQueue<Message> queue = new ConcurrentLinkedQueue<>();
+            for (int i = 0; i < count; i++) {
+                queue.add(Message.builder().messageId(queueUrl + i).receiptHandle("r" + i).body("body").build());
+            }
+            queues.put(queueUrl, queue);
+        }
+
+        @Override
+        public ReceiveMessageResponse receiveMessage(ReceiveMessageRequest request) {
+            ConcurrentLinkedQueue<Message> queue = queues.get(request.queueUrl());
+            List<Message> batch = new ArrayList<>();
+            Message message;
+            while (batch.size() < request.maxNumberOfMessages() && (message = queue.poll()) != null) {
+                batch.add(message);
+            }
+            if (batch.isEmpty()) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return ReceiveMessageResponse.builder().messages(batch).build();
+        }
+
+        @Override
+        public DeleteMessageResponse deleteMessage(DeleteMessageRequest request) {
+            deleted.incrementAndGet();
+            return DeleteMessageResponse.builder().build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "sqs";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testAllQueuesAreConsumedAndDrained() throws Exception {
+        InMemoryQueues sqs = new InMemoryQueues();
+        List<String> urls = Arrays.asList("q1", "q2", "q3");
+        for (String url : urls) {
+            sqs.fill(url, 100);
+        }
+        VirtualThreadConsumer consumer = VirtualThreadConsumer.builder()
+                .client(sqs).queueUrls(urls).pollersPerQueue(2).maxInFlightMessages(25)
+                .handler(message -> Thread.sleep(1))
+                .build();
+        assertEquals(VirtualThreads.available(), consumer.usingVirtualThreads());
+        consumer.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (sqs.deleted.get() < 300 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(consumer.shutdown(Duration.ofSeconds(5)));
+        assertEquals(300, sqs.deleted.get());
+        assertEquals(0, consumer.inFlightMessages());
+    }
+
+    @Test
+    public void testPlatformThreadsCanBeForced() throws Exception {
+        InMemoryQueues sqs = new InMemoryQueues();
+        sqs.fill("q", 10);
+        VirtualThreadConsumer consumer = VirtualThreadConsumer.builder()
+                .client(sqs).queueUrl("q").virtualThreads(false)
+                .handler(message -> { })
+                .build();
+        assertFalse(consumer.usingVirtualThreads());
+        consumer.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sqs.deleted.get() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(consumer.shutdown(Duration.ofSeconds(5)));
+        assertEquals(10, sqs.deleted.get());
+    }
+
+    @Test
+    public void testMessagesReceivedAfterShutdownFreeTheirSlots() throws Exception {
+        CountDownLatch receiving = new CountDownLatch(1);
+        CountDownLatch answer = new CountDownLatch(1);
+        InMemoryQueues sqs = new InMemoryQueues() {
+            @Override
+            public ReceiveMessageResponse receiveMessage(ReceiveMessageRequest request) {
+                receiving.countDown();
+                try {
+                    answer.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.receiveMessage(request);
+            }
+        };
+        sqs.fill("q", 3);
+        VirtualThreadConsumer consumer = VirtualThreadConsumer.builder()
+                .client(sqs).queueUrl("q").pollersPerQueue(1)
+                .handler(message -> { })
+                .build();
+        consumer.start();
+        assertTrue(receiving.await(5, TimeUnit.SECONDS));
+        // The poller is still in its receive when the handlers are shut down.
+        assertFalse(consumer.shutdown(Duration.ofMillis(100)));
+        answer.countDown();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (consumer.inFlightMessages() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, consumer.inFlightMessages());
+        assertEquals(0, sqs.deleted.get());
+    }
+}
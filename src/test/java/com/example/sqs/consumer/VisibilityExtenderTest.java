@@ -0,0 +1,114 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.sqs.VisibilityExtender;
+import org.junit.Test;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+
+public class VisibilityExtenderTest {
+
+    // Counts extensions per receipt handle; handles starting with "gone" fail as already deleted.
+    private static class RecordingClient implements SqsClient {
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        final ConcurrentMap<String, AtomicInteger> extensions = new ConcurrentHashMap<>();
+
+        @Override
+        public ChangeMessageVisibilityBatchResponse changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest request) {
+            batchSizes.add(request.entries().size());
+            List<BatchResultErrorEntry> failed = new ArrayList<>();
+            for (ChangeMessageVisibilityBatchRequestEntry entry : request.entries()) {
+                if (entry.receiptHandle().startsWith("gone")) {
+                    failed.add(BatchResultErrorEntry.builder()
+                            .id(entry.id()).code("ReceiptHandleIsInvalid").senderFault(true).build());
+                } else {
+                    extensions.computeIfAbsent(entry.receiptHandle(), h -> new AtomicInteger()).incrementAndGet();
+                }
+            }
+            return ChangeMessageVisibilityBatchResponse.builder().failed(failed).build();
+        }
+
+        int extended(String receiptHandle) {
+            AtomicInteger count = extensions.get(receiptHandle);
+            return count == null ? 0 : count.get();
+        }
+
+        @Override
+        public String serviceName() {
+            return "sqs";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static VisibilityExtender extender(SqsClient sqs) {
+        return VisibilityExtender.builder()
+                .client(sqs).queueUrl("q")
+                .visibilityTimeout(Duration.ofSeconds(1))
+                .margin(Duration.ofMillis(700))
+                .tick(Duration.ofMillis(50))
+                .build();
+    }
+
+    @Test
+    public void testTrackedMessagesAreExtendedInBatches() throws Exception {
+        RecordingClient sqs = new RecordingClient();
+        try (VisibilityExtender extender = extender(sqs)) {
+            for (int i = 0; i < 25; i++) {
+                extender.track("r" + i);
+            }
+            Thread.sleep(1000);
+        }
+        for (int i = 0; i < 25; i++) {
+            assertTrue("r" + i + " was not extended twice", sqs.extended("r" + i) >= 2);
+        }
+        for (int size : sqs.batchSizes) {
+            assertTrue(size <= 10);
+        }
+    }
+
+    @Test
+    public void testUntrackedAndInvalidHandlesStopBeingExtended() throws Exception {
+        RecordingClient sqs = new RecordingClient();
+        try (VisibilityExtender extender = extender(sqs)) {
+            extender.track("done");
+            extender.track("gone");
+            extender.track("busy");
+            extender.untrack("done");
+            Thread.sleep(500);
+            assertEquals(1, extender.trackedMessages());
+        }
+        assertEquals(0, sqs.extended("done"));
+        assertTrue(sqs.extended("busy") >= 1);
+    }
+}
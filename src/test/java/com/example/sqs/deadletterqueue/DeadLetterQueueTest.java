@@ -12,14 +12,15 @@
  * License for the specific language governing permissions and
  * limitations under the License.
  *
- * NOTE: Before running the test case, please run a local instance of elasticMQ
- *       download a execute it with java -jar elasticmq-server-0.15.2.jar.
+ * NOTE: The tests start an embedded SQS server on localhost:9324 unless a local
+ *       instance of elasticMQ is already running there.
  */
 
 package com.example.sqs.deadletterqueue;
 
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.sqs.AmazonSQSAsyncClient;
+import com.example.sqs.server.LocalSqs;
 import org.junit.Before;
 import org.junit.Test;
 import software.amazon.awssdk.regions.Region;
@@ -35,7 +36,8 @@ public class DeadLetterQueueTest
     @SuppressWarnings("deprecation")
     @Before
     public void setUp() {
-        // Accessing SQS service using ElasticMQ on local host
+        // Accessing SQS service on local host, embedded or ElasticMQ
+        LocalSqs.start();
         BasicAWSCredentials credentials = new BasicAWSCredentials("x", "x");
         sqs = new AmazonSQSAsyncClient(credentials).withEndpoint("http://localhost:9324");
         com.amazonaws.services.sqs.model.CreateQueueRequest createQueueRequest = new com.amazonaws.services.sqs.model.CreateQueueRequest("MyQueue");
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.deadletterqueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.example.sqs.DeadLetterRedriver;
+import com.example.sqs.EmbeddedSqsServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+
+public class DeadLetterRedriverTest {
+
+    private EmbeddedSqsServer server;
+    private SqsClient sqs;
+    private String sourceUrl;
+    private String deadLetterUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        server = EmbeddedSqsServer.builder().build().start();
+        sqs = SqsClient.builder()
+                .endpointOverride(server.endpoint())
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("x", "x")))
+                .build();
+        deadLetterUrl = sqs.createQueue(r -> r.queueName("orders-dlq")).queueUrl();
+        String arn = sqs.getQueueAttributes(r -> r.queueUrl(deadLetterUrl).attributeNames(QueueAttributeName.QUEUE_ARN))
+                .attributes().get(QueueAttributeName.QUEUE_ARN);
+        sourceUrl = sqs.createQueue(r -> r.queueName("orders")).queueUrl();
+        sqs.setQueueAttributes(r -> r.queueUrl(sourceUrl).attributesWithStrings(Collections.singletonMap(
+                "RedrivePolicy", "{\"maxReceiveCount\":\"3\",\"deadLetterTargetArn\":\"" + arn + "\"}")));
+    }
+
+    @After
+    public void tearDown() {
+        sqs.close();
+        server.close();
+    }
+
+    private void deadLetter(int count, String prefix) {
+        for (int i = 0; i < count; i += 10) {
+            List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+            for (int j = i; j < Math.min(count, i + 10); j++) {
+                entries.add(SendMessageBatchRequestEntry.builder()
+                        .id("e" + j)
+                        .messageBody(prefix + j)
+                        .messageAttributes(Collections.singletonMap("tenant", MessageAttributeValue.builder()
+                                .dataType("String").stringValue("t" + (j % 3)).build()))
+                        .build());
+            }
+            sqs.sendMessageBatch(r -> r.queueUrl(deadLetterUrl).entries(entries));
+        }
+    }
+
+    private List<Message> drain(String queueUrl) {
+        List<Message> all = new ArrayList<>();
+        List<Message> batch;
+        while (!(batch = sqs.receiveMessage(r -> r.queueUrl(queueUrl).maxNumberOfMessages(10)
+                .messageAttributeNames("All")).messages()).isEmpty()) {
+            all.addAll(batch);
+        }
+        return all;
+    }
+
+    private long depth(String queueUrl, QueueAttributeName name) {
+        return Long.parseLong(sqs.getQueueAttributes(r -> r.queueUrl(queueUrl).attributeNames(name))
+                .attributes().get(name));
+    }
+
+    private DeadLetterRedriver.Builder redriver() {
+        return DeadLetterRedriver.builder().client(sqs).sourceQueueUrl(deadLetterUrl)
+                .receivers(4).waitTimeSeconds(0);
+    }
+
+    @Test
+    public void testMovesEverythingBackToTheSourceQueue() throws Exception {
+        deadLetter(250, "order ");
+
+        DeadLetterRedriver.Result result = redriver().build().run();
+
+        assertEquals(250, result.moved());
+        assertEquals(0, result.sendFailures() + result.deleteFailures());
+        assertEquals(0, depth(deadLetterUrl, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES)
+                + depth(deadLetterUrl, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE));
+        Set<String> bodies = new HashSet<>();
+        for (Message message : drain(sourceUrl)) {
+            bodies.add(message.body());
+            int n = Integer.parseInt(message.body().substring("order ".length()));
+            assertEquals("t" + (n % 3), message.messageAttributes().get("tenant").stringValue());
+        }
+        assertEquals(250, bodies.size());
+    }
+
+    @Test
+    public void testFilterAndLimitLeaveTheRestInTheDeadLetterQueue() throws Exception {
+        deadLetter(40, "keep ");
+        deadLetter(20, "drop ");
+
+        DeadLetterRedriver.Result result = redriver()
+                .filter(message -> message.body().startsWith("keep "))
+                .maxMessages(25)
+                .build().run();
+
+        assertEquals(25, result.moved());
+        assertEquals(25, drain(sourceUrl).size());
+        assertEquals(35, depth(deadLetterUrl, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES)
+                + depth(deadLetterUrl, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE));
+    }
+
+    @Test
+    public void testRejectedEntriesStayInTheDeadLetterQueue() throws Exception {
+        String smallUrl = sqs.createQueue(r -> r.queueName("small")
+                .attributesWithStrings(Collections.singletonMap("MaximumMessageSize", "1024"))).queueUrl();
+        deadLetter(15, "small ");
+        StringBuilder big = new StringBuilder();
+        while (big.length() < 2000) {
+            big.append("large message ");
+        }
+        sqs.sendMessage(r -> r.queueUrl(deadLetterUrl).messageBody(big.toString()));
+
+        DeadLetterRedriver.Result result = redriver().targetQueueUrl(smallUrl).build().run();
+
+        assertEquals(15, result.moved());
+        assertEquals(1, result.sendFailures());
+        assertEquals(15, drain(smallUrl).size());
+        // Not deleted, only hidden until the visibility timeout runs out.
+        assertEquals(0, depth(deadLetterUrl, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES));
+        assertEquals(1, depth(deadLetterUrl, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE));
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        deadLetter(60, "order ");
+
+        long start = System.nanoTime();
+        DeadLetterRedriver.Result result = redriver().maxMessagesPerSecond(100).build().run();
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(60, result.moved());
+        // The first batch goes at once; the other 50 messages take half a second at 100 a second.
+        assertTrue("took " + millis + " ms", millis >= 450);
+    }
+
+    @Test
+    public void testTargetMustBeUnambiguous() throws Exception {
+        String arn = sqs.getQueueAttributes(r -> r.queueUrl(deadLetterUrl).attributeNames(QueueAttributeName.QUEUE_ARN))
+                .attributes().get(QueueAttributeName.QUEUE_ARN);
+        String otherUrl = sqs.createQueue(r -> r.queueName("payments")).queueUrl();
+        sqs.setQueueAttributes(r -> r.queueUrl(otherUrl).attributesWithStrings(Collections.singletonMap(
+                "RedrivePolicy", "{\"maxReceiveCount\":\"3\",\"deadLetterTargetArn\":\"" + arn + "\"}")));
+        try {
+            redriver().build().run();
+            fail("redrove a queue with two sources");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().contains("2 queues"));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.server;
+
+import com.example.sqs.EmbeddedSqsServer;
+import org.junit.rules.ExternalResource;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.SqsClient;
+
+/**
+ * An embedded server on a free port with a sync and an async client for it. Used as a {@code @ClassRule}, one
+ * server and client pair serves all tests of a class; starting and closing the async client takes seconds.
+ */
+public final class EmbeddedSqs extends ExternalResource {
+
+    private EmbeddedSqsServer server;
+    private SqsClient client;
+    private SqsAsyncClient asyncClient;
+
+    @Override
+    protected void before() throws Throwable {
+        server = EmbeddedSqsServer.builder().build().start();
+        StaticCredentialsProvider credentials = StaticCredentialsProvider.create(AwsBasicCredentials.create("x", "x"));
+        client = SqsClient.builder()
+                .endpointOverride(server.endpoint()).region(Region.US_EAST_1).credentialsProvider(credentials)
+                .build();
+        asyncClient = SqsAsyncClient.builder()
+                .endpointOverride(server.endpoint()).region(Region.US_EAST_1).credentialsProvider(credentials)
+                .build();
+    }
+
+    @Override
+    protected void after() {
+        asyncClient.close();
+        client.close();
+        server.close();
+    }
+
+    public SqsClient client() {
+        return client;
+    }
+
+    public SqsAsyncClient asyncClient() {
+        return asyncClient;
+    }
+}
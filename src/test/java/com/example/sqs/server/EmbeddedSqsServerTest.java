@@ -0,0 +1,223 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
+import com.example.sqs.EmbeddedSqsServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.QueueDoesNotExistException;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+public class EmbeddedSqsServerTest {
+
+    private EmbeddedSqsServer server;
+    private SqsClient sqs;
+
+    @Before
+    public void setUp() throws Exception {
+        server = EmbeddedSqsServer.builder().build().start();
+        sqs = SqsClient.builder()
+                .endpointOverride(server.endpoint())
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("x", "x")))
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        sqs.close();
+        server.close();
+    }
+
+    private List<Message> receive(String queueUrl, int visibilityTimeout) {
+        return sqs.receiveMessage(r -> r.queueUrl(queueUrl).maxNumberOfMessages(10)
+                .visibilityTimeout(visibilityTimeout)
+                .attributeNames(QueueAttributeName.ALL)
+                .messageAttributeNames("All")).messages();
+    }
+
+    private int attribute(String queueUrl, QueueAttributeName name) {
+        return Integer.parseInt(sqs.getQueueAttributes(r -> r.queueUrl(queueUrl).attributeNames(name))
+                .attributes().get(name));
+    }
+
+    @Test
+    public void testBatchRoundTripWithAttributes() {
+        String queueUrl = sqs.createQueue(r -> r.queueName("round-trip")).queueUrl();
+        assertEquals(server.queueUrl("round-trip"), queueUrl);
+
+        Map<String, MessageAttributeValue> attributes = new HashMap<>();
+        attributes.put("trace", MessageAttributeValue.builder().dataType("String").stringValue("abc").build());
+        attributes.put("blob", MessageAttributeValue.builder().dataType("Binary")
+                .binaryValue(SdkBytes.fromByteArray(new byte[] {1, 2, 3})).build());
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            // Carriage returns and markup must survive the XML response unchanged, or the SDK's MD5 check fails.
+            entries.add(SendMessageBatchRequestEntry.builder().id("e" + i)
+                    .messageBody("line <" + i + ">\r\n& more").messageAttributes(attributes).build());
+        }
+        assertEquals(10, sqs.sendMessageBatch(r -> r.queueUrl(queueUrl).entries(entries)).successful().size());
+
+        List<Message> received = new ArrayList<>();
+        while (received.size() < 10) {
+            received.addAll(receive(queueUrl, 30));
+        }
+        List<DeleteMessageBatchRequestEntry> deletes = new ArrayList<>();
+        for (Message message : received) {
+            assertTrue(message.body().endsWith("\r\n& more"));
+            assertEquals("abc", message.messageAttributes().get("trace").stringValue());
+            assertEquals("1", message.attributes().get(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT));
+            deletes.add(DeleteMessageBatchRequestEntry.builder().id(message.messageId())
+                    .receiptHandle(message.receiptHandle()).build());
+        }
+        assertEquals(10, sqs.deleteMessageBatch(r -> r.queueUrl(queueUrl).entries(deletes)).successful().size());
+        assertEquals(0, attribute(queueUrl, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES));
+        assertEquals(0, attribute(queueUrl, QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE));
+    }
+
+    @Test
+    public void testSdkV1UsesPathStyleQueueUrls() {
+        AmazonSQS v1 = AmazonSQSClientBuilder.standard()
+                .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(server.endpoint().toString(), "us-east-1"))
+                .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("x", "x")))
+                .build();
+        String queueUrl = v1.createQueue("v1-queue").getQueueUrl();
+        v1.sendMessage(new com.amazonaws.services.sqs.model.SendMessageRequest(queueUrl, "hello")
+                .addMessageAttributesEntry("kind", new com.amazonaws.services.sqs.model.MessageAttributeValue()
+                        .withDataType("String").withStringValue("greeting")));
+        List<com.amazonaws.services.sqs.model.Message> messages = v1.receiveMessage(
+                new com.amazonaws.services.sqs.model.ReceiveMessageRequest(queueUrl).withMessageAttributeNames("All")).getMessages();
+        assertEquals(1, messages.size());
+        assertEquals("greeting", messages.get(0).getMessageAttributes().get("kind").getStringValue());
+        v1.deleteMessage(queueUrl, messages.get(0).getReceiptHandle());
+        assertEquals(Collections.singletonList(queueUrl), v1.listQueues("v1-").getQueueUrls());
+        v1.shutdown();
+    }
+
+    @Test
+    public void testVisibilityTimeoutHidesAndChangeVisibilityReleases() {
+        String queueUrl = sqs.createQueue(r -> r.queueName("visibility")).queueUrl();
+        sqs.sendMessage(r -> r.queueUrl(queueUrl).messageBody("once"));
+        Message first = receive(queueUrl, 60).get(0);
+        assertTrue(receive(queueUrl, 60).isEmpty());
+
+        ChangeMessageVisibilityBatchResponse response = sqs.changeMessageVisibilityBatch(r -> r.queueUrl(queueUrl).entries(
+                ChangeMessageVisibilityBatchRequestEntry.builder()
+                        .id("valid").receiptHandle(first.receiptHandle()).visibilityTimeout(0).build(),
+                ChangeMessageVisibilityBatchRequestEntry.builder()
+                        .id("invalid").receiptHandle("bogus").visibilityTimeout(0).build()));
+        assertEquals(1, response.successful().size());
+        assertEquals("ReceiptHandleIsInvalid", response.failed().get(0).code());
+        assertTrue(response.failed().get(0).senderFault());
+
+        Message second = receive(queueUrl, 60).get(0);
+        assertEquals(first.messageId(), second.messageId());
+        assertEquals("2", second.attributes().get(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT));
+    }
+
+    @Test
+    public void testRedrivePolicyMovesMessagesToDeadLetterQueue() {
+        String deadLetterUrl = sqs.createQueue(r -> r.queueName("dead-letters")).queueUrl();
+        String deadLetterArn = sqs.getQueueAttributes(r -> r.queueUrl(deadLetterUrl).attributeNames(QueueAttributeName.QUEUE_ARN))
+                .attributes().get(QueueAttributeName.QUEUE_ARN);
+        Map<QueueAttributeName, String> attributes = Collections.singletonMap(QueueAttributeName.REDRIVE_POLICY,
+                "{\"maxReceiveCount\":\"2\", \"deadLetterTargetArn\":\"" + deadLetterArn + "\"}");
+        String queueUrl = sqs.createQueue(r -> r.queueName("source").attributes(attributes)).queueUrl();
+
+        sqs.sendMessage(r -> r.queueUrl(queueUrl).messageBody("poison"));
+        assertEquals(1, receive(queueUrl, 0).size());
+        assertEquals(1, receive(queueUrl, 0).size());
+        assertTrue(receive(queueUrl, 0).isEmpty());
+
+        List<Message> dead = receive(deadLetterUrl, 30);
+        assertEquals(1, dead.size());
+        assertEquals("poison", dead.get(0).body());
+        assertEquals(Collections.singletonList(queueUrl),
+                sqs.listDeadLetterSourceQueues(r -> r.queueUrl(deadLetterUrl)).queueUrls());
+    }
+
+    @Test
+    public void testLongPollReturnsWhenMessageArrives() throws Exception {
+        String queueUrl = sqs.createQueue(r -> r.queueName("long-poll")).queueUrl();
+        long start = System.nanoTime();
+        CompletableFuture<List<Message>> poll = CompletableFuture.supplyAsync(() ->
+                sqs.receiveMessage(r -> r.queueUrl(queueUrl).waitTimeSeconds(10)).messages());
+        Thread.sleep(200);
+        sqs.sendMessage(r -> r.queueUrl(queueUrl).messageBody("late"));
+        assertEquals("late", poll.get().get(0).body());
+        assertTrue((System.nanoTime() - start) / 1000000 < 5000);
+    }
+
+    @Test
+    public void testBatchSizeLimitCountsAttributes() {
+        String queueUrl = sqs.createQueue(r -> r.queueName("batch-size")).queueUrl();
+        char[] chars = new char[100 * 1024];
+        Arrays.fill(chars, 'x');
+        String body = new String(chars);
+        MessageAttributeValue attribute = MessageAttributeValue.builder()
+                .dataType("String").stringValue(body.substring(0, 30 * 1024)).build();
+        // The bodies alone fit in 256 KB; with their attributes they do not.
+        try {
+            sqs.sendMessageBatch(r -> r.queueUrl(queueUrl).entries(
+                    SendMessageBatchRequestEntry.builder().id("a").messageBody(body)
+                            .messageAttributes(Collections.singletonMap("extra", attribute)).build(),
+                    SendMessageBatchRequestEntry.builder().id("b").messageBody(body)
+                            .messageAttributes(Collections.singletonMap("extra", attribute)).build()));
+            fail("Expected the batch to be rejected");
+        } catch (SqsException e) {
+            assertEquals("AWS.SimpleQueueService.BatchRequestTooLong", e.awsErrorDetails().errorCode());
+        }
+        assertEquals(2, sqs.sendMessageBatch(r -> r.queueUrl(queueUrl).entries(
+                SendMessageBatchRequestEntry.builder().id("a").messageBody(body).build(),
+                SendMessageBatchRequestEntry.builder().id("b").messageBody(body).build())).successful().size());
+    }
+
+    @Test(expected = QueueDoesNotExistException.class)
+    public void testUnknownQueue() {
+        sqs.getQueueUrl(r -> r.queueName("missing"));
+    }
+}
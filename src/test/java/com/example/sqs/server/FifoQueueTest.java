@@ -0,0 +1,186 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.example.sqs.BatchingProducer;
+import com.example.sqs.EmbeddedSqsServer;
+import com.example.sqs.QueueResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+public class FifoQueueTest {
+
+    private EmbeddedSqsServer server;
+    private SqsClient sqs;
+
+    @Before
+    public void setUp() throws Exception {
+        server = EmbeddedSqsServer.builder().build().start();
+        sqs = SqsClient.builder()
+                .endpointOverride(server.endpoint())
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("x", "x")))
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        sqs.close();
+        server.close();
+    }
+
+    private List<Message> receive(String queueUrl, int max) {
+        return sqs.receiveMessage(r -> r.queueUrl(queueUrl).maxNumberOfMessages(max).attributeNamesWithStrings("All"))
+                .messages();
+    }
+
+    @Test
+    public void testFifoNameAndAttributeMustAgree() {
+        try {
+            sqs.createQueue(r -> r.queueName("orders.fifo"));
+            fail("created a .fifo queue without FifoQueue");
+        } catch (SqsException e) {
+            assertEquals("InvalidParameterValue", e.awsErrorDetails().errorCode());
+        }
+        String queueUrl = new QueueResolver(sqs).createFifoQueue("orders.fifo", true);
+        Map<QueueAttributeName, String> attributes = sqs.getQueueAttributes(r -> r.queueUrl(queueUrl)
+                .attributeNames(QueueAttributeName.ALL)).attributes();
+        assertEquals("true", attributes.get(QueueAttributeName.FIFO_QUEUE));
+        assertEquals("true", attributes.get(QueueAttributeName.CONTENT_BASED_DEDUPLICATION));
+        // Creating it again with the same attributes returns the same queue.
+        assertEquals(queueUrl, new QueueResolver(sqs).createFifoQueue("orders.fifo", true));
+    }
+
+    @Test
+    public void testSendRequiresGroupAndDeduplication() {
+        String queueUrl = new QueueResolver(sqs).createFifoQueue("strict.fifo", false);
+        try {
+            sqs.sendMessage(r -> r.queueUrl(queueUrl).messageBody("no group").messageDeduplicationId("d"));
+            fail("sent without a message group");
+        } catch (SqsException e) {
+            assertEquals("MissingParameter", e.awsErrorDetails().errorCode());
+        }
+        try {
+            sqs.sendMessage(r -> r.queueUrl(queueUrl).messageBody("no id").messageGroupId("g"));
+            fail("sent without a deduplication id");
+        } catch (SqsException e) {
+            assertEquals("InvalidParameterValue", e.awsErrorDetails().errorCode());
+        }
+    }
+
+    @Test
+    public void testDuplicatesAreAcceptedButDeliveredOnce() {
+        String queueUrl = new QueueResolver(sqs).createFifoQueue("dedup.fifo", true);
+        SendMessageResponse first = sqs.sendMessage(r -> r.queueUrl(queueUrl).messageBody("same").messageGroupId("g"));
+        SendMessageResponse again = sqs.sendMessage(r -> r.queueUrl(queueUrl).messageBody("same").messageGroupId("g"));
+        sqs.sendMessage(r -> r.queueUrl(queueUrl).messageBody("other").messageGroupId("g")
+                .messageDeduplicationId("explicit"));
+        sqs.sendMessage(r -> r.queueUrl(queueUrl).messageBody("other again").messageGroupId("g")
+                .messageDeduplicationId("explicit"));
+
+        assertEquals(first.messageId(), again.messageId());
+        assertEquals(first.sequenceNumber(), again.sequenceNumber());
+        List<Message> messages = receive(queueUrl, 10);
+        assertEquals(2, messages.size());
+        assertEquals("same", messages.get(0).body());
+        assertEquals("other", messages.get(1).body());
+        assertEquals("explicit", messages.get(1).attributes().get(MessageSystemAttributeName.MESSAGE_DEDUPLICATION_ID));
+    }
+
+    @Test
+    public void testGroupIsHeldBackWhileInFlightAndRedeliveredInOrder() {
+        String queueUrl = new QueueResolver(sqs).createFifoQueue("groups.fifo", true);
+        for (int i = 0; i < 3; i++) {
+            String body = "a" + i;
+            sqs.sendMessage(r -> r.queueUrl(queueUrl).messageBody(body).messageGroupId("a"));
+        }
+        sqs.sendMessage(r -> r.queueUrl(queueUrl).messageBody("b0").messageGroupId("b"));
+
+        List<Message> first = receive(queueUrl, 2);
+        assertEquals("a0", first.get(0).body());
+        assertEquals("a1", first.get(1).body());
+        assertEquals("a", first.get(0).attributes().get(MessageSystemAttributeName.MESSAGE_GROUP_ID));
+        assertTrue(first.get(0).attributes().get(MessageSystemAttributeName.SEQUENCE_NUMBER)
+                .compareTo(first.get(1).attributes().get(MessageSystemAttributeName.SEQUENCE_NUMBER)) < 0);
+
+        // Group a is locked by its in-flight messages, so a2 waits even though it is first in the queue.
+        List<Message> second = receive(queueUrl, 10);
+        assertEquals(1, second.size());
+        assertEquals("b0", second.get(0).body());
+
+        // a0 is done but a1 is handed back: it comes again before a2.
+        sqs.deleteMessage(r -> r.queueUrl(queueUrl).receiptHandle(first.get(0).receiptHandle()));
+        sqs.changeMessageVisibility(r -> r.queueUrl(queueUrl).receiptHandle(first.get(1).receiptHandle())
+                .visibilityTimeout(0));
+        List<Message> third = receive(queueUrl, 10);
+        assertEquals(2, third.size());
+        assertEquals("a1", third.get(0).body());
+        assertEquals("2", third.get(0).attributes().get(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT));
+        assertEquals("a2", third.get(1).body());
+    }
+
+    @Test
+    public void testProducerKeepsGroupOrder() throws Exception {
+        String queueUrl = new QueueResolver(sqs).createFifoQueue("produced.fifo", true);
+        List<CompletableFuture<SendMessageBatchResultEntry>> sent = new ArrayList<>();
+        try (BatchingProducer producer = BatchingProducer.builder().client(sqs).queueUrl(queueUrl).senderThreads(4)
+                .build()) {
+            for (int i = 0; i < 95; i++) {
+                sent.add(producer.send("m" + i, "group-" + (i % 3)));
+            }
+        }
+        for (CompletableFuture<SendMessageBatchResultEntry> future : sent) {
+            assertNotNull(future.join().sequenceNumber());
+        }
+
+        int[] next = {0, 1, 2};
+        List<Message> messages;
+        while (!(messages = receive(queueUrl, 10)).isEmpty()) {
+            for (Message message : messages) {
+                int i = Integer.parseInt(message.body().substring(1));
+                int group = i % 3;
+                assertEquals("group-" + group, message.attributes().get(MessageSystemAttributeName.MESSAGE_GROUP_ID));
+                assertEquals(next[group], i);
+                next[group] = i + 3;
+                sqs.deleteMessage(r -> r.queueUrl(queueUrl).receiptHandle(message.receiptHandle()));
+            }
+        }
+        assertEquals(96, next[0]);
+        assertEquals(97, next[1]);
+        assertEquals(95, next[2]);
+    }
+}
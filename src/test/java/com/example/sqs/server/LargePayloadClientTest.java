@@ -0,0 +1,167 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.example.sqs.EmbeddedSqsServer;
+import com.example.sqs.FileBlobStore;
+import com.example.sqs.LargePayloadClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+public class LargePayloadClientTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedSqsServer server;
+    private SqsClient sqs;
+    private FileBlobStore store;
+    private LargePayloadClient client;
+    private String queueUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        server = EmbeddedSqsServer.builder().build().start();
+        sqs = SqsClient.builder()
+                .endpointOverride(server.endpoint())
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("x", "x")))
+                .build();
+        store = new FileBlobStore(folder.getRoot().toPath().resolve("blobs"));
+        client = LargePayloadClient.builder().client(sqs).blobStore(store).build();
+        queueUrl = sqs.createQueue(r -> r.queueName("large")).queueUrl();
+    }
+
+    @After
+    public void tearDown() {
+        sqs.close();
+        server.close();
+    }
+
+    private Message receiveOne() {
+        List<Message> messages = client.receive(ReceiveMessageRequest.builder().queueUrl(queueUrl).build());
+        assertEquals(1, messages.size());
+        return messages.get(0);
+    }
+
+    private static byte[] payload(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        return data;
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7000];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testMultiMegabyteBodyIsOffloadedAndStreamedBack() throws Exception {
+        byte[] data = payload(3 * 1024 * 1024 + 17);
+        client.send(queueUrl, new ByteArrayInputStream(data), data.length);
+
+        Message message = receiveOne();
+        assertTrue(client.isOffloaded(message));
+        assertEquals(data.length, client.bodySize(message));
+        try (InputStream body = client.openBody(message)) {
+            assertArrayEquals(data, readAll(body));
+        }
+
+        client.delete(queueUrl, message);
+        try (Stream<Path> files = Files.list(store.directory())) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testSmallBodyIsSentInline() throws Exception {
+        client.send(SendMessageRequest.builder().queueUrl(queueUrl).messageBody("small").build());
+
+        Message message = receiveOne();
+        assertFalse(client.isOffloaded(message));
+        assertEquals("small", client.readBody(message));
+        client.delete(queueUrl, message);
+    }
+
+    @Test
+    public void testBodyJustOverTheLimitRoundTripsAsString() throws Exception {
+        String body = new String(payload(256 * 1024 + 1), StandardCharsets.UTF_8);
+        client.send(SendMessageRequest.builder().queueUrl(queueUrl).messageBody(body).build());
+
+        Message message = receiveOne();
+        assertTrue(client.isOffloaded(message));
+        assertEquals(body, client.readBody(message));
+    }
+
+    @Test
+    public void testMappedStreamSkipsAndReportsAvailable() throws Exception {
+        byte[] data = payload(10000);
+        String key = store.put(data);
+        try (InputStream in = store.open(key)) {
+            assertEquals(10000, in.available());
+            assertEquals(data[0], in.read());
+            assertEquals(5000, in.skip(5000));
+            assertArrayEquals(Arrays.copyOfRange(data, 5001, 10000), readAll(in));
+            assertEquals(-1, in.read());
+        }
+        store.delete(key);
+        store.delete(key);
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void testOpeningDeletedBlobFails() throws Exception {
+        String key = store.put(payload(10));
+        store.delete(key);
+        store.open(key);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsKeysThatAreNotBlobKeys() throws Exception {
+        store.open("../../etc/passwd");
+    }
+}
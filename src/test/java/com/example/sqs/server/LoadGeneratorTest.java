@@ -0,0 +1,65 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+
+import com.example.sqs.LoadGenerator;
+import org.junit.Test;
+
+public class LoadGeneratorTest {
+
+    private static LoadGenerator.Report run(String... options) throws Exception {
+        LoadGenerator.Builder builder = LoadGenerator.builder()
+                .warmup(Duration.ZERO)
+                .duration(Duration.ofSeconds(2))
+                .reportInterval(Duration.ofSeconds(1))
+                .out(new PrintStream(new ByteArrayOutputStream()));
+        for (String option : options) {
+            builder.option(option);
+        }
+        return builder.build().run();
+    }
+
+    @Test
+    public void testMeasuresAgainstEmbeddedServer() throws Exception {
+        LoadGenerator.Report report = run("--producers=2", "--consumers=2", "--size=64-512", "--wait=1");
+
+        assertTrue(report.sentMessages() > 0);
+        assertTrue(report.receivedMessages() > 0);
+        assertEquals(0, report.errors());
+        assertTrue(report.sendLatency().getTotalCount() > 0);
+        assertTrue(report.endToEndLatency().getTotalCount() > 0);
+    }
+
+    @Test
+    public void testV1AsyncClientWithSingleMessageActions() throws Exception {
+        LoadGenerator.Report report = run("--client=v1-async", "--batch=1", "--size=32:3,256:1", "--pipeline=2");
+
+        assertTrue(report.receivedMessages() > 0);
+        assertEquals(0, report.errors());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsBatchOverPayloadLimit() {
+        LoadGenerator.builder().option("--batch=10").option("--size=100000").build();
+    }
+}
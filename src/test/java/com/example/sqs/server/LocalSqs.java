@@ -0,0 +1,52 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.BindException;
+
+import com.example.sqs.EmbeddedSqsServer;
+
+/**
+ * The endpoint the functional tests talk to. The first call starts an embedded server on ElasticMQ's port,
+ * shared by every test in the JVM; if something already listens there, e.g. a manually started ElasticMQ,
+ * that is used instead.
+ */
+public final class LocalSqs {
+
+    public static final int PORT = 9324;
+    public static final String ENDPOINT = "http://localhost:" + PORT;
+
+    private static EmbeddedSqsServer server;
+    private static boolean external;
+
+    private LocalSqs() {
+    }
+
+    public static synchronized void start() {
+        if (server != null || external) {
+            return;
+        }
+        try {
+            server = EmbeddedSqsServer.builder().port(PORT).build().start();
+        } catch (BindException e) {
+            external = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2011-2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.sqs.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import com.example.sqs.EmbeddedSqsServer;
+import com.example.sqs.QueueTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueueToolsTest {
+
+    private EmbeddedSqsServer server;
+    private PrintStream originalOut;
+    private ByteArrayOutputStream out;
+
+    @Before
+    public void setUp() throws Exception {
+        server = EmbeddedSqsServer.builder().build().start();
+        originalOut = System.out;
+        out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true, "UTF-8"));
+    }
+
+    @After
+    public void tearDown() {
+        System.setOut(originalOut);
+        server.close();
+    }
+
+    private String run(String... args) throws Exception {
+        out.reset();
+        String[] withEndpoint = new String[args.length + 1];
+        withEndpoint[0] = "--endpoint=" + server.endpoint();
+        System.arraycopy(args, 0, withEndpoint, 1, args.length);
+        QueueTools.main(withEndpoint);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8).trim();
+    }
+
+    @Test
+    public void testMaintenanceCommands() throws Exception {
+        String url = run("create", "tools");
+        assertTrue(url, url.endsWith("/tools"));
+        run("send", "tools", "one");
+        run("send", url, "two");
+        assertEquals("visible=2 inflight=0 delayed=0", run("depth", "tools"));
+        assertEquals(url, run("list", "to"));
+
+        run("create", "tools-dlq");
+        run("send", "tools-dlq", "three");
+        assertEquals("moved=1 skipped=0 sendFailures=0 deleteFailures=0", run("redrive", "tools-dlq", "tools"));
+        assertEquals("visible=3 inflight=0 delayed=0", run("depth", "tools"));
+        run("delete", "tools-dlq");
+
+        run("purge", "tools");
+        assertEquals("visible=0 inflight=0 delayed=0", run("depth", url));
+        run("delete", "tools");
+        assertEquals("", run("list"));
+    }
+}
@@ -12,8 +12,8 @@
  * License for the specific language governing permissions and
  * limitations under the License.
  *
- * NOTE: Before running the test case, please run a local instance of elasticMQ
- *       download a execute it with java -jar elasticmq-server-0.15.2.jar.
+ * NOTE: The tests start an embedded SQS server on localhost:9324 unless a local
+ *       instance of elasticMQ is already running there.
  */
 
 package com.example.sqs.simplequeue;
@@ -21,6 +21,7 @@ package com.example.sqs.simplequeue;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.sqs.AmazonSQSAsyncClient;
 import com.amazonaws.services.sqs.model.*;
+import com.example.sqs.server.LocalSqs;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -33,9 +34,11 @@ public class SimpleQueueMessageIdLengthTest {
     private String myQueueUrl;
     private List<Message> messages;
 
+    @SuppressWarnings("deprecation")
     @Before
     public void setUp() {
-        // Accessing SQS service using ElasticMQ on local host
+        // Accessing SQS service on local host, embedded or ElasticMQ
+        LocalSqs.start();
         BasicAWSCredentials credentials = new BasicAWSCredentials("x", "x");
         sqs = new AmazonSQSAsyncClient(credentials).withEndpoint("http://localhost:9324");
         CreateQueueRequest createQueueRequest =
@@ -12,8 +12,8 @@
  * License for the specific language governing permissions and
  * limitations under the License.
  *
- * NOTE: Before running the test case, please run a local instance of elasticMQ
- *       download a execute it with java -jar elasticmq-server-0.15.2.jar.
+ * NOTE: The tests start an embedded SQS server on localhost:9324 unless a local
+ *       instance of elasticMQ is already running there.
  */
 
 package com.example.sqs.simplequeue;
@@ -21,11 +21,14 @@ package com.example.sqs.simplequeue;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.sqs.AmazonSQSAsyncClient;
 import com.amazonaws.services.sqs.model.*;
+import com.example.sqs.server.LocalSqs;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.List;
 
+import static org.junit.Assert.assertFalse;
+
 
 public class SimpleQueueReceiptHandleLengthTest {
 
@@ -33,9 +36,11 @@ public class SimpleQueueReceiptHandleLengthTest {
     private String myQueueUrl;
     private List<Message> messages;
 
+    @SuppressWarnings("deprecation")
     @Before
     public void setUp() {
-        // Accessing SQS service using ElasticMQ on local host
+        // Accessing SQS service on local host, embedded or ElasticMQ
+        LocalSqs.start();
         BasicAWSCredentials credentials = new BasicAWSCredentials("x", "x");
         sqs = new AmazonSQSAsyncClient(credentials).withEndpoint("http://localhost:9324");
         CreateQueueRequest createQueueRequest =
@@ -52,6 +57,8 @@ public class SimpleQueueReceiptHandleLengthTest {
 
     @Test
     public void testReceiptHandleLengthLimit() {
+        // Sends its own message; the queue may be fresh when this test runs first.
+        sqs.sendMessage(new SendMessageRequest(myQueueUrl, "This is my message text."));
         ReceiveMessageRequest receiveMessageRequest = new ReceiveMessageRequest(myQueueUrl);
         // Set WaitTimeSeconds to 10 seconds for polling for message
         receiveMessageRequest.setWaitTimeSeconds(10);
@@ -70,11 +77,8 @@ public class SimpleQueueReceiptHandleLengthTest {
         System.out.println("Receipt handle length has not exceeded 1024 characters for any of the receipt handles");
 
         System.out.println("Deleting message in MyQueue\n");
-        try {
-            sqs.deleteMessage(new DeleteMessageRequest(myQueueUrl, messages.get(0).getReceiptHandle()));
-        } catch (NullPointerException e) {
-            System.out.println("No more message in MyQueue");
-        }
+        assertFalse("no message received", messages.isEmpty());
+        sqs.deleteMessage(new DeleteMessageRequest(myQueueUrl, messages.get(0).getReceiptHandle()));
 
         System.out.println("Purging MyQueue.\n");
         sqs.purgeQueue(new PurgeQueueRequest(myQueueUrl));
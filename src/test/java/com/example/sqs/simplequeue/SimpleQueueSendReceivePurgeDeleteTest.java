@@ -12,8 +12,8 @@
  * License for the specific language governing permissions and
  * limitations under the License.
  *
- * NOTE: Before running the test case, please run a local instance of elasticMQ
- *       download a execute it with java -jar elasticmq-server-0.15.2.jar.
+ * NOTE: The tests start an embedded SQS server on localhost:9324 unless a local
+ *       instance of elasticMQ is already running there.
  */
 
 package com.example.sqs.simplequeue;
@@ -27,6 +27,7 @@ import com.amazonaws.services.sqs.model.Message;
 import com.amazonaws.services.sqs.model.PurgeQueueRequest;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
 import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.example.sqs.server.LocalSqs;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -39,7 +40,8 @@ public class SimpleQueueSendReceivePurgeDeleteTest {
     @SuppressWarnings("deprecation")
     @Before
     public void setUp() {
-        // Accessing SQS service using ElasticMQ on local host
+        // Accessing SQS service on local host, embedded or ElasticMQ
+        LocalSqs.start();
         BasicAWSCredentials credentials = new BasicAWSCredentials("x", "x");
         sqs = new AmazonSQSAsyncClient(credentials).withEndpoint("http://localhost:9324");
         com.amazonaws.services.sqs.model.CreateQueueRequest createQueueRequest =